@@ -0,0 +1,252 @@
+package loci.formats;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads whole local files with many AsynchronousFileChannel reads outstanding at once, so that
+ * fast local and parallel file systems receive enough requests to keep their queues full.
+ * At most {@link #getMaxInFlight()} files are read at a time, further reads are queued without
+ * holding a thread. Files are read into buffers of a {@link BufferPool} that consumers return
+ * with {@link #release(ByteBuffer)} once the data has been decoded.
+ */
+public class AsyncFileReader implements Closeable {
+
+  protected static final Logger LOGGER = LoggerFactory.getLogger(AsyncFileReader.class);
+
+  public static final int DEFAULT_BUFFER_POOL_SIZE = 64;
+
+  private final int maxInFlight;
+  private final ExecutorService executor;
+  private final BufferPool bufferPool = new BufferPool(DEFAULT_BUFFER_POOL_SIZE);
+  private final Queue<PendingRead> queue = new ArrayDeque<PendingRead>();
+  private int inFlight = 0;
+  private boolean closed = false;
+
+  private static final class PendingRead {
+    final Path file;
+    final CompletableFuture<ByteBuffer> result;
+
+    PendingRead(Path file, CompletableFuture<ByteBuffer> result) {
+      this.file = file;
+      this.result = result;
+    }
+  }
+
+  /**
+   * @param maxInFlight maximum number of files read concurrently
+   */
+  public AsyncFileReader(int maxInFlight) {
+    this.maxInFlight = Math.max(1, maxInFlight);
+    // Completion handlers and, where the platform has no native asynchronous file I/O, the reads run here
+    executor = Executors.newFixedThreadPool(this.maxInFlight, runnable -> {
+      Thread thread = new Thread(runnable, "AsyncFileReader");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  public int getMaxInFlight() {
+    return maxInFlight;
+  }
+
+  public BufferPool getBufferPool() {
+    return bufferPool;
+  }
+
+  /**
+   * Sets the size of the pooled buffers, usually the uncompressed size of a chunk of the array being read
+   */
+  public void setBufferSize(int bufferSize) {
+    bufferPool.setBufferSize(bufferSize);
+  }
+
+  /**
+   * Queues a read of the whole file, cancelling the returned future drops the read if it has not started
+   * @return the content of the file, or null if it does not exist
+   */
+  public CompletableFuture<ByteBuffer> read(Path file) {
+    CompletableFuture<ByteBuffer> result = new CompletableFuture<ByteBuffer>();
+    synchronized (this) {
+      if (closed) {
+        result.completeExceptionally(new IOException("AsyncFileReader is closed"));
+        return result;
+      }
+      if (inFlight >= maxInFlight) {
+        queue.add(new PendingRead(file, result));
+        return result;
+      }
+      inFlight++;
+    }
+    start(new PendingRead(file, result));
+    return result;
+  }
+
+  /**
+   * Returns the buffer of data read by this reader to the pool, the data must no longer be used
+   */
+  public void release(ByteBuffer data) {
+    if (data != null && data.hasArray()) {
+      bufferPool.release(data.array());
+    }
+  }
+
+  @Override
+  public void close() {
+    synchronized (this) {
+      closed = true;
+      for (PendingRead pending : queue) {
+        pending.result.cancel(false);
+      }
+      queue.clear();
+    }
+    executor.shutdown();
+    try {
+      executor.awaitTermination(1, TimeUnit.SECONDS);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void start(PendingRead pending) {
+    while (pending != null) {
+      if (!pending.result.isDone()) {
+        try {
+          readFile(pending.file, pending.result);
+          return;
+        }
+        catch (NoSuchFileException e) {
+          pending.result.complete(null);
+        }
+        catch (IOException | RuntimeException e) {
+          pending.result.completeExceptionally(e);
+        }
+      }
+      pending = next();
+    }
+  }
+
+  /**
+   * @return the next queued read once a read has finished, or null if there is none
+   */
+  private PendingRead next() {
+    synchronized (this) {
+      PendingRead pending = queue.poll();
+      if (pending == null) {
+        inFlight--;
+      }
+      return pending;
+    }
+  }
+
+  private void finished() {
+    start(next());
+  }
+
+  private void readFile(Path file, CompletableFuture<ByteBuffer> result) throws IOException {
+    AsynchronousFileChannel channel = AsynchronousFileChannel.open(file,
+        Collections.singleton(StandardOpenOption.READ), executor);
+    long size;
+    try {
+      size = channel.size();
+      if (size > Integer.MAX_VALUE - 8) {
+        throw new IOException(file + " is too large to read");
+      }
+    }
+    catch (IOException e) {
+      closeChannel(channel, file);
+      throw e;
+    }
+    byte[] buffer = bufferPool.acquire((int) size);
+    ByteBuffer target = ByteBuffer.wrap(buffer, 0, (int) size);
+    if (size == 0) {
+      closeChannel(channel, file);
+      result.complete(target);
+      finished();
+      return;
+    }
+    channel.read(target, 0, 0L, new CompletionHandler<Integer, Long>() {
+      @Override
+      public void completed(Integer read, Long position) {
+        if (read < 0) {
+          failed(new EOFException("Unexpected end of " + file), position);
+          return;
+        }
+        long next = position + read;
+        if (target.hasRemaining() && !result.isDone()) {
+          channel.read(target, next, next, this);
+          return;
+        }
+        closeChannel(channel, file);
+        target.flip();
+        if (!result.complete(target)) {
+          bufferPool.release(buffer);
+        }
+        finished();
+      }
+
+      @Override
+      public void failed(Throwable error, Long position) {
+        closeChannel(channel, file);
+        bufferPool.release(buffer);
+        result.completeExceptionally(error);
+        finished();
+      }
+    });
+  }
+
+  private static void closeChannel(AsynchronousFileChannel channel, Path file) {
+    try {
+      channel.close();
+    }
+    catch (IOException e) {
+      LOGGER.debug("Unable to close {}", file, e);
+    }
+  }
+}
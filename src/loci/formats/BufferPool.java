@@ -0,0 +1,116 @@
+package loci.formats;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of equally sized byte arrays used to download chunks, so that reading
+ * many chunks of the same array does not allocate a new buffer for each chunk.
+ * Requests much smaller than the buffer size, such as metadata, are not pooled.
+ */
+public class BufferPool {
+
+  private final int maxBuffers;
+  private volatile int bufferSize;
+  private final ConcurrentLinkedDeque<byte[]> free = new ConcurrentLinkedDeque<byte[]>();
+  private final AtomicInteger freeCount = new AtomicInteger();
+
+  /**
+   * @param maxBuffers number of released buffers kept for reuse, 0 disables pooling
+   */
+  public BufferPool(int maxBuffers) {
+    this.maxBuffers = Math.max(0, maxBuffers);
+  }
+
+  public int getMaxBuffers() {
+    return maxBuffers;
+  }
+
+  /**
+   * Sets the size of pooled buffers, usually the uncompressed size of a chunk.
+   * Buffers of a previous size are discarded.
+   */
+  public void setBufferSize(int bufferSize) {
+    if (this.bufferSize != bufferSize) {
+      this.bufferSize = Math.max(0, bufferSize);
+      free.clear();
+      freeCount.set(0);
+    }
+  }
+
+  public int getBufferSize() {
+    return bufferSize;
+  }
+
+  /**
+   * @return the number of buffers available for reuse
+   */
+  public int getFreeCount() {
+    return freeCount.get();
+  }
+
+  /**
+   * @param length number of bytes needed
+   * @return an array of at least length bytes, taken from the pool if length is close to the buffer size
+   */
+  public byte[] acquire(int length) {
+    int size = bufferSize;
+    if (maxBuffers == 0 || length > size || length <= size / 2) {
+      return new byte[length];
+    }
+    byte[] buffer;
+    while ((buffer = free.pollFirst()) != null) {
+      freeCount.decrementAndGet();
+      if (buffer.length == size) {
+        return buffer;
+      }
+    }
+    return new byte[size];
+  }
+
+  /**
+   * Returns a buffer to the pool to be handed out by a later {@link #acquire}. The caller must
+   * hold the only reference to the buffer and give it up, and must release it only once.
+   * Any array of the current buffer size is accepted whether or not it came from the pool,
+   * arrays of another size are ignored.
+   */
+  public void release(byte[] buffer) {
+    if (buffer == null || buffer.length != bufferSize || bufferSize == 0) {
+      return;
+    }
+    if (freeCount.incrementAndGet() > maxBuffers) {
+      freeCount.decrementAndGet();
+      return;
+    }
+    free.offerFirst(buffer);
+  }
+}
@@ -0,0 +1,268 @@
+package loci.formats;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+/**
+ * Order in which the tiles of a set of planes are visited so that each chunk is consumed by all
+ * the tiles and planes it holds before moving on, rather than plane by plane in row-major order.
+ * Planes stored in the same chunks along Z, C and T are grouped, and within a group the tiles are
+ * visited block by block, a block being the tiles covering the same chunks in X and Y. Blocks
+ * are visited in row-major order or along a Z-order or Hilbert curve, which keeps consecutive
+ * blocks close together when chunks are shared with neighbouring tiles or cached by size.
+ * Each tile is {plane number, x, y, width, height} as read by ZarrReader.openTiles.
+ */
+public class ChunkOrderTiles implements Iterable<int[]> {
+
+  public enum Order {
+    /** Each plane in turn, tiles in row-major order within the plane */
+    ROW_MAJOR,
+    /** Blocks of tiles in row-major order of the chunk grid */
+    CHUNK,
+    /** Blocks of tiles along a Z-order (Morton) curve */
+    Z_ORDER,
+    /** Blocks of tiles along a Hilbert curve */
+    HILBERT
+  }
+
+  private final int sizeX;
+  private final int sizeY;
+  private final int tileWidth;
+  private final int tileHeight;
+  private final int blockWidth;
+  private final int blockHeight;
+  private final int[] planeGroups;
+  private final Order order;
+
+  /**
+   * @param sizeX width of the planes
+   * @param sizeY height of the planes
+   * @param tileWidth width of the tiles
+   * @param tileHeight height of the tiles
+   * @param chunkWidth width of the chunks
+   * @param chunkHeight height of the chunks
+   * @param planeGroups for each plane number, the position along Z, C and T of the chunks holding the plane,
+   * planes with the same value share chunks
+   * @param order in which tiles are visited
+   */
+  public ChunkOrderTiles(int sizeX, int sizeY, int tileWidth, int tileHeight, int chunkWidth, int chunkHeight,
+      int[] planeGroups, Order order) {
+    if (sizeX <= 0 || sizeY <= 0 || tileWidth <= 0 || tileHeight <= 0 || chunkWidth <= 0 || chunkHeight <= 0) {
+      throw new IllegalArgumentException("Sizes must be positive");
+    }
+    this.sizeX = sizeX;
+    this.sizeY = sizeY;
+    this.tileWidth = Math.min(tileWidth, sizeX);
+    this.tileHeight = Math.min(tileHeight, sizeY);
+    // Blocks hold whole tiles and cover whole chunks
+    blockWidth = ceilDiv(Math.max(chunkWidth, this.tileWidth), this.tileWidth) * this.tileWidth;
+    blockHeight = ceilDiv(Math.max(chunkHeight, this.tileHeight), this.tileHeight) * this.tileHeight;
+    this.planeGroups = planeGroups.clone();
+    this.order = order;
+  }
+
+  public Order getOrder() {
+    return order;
+  }
+
+  /**
+   * @return the number of tiles visited, every tile of every plane once
+   */
+  public long getTileCount() {
+    return (long) planeGroups.length * ceilDiv(sizeX, tileWidth) * ceilDiv(sizeY, tileHeight);
+  }
+
+  @Override
+  public Iterator<int[]> iterator() {
+    if (order == Order.ROW_MAJOR) {
+      List<int[]> planes = new ArrayList<int[]>();
+      for (int no = 0; no < planeGroups.length; no++) {
+        planes.add(new int[] {no});
+      }
+      return new TileIterator(planes, Collections.singletonList(new int[] {0, 0, sizeX, sizeY}));
+    }
+    // Planes grouped by the chunks holding them, in order of the groups then of plane number
+    TreeMap<Integer, List<Integer>> groups = new TreeMap<Integer, List<Integer>>();
+    for (int no = 0; no < planeGroups.length; no++) {
+      List<Integer> group = groups.get(planeGroups[no]);
+      if (group == null) {
+        group = new ArrayList<Integer>();
+        groups.put(planeGroups[no], group);
+      }
+      group.add(no);
+    }
+    List<int[]> planes = new ArrayList<int[]>();
+    for (List<Integer> group : groups.values()) {
+      int[] numbers = new int[group.size()];
+      for (int i = 0; i < numbers.length; i++) {
+        numbers[i] = group.get(i);
+      }
+      planes.add(numbers);
+    }
+    return new TileIterator(planes, getBlocks());
+  }
+
+  /**
+   * @return the blocks of tiles as {x, y, width, height}, in the order they are visited
+   */
+  List<int[]> getBlocks() {
+    int columns = ceilDiv(sizeX, blockWidth);
+    int rows = ceilDiv(sizeY, blockHeight);
+    TreeMap<Long, int[]> blocks = new TreeMap<Long, int[]>();
+    int side = Integer.highestOneBit(Math.max(1, Math.max(columns, rows) - 1)) << 1;
+    for (int row = 0; row < rows; row++) {
+      for (int column = 0; column < columns; column++) {
+        long key;
+        if (order == Order.Z_ORDER) {
+          key = interleave(column, row);
+        }
+        else if (order == Order.HILBERT) {
+          key = hilbertIndex(side, column, row);
+        }
+        else {
+          key = (long) row * columns + column;
+        }
+        int x = column * blockWidth;
+        int y = row * blockHeight;
+        blocks.put(key, new int[] {x, y, Math.min(blockWidth, sizeX - x), Math.min(blockHeight, sizeY - y)});
+      }
+    }
+    return new ArrayList<int[]>(blocks.values());
+  }
+
+  /**
+   * @return the position of the cell along the Morton curve, bits of x and y interleaved
+   */
+  static long interleave(int x, int y) {
+    long key = 0;
+    for (int bit = 0; bit < 31; bit++) {
+      key |= ((long) (x >>> bit) & 1) << (2 * bit);
+      key |= ((long) (y >>> bit) & 1) << (2 * bit + 1);
+    }
+    return key;
+  }
+
+  /**
+   * @param side of the square covered by the curve, a power of two
+   * @return the position of the cell along the Hilbert curve filling the square
+   */
+  static long hilbertIndex(int side, int x, int y) {
+    long index = 0;
+    for (int s = side / 2; s > 0; s /= 2) {
+      int rx = (x & s) > 0 ? 1 : 0;
+      int ry = (y & s) > 0 ? 1 : 0;
+      index += (long) s * s * ((3 * rx) ^ ry);
+      // Rotate the quadrant so that the curve is continuous
+      if (ry == 0) {
+        if (rx == 1) {
+          x = side - 1 - x;
+          y = side - 1 - y;
+        }
+        int t = x;
+        x = y;
+        y = t;
+      }
+    }
+    return index;
+  }
+
+  private static int ceilDiv(int value, int divisor) {
+    return (value + divisor - 1) / divisor;
+  }
+
+  /**
+   * Visits, for each group of planes and each block, every plane of the group and every tile of the block
+   */
+  private class TileIterator implements Iterator<int[]> {
+    private final List<int[]> planes;
+    private final List<int[]> blocks;
+    private int group = 0;
+    private int block = 0;
+    private int plane = 0;
+    private int x;
+    private int y;
+
+    TileIterator(List<int[]> planes, List<int[]> blocks) {
+      this.planes = planes;
+      this.blocks = blocks;
+      if (!blocks.isEmpty()) {
+        x = blocks.get(0)[0];
+        y = blocks.get(0)[1];
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return group < planes.size() && !blocks.isEmpty();
+    }
+
+    @Override
+    public int[] next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      int[] bounds = blocks.get(block);
+      int[] tile = {planes.get(group)[plane], x, y,
+          Math.min(tileWidth, bounds[0] + bounds[2] - x), Math.min(tileHeight, bounds[1] + bounds[3] - y)};
+      advance(bounds);
+      return tile;
+    }
+
+    private void advance(int[] bounds) {
+      x += tileWidth;
+      if (x < bounds[0] + bounds[2]) {
+        return;
+      }
+      x = bounds[0];
+      y += tileHeight;
+      if (y < bounds[1] + bounds[3]) {
+        return;
+      }
+      y = bounds[1];
+      plane++;
+      if (plane < planes.get(group).length) {
+        return;
+      }
+      plane = 0;
+      block++;
+      if (block == blocks.size()) {
+        block = 0;
+        group++;
+      }
+      x = blocks.get(block)[0];
+      y = blocks.get(block)[1];
+    }
+  }
+}
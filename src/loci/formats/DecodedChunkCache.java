@@ -0,0 +1,273 @@
+package loci.formats;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+import java.io.Closeable;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Least recently used cache of decoded chunks shared by every reader in the JVM, bounded by the
+ * total size of the chunks in bytes. Chunks are the primitive arrays decoded by JZarr and must not
+ * be modified once cached. Keys identify the array and the position of the chunk in its chunk grid.
+ * Each chunk may be cached with a version, such as the modification time and size of its file,
+ * and is dropped when read with a different version.
+ */
+public class DecodedChunkCache {
+
+  private static final DecodedChunkCache SHARED = new DecodedChunkCache(0);
+
+  private final LinkedHashMap<String, Entry> chunks = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+  private final List<SizeRequest> requests = new ArrayList<SizeRequest>();
+  private long baseMaxBytes;
+  private long maxBytes;
+  private long bytes = 0;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * @param maxBytes total size of the cached chunks, 0 disables caching
+   */
+  public DecodedChunkCache(long maxBytes) {
+    this.baseMaxBytes = Math.max(0, maxBytes);
+    this.maxBytes = baseMaxBytes;
+  }
+
+  /**
+   * @return the cache shared by every reader in the JVM, disabled until a size is set or requested
+   */
+  public static DecodedChunkCache getShared() {
+    return SHARED;
+  }
+
+  public synchronized long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * Sets the size of the cache when no larger size is requested, evicting chunks if the cache shrinks
+   */
+  public synchronized void setMaxBytes(long maxBytes) {
+    baseMaxBytes = Math.max(0, maxBytes);
+    updateMaxBytes();
+  }
+
+  /**
+   * Requests a size for the cache, which takes the largest size of the open requests so that readers
+   * sharing the cache with different settings get the largest size requested. The cache shrinks back
+   * once the request is closed, for example when the reader is closed.
+   * @param maxBytes total size of the cached chunks
+   * @return the request, to be closed once the size is no longer needed
+   */
+  public synchronized SizeRequest requestMaxBytes(long maxBytes) {
+    SizeRequest request = new SizeRequest(Math.max(0, maxBytes));
+    requests.add(request);
+    updateMaxBytes();
+    return request;
+  }
+
+  public synchronized boolean isEnabled() {
+    return maxBytes > 0;
+  }
+
+  /**
+   * @return the cached chunk or null
+   */
+  public Object get(String key) {
+    return get(key, null);
+  }
+
+  /**
+   * @param version of the chunk, a cached chunk with a different version is dropped
+   * @return the cached chunk or null
+   */
+  public synchronized Object get(String key, Object version) {
+    Entry entry = chunks.get(key);
+    if (entry != null && !Objects.equals(version, entry.version)) {
+      remove(key);
+      entry = null;
+    }
+    if (entry == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+    hits.incrementAndGet();
+    return entry.chunk;
+  }
+
+  public boolean contains(String key) {
+    return contains(key, null);
+  }
+
+  /**
+   * @param version of the chunk
+   * @return true if the chunk is cached with the same version
+   */
+  public synchronized boolean contains(String key, Object version) {
+    Entry entry = chunks.get(key);
+    return entry != null && Objects.equals(version, entry.version);
+  }
+
+  public void put(String key, Object chunk) {
+    put(key, chunk, null);
+  }
+
+  /**
+   * Caches a decoded chunk, chunks larger than the cache are not cached
+   * @param version of the chunk, null if the chunk is not expected to change
+   */
+  public synchronized void put(String key, Object chunk, Object version) {
+    long size = getByteSize(chunk);
+    if (size > maxBytes) {
+      return;
+    }
+    Entry previous = chunks.put(key, new Entry(chunk, version));
+    if (previous != null) {
+      bytes -= getByteSize(previous.chunk);
+    }
+    bytes += size;
+    evict();
+  }
+
+  /**
+   * Removes every chunk whose key starts with the prefix, such as the chunks of an array that was written
+   */
+  public synchronized void invalidate(String prefix) {
+    Iterator<Map.Entry<String, Entry>> iterator = chunks.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<String, Entry> entry = iterator.next();
+      if (entry.getKey().startsWith(prefix)) {
+        bytes -= getByteSize(entry.getValue().chunk);
+        iterator.remove();
+      }
+    }
+  }
+
+  public synchronized void clear() {
+    chunks.clear();
+    bytes = 0;
+  }
+
+  public synchronized int getChunkCount() {
+    return chunks.size();
+  }
+
+  /**
+   * @return the total size in bytes of the cached chunks
+   */
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  private void remove(String key) {
+    Entry entry = chunks.remove(key);
+    if (entry != null) {
+      bytes -= getByteSize(entry.chunk);
+    }
+  }
+
+  private void updateMaxBytes() {
+    long size = baseMaxBytes;
+    for (SizeRequest request : requests) {
+      size = Math.max(size, request.maxBytes);
+    }
+    maxBytes = size;
+    evict();
+  }
+
+  private void evict() {
+    Iterator<Entry> iterator = chunks.values().iterator();
+    while (bytes > maxBytes && iterator.hasNext()) {
+      bytes -= getByteSize(iterator.next().chunk);
+      iterator.remove();
+    }
+  }
+
+  /**
+   * @return the size in bytes of a primitive array
+   */
+  static long getByteSize(Object chunk) {
+    Class<?> type = chunk.getClass().getComponentType();
+    long length = Array.getLength(chunk);
+    if (type == byte.class || type == boolean.class) {
+      return length;
+    }
+    if (type == short.class || type == char.class) {
+      return length * 2;
+    }
+    if (type == long.class || type == double.class) {
+      return length * 8;
+    }
+    return length * 4;
+  }
+
+  private static class Entry {
+    final Object chunk;
+    final Object version;
+
+    Entry(Object chunk, Object version) {
+      this.chunk = chunk;
+      this.version = version;
+    }
+  }
+
+  /**
+   * Size requested for the cache, released on close
+   */
+  public class SizeRequest implements Closeable {
+    private final long maxBytes;
+
+    private SizeRequest(long maxBytes) {
+      this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public void close() {
+      synchronized (DecodedChunkCache.this) {
+        if (requests.remove(this)) {
+          updateMaxBytes();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,446 @@
+package loci.formats;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * On disk cache of remote objects shared by every store and JVM using the same directory.
+ *
+ * Each object is stored in a file named by the SHA-256 of its bucket and key, along with its
+ * ETag and the time it was last validated against the remote store. Entries are addressed by
+ * key rather than by content, so identical objects under different keys are stored twice and
+ * a changed object replaces the entry of its key once revalidated. Files are written to a
+ * temporary file and moved into place, so readers never see a partial entry. The modification
+ * time of a file is updated on each hit and the least recently used files are evicted once the
+ * cache exceeds its size cap, eviction is serialized between JVMs using a lock file.
+ */
+public class DiskChunkCache {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(DiskChunkCache.class);
+
+  private static final int MAGIC = 0x5A434331;
+  private static final String LOCK_FILE = ".lock";
+  private static final String TEMP_SUFFIX = ".tmp";
+  // Eviction frees space down to this fraction of the cap to avoid evicting on every write
+  private static final double EVICTION_TARGET = 0.9;
+  private static final long STALE_TEMP_MILLIS = 3600000;
+
+  private static final Map<Path, DiskChunkCache> CACHES = new HashMap<Path, DiskChunkCache>();
+
+  private final Path directory;
+  private volatile long maxBytes;
+  private volatile long revalidateMillis;
+  private final AtomicLong currentBytes = new AtomicLong();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Cached content of an object
+   */
+  public static class Entry {
+    private final ByteBuffer data;
+    private final String etag;
+    private final long validatedAt;
+
+    Entry(ByteBuffer data, String etag, long validatedAt) {
+      this.data = data;
+      this.etag = etag;
+      this.validatedAt = validatedAt;
+    }
+
+    public ByteBuffer getData() {
+      return data.duplicate();
+    }
+
+    /**
+     * @return the ETag of the object when it was cached, or null if it is not known
+     */
+    public String getETag() {
+      return etag;
+    }
+
+    public long getValidatedAt() {
+      return validatedAt;
+    }
+  }
+
+  /**
+   * Gets the cache for a directory, creating the directory if needed. Every store
+   * in the JVM using the same directory shares the instance and its size accounting.
+   * When the directory is already used with other settings the most restrictive are kept,
+   * the smallest size cap and the shortest revalidation interval.
+   * @param directory of the cache
+   * @param maxBytes size cap of the cache
+   * @param revalidateMillis time after which entries are revalidated, negative to never revalidate
+   */
+  public static synchronized DiskChunkCache forDirectory(Path directory, long maxBytes, long revalidateMillis)
+      throws IOException {
+    Path key = directory.toAbsolutePath().normalize();
+    DiskChunkCache cache = CACHES.get(key);
+    if (cache == null) {
+      cache = new DiskChunkCache(key, maxBytes, revalidateMillis);
+      CACHES.put(key, cache);
+      return cache;
+    }
+    if (maxBytes < cache.maxBytes) {
+      LOGGER.debug("Reducing the size cap of {} to {} bytes", key, maxBytes);
+      cache.maxBytes = maxBytes;
+    }
+    if (revalidateMillis >= 0 && (cache.revalidateMillis < 0 || revalidateMillis < cache.revalidateMillis)) {
+      LOGGER.debug("Reducing the revalidation interval of {} to {} ms", key, revalidateMillis);
+      cache.revalidateMillis = revalidateMillis;
+    }
+    return cache;
+  }
+
+  public long getRevalidateMillis() {
+    return revalidateMillis;
+  }
+
+  private DiskChunkCache(Path directory, long maxBytes, long revalidateMillis) throws IOException {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    this.revalidateMillis = revalidateMillis;
+    Files.createDirectories(directory);
+    currentBytes.set(scanSize());
+  }
+
+  public Path getDirectory() {
+    return directory;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * @return the size of the cached entries as last measured, other JVMs may have added entries since
+   */
+  public long getCurrentBytes() {
+    return currentBytes.get();
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  /**
+   * @return true if the entry was validated more recently than the revalidation interval
+   */
+  public boolean isFresh(Entry entry) {
+    long interval = revalidateMillis;
+    return interval < 0 || System.currentTimeMillis() - entry.validatedAt < interval;
+  }
+
+  /**
+   * Reads a cached object and marks it as recently used
+   * @return the cached entry or null if the object is not cached
+   */
+  public Entry get(String bucketName, String key) {
+    Path path = getPath(bucketName, key);
+    byte[] content;
+    try {
+      content = Files.readAllBytes(path);
+    }
+    catch (NoSuchFileException e) {
+      misses.incrementAndGet();
+      return null;
+    }
+    catch (IOException e) {
+      LOGGER.debug("Unable to read cached key: {}", key, e);
+      misses.incrementAndGet();
+      return null;
+    }
+    Entry entry = decode(content);
+    if (entry == null) {
+      LOGGER.debug("Discarding corrupt cache entry for key: {}", key);
+      delete(path);
+      misses.incrementAndGet();
+      return null;
+    }
+    try {
+      Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+    }
+    catch (IOException e) {
+      LOGGER.trace("Unable to update access time of {}", path, e);
+    }
+    hits.incrementAndGet();
+    return entry;
+  }
+
+  /**
+   * Stores an object, replacing any existing entry. Objects larger than the size cap are not
+   * stored and any existing entry is removed.
+   * @param etag of the object or null if not known
+   */
+  public void put(String bucketName, String key, ByteBuffer data, String etag) {
+    write(getPath(bucketName, key), data.duplicate(), etag, System.currentTimeMillis());
+  }
+
+  /**
+   * Records that a cached entry was found to be unchanged on the remote store
+   */
+  public void markValidated(String bucketName, String key, Entry entry) {
+    write(getPath(bucketName, key), entry.getData(), entry.etag, System.currentTimeMillis());
+  }
+
+  public void remove(String bucketName, String key) {
+    delete(getPath(bucketName, key));
+  }
+
+  /**
+   * Evicts the least recently used entries until the cache is below its size cap.
+   * Does nothing if another JVM is already evicting from the same directory.
+   */
+  public void evict() {
+    try (FileChannel lockChannel = FileChannel.open(directory.resolve(LOCK_FILE),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+      FileLock lock;
+      try {
+        lock = lockChannel.tryLock();
+      }
+      catch (OverlappingFileLockException e) {
+        lock = null;
+      }
+      if (lock == null) {
+        return;
+      }
+      try {
+        List<Path> files = new ArrayList<Path>();
+        List<Long> sizes = new ArrayList<Long>();
+        List<Long> modified = new ArrayList<Long>();
+        long total = 0;
+        long now = System.currentTimeMillis();
+        try (Stream<Path> paths = Files.walk(directory, 2)) {
+          for (Path path : (Iterable<Path>) paths::iterator) {
+            if (path.getFileName().toString().equals(LOCK_FILE)) {
+              continue;
+            }
+            BasicFileAttributes attributes = readAttributes(path);
+            if (attributes == null || !attributes.isRegularFile()) {
+              continue;
+            }
+            long lastModified = attributes.lastModifiedTime().toMillis();
+            if (path.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+              // Left behind by a JVM that stopped while writing
+              if (now - lastModified > STALE_TEMP_MILLIS) {
+                delete(path);
+              }
+              continue;
+            }
+            files.add(path);
+            sizes.add(attributes.size());
+            modified.add(lastModified);
+            total += attributes.size();
+          }
+        }
+        catch (UncheckedIOException e) {
+          // a directory was removed while walking, the next eviction picks up the remainder
+          LOGGER.debug("Unable to list every cache entry of {}", directory, e.getCause());
+        }
+        long target = (long) (maxBytes * EVICTION_TARGET);
+        if (total > maxBytes) {
+          Integer[] order = new Integer[files.size()];
+          for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+          }
+          Arrays.sort(order, (a, b) -> Long.compare(modified.get(a), modified.get(b)));
+          for (int i = 0; i < order.length && total > target; i++) {
+            if (delete(files.get(order[i]))) {
+              total -= sizes.get(order[i]);
+            }
+          }
+          LOGGER.debug("Evicted cache entries from {}, {} bytes remaining", directory, total);
+        }
+        currentBytes.set(total);
+      }
+      finally {
+        lock.release();
+      }
+    }
+    catch (IOException e) {
+      LOGGER.debug("Unable to evict cache entries from {}", directory, e);
+    }
+  }
+
+  /**
+   * @return the file caching the object, which may not exist
+   */
+  public Path getPath(String bucketName, String key) {
+    String hash = sha256(bucketName + "/" + key);
+    return directory.resolve(hash.substring(0, 2)).resolve(hash);
+  }
+
+  private void write(Path path, ByteBuffer data, String etag, long validatedAt) {
+    byte[] etagBytes = etag == null ? new byte[0] : etag.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer header = ByteBuffer.allocate(4 + 8 + 2 + etagBytes.length);
+    header.putInt(MAGIC).putLong(validatedAt).putShort((short) etagBytes.length).put(etagBytes);
+    header.flip();
+    long size = header.remaining() + data.remaining();
+    if (size > maxBytes) {
+      LOGGER.debug("Not caching {} bytes in {}, larger than the size cap", size, path);
+      delete(path);
+      return;
+    }
+    Path temp = null;
+    try {
+      Files.createDirectories(path.getParent());
+      temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), TEMP_SUFFIX);
+      try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+        while (header.hasRemaining()) {
+          channel.write(header);
+        }
+        while (data.hasRemaining()) {
+          channel.write(data);
+        }
+      }
+      long previous = Files.exists(path) ? Files.size(path) : 0;
+      try {
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      }
+      catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+      }
+      temp = null;
+      if (currentBytes.addAndGet(size - previous) > maxBytes) {
+        evict();
+      }
+    }
+    catch (IOException e) {
+      LOGGER.debug("Unable to write cache entry {}", path, e);
+    }
+    finally {
+      if (temp != null) {
+        delete(temp);
+      }
+    }
+  }
+
+  private static Entry decode(byte[] content) {
+    ByteBuffer buffer = ByteBuffer.wrap(content);
+    if (buffer.remaining() < 14 || buffer.getInt() != MAGIC) {
+      return null;
+    }
+    long validatedAt = buffer.getLong();
+    int etagLength = buffer.getShort() & 0xffff;
+    if (buffer.remaining() < etagLength) {
+      return null;
+    }
+    String etag = null;
+    if (etagLength > 0) {
+      etag = new String(content, buffer.position(), etagLength, StandardCharsets.UTF_8);
+    }
+    buffer.position(buffer.position() + etagLength);
+    return new Entry(buffer.slice(), etag, validatedAt);
+  }
+
+  private long scanSize() {
+    long total = 0;
+    try (Stream<Path> paths = Files.walk(directory, 2)) {
+      for (Path path : (Iterable<Path>) paths::iterator) {
+        BasicFileAttributes attributes = readAttributes(path);
+        if (attributes != null && attributes.isRegularFile()) {
+          total += attributes.size();
+        }
+      }
+    }
+    catch (IOException | UncheckedIOException e) {
+      LOGGER.debug("Unable to measure cache directory {}", directory, e);
+    }
+    return total;
+  }
+
+  /**
+   * @return the attributes of a file, or null if it was removed by another store or JVM
+   */
+  private static BasicFileAttributes readAttributes(Path path) throws IOException {
+    try {
+      return Files.readAttributes(path, BasicFileAttributes.class);
+    }
+    catch (NoSuchFileException e) {
+      return null;
+    }
+  }
+
+  private static boolean delete(Path path) {
+    try {
+      return Files.deleteIfExists(path);
+    }
+    catch (IOException e) {
+      LOGGER.trace("Unable to delete {}", path, e);
+      return false;
+    }
+  }
+
+  private static String sha256(String value) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+      StringBuilder hex = new StringBuilder(digest.length * 2);
+      for (byte b : digest) {
+        hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+      }
+      return hex.toString();
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+}
@@ -0,0 +1,315 @@
+package loci.formats;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded cache of open read only FileChannels keyed by path, so that chunks and metadata read
+ * repeatedly, such as the chunk shared by neighbouring tiles, are not opened and closed for each
+ * read. Channels are leased, used with positional reads that are safe to share between threads,
+ * and the least recently used idle channels are closed once the cache is full. The default
+ * capacity is a quarter of the file descriptor limit of the process. Each lease checks the file
+ * key, modification time and size of the file, so that a file replaced, for example by a rename,
+ * is opened again rather than read through the channel of the old file.
+ */
+public class FileChannelCache {
+
+  protected static final Logger LOGGER = LoggerFactory.getLogger(FileChannelCache.class);
+
+  public static final int MIN_CAPACITY = 16;
+  public static final int MAX_DEFAULT_CAPACITY = 4096;
+  // Used when the file descriptor limit cannot be read
+  private static final int FALLBACK_CAPACITY = 256;
+
+  private static final FileChannelCache SHARED = new FileChannelCache(getDefaultCapacity());
+
+  private final LinkedHashMap<Path, Entry> channels = new LinkedHashMap<Path, Entry>(16, 0.75f, true);
+  private int capacity;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * Channel leased from the cache, closing the lease returns the channel to the cache
+   */
+  public final class Lease implements Closeable {
+    private final Entry entry;
+    private boolean closed = false;
+
+    private Lease(Entry entry) {
+      this.entry = entry;
+    }
+
+    public FileChannel getChannel() {
+      return entry.channel;
+    }
+
+    /**
+     * Removes the channel from the cache once it has been found closed, for example by
+     * another reader being interrupted, so that the next lease opens a new channel
+     */
+    public void invalidate() {
+      synchronized (FileChannelCache.this) {
+        if (channels.remove(entry.path, entry)) {
+          retire(entry);
+        }
+      }
+    }
+
+    @Override
+    public void close() {
+      synchronized (FileChannelCache.this) {
+        if (!closed) {
+          closed = true;
+          entry.references--;
+          if (entry.evicted && entry.references == 0) {
+            closeChannel(entry);
+          }
+          else if (entry.references == 0) {
+            // Leased channels may have kept the cache over its capacity
+            evictIdle();
+          }
+        }
+      }
+    }
+  }
+
+  private static final class Entry {
+    final Path path;
+    final FileChannel channel;
+    // Attributes of the file when the channel was opened
+    final Object fileKey;
+    final long lastModified;
+    final long size;
+    int references = 0;
+    boolean evicted = false;
+
+    Entry(Path path, FileChannel channel, BasicFileAttributes attributes) {
+      this.path = path;
+      this.channel = channel;
+      this.fileKey = attributes.fileKey();
+      this.lastModified = attributes.lastModifiedTime().toMillis();
+      this.size = attributes.size();
+    }
+
+    /**
+     * @return true if the channel is open and was opened on the file with these attributes
+     */
+    boolean isCurrent(BasicFileAttributes attributes) {
+      return channel.isOpen() && Objects.equals(fileKey, attributes.fileKey()) &&
+          lastModified == attributes.lastModifiedTime().toMillis() && size == attributes.size();
+    }
+  }
+
+  /**
+   * @param capacity maximum number of channels kept open, leased channels may exceed it
+   */
+  public FileChannelCache(int capacity) {
+    this.capacity = Math.max(1, capacity);
+  }
+
+  /**
+   * @return the cache shared by every local store in the JVM
+   */
+  public static FileChannelCache getShared() {
+    return SHARED;
+  }
+
+  /**
+   * @return a quarter of the file descriptor limit of the process, between {@link #MIN_CAPACITY}
+   * and {@link #MAX_DEFAULT_CAPACITY}
+   */
+  public static int getDefaultCapacity() {
+    try {
+      OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+      if (os instanceof com.sun.management.UnixOperatingSystemMXBean) {
+        long limit = ((com.sun.management.UnixOperatingSystemMXBean) os).getMaxFileDescriptorCount();
+        return (int) Math.max(MIN_CAPACITY, Math.min(MAX_DEFAULT_CAPACITY, limit / 4));
+      }
+    }
+    catch (LinkageError e) {
+      LOGGER.debug("Unable to read the file descriptor limit", e);
+    }
+    return FALLBACK_CAPACITY;
+  }
+
+  /**
+   * Leases the channel of the file, opening it if it is not cached or the cached channel
+   * was opened on a file that has since been replaced or modified
+   * @throws java.nio.file.NoSuchFileException if the file does not exist
+   */
+  public Lease acquire(Path path) throws IOException {
+    Path key = path.toAbsolutePath().normalize();
+    BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(key, BasicFileAttributes.class);
+    }
+    catch (NoSuchFileException e) {
+      invalidate(key);
+      throw e;
+    }
+    synchronized (this) {
+      Entry entry = channels.get(key);
+      if (entry != null && entry.isCurrent(attributes)) {
+        hits.incrementAndGet();
+        entry.references++;
+        return new Lease(entry);
+      }
+      if (entry != null) {
+        // Closed by an interrupted reader, positional reads close the channel on interrupt,
+        // or opened on a file that has been replaced
+        channels.remove(key);
+        retire(entry);
+      }
+    }
+    misses.incrementAndGet();
+    // The attributes are read before opening, a file replaced in between is detected by the next lease
+    FileChannel channel = FileChannel.open(key, StandardOpenOption.READ);
+    synchronized (this) {
+      Entry entry = channels.get(key);
+      if (entry != null && entry.isCurrent(attributes)) {
+        // Opened concurrently by another thread
+        channel.close();
+        entry.references++;
+        return new Lease(entry);
+      }
+      if (entry != null) {
+        channels.remove(key);
+        retire(entry);
+      }
+      entry = new Entry(key, channel, attributes);
+      entry.references++;
+      channels.put(key, entry);
+      evictIdle();
+      return new Lease(entry);
+    }
+  }
+
+  /**
+   * Closes the cached channel of the file, for example after the file has been written or deleted
+   */
+  public synchronized void invalidate(Path path) {
+    Entry entry = channels.remove(path.toAbsolutePath().normalize());
+    if (entry != null) {
+      retire(entry);
+    }
+  }
+
+  /**
+   * Closes every channel of a file under the directory
+   */
+  public synchronized void invalidateAll(Path directory) {
+    Path prefix = directory.toAbsolutePath().normalize();
+    Iterator<Entry> iterator = channels.values().iterator();
+    while (iterator.hasNext()) {
+      Entry entry = iterator.next();
+      if (entry.path.startsWith(prefix)) {
+        iterator.remove();
+        retire(entry);
+      }
+    }
+  }
+
+  public synchronized void setCapacity(int capacity) {
+    this.capacity = Math.max(1, capacity);
+    evictIdle();
+  }
+
+  public synchronized int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * @return the number of channels currently cached
+   */
+  public synchronized int getOpenCount() {
+    return channels.size();
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
+  /**
+   * Closes the least recently used channels that are not leased until the cache is within its capacity
+   */
+  private void evictIdle() {
+    Iterator<Map.Entry<Path, Entry>> iterator = channels.entrySet().iterator();
+    while (channels.size() > capacity && iterator.hasNext()) {
+      Entry entry = iterator.next().getValue();
+      if (entry.references == 0) {
+        iterator.remove();
+        evictions.incrementAndGet();
+        closeChannel(entry);
+      }
+    }
+  }
+
+  private void retire(Entry entry) {
+    entry.evicted = true;
+    if (entry.references == 0) {
+      closeChannel(entry);
+    }
+  }
+
+  private static void closeChannel(Entry entry) {
+    try {
+      entry.channel.close();
+    }
+    catch (IOException e) {
+      LOGGER.debug("Unable to close {}", entry.path, e);
+    }
+  }
+}
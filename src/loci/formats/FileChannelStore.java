@@ -0,0 +1,325 @@
+package loci.formats;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.bc.zarr.ZarrConstants;
+import com.bc.zarr.ZarrUtils;
+import com.bc.zarr.storage.Store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local store reading keys through the open channels of a {@link FileChannelCache} rather than
+ * opening a stream for each read. Reads are positional, so a cached channel is shared by every
+ * thread reading the same file. Writes go directly to the files and invalidate their channels.
+ * When an {@link AsyncFileReader} is set, asynchronous fetches and prefetches are read with
+ * many reads outstanding at once and handed to the decoder by {@link #getInputStream}.
+ */
+public class FileChannelStore implements AsyncStore, PrefixListingStore {
+
+  protected static final Logger LOGGER = LoggerFactory.getLogger(FileChannelStore.class);
+
+  private final Path root;
+  private final FileChannelCache cache;
+  private volatile AsyncFileReader asyncReader;
+  // Keys requested by prefetch that have not yet been consumed
+  private final PrefetchedObjects prefetched = new PrefetchedObjects();
+
+  public FileChannelStore(Path root) {
+    this(root, FileChannelCache.getShared());
+  }
+
+  public FileChannelStore(Path root, FileChannelCache cache) {
+    this.root = root;
+    this.cache = cache;
+  }
+
+  public Path getRoot() {
+    return root;
+  }
+
+  public FileChannelCache getCache() {
+    return cache;
+  }
+
+  /**
+   * Sets the reader used by {@link #fetchAsync} and {@link #prefetch}, null to read on the calling thread
+   */
+  public void setAsyncReader(AsyncFileReader asyncReader) {
+    this.asyncReader = asyncReader;
+  }
+
+  public AsyncFileReader getAsyncReader() {
+    return asyncReader;
+  }
+
+  @Override
+  public CompletableFuture<ByteBuffer> fetchAsync(String key) {
+    AsyncFileReader reader = asyncReader;
+    if (reader != null) {
+      return reader.read(root.resolve(key));
+    }
+    CompletableFuture<ByteBuffer> result = new CompletableFuture<ByteBuffer>();
+    try {
+      result.complete(read(key));
+    }
+    catch (IOException e) {
+      result.completeExceptionally(e);
+    }
+    return result;
+  }
+
+  /**
+   * Starts reading the keys concurrently with the asynchronous reader, subsequent calls to
+   * {@link #getInputStream} for these keys wait for and consume the data. Keys already being
+   * prefetched by another caller are not read again. Does nothing without an asynchronous reader.
+   * @return the prefetches started by this call, close it once the keys have been read
+   * to discard those that were not consumed
+   */
+  public PrefetchedObjects.Batch prefetch(Collection<String> keys) {
+    AsyncFileReader reader = asyncReader;
+    PrefetchedObjects.Batch batch = prefetched.newBatch();
+    if (reader == null) {
+      return batch;
+    }
+    for (String key : keys) {
+      batch.add(key, () -> reader.read(root.resolve(key)));
+    }
+    return batch;
+  }
+
+  /**
+   * Reads the whole content of a key
+   * @return the content, or null if the key does not exist
+   */
+  public ByteBuffer read(String key) throws IOException {
+    Path file = root.resolve(key);
+    try {
+      return read(file);
+    }
+    catch (ClosedChannelException e) {
+      if (Thread.currentThread().isInterrupted()) {
+        throw e;
+      }
+      // The shared channel was closed by another reader being interrupted
+      LOGGER.debug("Channel of {} closed while reading, reading again", file);
+      return read(file);
+    }
+  }
+
+  /**
+   * Reads the whole file through a cached channel, the channel is removed from the cache if it is found closed
+   */
+  private ByteBuffer read(Path file) throws IOException {
+    FileChannelCache.Lease lease;
+    try {
+      lease = cache.acquire(file);
+    }
+    catch (NoSuchFileException e) {
+      return null;
+    }
+    try {
+      FileChannel channel = lease.getChannel();
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE - 8) {
+        throw new IOException(file + " is too large to read");
+      }
+      ByteBuffer data = ByteBuffer.allocate((int) size);
+      long position = 0;
+      while (data.hasRemaining()) {
+        int read = channel.read(data, position);
+        if (read < 0) {
+          throw new EOFException("Unexpected end of " + file);
+        }
+        position += read;
+      }
+      data.flip();
+      return data;
+    }
+    catch (ClosedChannelException e) {
+      lease.invalidate();
+      throw e;
+    }
+    finally {
+      lease.close();
+    }
+  }
+
+  @Override
+  public InputStream getInputStream(String key) throws IOException {
+    Future<ByteBuffer> pending = prefetched.take(key);
+    if (pending != null) {
+      try {
+        ByteBuffer data = pending.get();
+        return data == null ? null : toInputStream(data);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for key: " + key);
+      }
+      catch (ExecutionException e) {
+        LOGGER.debug("Prefetch failed, reading key: " + key, e.getCause());
+      }
+      catch (CancellationException e) {
+        LOGGER.debug("Prefetch cancelled, reading key: {}", key);
+      }
+    }
+    if (Files.isDirectory(root.resolve(key))) {
+      return null;
+    }
+    ByteBuffer data = read(key);
+    return data == null ? null : new ByteArrayInputStream(data.array(), 0, data.limit());
+  }
+
+  @Override
+  public OutputStream getOutputStream(String key) throws IOException {
+    Path file = root.resolve(key);
+    cache.invalidate(file);
+    prefetched.discard(key);
+    Files.createDirectories(file.getParent());
+    return Files.newOutputStream(file);
+  }
+
+  @Override
+  public void delete(String key) throws IOException {
+    Path file = root.resolve(key);
+    cache.invalidateAll(file);
+    prefetched.clear();
+    if (Files.isDirectory(file)) {
+      ZarrUtils.deleteDirectoryTreeRecursively(file);
+    }
+    Files.deleteIfExists(file);
+  }
+
+  @Override
+  public TreeSet<String> getArrayKeys() throws IOException {
+    return getArrayKeys("");
+  }
+
+  @Override
+  public TreeSet<String> getGroupKeys() throws IOException {
+    return getGroupKeys("");
+  }
+
+  @Override
+  public TreeSet<String> getKeysEndingWith(String suffix) throws IOException {
+    return getKeysEndingWith("", suffix);
+  }
+
+  @Override
+  public TreeSet<String> getArrayKeys(String prefix) throws IOException {
+    return getParentKeys(root.resolve(prefix), ZarrConstants.FILENAME_DOT_ZARRAY);
+  }
+
+  @Override
+  public TreeSet<String> getGroupKeys(String prefix) throws IOException {
+    return getParentKeys(root.resolve(prefix), ZarrConstants.FILENAME_DOT_ZGROUP);
+  }
+
+  @Override
+  public TreeSet<String> getKeysEndingWith(String prefix, String suffix) throws IOException {
+    Path directory = root.resolve(prefix);
+    if (!Files.isDirectory(directory)) {
+      return new TreeSet<String>();
+    }
+    try (Stream<Path> walk = Files.walk(directory)) {
+      return walk.filter(path -> path.toString().endsWith(suffix))
+          .map(path -> toKey(directory, path))
+          .collect(Collectors.toCollection(TreeSet::new));
+    }
+  }
+
+  @Override
+  public Stream<String> getRelativeLeafKeys(String key) throws IOException {
+    Path directory = root.resolve(key);
+    return Files.walk(directory).filter(path -> !Files.isDirectory(path))
+        .map(path -> toKey(directory, path))
+        .filter(relative -> !relative.isEmpty());
+  }
+
+  /**
+   * Wraps data read by the asynchronous reader, the buffer is returned to its pool when the stream is closed
+   */
+  private InputStream toInputStream(ByteBuffer data) {
+    AsyncFileReader reader = asyncReader;
+    return new ByteArrayInputStream(data.array(), data.arrayOffset() + data.position(), data.remaining()) {
+      private boolean released = false;
+
+      @Override
+      public void close() throws IOException {
+        super.close();
+        if (!released && reader != null) {
+          released = true;
+          reader.release(data);
+        }
+      }
+    };
+  }
+
+  /**
+   * @return the keys relative to the directory of the groups or arrays below it holding the metadata file
+   */
+  private static TreeSet<String> getParentKeys(Path directory, String metadataName) throws IOException {
+    if (!Files.isDirectory(directory)) {
+      return new TreeSet<String>();
+    }
+    try (Stream<Path> walk = Files.walk(directory)) {
+      return walk.filter(path -> path.getFileName() != null && path.getFileName().toString().equals(metadataName))
+          .map(path -> toKey(directory, path.getParent()))
+          .filter(relative -> !relative.isEmpty())
+          .collect(Collectors.toCollection(TreeSet::new));
+    }
+  }
+
+  private static String toKey(Path base, Path path) {
+    return base.relativize(path).toString().replace('\\', '/');
+  }
+}
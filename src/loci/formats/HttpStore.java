@@ -0,0 +1,800 @@
+package loci.formats;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import com.bc.zarr.ZarrConstants;
+import com.bc.zarr.ZarrUtils;
+import com.bc.zarr.storage.Store;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read only store for Zarr data served over plain HTTP(S).
+ *
+ * Objects are requested with GET, fully read and closed so that connections are kept alive
+ * and reused. Several keys can be downloaded in parallel, parts of objects can be read with
+ * coalesced range requests and objects held in a {@link DiskChunkCache} are revalidated with
+ * If-None-Match or If-Modified-Since. HTTP servers cannot list their content, so arrays and
+ * groups are found from consolidated .zmetadata when present, otherwise by following the
+ * OME-NGFF multiscales, plate, well, labels and bioformats2raw metadata of each group.
+ */
+public class HttpStore implements AsyncStore, PrefixListingStore {
+
+  protected static final Logger LOGGER = LoggerFactory.getLogger(HttpStore.class);
+
+  public static final int DEFAULT_MAX_IN_FLIGHT = 16;
+  private static final String ZMETADATA = ".zmetadata";
+  private static final String ZATTRS = ".zattrs";
+  // Bound on the number of bioformats2raw series probed when the OME group does not list them
+  private static final int MAX_PROBED_SERIES = 10000;
+
+  private final String root;
+  private volatile int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+  private volatile int rangeCoalesceBytes = S3FileSystemStore.DEFAULT_RANGE_COALESCE_BYTES;
+  private ExecutorService fetchExecutor;
+  private volatile S3RequestPolicy requestPolicy = new S3RequestPolicy();
+  private volatile DiskChunkCache diskCache;
+  private final LatencyHistogram latency = new LatencyHistogram();
+  // Objects requested by prefetch that have not yet been consumed, keyed by URL
+  private final PrefetchedObjects prefetched = new PrefetchedObjects();
+
+  /**
+   * @param root URL of the store, a single slash after the protocol as produced by Paths is accepted
+   */
+  public HttpStore(String root) {
+    this.root = normalize(root);
+  }
+
+  /**
+   * @return true if the location is an http or https URL
+   */
+  public static boolean isHttpLocation(String location) {
+    if (location == null) {
+      return false;
+    }
+    String lower = location.toLowerCase(Locale.ROOT);
+    return lower.startsWith("http:/") || lower.startsWith("https:/");
+  }
+
+  public String getRoot() {
+    return root;
+  }
+
+  /**
+   * Sets the maximum number of requests issued concurrently by {@link #prefetch} and {@link #filterExisting}
+   */
+  public synchronized void setMaxInFlight(int maxInFlight) {
+    this.maxInFlight = Math.max(1, maxInFlight);
+    if (fetchExecutor != null) {
+      fetchExecutor.shutdown();
+      fetchExecutor = null;
+    }
+  }
+
+  public int getMaxInFlight() {
+    return maxInFlight;
+  }
+
+  /**
+   * Sets the largest gap in bytes between two ranges of an object for them to be read with a
+   * single request, the bytes in the gap are downloaded and discarded
+   */
+  public void setRangeCoalesceBytes(int rangeCoalesceBytes) {
+    this.rangeCoalesceBytes = Math.max(0, rangeCoalesceBytes);
+  }
+
+  public int getRangeCoalesceBytes() {
+    return rangeCoalesceBytes;
+  }
+
+  /**
+   * Sets the retry and timeout policy of requests, the request timeout is used as connect and read timeout.
+   * Hedging is not supported.
+   */
+  public void setRequestPolicy(S3RequestPolicy requestPolicy) {
+    this.requestPolicy = requestPolicy == null ? new S3RequestPolicy() : requestPolicy;
+  }
+
+  /**
+   * Sets the on disk cache consulted before sending requests, null disables caching
+   */
+  public void setDiskCache(DiskChunkCache diskCache) {
+    this.diskCache = diskCache;
+  }
+
+  public LatencyHistogram getLatencyHistogram() {
+    return latency;
+  }
+
+  public void close() {
+    if (latency.getCount() > 0) {
+      LOGGER.debug("HTTP request latency {}", latency);
+    }
+    prefetched.clear();
+    synchronized (this) {
+      if (fetchExecutor != null) {
+        fetchExecutor.shutdownNow();
+        fetchExecutor = null;
+      }
+    }
+  }
+
+  @Override
+  public InputStream getInputStream(String key) throws IOException {
+    return getInputStream(root, key);
+  }
+
+  /**
+   * Gets the input stream for a key relative to the given root rather than the
+   * current root of the store, so that it is safe to use from several threads
+   * @return the content or null if the key does not exist
+   */
+  public InputStream getInputStream(String rootUrl, String key) throws IOException {
+    String url = resolve(rootUrl, key);
+    ByteBuffer data = null;
+    Future<ByteBuffer> pending = prefetched.take(url);
+    if (pending != null) {
+      try {
+        data = pending.get();
+        return data == null ? null : toInputStream(data);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for " + url);
+      }
+      catch (ExecutionException e) {
+        LOGGER.debug("Prefetch failed, retrying " + url, e.getCause());
+      }
+      catch (CancellationException e) {
+        LOGGER.debug("Prefetch cancelled, downloading {}", url);
+      }
+    }
+    data = download(url);
+    return data == null ? null : toInputStream(data);
+  }
+
+  /**
+   * Reads part of an object with a range request
+   * @return the content of the range or null if the key does not exist
+   */
+  public ByteBuffer readRange(String rootUrl, String key, long offset, int length) throws IOException {
+    List<ByteBuffer> data = readObjectRanges(rootUrl, key,
+        Collections.singletonList(new S3FileSystemStore.ByteRange(offset, length)));
+    return data == null ? null : data.get(0);
+  }
+
+  /**
+   * Reads parts of several objects. Nearby ranges of the same object are coalesced into a single
+   * request as by {@link S3FileSystemStore#readRanges} and the objects are read concurrently on the
+   * fetch pool. Ranges of objects held in the disk cache are read from the cache.
+   * @param rangesByKey ranges to read for each key relative to rootUrl
+   * @return the content of each range in the order requested, keys of objects that do not exist are omitted
+   */
+  public Map<String, List<ByteBuffer>> readRanges(String rootUrl,
+      Map<String, List<S3FileSystemStore.ByteRange>> rangesByKey) throws IOException {
+    List<String> keys = new ArrayList<String>(rangesByKey.keySet());
+    List<Future<List<ByteBuffer>>> futures = new ArrayList<Future<List<ByteBuffer>>>(keys.size());
+    if (keys.size() > 1) {
+      ExecutorService executor = getFetchExecutor();
+      for (String key : keys) {
+        futures.add(executor.submit(() -> readObjectRanges(rootUrl, key, rangesByKey.get(key))));
+      }
+    }
+    Map<String, List<ByteBuffer>> results = new LinkedHashMap<String, List<ByteBuffer>>();
+    try {
+      for (int i = 0; i < keys.size(); i++) {
+        String key = keys.get(i);
+        List<ByteBuffer> slices = futures.isEmpty() ?
+            readObjectRanges(rootUrl, key, rangesByKey.get(key)) : futures.get(i).get();
+        if (slices != null) {
+          results.put(key, slices);
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while reading ranges under " + rootUrl);
+    }
+    catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Unable to read ranges under " + rootUrl, e.getCause());
+    }
+    finally {
+      // Requests already sent are left to finish so that their connections can be reused
+      for (Future<List<ByteBuffer>> future : futures) {
+        future.cancel(false);
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Reads the ranges of a single object. When the server ignores the Range header and sends the
+   * whole object, every range is served from that response and the object is put in the disk cache.
+   * @return the content of each range in the order requested or null if the key does not exist
+   */
+  private List<ByteBuffer> readObjectRanges(String rootUrl, String key, List<S3FileSystemStore.ByteRange> ranges)
+      throws IOException {
+    String url = resolve(rootUrl, key);
+    DiskChunkCache cache = diskCache;
+    if (cache != null) {
+      DiskChunkCache.Entry entry = cache.get(getCacheBucket(url), url);
+      if (entry != null && cache.isFresh(entry)) {
+        return sliceAll(entry.getData(), ranges, url);
+      }
+    }
+    List<ByteBuffer> slices = new ArrayList<ByteBuffer>(Collections.nCopies(ranges.size(), (ByteBuffer) null));
+    for (S3FileSystemStore.CoalescedRange request : S3FileSystemStore.coalesce(key, null, ranges, rangeCoalesceBytes)) {
+      Response response = sendWithRetries(url, "GET", request.start, (int) (request.end - request.start), null, 0);
+      if (response.status == HttpURLConnection.HTTP_NOT_FOUND) {
+        return null;
+      }
+      if (!isSuccess(response.status)) {
+        throw new IOException("HTTP " + response.status + " for " + url);
+      }
+      if (response.status != HttpURLConnection.HTTP_PARTIAL) {
+        // The server ignored the range and sent the whole object
+        if (cache != null) {
+          cache.put(getCacheBucket(url), url, response.data, response.etag);
+        }
+        return sliceAll(response.data, ranges, url);
+      }
+      for (int r = 0; r < request.ranges.size(); r++) {
+        S3FileSystemStore.ByteRange range = request.ranges.get(r);
+        slices.set(request.indices.get(r), slice(response.data, range.getOffset() - request.start,
+            range.getLength(), url));
+      }
+    }
+    return slices;
+  }
+
+  private static List<ByteBuffer> sliceAll(ByteBuffer data, List<S3FileSystemStore.ByteRange> ranges, String url)
+      throws IOException {
+    List<ByteBuffer> slices = new ArrayList<ByteBuffer>(ranges.size());
+    for (S3FileSystemStore.ByteRange range : ranges) {
+      slices.add(slice(data, range.getOffset(), range.getLength(), url));
+    }
+    return slices;
+  }
+
+  /**
+   * Starts downloading the keys concurrently in the background, subsequent calls to
+   * {@link #getInputStream} for these keys wait for and consume the downloaded data.
+   * Keys already being prefetched by another caller are not downloaded again.
+   * @return the prefetches started by this call, close it once the keys have been read
+   * to discard those that were not consumed
+   */
+  public PrefetchedObjects.Batch prefetch(String rootUrl, Collection<String> keys) {
+    PrefetchedObjects.Batch batch = prefetched.newBatch();
+    for (String key : keys) {
+      batch.add(resolve(rootUrl, key), () -> fetchAsync(rootUrl, key));
+    }
+    return batch;
+  }
+
+  @Override
+  public CompletableFuture<ByteBuffer> fetchAsync(String key) {
+    return fetchAsync(root, key);
+  }
+
+  /**
+   * Starts downloading a key on the fetch pool, at most {@link #getMaxInFlight()} downloads
+   * run at once and further fetches wait in the queue of the pool without holding a thread
+   * @return the content, or null if the key does not exist
+   */
+  public CompletableFuture<ByteBuffer> fetchAsync(String rootUrl, String key) {
+    String url = resolve(rootUrl, key);
+    return S3FileSystemStore.submit(getFetchExecutor(), () -> download(url));
+  }
+
+  /**
+   * Checks which keys are groups or arrays, the checks run concurrently
+   * @return the subset of the keys that exist
+   */
+  public Set<String> filterExisting(String rootUrl, Collection<String> keys) throws IOException {
+    ExecutorService executor = getFetchExecutor();
+    List<String> keyList = new ArrayList<String>(keys);
+    List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(keyList.size());
+    for (String key : keyList) {
+      futures.add(executor.submit(() -> exists(rootUrl, key + "/" + ZarrConstants.FILENAME_DOT_ZGROUP) ||
+          exists(rootUrl, key + "/" + ZarrConstants.FILENAME_DOT_ZARRAY)));
+    }
+    Set<String> existing = new HashSet<String>();
+    try {
+      for (int i = 0; i < futures.size(); i++) {
+        if (futures.get(i).get()) {
+          existing.add(keyList.get(i));
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while checking keys under " + rootUrl);
+    }
+    catch (ExecutionException e) {
+      throw new IOException("Unable to check keys under " + rootUrl, e.getCause());
+    }
+    return existing;
+  }
+
+  @Override
+  public OutputStream getOutputStream(String key) throws IOException {
+    throw new IOException("HTTP stores are read only");
+  }
+
+  @Override
+  public void delete(String key) throws IOException {
+    throw new IOException("HTTP stores are read only");
+  }
+
+  @Override
+  public TreeSet<String> getArrayKeys() throws IOException {
+    return getArrayKeys("");
+  }
+
+  @Override
+  public TreeSet<String> getGroupKeys() throws IOException {
+    return getGroupKeys("");
+  }
+
+  @Override
+  public TreeSet<String> getKeysEndingWith(String suffix) throws IOException {
+    return getKeysEndingWith("", suffix);
+  }
+
+  @Override
+  public TreeSet<String> getArrayKeys(String prefix) throws IOException {
+    TreeSet<String> arrays = new TreeSet<String>();
+    discover(root, prefix, arrays, new TreeSet<String>());
+    return arrays;
+  }
+
+  @Override
+  public TreeSet<String> getGroupKeys(String prefix) throws IOException {
+    TreeSet<String> groups = new TreeSet<String>();
+    discover(root, prefix, new TreeSet<String>(), groups);
+    return groups;
+  }
+
+  @Override
+  public TreeSet<String> getKeysEndingWith(String prefix, String suffix) throws IOException {
+    TreeSet<String> arrays = new TreeSet<String>();
+    TreeSet<String> groups = new TreeSet<String>();
+    discover(root, prefix, arrays, groups);
+    TreeSet<String> keys = new TreeSet<String>();
+    for (String array : arrays) {
+      addIfEndsWith(keys, array + "/" + ZarrConstants.FILENAME_DOT_ZARRAY, suffix);
+    }
+    for (String group : groups) {
+      addIfEndsWith(keys, group + "/" + ZarrConstants.FILENAME_DOT_ZGROUP, suffix);
+    }
+    return keys;
+  }
+
+  @Override
+  public Stream<String> getRelativeLeafKeys(String key) throws IOException {
+    throw new IOException("HTTP stores cannot list the chunks of " + key);
+  }
+
+  private static void addIfEndsWith(Set<String> keys, String key, String suffix) {
+    if (key.endsWith(suffix)) {
+      keys.add(key);
+    }
+  }
+
+  /**
+   * Finds the arrays and groups below a prefix, keys are relative to the prefix. Only the
+   * groups below the prefix are crawled when the dataset has no consolidated metadata.
+   * @param prefix key relative to the root, empty for the root
+   */
+  private void discover(String rootUrl, String prefix, Set<String> arrays, Set<String> groups) throws IOException {
+    while (prefix.startsWith("/")) {
+      prefix = prefix.substring(1);
+    }
+    while (prefix.endsWith("/")) {
+      prefix = prefix.substring(0, prefix.length() - 1);
+    }
+    String base = prefix.isEmpty() ? "" : prefix + "/";
+    Set<String> foundArrays = new TreeSet<String>();
+    Set<String> foundGroups = new TreeSet<String>();
+    Map<String, Object> consolidated = readJson(rootUrl, ZMETADATA);
+    if (consolidated != null && consolidated.get("metadata") instanceof Map) {
+      for (String key : ((Map<String, Object>) consolidated.get("metadata")).keySet()) {
+        if (key.endsWith("/" + ZarrConstants.FILENAME_DOT_ZARRAY)) {
+          foundArrays.add(key.substring(0, key.lastIndexOf('/')));
+        }
+        else if (key.endsWith("/" + ZarrConstants.FILENAME_DOT_ZGROUP)) {
+          foundGroups.add(key.substring(0, key.lastIndexOf('/')));
+        }
+      }
+    }
+    else {
+      crawl(rootUrl, prefix, foundArrays, foundGroups);
+    }
+    addRelative(arrays, foundArrays, base);
+    addRelative(groups, foundGroups, base);
+  }
+
+  private static void addRelative(Set<String> relative, Set<String> keys, String base) {
+    for (String key : keys) {
+      if (key.startsWith(base) && key.length() > base.length()) {
+        relative.add(key.substring(base.length()));
+      }
+    }
+  }
+
+  private void crawl(String rootUrl, String prefix, Set<String> arrays, Set<String> groups) throws IOException {
+    String base = prefix.isEmpty() ? "" : prefix + "/";
+    Map<String, Object> attrs = readJson(rootUrl, base + ZATTRS);
+    Set<String> children = new TreeSet<String>();
+    if (attrs != null) {
+      for (Map<String, Object> multiscale : getMapList(attrs.get("multiscales"))) {
+        for (Map<String, Object> dataset : getMapList(multiscale.get("datasets"))) {
+          addChild(children, dataset.get("path"));
+        }
+      }
+      if (attrs.get("plate") instanceof Map) {
+        for (Map<String, Object> well : getMapList(((Map<String, Object>) attrs.get("plate")).get("wells"))) {
+          Object path = well.get("path");
+          if (path instanceof String && ((String) path).contains("/")) {
+            // Row groups are not listed in the plate metadata
+            String row = ((String) path).substring(0, ((String) path).indexOf('/'));
+            groups.add(base + row);
+          }
+          addChild(children, path);
+        }
+      }
+      if (attrs.get("well") instanceof Map) {
+        for (Map<String, Object> image : getMapList(((Map<String, Object>) attrs.get("well")).get("images"))) {
+          addChild(children, image.get("path"));
+        }
+      }
+      if (attrs.get("labels") instanceof List) {
+        for (Object label : (List<Object>) attrs.get("labels")) {
+          if (label instanceof String) {
+            children.add((String) label);
+          }
+        }
+      }
+      if (attrs.containsKey("bioformats2raw.layout")) {
+        addSeries(rootUrl, base, children);
+      }
+      // Images do not list their labels group, it is only found by probing
+      if (attrs.containsKey("multiscales") && exists(rootUrl, base + "labels/" + ZarrConstants.FILENAME_DOT_ZGROUP)) {
+        children.add("labels");
+      }
+    }
+    for (String child : children) {
+      String key = base + child;
+      if (exists(rootUrl, key + "/" + ZarrConstants.FILENAME_DOT_ZARRAY)) {
+        arrays.add(key);
+      }
+      else if (exists(rootUrl, key + "/" + ZarrConstants.FILENAME_DOT_ZGROUP)) {
+        groups.add(key);
+        crawl(rootUrl, key, arrays, groups);
+      }
+    }
+  }
+
+  /**
+   * Adds the series of a bioformats2raw layout, listed by the OME group or found by probing
+   */
+  private void addSeries(String rootUrl, String base, Set<String> children) throws IOException {
+    Map<String, Object> omeAttrs = readJson(rootUrl, base + "OME/" + ZATTRS);
+    if (omeAttrs != null && omeAttrs.get("series") instanceof List) {
+      for (Object series : (List<Object>) omeAttrs.get("series")) {
+        addChild(children, series);
+      }
+      return;
+    }
+    for (int series = 0; series < MAX_PROBED_SERIES; series++) {
+      if (!exists(rootUrl, base + series + "/" + ZarrConstants.FILENAME_DOT_ZGROUP)) {
+        break;
+      }
+      children.add(String.valueOf(series));
+    }
+  }
+
+  private static void addChild(Set<String> children, Object path) {
+    if (path instanceof String && !((String) path).isEmpty()) {
+      children.add((String) path);
+    }
+  }
+
+  private static List<Map<String, Object>> getMapList(Object value) {
+    List<Map<String, Object>> maps = new ArrayList<Map<String, Object>>();
+    if (value instanceof List) {
+      for (Object item : (List<Object>) value) {
+        if (item instanceof Map) {
+          maps.add((Map<String, Object>) item);
+        }
+      }
+    }
+    return maps;
+  }
+
+  private Map<String, Object> readJson(String rootUrl, String key) throws IOException {
+    InputStream in = getInputStream(rootUrl, key);
+    if (in == null) {
+      return null;
+    }
+    try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+      return ZarrUtils.fromJson(reader, Map.class);
+    }
+  }
+
+  private boolean exists(String rootUrl, String key) throws IOException {
+    String url = resolve(rootUrl, key);
+    DiskChunkCache cache = diskCache;
+    if (cache != null && cache.get(getCacheBucket(url), url) != null) {
+      return true;
+    }
+    int status = sendWithRetries(url, "HEAD", -1, 0, null, 0).status;
+    if (isSuccess(status) || status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+      return true;
+    }
+    if (status != HttpURLConnection.HTTP_NOT_FOUND) {
+      LOGGER.debug("HTTP {} for {}, treating it as missing", status, url);
+    }
+    return false;
+  }
+
+  private static boolean isSuccess(int status) {
+    return status >= 200 && status < 300;
+  }
+
+  /**
+   * Gets the full content of an object from the disk cache if one is set and the entry is fresh,
+   * otherwise downloads it, revalidating stale entries with a conditional request
+   * @return the content or null if the object does not exist
+   */
+  private ByteBuffer download(String url) throws IOException {
+    DiskChunkCache cache = diskCache;
+    DiskChunkCache.Entry entry = null;
+    if (cache != null) {
+      entry = cache.get(getCacheBucket(url), url);
+      if (entry != null && cache.isFresh(entry)) {
+        return entry.getData();
+      }
+    }
+    Response response = sendWithRetries(url, "GET", -1, 0,
+        entry == null ? null : entry.getETag(), entry == null ? 0 : entry.getValidatedAt());
+    if (response.status == HttpURLConnection.HTTP_NOT_FOUND) {
+      if (entry != null) {
+        cache.remove(getCacheBucket(url), url);
+      }
+      return null;
+    }
+    if (response.status == HttpURLConnection.HTTP_NOT_MODIFIED && entry != null) {
+      cache.markValidated(getCacheBucket(url), url, entry);
+      return entry.getData();
+    }
+    if (!isSuccess(response.status)) {
+      throw new IOException("HTTP " + response.status + " for " + url);
+    }
+    if (cache != null) {
+      cache.put(getCacheBucket(url), url, response.data, response.etag);
+    }
+    return response.data;
+  }
+
+  private Response sendWithRetries(String url, String method, long offset, int length, String etag,
+      long validatedAt) throws IOException {
+    S3RequestPolicy policy = requestPolicy;
+    for (int attempt = 0; ; attempt++) {
+      long start = System.nanoTime();
+      IOException failure;
+      try {
+        Response response = send(url, method, offset, length, etag, validatedAt, policy);
+        if (response.status < 500 && response.status != 429) {
+          latency.record(System.nanoTime() - start);
+          return response;
+        }
+        failure = new IOException("HTTP " + response.status + " for " + url);
+      }
+      catch (InterruptedIOException e) {
+        if (!(e instanceof SocketTimeoutException)) {
+          throw e;
+        }
+        failure = e;
+      }
+      catch (IOException e) {
+        failure = e;
+      }
+      if (attempt >= policy.getMaxRetries()) {
+        throw new IOException("Unable to access " + url + " after " + (attempt + 1) + " attempts", failure);
+      }
+      long backoff = policy.getBackoffMillis(attempt);
+      LOGGER.debug("Retrying {} in {}ms after failed attempt {}", url, backoff, attempt + 1, failure);
+      try {
+        Thread.sleep(backoff);
+      }
+      catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting to retry " + url);
+      }
+    }
+  }
+
+  /**
+   * Sends a single request, the body is always read to the end so that the connection can be reused
+   */
+  private Response send(String url, String method, long offset, int length, String etag, long validatedAt,
+      S3RequestPolicy policy) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    connection.setRequestMethod(method);
+    connection.setConnectTimeout(policy.getRequestTimeoutMillis());
+    connection.setReadTimeout(policy.getRequestTimeoutMillis());
+    if (offset >= 0) {
+      connection.setRequestProperty("Range", "bytes=" + offset + "-" + (offset + length - 1));
+    }
+    if (etag != null) {
+      connection.setRequestProperty("If-None-Match", etag);
+    }
+    else if (validatedAt > 0) {
+      SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+      format.setTimeZone(TimeZone.getTimeZone("GMT"));
+      connection.setRequestProperty("If-Modified-Since", format.format(new Date(validatedAt)));
+    }
+    int status = connection.getResponseCode();
+    InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+    ByteBuffer data = null;
+    if (in != null) {
+      try {
+        data = readBody(in, connection.getContentLengthLong(), url);
+      }
+      finally {
+        in.close();
+      }
+    }
+    return new Response(status, data, connection.getHeaderField("ETag"));
+  }
+
+  private static ByteBuffer readBody(InputStream in, long length, String url) throws IOException {
+    if (length >= 0 && length < Integer.MAX_VALUE) {
+      byte[] buffer = new byte[(int) length];
+      int offset = 0;
+      while (offset < length) {
+        int read = in.read(buffer, offset, buffer.length - offset);
+        if (read == -1) {
+          throw new EOFException("Expected " + length + " bytes but received " + offset + " for " + url);
+        }
+        offset += read;
+      }
+      return ByteBuffer.wrap(buffer);
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+    byte[] buffer = new byte[8192];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+    return ByteBuffer.wrap(out.toByteArray());
+  }
+
+  private static class Response {
+    final int status;
+    final ByteBuffer data;
+    final String etag;
+
+    Response(int status, ByteBuffer data, String etag) {
+      this.status = status;
+      this.data = data;
+      this.etag = etag;
+    }
+  }
+
+  private static ByteBuffer slice(ByteBuffer data, long offset, int length, String url) throws IOException {
+    if (offset < 0 || offset + length > data.remaining()) {
+      throw new IOException("Range " + offset + "+" + length + " is beyond the end of " + url);
+    }
+    ByteBuffer slice = data.duplicate();
+    slice.position(slice.position() + (int) offset);
+    slice.limit(slice.position() + length);
+    return slice.slice();
+  }
+
+  private static InputStream toInputStream(ByteBuffer data) {
+    return new ByteArrayInputStream(data.array(), data.arrayOffset() + data.position(), data.remaining());
+  }
+
+  private static String getCacheBucket(String url) {
+    int hostEnd = url.indexOf('/', url.indexOf("//") + 2);
+    return hostEnd < 0 ? url : url.substring(0, hostEnd);
+  }
+
+  private synchronized ExecutorService getFetchExecutor() {
+    if (fetchExecutor == null) {
+      fetchExecutor = Executors.newFixedThreadPool(maxInFlight, runnable -> {
+        Thread thread = new Thread(runnable, "HttpStore-fetch");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    return fetchExecutor;
+  }
+
+  private static String resolve(String rootUrl, String key) {
+    String base = normalize(rootUrl);
+    while (key.startsWith("/")) {
+      key = key.substring(1);
+    }
+    return base.endsWith("/") ? base + key : base + "/" + key;
+  }
+
+  /**
+   * Restores the double slash after the protocol that is collapsed when a URL is handled as a path
+   */
+  static String normalize(String url) {
+    int colon = url.indexOf(":/");
+    if (colon > 0 && !url.startsWith("//", colon + 1)) {
+      return url.substring(0, colon + 2) + url.substring(colon + 1);
+    }
+    return url;
+  }
+}
@@ -0,0 +1,383 @@
+package loci.formats;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.bc.zarr.ZarrConstants;
+
+/**
+ * Store holding every key of a dataset in off-heap memory, used to serve frequently read
+ * small datasets without I/O and as an I/O free backend when measuring the cost of decoding.
+ *
+ * Stores are registered by name and opened with memory:name locations. A registered store
+ * is shared by every reader and stays in memory until it is removed. Stores loaded by
+ * {@link #preload} share a byte budget, the least recently preloaded stores are removed
+ * from the registry when a new dataset would exceed it.
+ */
+public class MemoryStore implements PrefixListingStore {
+
+  protected static final Logger LOGGER = LoggerFactory.getLogger(MemoryStore.class);
+
+  public static final String SCHEME = "memory";
+
+  private static final Map<String, MemoryStore> STORES = new ConcurrentHashMap<String, MemoryStore>();
+  // Stores registered by preload in least recently used order, guarded by the class lock
+  private static final LinkedHashMap<String, MemoryStore> PRELOADED =
+      new LinkedHashMap<String, MemoryStore>(16, 0.75f, true);
+  private static long preloadedBytes = 0;
+  // Budget for which each dataset was found too large to load, so that it is not walked again
+  private static final Map<String, Long> TOO_LARGE = new HashMap<String, Long>();
+
+  // Read only views of the content of each key, keys are sorted so that prefixes can be listed
+  private final ConcurrentSkipListMap<String, ByteBuffer> objects = new ConcurrentSkipListMap<String, ByteBuffer>();
+  private final AtomicLong totalBytes = new AtomicLong();
+
+  /**
+   * Registers the store under the name, replacing any store previously registered with it
+   */
+  public static void register(String name, MemoryStore store) {
+    synchronized (MemoryStore.class) {
+      MemoryStore preloaded = PRELOADED.remove(name);
+      if (preloaded != null) {
+        preloadedBytes -= preloaded.getTotalBytes();
+      }
+    }
+    STORES.put(name, store);
+  }
+
+  /**
+   * @return the store registered under the name or null if there is none
+   */
+  public static MemoryStore get(String name) {
+    return STORES.get(name);
+  }
+
+  /**
+   * Removes the store from the registry, its memory is released once no reader uses it
+   * @return the removed store or null if none was registered under the name
+   */
+  public static MemoryStore remove(String name) {
+    synchronized (MemoryStore.class) {
+      MemoryStore preloaded = PRELOADED.remove(name);
+      if (preloaded != null) {
+        preloadedBytes -= preloaded.getTotalBytes();
+      }
+    }
+    return STORES.remove(name);
+  }
+
+  /**
+   * Returns the store registered for the directory of a dataset, loading the whole directory
+   * and registering it under its path if it is not yet registered. The least recently
+   * preloaded stores are removed from the registry to keep every preloaded store within maxBytes.
+   * A dataset found larger than maxBytes is remembered and not walked again for the same budget.
+   * @param root directory of the dataset
+   * @param maxBytes largest total size of the datasets that are kept loaded
+   * @return the registered store or null if the dataset is larger than maxBytes
+   */
+  public static synchronized MemoryStore preload(Path root, long maxBytes) throws IOException {
+    String name = getName(root);
+    MemoryStore store = STORES.get(name);
+    if (store != null) {
+      PRELOADED.get(name);
+      return store;
+    }
+    Long tooLarge = TOO_LARGE.get(name);
+    if (tooLarge != null && maxBytes <= tooLarge) {
+      return null;
+    }
+    store = load(root, maxBytes);
+    if (store == null) {
+      TOO_LARGE.put(name, maxBytes);
+      return null;
+    }
+    TOO_LARGE.remove(name);
+    Iterator<Map.Entry<String, MemoryStore>> eldest = PRELOADED.entrySet().iterator();
+    while (preloadedBytes + store.getTotalBytes() > maxBytes && eldest.hasNext()) {
+      Map.Entry<String, MemoryStore> entry = eldest.next();
+      LOGGER.debug("Removing {} from memory to load {}", entry.getKey(), name);
+      eldest.remove();
+      preloadedBytes -= entry.getValue().getTotalBytes();
+      STORES.remove(entry.getKey(), entry.getValue());
+    }
+    register(name, store);
+    PRELOADED.put(name, store);
+    preloadedBytes += store.getTotalBytes();
+    return store;
+  }
+
+  /**
+   * @return the number of bytes held by the stores loaded by {@link #preload}
+   */
+  public static synchronized long getPreloadedBytes() {
+    return preloadedBytes;
+  }
+
+  /**
+   * @return the name under which {@link #preload} registers the dataset
+   */
+  public static String getName(Path root) {
+    return root.toAbsolutePath().normalize().toString().replace('\\', '/');
+  }
+
+  /**
+   * Loads every file under the directory
+   * @return the loaded store or null if the files are larger than maxBytes in total,
+   * or a file is too large to be held in a single buffer
+   */
+  public static MemoryStore load(Path root, long maxBytes) throws IOException {
+    List<Path> files;
+    try (Stream<Path> walk = Files.walk(root)) {
+      files = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+    }
+    long size = 0;
+    for (Path file : files) {
+      long fileSize = Files.size(file);
+      if (fileSize > Integer.MAX_VALUE - 8) {
+        LOGGER.debug("Not loading {} into memory, {} is too large", root, file);
+        return null;
+      }
+      size += fileSize;
+      if (size > maxBytes) {
+        LOGGER.debug("Not loading {} into memory, larger than {} bytes", root, maxBytes);
+        return null;
+      }
+    }
+    MemoryStore store = new MemoryStore();
+    for (Path file : files) {
+      String key = root.relativize(file).toString().replace('\\', '/');
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+        long fileSize = channel.size();
+        if (fileSize > Integer.MAX_VALUE - 8) {
+          throw new IOException(file + " is too large to load into memory");
+        }
+        ByteBuffer data = ByteBuffer.allocateDirect((int) fileSize);
+        while (data.hasRemaining() && channel.read(data) >= 0) {
+          // read until the buffer is full
+        }
+        data.flip();
+        store.put(key, data);
+      }
+    }
+    LOGGER.debug("Loaded {} keys and {} bytes from {}", files.size(), size, root);
+    return store;
+  }
+
+  /**
+   * Stores a copy of the data in off-heap memory
+   */
+  public void put(String key, byte[] data) {
+    ByteBuffer copy = ByteBuffer.allocateDirect(data.length);
+    copy.put(data);
+    copy.flip();
+    put(key, copy);
+  }
+
+  private void put(String key, ByteBuffer data) {
+    ByteBuffer previous = objects.put(normalize(key), data.asReadOnlyBuffer());
+    totalBytes.addAndGet(data.remaining() - (previous == null ? 0 : previous.remaining()));
+  }
+
+  /**
+   * @return the content of the key, or null if the key does not exist
+   */
+  public ByteBuffer getData(String key) {
+    ByteBuffer data = objects.get(normalize(key));
+    return data == null ? null : data.duplicate();
+  }
+
+  public int getKeyCount() {
+    return objects.size();
+  }
+
+  /**
+   * @return the number of bytes held by the store
+   */
+  public long getTotalBytes() {
+    return totalBytes.get();
+  }
+
+  @Override
+  public InputStream getInputStream(String key) throws IOException {
+    ByteBuffer data = getData(key);
+    return data == null ? null : new ByteBufferInputStream(data);
+  }
+
+  @Override
+  public OutputStream getOutputStream(String key) throws IOException {
+    return new ByteArrayOutputStream() {
+      @Override
+      public void close() throws IOException {
+        super.close();
+        put(key, toByteArray());
+      }
+    };
+  }
+
+  @Override
+  public void delete(String key) throws IOException {
+    String normalized = normalize(key);
+    ByteBuffer removed = objects.remove(normalized);
+    if (removed != null) {
+      totalBytes.addAndGet(-removed.remaining());
+    }
+    for (String child : new ArrayList<String>(objects.subMap(normalized + "/", normalized + "0").keySet())) {
+      removed = objects.remove(child);
+      if (removed != null) {
+        totalBytes.addAndGet(-removed.remaining());
+      }
+    }
+  }
+
+  @Override
+  public TreeSet<String> getArrayKeys() throws IOException {
+    return getArrayKeys("");
+  }
+
+  @Override
+  public TreeSet<String> getGroupKeys() throws IOException {
+    return getGroupKeys("");
+  }
+
+  @Override
+  public TreeSet<String> getKeysEndingWith(String suffix) throws IOException {
+    return getKeysEndingWith("", suffix);
+  }
+
+  @Override
+  public TreeSet<String> getArrayKeys(String prefix) throws IOException {
+    return getParentKeys(getRelativeLeafKeys(prefix), ZarrConstants.FILENAME_DOT_ZARRAY);
+  }
+
+  @Override
+  public TreeSet<String> getGroupKeys(String prefix) throws IOException {
+    return getParentKeys(getRelativeLeafKeys(prefix), ZarrConstants.FILENAME_DOT_ZGROUP);
+  }
+
+  @Override
+  public TreeSet<String> getKeysEndingWith(String prefix, String suffix) throws IOException {
+    return getRelativeLeafKeys(prefix).filter(key -> key.endsWith(suffix))
+        .collect(Collectors.toCollection(TreeSet::new));
+  }
+
+  @Override
+  public Stream<String> getRelativeLeafKeys(String key) throws IOException {
+    String normalized = normalize(key);
+    if (normalized.isEmpty()) {
+      return new ArrayList<String>(objects.keySet()).stream();
+    }
+    String directory = normalized + "/";
+    // '0' follows '/' so the sub map holds exactly the keys under the directory
+    return new ArrayList<String>(objects.subMap(directory, normalized + "0").keySet()).stream()
+        .map(child -> child.substring(directory.length()));
+  }
+
+  private static TreeSet<String> getParentKeys(Stream<String> keys, String metadataName) {
+    String suffix = "/" + metadataName;
+    return keys.filter(key -> key.endsWith(suffix))
+        .map(key -> key.substring(0, key.length() - suffix.length()))
+        .collect(Collectors.toCollection(TreeSet::new));
+  }
+
+  private static String normalize(String key) {
+    String normalized = key.replace('\\', '/');
+    while (normalized.startsWith("/")) {
+      normalized = normalized.substring(1);
+    }
+    while (normalized.endsWith("/")) {
+      normalized = normalized.substring(0, normalized.length() - 1);
+    }
+    return normalized;
+  }
+
+  /**
+   * Reads a buffer without copying it to the heap first
+   */
+  private static class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer data;
+
+    ByteBufferInputStream(ByteBuffer data) {
+      this.data = data;
+    }
+
+    @Override
+    public int read() {
+      return data.hasRemaining() ? data.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+      if (length == 0) {
+        return 0;
+      }
+      if (!data.hasRemaining()) {
+        return -1;
+      }
+      int count = Math.min(length, data.remaining());
+      data.get(buffer, offset, count);
+      return count;
+    }
+
+    @Override
+    public long skip(long n) {
+      int count = (int) Math.max(0, Math.min(n, data.remaining()));
+      data.position(data.position() + count);
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return data.remaining();
+    }
+  }
+}
@@ -0,0 +1,158 @@
+package loci.formats;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * Objects fetched ahead of being read from a store, keyed by object. Each caller prefetches
+ * through its own {@link Batch}, so concurrent readers sharing a store do not discard each
+ * other's prefetches, and an object requested by several batches is fetched once and kept
+ * until it is consumed or every batch requesting it is closed. Abandoned fetches are
+ * cancelled with {@code cancel(false)}, a fetch that has started is left to complete rather
+ * than interrupted, as interrupting a thread blocked on a channel or connection closes it.
+ */
+public class PrefetchedObjects {
+
+  private final Map<String, Pending> pending = new ConcurrentHashMap<String, Pending>();
+
+  private static final class Pending {
+    private final Future<ByteBuffer> future;
+    private int batches = 1;
+
+    private Pending(Future<ByteBuffer> future) {
+      this.future = future;
+    }
+  }
+
+  /**
+   * Prefetches requested by one caller, closing the batch discards those that were not
+   * consumed and are not requested by another open batch
+   */
+  public final class Batch implements Closeable {
+    private final List<String> keys = new ArrayList<String>();
+    private final List<Pending> requested = new ArrayList<Pending>();
+    private int started = 0;
+
+    private Batch() {
+    }
+
+    /**
+     * Requests an object, starting its fetch unless it is already pending
+     * @param key identifying the object in the store
+     * @param fetch starts the fetch, only called if the object is not pending
+     */
+    public void add(String key, Supplier<Future<ByteBuffer>> fetch) {
+      Pending entry = pending.compute(key, (k, existing) -> {
+        if (existing == null) {
+          started++;
+          return new Pending(fetch.get());
+        }
+        existing.batches++;
+        return existing;
+      });
+      keys.add(key);
+      requested.add(entry);
+    }
+
+    /**
+     * @return the number of fetches started by this batch
+     */
+    public int getStartedCount() {
+      return started;
+    }
+
+    @Override
+    public void close() {
+      for (int i = 0; i < keys.size(); i++) {
+        Pending entry = requested.get(i);
+        pending.computeIfPresent(keys.get(i), (k, existing) -> {
+          if (existing != entry || --existing.batches > 0) {
+            return existing;
+          }
+          existing.future.cancel(false);
+          return null;
+        });
+      }
+      keys.clear();
+      requested.clear();
+    }
+  }
+
+  /**
+   * @return a new batch of prefetches
+   */
+  public Batch newBatch() {
+    return new Batch();
+  }
+
+  /**
+   * Removes the prefetch of an object so that the caller consumes it
+   * @return the pending fetch, or null if the object was not prefetched
+   */
+  public Future<ByteBuffer> take(String key) {
+    Pending entry = pending.remove(key);
+    return entry == null ? null : entry.future;
+  }
+
+  /**
+   * Discards the prefetch of an object, for example when it is overwritten
+   */
+  public void discard(String key) {
+    Future<ByteBuffer> future = take(key);
+    if (future != null) {
+      future.cancel(false);
+    }
+  }
+
+  /**
+   * Discards every pending prefetch, used when the store is closed
+   */
+  public void clear() {
+    for (String key : pending.keySet()) {
+      discard(key);
+    }
+  }
+
+  /**
+   * @return the number of objects prefetched and not yet consumed
+   */
+  public int size() {
+    return pending.size();
+  }
+}
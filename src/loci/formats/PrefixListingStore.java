@@ -0,0 +1,63 @@
+package loci.formats;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+import java.io.IOException;
+import java.util.TreeSet;
+
+import com.bc.zarr.storage.Store;
+
+/**
+ * Store able to list the groups and arrays below a key without listing the whole store,
+ * used by {@link StoreView} so that opening one image of a large dataset only lists that image.
+ * Keys are relative to the given prefix and the prefix itself is never included.
+ */
+public interface PrefixListingStore extends Store {
+
+  /**
+   * @param prefix key relative to the root of the store, empty for the root
+   * @return the keys of the arrays below the prefix
+   */
+  TreeSet<String> getArrayKeys(String prefix) throws IOException;
+
+  /**
+   * @param prefix key relative to the root of the store, empty for the root
+   * @return the keys of the groups below the prefix
+   */
+  TreeSet<String> getGroupKeys(String prefix) throws IOException;
+
+  /**
+   * @param prefix key relative to the root of the store, empty for the root
+   * @param suffix of the keys to return
+   * @return the keys of the objects below the prefix ending with the suffix
+   */
+  TreeSet<String> getKeysEndingWith(String prefix, String suffix) throws IOException;
+}
@@ -0,0 +1,286 @@
+package loci.formats;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.io.Closeable;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * JVM wide admission control of requests to an S3 endpoint. Every store reading from the
+ * endpoint shares the same controller, which caps the number of requests in flight and
+ * optionally the rate at which requests are sent, using a token bucket holding one second
+ * of requests. Requests over the limits wait in a queue whose depth is exposed, so that
+ * the load can be kept below the point where the endpoint starts throttling.
+ */
+public class S3AdmissionController {
+
+  public static final int DEFAULT_MAX_CONCURRENT = 0;
+  public static final double DEFAULT_MAX_REQUESTS_PER_SECOND = 0;
+
+  private static final Map<String, S3AdmissionController> CONTROLLERS = new HashMap<String, S3AdmissionController>();
+
+  private final String endpoint;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition available = lock.newCondition();
+  private int maxConcurrent = Integer.MAX_VALUE;
+  private double requestsPerSecond = DEFAULT_MAX_REQUESTS_PER_SECOND;
+  private double tokens;
+  private long lastRefill = System.nanoTime();
+  private int inFlight = 0;
+  private int queued = 0;
+  private int maxQueued = 0;
+  private final AtomicLong admitted = new AtomicLong();
+  private final AtomicLong throttled = new AtomicLong();
+  private final LatencyHistogram queueTime = new LatencyHistogram();
+
+  /**
+   * Request admitted by the controller, closing the permit ends the request
+   */
+  public final class Permit implements Closeable {
+    private boolean closed = false;
+
+    private Permit() {
+    }
+
+    @Override
+    public void close() {
+      lock.lock();
+      try {
+        if (!closed) {
+          closed = true;
+          inFlight--;
+          available.signalAll();
+        }
+      }
+      finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  S3AdmissionController(String endpoint) {
+    this.endpoint = endpoint;
+  }
+
+  /**
+   * @return the controller shared by every store using the endpoint
+   */
+  public static synchronized S3AdmissionController forEndpoint(String endpoint) {
+    S3AdmissionController controller = CONTROLLERS.get(endpoint);
+    if (controller == null) {
+      controller = new S3AdmissionController(endpoint);
+      CONTROLLERS.put(endpoint, controller);
+    }
+    return controller;
+  }
+
+  public String getEndpoint() {
+    return endpoint;
+  }
+
+  /**
+   * Limits the endpoint for every store sharing the controller. As readers with different
+   * options may share an endpoint, the most restrictive limits requested so far are kept
+   * @param maxConcurrent maximum number of requests in flight, 0 or less to keep the current limit
+   * @param requestsPerSecond maximum rate of requests, 0 or less to keep the current limit
+   */
+  public void configure(int maxConcurrent, double requestsPerSecond) {
+    lock.lock();
+    try {
+      if (maxConcurrent > 0 && maxConcurrent < this.maxConcurrent) {
+        this.maxConcurrent = maxConcurrent;
+      }
+      if (requestsPerSecond > 0 && (this.requestsPerSecond <= 0 || requestsPerSecond < this.requestsPerSecond)) {
+        double capacity = Math.max(1, requestsPerSecond);
+        tokens = this.requestsPerSecond <= 0 ? capacity : Math.min(tokens, capacity);
+        this.requestsPerSecond = requestsPerSecond;
+        lastRefill = System.nanoTime();
+      }
+      available.signalAll();
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Waits until a request may be sent
+   * @return the permit to close once the request is complete
+   */
+  public Permit acquire() throws InterruptedIOException {
+    long start = System.nanoTime();
+    lock.lock();
+    try {
+      queued++;
+      maxQueued = Math.max(maxQueued, queued);
+      try {
+        while (true) {
+          if (inFlight < maxConcurrent) {
+            long wait = takeToken();
+            if (wait == 0) {
+              break;
+            }
+            available.awaitNanos(wait);
+          }
+          else {
+            available.await();
+          }
+        }
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting to send a request to " + endpoint);
+      }
+      finally {
+        queued--;
+      }
+      inFlight++;
+    }
+    finally {
+      lock.unlock();
+    }
+    admitted.incrementAndGet();
+    queueTime.record(System.nanoTime() - start);
+    return new Permit();
+  }
+
+  /**
+   * Records a request rejected by the endpoint with a SlowDown or Too Many Requests response
+   */
+  public void recordThrottled() {
+    throttled.incrementAndGet();
+  }
+
+  public int getMaxConcurrent() {
+    lock.lock();
+    try {
+      return maxConcurrent;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  public double getRequestsPerSecond() {
+    lock.lock();
+    try {
+      return requestsPerSecond;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the number of requests currently in flight
+   */
+  public int getInFlight() {
+    lock.lock();
+    try {
+      return inFlight;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the number of requests currently waiting to be admitted
+   */
+  public int getQueueDepth() {
+    lock.lock();
+    try {
+      return queued;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the largest number of requests that have waited at the same time
+   */
+  public int getMaxQueueDepth() {
+    lock.lock();
+    try {
+      return maxQueued;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  public long getAdmittedCount() {
+    return admitted.get();
+  }
+
+  public long getThrottledCount() {
+    return throttled.get();
+  }
+
+  /**
+   * @return the time requests waited before being admitted
+   */
+  public LatencyHistogram getQueueTime() {
+    return queueTime;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s inFlight=%d queued=%d maxQueued=%d admitted=%d throttled=%d wait[%s]",
+        endpoint, getInFlight(), getQueueDepth(), getMaxQueueDepth(), getAdmittedCount(),
+        getThrottledCount(), queueTime);
+  }
+
+  /**
+   * Takes a token from the bucket, must be called with the lock held
+   * @return 0 if a token was taken, otherwise the time in nanoseconds until the next token
+   */
+  private long takeToken() {
+    if (requestsPerSecond <= 0) {
+      return 0;
+    }
+    long now = System.nanoTime();
+    double capacity = Math.max(1, requestsPerSecond);
+    tokens = Math.min(capacity, tokens + (now - lastRefill) * requestsPerSecond / TimeUnit.SECONDS.toNanos(1));
+    lastRefill = now;
+    if (tokens >= 1) {
+      tokens -= 1;
+      return 0;
+    }
+    return Math.max(1, (long) Math.ceil((1 - tokens) * TimeUnit.SECONDS.toNanos(1) / requestsPerSecond));
+  }
+}
@@ -0,0 +1,319 @@
+package loci.formats;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.AnonymousAWSCredentials;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+
+/**
+ * JVM wide registry of S3 clients, so that readers opening data from the same
+ * endpoint share a client and its connection pool rather than each paying for
+ * new connections and TLS handshakes. Clients are reference counted and shut
+ * down once they have not been used for the linger period.
+ */
+public final class S3ClientRegistry {
+
+  protected static final Logger LOGGER = LoggerFactory.getLogger(S3ClientRegistry.class);
+
+  public static final long DEFAULT_LINGER_MILLIS = 60000;
+
+  private static final Map<ClientKey, Entry> CLIENTS = new HashMap<ClientKey, Entry>();
+  private static ScheduledExecutorService reaper;
+  private static long lingerMillis = DEFAULT_LINGER_MILLIS;
+  private static Function<ClientKey, AmazonS3> clientFactory = S3ClientRegistry::buildClient;
+
+  private S3ClientRegistry() {
+  }
+
+  /**
+   * Settings of the connection pool of a client, clients are only shared
+   * between stores using the same endpoint and options
+   */
+  public static final class ClientOptions {
+    public static final int DEFAULT_MAX_CONNECTIONS = ClientConfiguration.DEFAULT_MAX_CONNECTIONS;
+    public static final boolean DEFAULT_KEEP_ALIVE = true;
+    public static final long DEFAULT_MAX_IDLE_MILLIS = ClientConfiguration.DEFAULT_CONNECTION_MAX_IDLE_MILLIS;
+
+    private final int maxConnections;
+    private final boolean keepAlive;
+    private final long maxIdleMillis;
+
+    public ClientOptions() {
+      this(DEFAULT_MAX_CONNECTIONS, DEFAULT_KEEP_ALIVE, DEFAULT_MAX_IDLE_MILLIS);
+    }
+
+    /**
+     * @param maxConnections maximum number of open connections in the pool
+     * @param keepAlive true if TCP keep-alive should be enabled on pooled connections
+     * @param maxIdleMillis time an idle connection is kept in the pool before being closed
+     */
+    public ClientOptions(int maxConnections, boolean keepAlive, long maxIdleMillis) {
+      this.maxConnections = maxConnections > 0 ? maxConnections : DEFAULT_MAX_CONNECTIONS;
+      this.keepAlive = keepAlive;
+      this.maxIdleMillis = maxIdleMillis > 0 ? maxIdleMillis : DEFAULT_MAX_IDLE_MILLIS;
+    }
+
+    public int getMaxConnections() {
+      return maxConnections;
+    }
+
+    public boolean isKeepAlive() {
+      return keepAlive;
+    }
+
+    public long getMaxIdleMillis() {
+      return maxIdleMillis;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof ClientOptions)) {
+        return false;
+      }
+      ClientOptions other = (ClientOptions) o;
+      return maxConnections == other.maxConnections && keepAlive == other.keepAlive &&
+          maxIdleMillis == other.maxIdleMillis;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = maxConnections;
+      result = 31 * result + (keepAlive ? 1 : 0);
+      result = 31 * result + Long.hashCode(maxIdleMillis);
+      return result;
+    }
+  }
+
+  /**
+   * Endpoint and options identifying a shared client
+   */
+  public static final class ClientKey {
+    private final String endpoint;
+    private final ClientOptions options;
+
+    public ClientKey(String endpoint, ClientOptions options) {
+      this.endpoint = endpoint;
+      this.options = options == null ? new ClientOptions() : options;
+    }
+
+    public String getEndpoint() {
+      return endpoint;
+    }
+
+    public ClientOptions getOptions() {
+      return options;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof ClientKey)) {
+        return false;
+      }
+      ClientKey other = (ClientKey) o;
+      return endpoint.equals(other.endpoint) && options.equals(other.options);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * endpoint.hashCode() + options.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return endpoint;
+    }
+  }
+
+  /**
+   * Reference to a shared client, closing the lease releases the reference.
+   * The client must not be used after the lease is closed.
+   */
+  public static final class Lease implements Closeable {
+    private final ClientKey key;
+    private final AmazonS3 client;
+    private boolean closed = false;
+
+    private Lease(ClientKey key, AmazonS3 client) {
+      this.key = key;
+      this.client = client;
+    }
+
+    public AmazonS3 getClient() {
+      return client;
+    }
+
+    @Override
+    public void close() {
+      synchronized (S3ClientRegistry.class) {
+        if (!closed) {
+          closed = true;
+          release(key);
+        }
+      }
+    }
+  }
+
+  private static final class Entry {
+    final AmazonS3 client;
+    int references = 0;
+    ScheduledFuture<?> pendingShutdown;
+
+    Entry(AmazonS3 client) {
+      this.client = client;
+    }
+  }
+
+  /**
+   * Acquires the shared client for the endpoint and options, creating it if needed
+   * @param endpoint of the S3 service including the protocol
+   * @param options of the connection pool, null for the defaults
+   */
+  public static synchronized Lease acquire(String endpoint, ClientOptions options) {
+    ClientKey key = new ClientKey(endpoint, options);
+    Entry entry = CLIENTS.get(key);
+    if (entry == null) {
+      LOGGER.debug("Creating shared S3 client for {}", endpoint);
+      entry = new Entry(clientFactory.apply(key));
+      CLIENTS.put(key, entry);
+    }
+    else if (entry.pendingShutdown != null) {
+      entry.pendingShutdown.cancel(false);
+      entry.pendingShutdown = null;
+    }
+    entry.references++;
+    return new Lease(key, entry.client);
+  }
+
+  /**
+   * @return the number of clients currently held by the registry, including clients waiting to be shut down
+   */
+  public static synchronized int size() {
+    return CLIENTS.size();
+  }
+
+  /**
+   * @return the number of open leases for the endpoint and options
+   */
+  public static synchronized int getReferenceCount(String endpoint, ClientOptions options) {
+    Entry entry = CLIENTS.get(new ClientKey(endpoint, options));
+    return entry == null ? 0 : entry.references;
+  }
+
+  /**
+   * Sets how long an unused client is kept before being shut down, 0 shuts clients down as soon as they are released
+   */
+  public static synchronized void setLingerMillis(long millis) {
+    lingerMillis = Math.max(0, millis);
+  }
+
+  /**
+   * Replaces the function used to create clients, intended for testing
+   */
+  public static synchronized void setClientFactory(Function<ClientKey, AmazonS3> factory) {
+    clientFactory = factory == null ? S3ClientRegistry::buildClient : factory;
+  }
+
+  /**
+   * Immediately shuts down every client that is no longer referenced
+   */
+  public static synchronized void evictIdle() {
+    CLIENTS.entrySet().removeIf(e -> {
+      Entry entry = e.getValue();
+      if (entry.references > 0) {
+        return false;
+      }
+      if (entry.pendingShutdown != null) {
+        entry.pendingShutdown.cancel(false);
+      }
+      entry.client.shutdown();
+      return true;
+    });
+  }
+
+  private static void release(ClientKey key) {
+    Entry entry = CLIENTS.get(key);
+    if (entry == null || --entry.references > 0) {
+      return;
+    }
+    if (lingerMillis == 0) {
+      shutdown(key, entry);
+      return;
+    }
+    if (reaper == null) {
+      reaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "S3ClientRegistry-reaper");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    entry.pendingShutdown = reaper.schedule(() -> {
+      synchronized (S3ClientRegistry.class) {
+        if (entry.references == 0 && CLIENTS.get(key) == entry) {
+          shutdown(key, entry);
+        }
+      }
+    }, lingerMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private static void shutdown(ClientKey key, Entry entry) {
+    LOGGER.debug("Shutting down shared S3 client for {}", key);
+    CLIENTS.remove(key);
+    entry.client.shutdown();
+  }
+
+  private static AmazonS3 buildClient(ClientKey key) {
+    ClientOptions options = key.getOptions();
+    ClientConfiguration configuration = new ClientConfiguration()
+        .withMaxConnections(options.getMaxConnections())
+        .withTcpKeepAlive(options.isKeepAlive())
+        .withConnectionMaxIdleMillis(options.getMaxIdleMillis());
+    return AmazonS3ClientBuilder.standard()
+        .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(key.getEndpoint(), "auto"))
+        .withPathStyleAccessEnabled(true)
+        .withClientConfiguration(configuration)
+        .withCredentials(new AWSStaticCredentialsProvider(new AnonymousAWSCredentials())).build();
+  }
+}
@@ -33,18 +33,48 @@ import com.bc.zarr.ZarrConstants;
 import com.bc.zarr.ZarrUtils;
 import com.bc.zarr.storage.Store;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -52,20 +82,55 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.ListObjectsRequest;
 import com.amazonaws.services.s3.model.ObjectListing;
 import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectInputStream;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
-import com.amazonaws.auth.AWSStaticCredentialsProvider;
-import com.amazonaws.auth.AnonymousAWSCredentials;
-import com.amazonaws.client.builder.AwsClientBuilder;
 
-public class S3FileSystemStore implements Store {
+public class S3FileSystemStore implements AsyncStore, PrefixListingStore {
 
     private Path root;
     AmazonS3 client;
+    private S3ClientRegistry.Lease clientLease;
+    private S3ClientRegistry.ClientOptions clientOptions;
+    private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private ExecutorService fetchExecutor;
+    // Objects requested by prefetch that have not yet been consumed, keyed by bucket and object key
+    private final PrefetchedObjects prefetched = new PrefetchedObjects();
+    public static final int DEFAULT_MAX_IN_FLIGHT = 16;
+    /** Ranges of an object separated by at most this many bytes are read with a single request */
+    public static final int DEFAULT_RANGE_COALESCE_BYTES = 64 * 1024;
+    /** Upper bound of the size of a request made by coalescing ranges */
+    public static final int MAX_COALESCED_BYTES = 16 * 1024 * 1024;
+    private volatile int rangeCoalesceBytes = DEFAULT_RANGE_COALESCE_BYTES;
+    private boolean delimiterListing = false;
+    // Result of the last hierarchical discovery, group and array keys are usually requested together
+    private Discovery lastDiscovery;
+    private volatile S3RequestPolicy requestPolicy = new S3RequestPolicy();
+    // Ranged and whole object GETs are hedged against the latency of requests of the same kind
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram rangeLatency = new LatencyHistogram();
+    private final AtomicLong retryCount = new AtomicLong();
+    private final AtomicLong hedgeCount = new AtomicLong();
+    private volatile DiskChunkCache diskCache;
+    // Shared by every store using the same endpoint
+    private S3AdmissionController admission;
+    public static final int DEFAULT_BUFFER_POOL_SIZE = 32;
+    private volatile BufferPool bufferPool = new BufferPool(DEFAULT_BUFFER_POOL_SIZE);
+    /** Upper bound of the threads sending hedged requests, shared by all stores */
+    public static final int MAX_HEDGE_THREADS = 2 * DEFAULT_MAX_IN_FLIGHT;
+    // Hedged requests may be issued from the fetch pool, so they run on a separate pool. Attempts
+    // are sent without hedging when all threads are busy
+    private static final ExecutorService HEDGE_EXECUTOR = new ThreadPoolExecutor(0, MAX_HEDGE_THREADS,
+        60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), runnable -> {
+          Thread thread = new Thread(runnable, "S3FileSystemStore-hedge");
+          thread.setDaemon(true);
+          return thread;
+        });
     public static final String ENDPOINT_PROTOCOL= "https://";
     protected static final Logger LOGGER =
         LoggerFactory.getLogger(S3FileSystemStore.class);
@@ -79,6 +144,11 @@ public class S3FileSystemStore implements Store {
         setupClient();
     }
     
+    /**
+     * @deprecated stores are opened once per dataset by {@link StoreProviders} and
+     * groups and arrays below the root are read through a {@link StoreView}
+     */
+    @Deprecated
     public void updateRoot(String path) {
       root = Paths.get(path);
     }
@@ -90,46 +160,870 @@ public class S3FileSystemStore implements Store {
     private void setupClient() {
       String[] pathSplit = root.toString().split(File.separator);
       String endpoint = ENDPOINT_PROTOCOL + pathSplit[1] + File.separator;
+      admission = S3AdmissionController.forEndpoint(endpoint);
       try {   
-        client = AmazonS3ClientBuilder.standard()
-          .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(endpoint, "auto"))
-          .withPathStyleAccessEnabled(true)
-          .withCredentials(new AWSStaticCredentialsProvider(new AnonymousAWSCredentials())).build();
+        clientLease = S3ClientRegistry.acquire(endpoint, clientOptions);
+        client = clientLease.getClient();
       } catch (Exception e) {
         LOGGER.info("Exception caught while constructing S3 client", e);
       } 
       
     }
     
+    /**
+     * Releases the shared client, the client is only shut down once no other store uses it
+     */
     public void close() {
-      if (client != null) {
-        client.shutdown();
+      if (latency.getCount() > 0 || rangeLatency.getCount() > 0) {
+        LOGGER.debug("S3 request latency {} ranged {} retries={} hedged={}", latency, rangeLatency,
+            retryCount.get(), hedgeCount.get());
+        LOGGER.debug("S3 admission {}", admission);
+      }
+      prefetched.clear();
+      synchronized (this) {
+        if (fetchExecutor != null) {
+          fetchExecutor.shutdownNow();
+          fetchExecutor = null;
+        }
+      }
+      if (clientLease != null) {
+        clientLease.close();
+        clientLease = null;
+        client = null;
       }
     }
 
     public S3FileSystemStore(Path rootPath) {
+        this(rootPath, null);
+    }
+
+    /**
+     * @param rootPath in the form https:/endpoint/bucket/prefix
+     * @param options of the shared client connection pool, null for the defaults
+     */
+    public S3FileSystemStore(Path rootPath, S3ClientRegistry.ClientOptions options) {
         root = rootPath;
+        clientOptions = options;
         setupClient();
     }
 
     @Override
     public InputStream getInputStream(String key) throws IOException {
-        // Get the base bucket name from splitting the root path and removing the prefixed protocol and end-point
-        String[] pathSplit = root.toString().split(File.separator);
-        String bucketName =  pathSplit[2];
-        
-        // Append the desired key onto the remaining prefix
-        String key2 = root.toString().substring(root.toString().indexOf(pathSplit[3]), root.toString().length()) + File.separator + key;
+        return getInputStream(root, key);
+    }
+
+    /**
+     * Gets the input stream for a key relative to the given root rather than the
+     * current root of the store, so that it is safe to use from several threads
+     * @param rootPath in the same form as the root of the store
+     * @param key relative to rootPath
+     */
+    public InputStream getInputStream(Path rootPath, String key) throws IOException {
+        String[] objectKey = getObjectKey(rootPath, key);
+        String bucketName = objectKey[0];
+        String key2 = objectKey[1];
+
+        Future<ByteBuffer> pending = prefetched.take(bucketName + File.separator + key2);
+        if (pending != null) {
+          try {
+            ByteBuffer data = pending.get();
+            return data == null ? null : toInputStream(data);
+          }
+          catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for key: " + key2);
+          }
+          catch (ExecutionException e) {
+            LOGGER.debug("Prefetch failed, retrying key: " + key2, e.getCause());
+          }
+          catch (CancellationException e) {
+            LOGGER.debug("Prefetch cancelled, downloading key: {}", key2);
+          }
+        }
+
+        ByteBuffer data = download(bucketName, key2);
+        if (data == null) {
+          LOGGER.debug("Unable to locate key: {}", key2);
+          return null;
+        }
+        return toInputStream(data);
+    }
+
+    /**
+     * Wraps data consumed only by the caller, the buffer is returned to the pool when the stream is closed
+     */
+    private InputStream toInputStream(ByteBuffer data) {
+        byte[] buffer = data.array();
+        return new ByteArrayInputStream(buffer, data.arrayOffset() + data.position(), data.remaining()) {
+          private boolean released = false;
+
+          @Override
+          public void close() throws IOException {
+            super.close();
+            if (!released) {
+              released = true;
+              bufferPool.release(buffer);
+            }
+          }
+        };
+    }
+
+    /**
+     * Sets the size of the pooled buffers that objects are downloaded into, usually the
+     * uncompressed size of a chunk of the array being read
+     */
+    public void setBufferSize(int bufferSize) {
+      bufferPool.setBufferSize(bufferSize);
+    }
+
+    /**
+     * Sets the number of released buffers kept for reuse, 0 disables pooling
+     */
+    public void setBufferPoolSize(int bufferPoolSize) {
+      BufferPool pool = new BufferPool(bufferPoolSize);
+      pool.setBufferSize(bufferPool.getBufferSize());
+      bufferPool = pool;
+    }
+
+    /**
+     * Restricts the limits of the admission controller shared by every store using the same endpoint,
+     * limits looser than those already set by another store are ignored
+     * @param maxConcurrent maximum number of requests in flight to the endpoint, 0 or less to keep the current limit
+     * @param requestsPerSecond maximum rate of requests to the endpoint, 0 or less to keep the current limit
+     */
+    public void setAdmissionLimits(int maxConcurrent, double requestsPerSecond) {
+      admission.configure(maxConcurrent, requestsPerSecond);
+    }
+
+    public S3AdmissionController getAdmissionController() {
+      return admission;
+    }
+
+    public BufferPool getBufferPool() {
+      return bufferPool;
+    }
+
+    /**
+     * Sets the on disk cache consulted before sending GET requests, null disables caching
+     */
+    public void setDiskCache(DiskChunkCache diskCache) {
+      this.diskCache = diskCache;
+    }
+
+    public DiskChunkCache getDiskCache() {
+      return diskCache;
+    }
+
+    /**
+     * Sets the retry, timeout and hedging policy applied to each GET request
+     */
+    public void setRequestPolicy(S3RequestPolicy requestPolicy) {
+      this.requestPolicy = requestPolicy == null ? new S3RequestPolicy() : requestPolicy;
+    }
+
+    public S3RequestPolicy getRequestPolicy() {
+      return requestPolicy;
+    }
+
+    /**
+     * @return the latency of successful GET requests for whole objects made by this store, from
+     * sending the request until the full content is received
+     */
+    public LatencyHistogram getLatencyHistogram() {
+      return latency;
+    }
+
+    /**
+     * @return the latency of successful GET requests for byte ranges of objects made by this store
+     */
+    public LatencyHistogram getRangeLatencyHistogram() {
+      return rangeLatency;
+    }
+
+    /**
+     * @return the number of attempts that failed and were retried
+     */
+    public long getRetryCount() {
+      return retryCount.get();
+    }
+
+    /**
+     * @return the number of duplicate requests sent because a request exceeded the hedge percentile
+     */
+    public long getHedgeCount() {
+      return hedgeCount.get();
+    }
+
+    /**
+     * Sets the maximum number of GET requests issued concurrently by {@link #fetch} and {@link #prefetch}
+     */
+    public synchronized void setMaxInFlight(int maxInFlight) {
+      this.maxInFlight = Math.max(1, maxInFlight);
+      if (fetchExecutor != null) {
+        fetchExecutor.shutdown();
+        fetchExecutor = null;
+      }
+    }
+
+    public synchronized int getMaxInFlight() {
+      return maxInFlight;
+    }
+
+    /**
+     * Downloads the keys concurrently, with at most {@link #getMaxInFlight()} requests in flight
+     * @param rootPath in the same form as the root of the store
+     * @param keys relative to rootPath
+     * @return the downloaded objects in the order in which they complete
+     */
+    public FetchBatch fetch(Path rootPath, Collection<String> keys) {
+      ExecutorService executor = getFetchExecutor();
+      ExecutorCompletionService<FetchResult> completion = new ExecutorCompletionService<FetchResult>(executor);
+      List<Future<FetchResult>> futures = new ArrayList<Future<FetchResult>>(keys.size());
+      for (String key : keys) {
+        String[] objectKey = getObjectKey(rootPath, key);
+        futures.add(completion.submit(() -> {
+          try {
+            return new FetchResult(key, download(objectKey[0], objectKey[1]), null);
+          }
+          catch (IOException e) {
+            return new FetchResult(key, null, e);
+          }
+        }));
+      }
+      return new FetchBatch(completion, futures);
+    }
+
+    /**
+     * Starts downloading the keys concurrently in the background, subsequent calls to
+     * {@link #getInputStream} for these keys wait for and consume the downloaded data.
+     * Keys already being prefetched by another caller are not downloaded again.
+     * @param rootPath in the same form as the root of the store
+     * @param keys relative to rootPath
+     * @return the prefetches started by this call, close it once the keys have been read
+     * to discard those that were not consumed
+     */
+    public PrefetchedObjects.Batch prefetch(Path rootPath, Collection<String> keys) {
+      PrefetchedObjects.Batch batch = prefetched.newBatch();
+      for (String key : keys) {
+        String[] objectKey = getObjectKey(rootPath, key);
+        batch.add(objectKey[0] + File.separator + objectKey[1], () -> fetchAsync(rootPath, key));
+      }
+      return batch;
+    }
+
+    @Override
+    public CompletableFuture<ByteBuffer> fetchAsync(String key) {
+      return fetchAsync(root, key);
+    }
+
+    /**
+     * Starts downloading a key on the fetch pool, at most {@link #getMaxInFlight()} downloads
+     * run at once and further fetches wait in the queue of the pool without holding a thread
+     * @param rootPath in the same form as the root of the store
+     * @param key relative to rootPath
+     * @return the content, or null if the key does not exist
+     */
+    public CompletableFuture<ByteBuffer> fetchAsync(Path rootPath, String key) {
+      String[] objectKey = getObjectKey(rootPath, key);
+      return submit(getFetchExecutor(), () -> download(objectKey[0], objectKey[1]));
+    }
+
+    /**
+     * Runs the loader on the executor, cancelling the returned future cancels the task
+     */
+    static <V> CompletableFuture<V> submit(ExecutorService executor, Callable<V> loader) {
+      CompletableFuture<V> result = new CompletableFuture<V>();
+      Future<?> task = executor.submit(() -> {
+        if (result.isDone()) {
+          return;
+        }
+        try {
+          result.complete(loader.call());
+        }
+        catch (Throwable e) {
+          result.completeExceptionally(e);
+        }
+      });
+      // Only abandons a task that has not started, interrupting a request would close its connection
+      result.whenComplete((value, error) -> {
+        if (result.isCancelled()) {
+          task.cancel(false);
+        }
+      });
+      return result;
+    }
+
+    private synchronized ExecutorService getFetchExecutor() {
+      if (fetchExecutor == null) {
+        fetchExecutor = Executors.newFixedThreadPool(maxInFlight, runnable -> {
+          Thread thread = new Thread(runnable, "S3FileSystemStore-fetch");
+          thread.setDaemon(true);
+          return thread;
+        });
+      }
+      return fetchExecutor;
+    }
+
+    /**
+     * Sets the largest gap in bytes between two ranges of an object for them to be read with a
+     * single request, the bytes in the gap are downloaded and discarded
+     */
+    public void setRangeCoalesceBytes(int rangeCoalesceBytes) {
+      this.rangeCoalesceBytes = Math.max(0, rangeCoalesceBytes);
+    }
+
+    public int getRangeCoalesceBytes() {
+      return rangeCoalesceBytes;
+    }
+
+    /**
+     * Reads part of an object
+     * @param rootPath in the same form as the root of the store
+     * @param key relative to rootPath
+     * @return the content of the range or null if the object does not exist
+     */
+    public ByteBuffer readRange(Path rootPath, String key, ByteRange range) throws IOException {
+      List<ByteBuffer> data = readRanges(rootPath, Collections.singletonMap(key,
+          Collections.singletonList(range))).get(key);
+      return data == null ? null : data.get(0);
+    }
+
+    /**
+     * Reads parts of several objects. Nearby ranges of the same object are coalesced into a single
+     * request and the requests run concurrently, with at most {@link #getMaxInFlight()} in flight.
+     * Ranges of objects held in the disk cache are read from the cache.
+     * @param rootPath in the same form as the root of the store
+     * @param rangesByKey ranges to read for each key relative to rootPath
+     * @return the content of each range in the order requested, keys of objects that do not exist are omitted
+     */
+    public Map<String, List<ByteBuffer>> readRanges(Path rootPath, Map<String, List<ByteRange>> rangesByKey)
+        throws IOException {
+      Map<String, List<ByteBuffer>> results = new LinkedHashMap<String, List<ByteBuffer>>();
+      List<CoalescedRange> requests = new ArrayList<CoalescedRange>();
+      DiskChunkCache cache = diskCache;
+      for (Map.Entry<String, List<ByteRange>> entry : rangesByKey.entrySet()) {
+        String[] objectKey = getObjectKey(rootPath, entry.getKey());
+        List<ByteRange> ranges = entry.getValue();
+        if (cache != null) {
+          DiskChunkCache.Entry cached = cache.get(objectKey[0], objectKey[1]);
+          if (cached != null && cache.isFresh(cached)) {
+            List<ByteBuffer> slices = new ArrayList<ByteBuffer>(ranges.size());
+            for (ByteRange range : ranges) {
+              slices.add(slice(cached.getData(), range.getOffset(), range, entry.getKey()));
+            }
+            results.put(entry.getKey(), slices);
+            continue;
+          }
+        }
+        requests.addAll(coalesce(entry.getKey(), objectKey, ranges));
+      }
+
+      List<Future<Download>> futures = new ArrayList<Future<Download>>(requests.size());
+      if (requests.size() > 1) {
+        ExecutorService executor = getFetchExecutor();
+        for (CoalescedRange request : requests) {
+          futures.add(executor.submit(() -> downloadRemote(request.objectKey[0], request.objectKey[1], null,
+              new long[] {request.start, request.end - 1})));
+        }
+      }
+      Set<String> missing = new HashSet<String>();
+      try {
+        for (int i = 0; i < requests.size(); i++) {
+          CoalescedRange request = requests.get(i);
+          Download download;
+          if (futures.isEmpty()) {
+            download = downloadRemote(request.objectKey[0], request.objectKey[1], null,
+                new long[] {request.start, request.end - 1});
+          }
+          else {
+            download = futures.get(i).get();
+          }
+          if (download == null) {
+            missing.add(request.key);
+            continue;
+          }
+          List<ByteBuffer> slices = results.get(request.key);
+          if (slices == null) {
+            slices = new ArrayList<ByteBuffer>(Collections.nCopies(rangesByKey.get(request.key).size(), null));
+            results.put(request.key, slices);
+          }
+          for (int r = 0; r < request.ranges.size(); r++) {
+            ByteRange range = request.ranges.get(r);
+            slices.set(request.indices.get(r), slice(download.data, request.start, range, request.key));
+          }
+        }
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while reading ranges under " + rootPath);
+      }
+      catch (ExecutionException e) {
+        throw toIOException(e.getCause(), rootPath.toString());
+      }
+      finally {
+        // Requests already sent are left to finish rather than aborting their pooled connections
+        for (Future<Download> future : futures) {
+          future.cancel(false);
+        }
+      }
+      results.keySet().removeAll(missing);
+      return results;
+    }
+
+    /**
+     * Groups the ranges of an object into requests, ranges are merged when the gap between them is at
+     * most {@link #getRangeCoalesceBytes()} and the merged request stays below {@link #MAX_COALESCED_BYTES}
+     */
+    List<CoalescedRange> coalesce(String key, String[] objectKey, List<ByteRange> ranges) {
+      return coalesce(key, objectKey, ranges, rangeCoalesceBytes);
+    }
+
+    /**
+     * Groups the ranges of an object into requests, ranges are merged when the gap between them is at
+     * most the given number of bytes and the merged request stays below {@link #MAX_COALESCED_BYTES}
+     */
+    static List<CoalescedRange> coalesce(String key, String[] objectKey, List<ByteRange> ranges, long gap) {
+      Integer[] order = new Integer[ranges.size()];
+      for (int i = 0; i < order.length; i++) {
+        order[i] = i;
+      }
+      Arrays.sort(order, (a, b) -> Long.compare(ranges.get(a).getOffset(), ranges.get(b).getOffset()));
+      List<CoalescedRange> requests = new ArrayList<CoalescedRange>();
+      CoalescedRange current = null;
+      for (int index : order) {
+        ByteRange range = ranges.get(index);
+        long end = Math.max(current == null ? 0 : current.end, range.getOffset() + range.getLength());
+        if (current == null || range.getOffset() > current.end + gap || end - current.start > MAX_COALESCED_BYTES) {
+          current = new CoalescedRange(key, objectKey, range.getOffset());
+          requests.add(current);
+        }
+        current.end = Math.max(current.end, range.getOffset() + range.getLength());
+        current.ranges.add(range);
+        current.indices.add(index);
+      }
+      return requests;
+    }
+
+    private static ByteBuffer slice(ByteBuffer data, long dataOffset, ByteRange range, String key) throws IOException {
+      long start = range.getOffset() - dataOffset;
+      if (start < 0 || start + range.getLength() > data.remaining()) {
+        throw new IOException("Range " + range + " is beyond the end of key: " + key);
+      }
+      ByteBuffer slice = data.duplicate();
+      slice.position(slice.position() + (int) start);
+      slice.limit(slice.position() + range.getLength());
+      return slice.slice();
+    }
+
+    /**
+     * Contiguous range of bytes of an object
+     */
+    public static class ByteRange {
+      private final long offset;
+      private final int length;
+
+      public ByteRange(long offset, int length) {
+        if (offset < 0 || length <= 0) {
+          throw new IllegalArgumentException("Invalid range offset=" + offset + " length=" + length);
+        }
+        this.offset = offset;
+        this.length = length;
+      }
+
+      public long getOffset() {
+        return offset;
+      }
+
+      public int getLength() {
+        return length;
+      }
+
+      @Override
+      public String toString() {
+        return "bytes=" + offset + "-" + (offset + length - 1);
+      }
+    }
+
+    /**
+     * Single request covering one or more requested ranges of an object
+     */
+    static class CoalescedRange {
+      final String key;
+      final String[] objectKey;
+      final long start;
+      long end;
+      final List<ByteRange> ranges = new ArrayList<ByteRange>();
+      // Position of each range in the list of ranges requested for the key
+      final List<Integer> indices = new ArrayList<Integer>();
+
+      CoalescedRange(String key, String[] objectKey, long start) {
+        this.key = key;
+        this.objectKey = objectKey;
+        this.start = start;
+        this.end = start;
+      }
+    }
+
+    /**
+     * @return the bucket name and object key for a key relative to the root path
+     */
+    private String[] getObjectKey(Path rootPath, String key) {
+      // Get the base bucket name from splitting the root path and removing the prefixed protocol and end-point
+      // then append the desired key onto the remaining prefix
+      String[] pathSplit = rootPath.toString().split(File.separator);
+      String bucketName = pathSplit[2];
+      String key2 = rootPath.toString().substring(rootPath.toString().indexOf(pathSplit[3]), rootPath.toString().length()) + File.separator + key;
+      return new String[] {bucketName, key2};
+    }
+
+    /**
+     * Gets the full content of an object from the disk cache if one is set and the entry is fresh,
+     * otherwise downloads it. Stale entries are revalidated with a conditional request so that
+     * unchanged objects are not downloaded again.
+     * @return the content or null if the object does not exist
+     */
+    private ByteBuffer download(String bucketName, String key) throws IOException {
+      DiskChunkCache cache = diskCache;
+      if (cache == null) {
+        Download result = downloadRemote(bucketName, key, null, null);
+        return result == null ? null : result.data;
+      }
+      DiskChunkCache.Entry entry = cache.get(bucketName, key);
+      if (entry != null && cache.isFresh(entry)) {
+        return entry.getData();
+      }
+      Download result = downloadRemote(bucketName, key, entry == null ? null : entry.getETag(), null);
+      if (result == null) {
+        if (entry != null) {
+          cache.remove(bucketName, key);
+        }
+        return null;
+      }
+      if (result.notModified) {
+        cache.markValidated(bucketName, key, entry);
+        return entry.getData();
+      }
+      cache.put(bucketName, key, result.data, result.etag);
+      return result.data;
+    }
+
+    /**
+     * Downloads an object, retrying transient failures
+     * @param etag of a cached copy of the object, the content is only downloaded if it has changed
+     * @param range first and last byte to download, null for the whole object
+     * @return the content or null if the object does not exist
+     */
+    private Download downloadRemote(String bucketName, String key, String etag, long[] range) throws IOException {
+      S3RequestPolicy policy = requestPolicy;
+      for (int attempt = 0; ; attempt++) {
+        try {
+          return downloadHedged(bucketName, key, etag, range, policy);
+        }
+        catch (RetryableException e) {
+          if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Interrupted while requesting key: " + key);
+          }
+          if (attempt >= policy.getMaxRetries()) {
+            throw new IOException("Unable to access key: " + key + " after " + (attempt + 1) + " attempts", e.getCause());
+          }
+          retryCount.incrementAndGet();
+          long backoff = policy.getBackoffMillis(attempt);
+          LOGGER.debug("Retrying key: {} in {}ms after failed attempt {}", key, backoff, attempt + 1, e.getCause());
+          try {
+            Thread.sleep(backoff);
+          }
+          catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry key: " + key);
+          }
+        }
+      }
+    }
+
+    /**
+     * Makes a single attempt at downloading an object, sending a duplicate request if the first is
+     * slower than the hedge percentile of previous requests of the same kind
+     * @return the content or null if the object does not exist
+     * @throws RetryableException if both requests failed and the attempt may be retried
+     */
+    private Download downloadHedged(String bucketName, String key, String etag, long[] range,
+        S3RequestPolicy policy) throws IOException {
+      LatencyHistogram histogram = range == null ? latency : rangeLatency;
+      if (!policy.isHedgingEnabled() || histogram.getCount() < S3RequestPolicy.HEDGE_MIN_SAMPLES) {
+        return downloadTimed(bucketName, key, etag, range, policy);
+      }
+      long thresholdMicros = histogram.getPercentileMicros(policy.getHedgePercentile());
+      ExecutorCompletionService<Download> race = new ExecutorCompletionService<Download>(HEDGE_EXECUTOR);
+      List<Future<Download>> requests = new ArrayList<Future<Download>>(2);
+      try {
+        requests.add(race.submit(() -> downloadTimed(bucketName, key, etag, range, policy)));
+      }
+      catch (RejectedExecutionException e) {
+        return downloadTimed(bucketName, key, etag, range, policy);
+      }
+      try {
+        Future<Download> done = race.poll(thresholdMicros, TimeUnit.MICROSECONDS);
+        if (done == null) {
+          try {
+            requests.add(race.submit(() -> downloadTimed(bucketName, key, etag, range, policy)));
+            hedgeCount.incrementAndGet();
+            LOGGER.debug("Request exceeded {}us, sent hedged request for key: {}", thresholdMicros, key);
+          }
+          catch (RejectedExecutionException e) {
+            LOGGER.debug("No thread available to hedge request for key: {}", key);
+          }
+          done = race.take();
+        }
+        try {
+          return done.get();
+        }
+        catch (ExecutionException e) {
+          if (requests.size() == 1) {
+            throw toIOException(e.getCause(), key);
+          }
+          // The other request may still succeed
+          try {
+            return race.take().get();
+          }
+          catch (ExecutionException e2) {
+            throw toIOException(e2.getCause(), key);
+          }
+        }
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for key: " + key);
+      }
+      finally {
+        // Interrupting a request aborts its pooled HTTP connection, the slower request is left to finish
+        for (Future<Download> request : requests) {
+          request.cancel(false);
+        }
+      }
+    }
+
+    /**
+     * Makes a single request and records its latency if it succeeds
+     */
+    private Download downloadTimed(String bucketName, String key, String etag, long[] range,
+        S3RequestPolicy policy) throws IOException {
+      long start = System.nanoTime();
+      Download data = downloadOnce(bucketName, key, etag, range, policy);
+      (range == null ? latency : rangeLatency).record(System.nanoTime() - start);
+      return data;
+    }
+
+    /**
+     * Makes a single attempt at downloading an object
+     * @return the content or null if the object does not exist
+     * @throws RetryableException if the failure is transient and the request may be retried
+     */
+    private Download downloadOnce(String bucketName, String key, String etag, long[] range,
+        S3RequestPolicy policy) throws IOException {
+      try (S3AdmissionController.Permit permit = admission.acquire()) {
+        return sendGet(bucketName, key, etag, range, policy);
+      }
+    }
+
+    private Download sendGet(String bucketName, String key, String etag, long[] range,
+        S3RequestPolicy policy) throws IOException {
+      if (client == null) {
+        throw new IOException("No S3 client available for key: " + key);
+      }
+      GetObjectRequest request = new GetObjectRequest(bucketName, key);
+      if (etag != null) {
+        request.setNonmatchingETagConstraints(Collections.singletonList(etag));
+      }
+      if (range != null) {
+        request.setRange(range[0], range[1]);
+      }
+      if (policy.getRequestTimeoutMillis() > 0) {
+        request.setSdkRequestTimeout(policy.getRequestTimeoutMillis());
+      }
+      S3Object o;
+      try {
+        o = client.getObject(request);
+      }
+      catch (AmazonServiceException e) {
+        if (e.getStatusCode() == 404) {
+          return null;
+        }
+        if (e.getStatusCode() == 503 || e.getStatusCode() == 429) {
+          admission.recordThrottled();
+        }
+        if (e.getStatusCode() >= 500 || e.getStatusCode() == 429) {
+          throw new RetryableException(e);
+        }
+        throw new IOException("Unable to access key: " + key, e);
+      }
+      catch (SdkClientException e) {
+        throw new RetryableException(e);
+      }
+      if (o == null) {
+        // The ETag constraint was not met, the cached copy is current
+        return Download.NOT_MODIFIED;
+      }
+      long length = o.getObjectMetadata().getContentLength();
+      String objectETag = o.getObjectMetadata().getETag();
+      S3ObjectInputStream in = o.getObjectContent();
+      try {
+        ByteBuffer data;
+        if (length >= 0 && length < Integer.MAX_VALUE) {
+          data = readFully(in, (int) length, key);
+        }
+        else {
+          ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+          byte[] buffer = new byte[8192];
+          int read;
+          while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+          }
+          data = ByteBuffer.wrap(out.toByteArray());
+        }
+        in.close();
+        return new Download(data, objectETag, false);
+      }
+      catch (IOException | SdkClientException e) {
+        // The connection is in an unknown state and must not be returned to the pool
+        in.abort();
+        throw new RetryableException(e);
+      }
+    }
 
-        try {   
-          S3Object o = client.getObject(bucketName, key2);
-          S3ObjectInputStream responseStream = o.getObjectContent();
-          return responseStream;
-        } catch (Exception e) {
-          LOGGER.info( "Unable to locate or access key: " + key2, e);
+    /**
+     * Reads exactly length bytes into a single buffer, taken from the buffer pool when it is close
+     * to the chunk size, and checks that the stream is at its end so that the connection can be reused
+     */
+    private ByteBuffer readFully(InputStream in, int length, String key) throws IOException {
+      byte[] buffer = bufferPool.acquire(length);
+      int offset = 0;
+      while (offset < length) {
+        int read = in.read(buffer, offset, length - offset);
+        if (read == -1) {
+          throw new EOFException("Expected " + length + " bytes but received " + offset + " for key: " + key);
         }
+        offset += read;
+      }
+      if (in.read() != -1) {
+        throw new IOException("Received more than the " + length + " bytes expected for key: " + key);
+      }
+      return ByteBuffer.wrap(buffer, 0, length);
+    }
+
+    private static IOException toIOException(Throwable cause, String key) {
+      if (cause instanceof IOException) {
+        return (IOException) cause;
+      }
+      return new IOException("Unable to access key: " + key, cause);
+    }
+
+    /**
+     * Result of a GET request, either the content of the object or a notice that it is unchanged
+     */
+    private static class Download {
+      static final Download NOT_MODIFIED = new Download(null, null, true);
+
+      final ByteBuffer data;
+      final String etag;
+      final boolean notModified;
 
-      return null;
+      Download(ByteBuffer data, String etag, boolean notModified) {
+        this.data = data;
+        this.etag = etag;
+        this.notModified = notModified;
+      }
+    }
+
+    /**
+     * Transient failure of a single attempt
+     */
+    private static class RetryableException extends IOException {
+      RetryableException(Throwable cause) {
+        super(cause);
+      }
+    }
+
+    /**
+     * Content of a single key downloaded by {@link S3FileSystemStore#fetch}
+     */
+    public static class FetchResult {
+      private final String key;
+      private final ByteBuffer data;
+      private final IOException error;
+
+      FetchResult(String key, ByteBuffer data, IOException error) {
+        this.key = key;
+        this.data = data;
+        this.error = error;
+      }
+
+      public String getKey() {
+        return key;
+      }
+
+      /**
+       * @return the content of the key or null if the key does not exist
+       * @throws IOException if the key could not be downloaded
+       */
+      public ByteBuffer getData() throws IOException {
+        if (error != null) {
+          throw error;
+        }
+        return data;
+      }
+    }
+
+    /**
+     * Results of a batched fetch, iterated in completion order.
+     * Closing the batch cancels any requests that have not completed.
+     */
+    public static class FetchBatch implements Iterator<FetchResult>, Closeable {
+      private final ExecutorCompletionService<FetchResult> completion;
+      private final List<Future<FetchResult>> futures;
+      private int remaining;
+
+      FetchBatch(ExecutorCompletionService<FetchResult> completion, List<Future<FetchResult>> futures) {
+        this.completion = completion;
+        this.futures = futures;
+        this.remaining = futures.size();
+      }
+
+      @Override
+      public boolean hasNext() {
+        return remaining > 0;
+      }
+
+      /**
+       * Waits for the next request to complete
+       */
+      @Override
+      public FetchResult next() {
+        if (remaining == 0) {
+          throw new NoSuchElementException();
+        }
+        try {
+          FetchResult result = completion.take().get();
+          remaining--;
+          return result;
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          close();
+          throw new IllegalStateException("Interrupted while waiting for fetch results", e);
+        }
+        catch (ExecutionException e) {
+          remaining--;
+          throw new IllegalStateException(e.getCause());
+        }
+      }
+
+      @Override
+      public void close() {
+        for (Future<FetchResult> future : futures) {
+          future.cancel(false);
+        }
+        remaining = 0;
+      }
     }
 
     @Override
@@ -156,12 +1050,265 @@ public class S3FileSystemStore implements Store {
 
     @Override
     public TreeSet<String> getArrayKeys() throws IOException {
-        return getKeysFor(ZarrConstants.FILENAME_DOT_ZARRAY);
+        return getArrayKeys("");
     }
 
     @Override
     public TreeSet<String> getGroupKeys() throws IOException {
-        return getKeysFor(ZarrConstants.FILENAME_DOT_ZGROUP);
+        return getGroupKeys("");
+    }
+
+    /**
+     * Lists only the objects below the prefix, or with delimiter listing only the groups below it
+     */
+    @Override
+    public TreeSet<String> getArrayKeys(String prefix) throws IOException {
+        prefix = normalizeKey(prefix);
+        if (delimiterListing) {
+          return relativize(discover(prefix).arrays, prefix);
+        }
+        return getKeysFor(prefix, ZarrConstants.FILENAME_DOT_ZARRAY);
+    }
+
+    @Override
+    public TreeSet<String> getGroupKeys(String prefix) throws IOException {
+        prefix = normalizeKey(prefix);
+        if (delimiterListing) {
+          return relativize(discover(prefix).groups, prefix);
+        }
+        return getKeysFor(prefix, ZarrConstants.FILENAME_DOT_ZGROUP);
+    }
+
+    @Override
+    public TreeSet<String> getKeysEndingWith(String prefix, String suffix) throws IOException {
+        String[] objectKey = getObjectKey(root, normalizeKey(prefix));
+        String listPrefix = objectKey[1].endsWith("/") ? objectKey[1] : objectKey[1] + "/";
+        TreeSet<String> keys = new TreeSet<String>();
+        ObjectListing listing = listObjects(new ListObjectsRequest()
+            .withBucketName(objectKey[0])
+            .withPrefix(listPrefix));
+        while (true) {
+          for (S3ObjectSummary object : listing.getObjectSummaries()) {
+            if (object.getKey().endsWith(suffix)) {
+              keys.add(object.getKey().substring(listPrefix.length()));
+            }
+          }
+          if (!listing.isTruncated()) {
+            return keys;
+          }
+          listing = listNextBatchOfObjects(listing);
+        }
+    }
+
+    private static String normalizeKey(String key) {
+        String normalized = key.replace('\\', '/');
+        while (normalized.startsWith("/")) {
+          normalized = normalized.substring(1);
+        }
+        while (normalized.endsWith("/")) {
+          normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        return normalized;
+    }
+
+    /**
+     * @return the keys below the prefix, relative to the prefix
+     */
+    private static TreeSet<String> relativize(Set<String> keys, String prefix) {
+        if (prefix.isEmpty()) {
+          return new TreeSet<String>(keys);
+        }
+        TreeSet<String> relative = new TreeSet<String>();
+        String start = prefix + "/";
+        for (String key : keys) {
+          if (key.startsWith(start)) {
+            relative.add(key.substring(start.length()));
+          }
+        }
+        return relative;
+    }
+
+    /**
+     * Sets whether array and group keys are discovered by listing the hierarchy level by level
+     * using '/' delimiters rather than listing every object under the root. Only the metadata
+     * of each prefix is listed and arrays are never descended into, so the number of requests
+     * depends on the number of groups rather than the number of chunks.
+     */
+    public void setDelimiterListing(boolean delimiterListing) {
+      this.delimiterListing = delimiterListing;
+    }
+
+    public boolean isDelimiterListing() {
+      return delimiterListing;
+    }
+
+    /**
+     * Checks which keys exist as a prefix under the root. Keys are grouped by their parent and
+     * each parent is listed once with a '/' delimiter, the listings run concurrently.
+     * @param rootPath in the same form as the root of the store
+     * @param keys relative to rootPath
+     * @return the subset of the keys that exist
+     */
+    public Set<String> filterExisting(Path rootPath, Collection<String> keys) throws IOException {
+      Map<String, List<String>> keysByParent = new LinkedHashMap<String, List<String>>();
+      for (String key : keys) {
+        int separator = key.lastIndexOf(File.separator);
+        String parent = separator < 0 ? "" : key.substring(0, separator);
+        keysByParent.computeIfAbsent(parent, k -> new ArrayList<String>()).add(key);
+      }
+      ExecutorService executor = getFetchExecutor();
+      List<Future<Set<String>>> futures = new ArrayList<Future<Set<String>>>(keysByParent.size());
+      for (Map.Entry<String, List<String>> entry : keysByParent.entrySet()) {
+        String[] objectKey = getObjectKey(rootPath, entry.getKey());
+        String bucketName = objectKey[0];
+        String parentPrefix = objectKey[1].endsWith("/") ? objectKey[1] : objectKey[1] + "/";
+        futures.add(executor.submit(() -> {
+          Set<String> children = new HashSet<String>();
+          ObjectListing listing = listObjects(new ListObjectsRequest()
+              .withBucketName(bucketName)
+              .withPrefix(parentPrefix)
+              .withDelimiter("/"));
+          children.addAll(listing.getCommonPrefixes());
+          while (listing.isTruncated()) {
+            listing = listNextBatchOfObjects(listing);
+            children.addAll(listing.getCommonPrefixes());
+          }
+          Set<String> existing = new HashSet<String>();
+          for (String key : entry.getValue()) {
+            String name = key.substring(key.lastIndexOf(File.separator) + 1);
+            if (children.contains(parentPrefix + name + "/")) {
+              existing.add(key);
+            }
+          }
+          return existing;
+        }));
+      }
+      Set<String> existing = new HashSet<String>();
+      for (Future<Set<String>> future : futures) {
+        try {
+          existing.addAll(future.get());
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while checking keys under " + rootPath);
+        }
+        catch (ExecutionException e) {
+          throw new IOException("Unable to check keys under " + rootPath, e.getCause());
+        }
+      }
+      return existing;
+    }
+
+    private static class Discovery {
+      final String root;
+      final Set<String> arrays = new ConcurrentSkipListSet<String>();
+      final Set<String> groups = new ConcurrentSkipListSet<String>();
+
+      Discovery(String root) {
+        this.root = root;
+      }
+    }
+
+    /**
+     * Lists the arrays and groups below a prefix, keys are relative to the root. The discovery
+     * of the whole root is kept and reused for every prefix.
+     * @param prefix key relative to the root, empty for the root
+     */
+    private synchronized Discovery discover(String prefix) throws IOException {
+      String rootString = root.toString();
+      if (lastDiscovery != null && lastDiscovery.root.equals(rootString)) {
+        return lastDiscovery;
+      }
+      String[] pathSplit = rootString.split(File.separator);
+      String bucketName = pathSplit[2];
+      String rootPrefix = rootString.substring(rootString.indexOf(pathSplit[3]), rootString.length()) + "/";
+      Discovery discovery = new Discovery(rootString);
+
+      // Each level of the hierarchy is listed concurrently, a level is complete before the next starts
+      ExecutorService executor = getFetchExecutor();
+      List<String> level = Collections.singletonList(prefix.isEmpty() ? rootPrefix : rootPrefix + prefix + "/");
+      while (!level.isEmpty()) {
+        List<Future<List<String>>> futures = new ArrayList<Future<List<String>>>(level.size());
+        for (String levelPrefix : level) {
+          futures.add(executor.submit(() -> visitPrefix(bucketName, rootPrefix, levelPrefix, discovery)));
+        }
+        List<String> nextLevel = new ArrayList<String>();
+        for (Future<List<String>> future : futures) {
+          try {
+            nextLevel.addAll(future.get());
+          }
+          catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while listing " + rootString);
+          }
+          catch (ExecutionException e) {
+            throw new IOException("Unable to list " + rootString, e.getCause());
+          }
+        }
+        level = nextLevel;
+      }
+      if (prefix.isEmpty()) {
+        lastDiscovery = discovery;
+      }
+      return discovery;
+    }
+
+    /**
+     * Records whether the prefix is an array or a group
+     * @return the child prefixes to visit, empty for arrays
+     */
+    private List<String> visitPrefix(String bucketName, String rootPrefix, String prefix, Discovery discovery)
+        throws IOException {
+      String key = prefix.substring(rootPrefix.length(), prefix.length() - 1);
+      if (prefix.equals(rootPrefix)) {
+        key = "";
+      }
+
+      // Zarr metadata files are the only objects whose names start with .z, chunks are never listed
+      boolean isArray = false;
+      boolean isGroup = false;
+      ObjectListing metadataListing = listObjects(new ListObjectsRequest()
+          .withBucketName(bucketName)
+          .withPrefix(prefix + ".z")
+          .withDelimiter("/"));
+      for (S3ObjectSummary object : metadataListing.getObjectSummaries()) {
+        String name = object.getKey().substring(prefix.length());
+        isArray |= name.equals(ZarrConstants.FILENAME_DOT_ZARRAY);
+        isGroup |= name.equals(ZarrConstants.FILENAME_DOT_ZGROUP);
+      }
+      List<String> children = new ArrayList<String>();
+      if (isArray) {
+        if (!key.isEmpty()) {
+          discovery.arrays.add(key);
+        }
+        return children;
+      }
+      if (isGroup && !key.isEmpty()) {
+        discovery.groups.add(key);
+      }
+
+      ObjectListing listing = listObjects(new ListObjectsRequest()
+          .withBucketName(bucketName)
+          .withPrefix(prefix)
+          .withDelimiter("/"));
+      children.addAll(listing.getCommonPrefixes());
+      while (listing.isTruncated()) {
+        listing = listNextBatchOfObjects(listing);
+        children.addAll(listing.getCommonPrefixes());
+      }
+      return children;
+    }
+
+    private ObjectListing listObjects(ListObjectsRequest request) throws InterruptedIOException {
+      try (S3AdmissionController.Permit permit = admission.acquire()) {
+        return client.listObjects(request);
+      }
+    }
+
+    private ObjectListing listNextBatchOfObjects(ObjectListing listing) throws InterruptedIOException {
+      try (S3AdmissionController.Permit permit = admission.acquire()) {
+        return client.listNextBatchOfObjects(listing);
+      }
     }
 
     /**
@@ -197,7 +1344,7 @@ public class S3FileSystemStore implements Store {
         });
     }
 
-    private TreeSet<String> getKeysFor(String suffix) throws IOException {
+    private TreeSet<String> getKeysFor(String prefix, String suffix) throws IOException {
       TreeSet<String> keys = new TreeSet<String>();
 
       // Get the base bucket name from splitting the root path and removing the prefixed protocol and end-point
@@ -206,10 +1353,13 @@ public class S3FileSystemStore implements Store {
       
       // Append the desired key onto the remaining prefix
       String key2 = root.toString().substring(root.toString().indexOf(pathSplit[3]), root.toString().length());
+      if (!prefix.isEmpty()) {
+        key2 = key2 + "/" + prefix;
+      }
 
       ListObjectsRequest listObjectsRequest = new ListObjectsRequest()
           .withBucketName(bucketName)
-          .withPrefix(key2)
+          .withPrefix(key2 + "/")
         ;
 
       ObjectListing listObjectsResponse = null;
@@ -222,7 +1372,7 @@ public class S3FileSystemStore implements Store {
           ; 
         }
 
-        listObjectsResponse = client.listObjects(listObjectsRequest); 
+        listObjectsResponse = listObjects(listObjectsRequest); 
         List<S3ObjectSummary> objects = listObjectsResponse.getObjectSummaries();
 
         // Iterate over results
@@ -0,0 +1,111 @@
+package loci.formats;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Retry, timeout and hedging settings applied to each GET issued by {@link S3FileSystemStore}.
+ */
+public class S3RequestPolicy {
+
+  public static final int DEFAULT_MAX_RETRIES = 3;
+  public static final long DEFAULT_RETRY_BASE_MILLIS = 100;
+  public static final long DEFAULT_RETRY_MAX_MILLIS = 5000;
+  public static final int DEFAULT_REQUEST_TIMEOUT_MILLIS = 0;
+  public static final double DEFAULT_HEDGE_PERCENTILE = 0;
+  /** Number of requests recorded before the latency percentile is trusted for hedging */
+  public static final int HEDGE_MIN_SAMPLES = 20;
+
+  private final int maxRetries;
+  private final long retryBaseMillis;
+  private final long retryMaxMillis;
+  private final int requestTimeoutMillis;
+  private final double hedgePercentile;
+
+  public S3RequestPolicy() {
+    this(DEFAULT_MAX_RETRIES, DEFAULT_RETRY_BASE_MILLIS, DEFAULT_RETRY_MAX_MILLIS,
+        DEFAULT_REQUEST_TIMEOUT_MILLIS, DEFAULT_HEDGE_PERCENTILE);
+  }
+
+  /**
+   * @param maxRetries number of times a failed request is retried, 0 disables retries
+   * @param retryBaseMillis backoff before the first retry, doubled for each subsequent retry
+   * @param retryMaxMillis upper bound of the backoff
+   * @param requestTimeoutMillis time after which a request is aborted and retried, 0 for no timeout
+   * @param hedgePercentile latency percentile after which a duplicate request is sent, 0 disables hedging
+   */
+  public S3RequestPolicy(int maxRetries, long retryBaseMillis, long retryMaxMillis,
+      int requestTimeoutMillis, double hedgePercentile) {
+    this.maxRetries = Math.max(0, maxRetries);
+    this.retryBaseMillis = Math.max(1, retryBaseMillis);
+    this.retryMaxMillis = Math.max(this.retryBaseMillis, retryMaxMillis);
+    this.requestTimeoutMillis = Math.max(0, requestTimeoutMillis);
+    this.hedgePercentile = hedgePercentile > 0 && hedgePercentile < 100 ? hedgePercentile : 0;
+  }
+
+  public int getMaxRetries() {
+    return maxRetries;
+  }
+
+  public long getRetryBaseMillis() {
+    return retryBaseMillis;
+  }
+
+  public long getRetryMaxMillis() {
+    return retryMaxMillis;
+  }
+
+  public int getRequestTimeoutMillis() {
+    return requestTimeoutMillis;
+  }
+
+  public double getHedgePercentile() {
+    return hedgePercentile;
+  }
+
+  public boolean isHedgingEnabled() {
+    return hedgePercentile > 0;
+  }
+
+  /**
+   * Full jitter backoff, a random delay up to the exponentially growing bound
+   * so that clients retrying together do not hit the service at the same time
+   * @param attempt number of attempts that have already failed, starting at 0
+   * @return delay in milliseconds before the next attempt
+   */
+  public long getBackoffMillis(int attempt) {
+    long bound = retryMaxMillis;
+    if (attempt < 32) {
+      bound = Math.min(retryMaxMillis, retryBaseMillis << attempt);
+    }
+    return ThreadLocalRandom.current().nextLong(bound + 1);
+  }
+}
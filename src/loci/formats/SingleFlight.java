@@ -0,0 +1,127 @@
+package loci.formats;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent loads of the same key, the first caller performs the load and
+ * callers arriving while it is in flight wait for and share its result. Nothing is
+ * retained once the load completes, later callers perform a new load.
+ */
+public class SingleFlight<K, V> {
+
+  /**
+   * Loads the value of a key
+   */
+  public interface Loader<V> {
+    V load() throws IOException;
+  }
+
+  private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<K, CompletableFuture<V>>();
+  private final AtomicLong loads = new AtomicLong();
+  private final AtomicLong shared = new AtomicLong();
+
+  /**
+   * @param key identifying the value
+   * @param loader called if no load of the key is in flight
+   * @return the value loaded by this caller or by a concurrent caller for the same key
+   */
+  public V load(K key, Loader<V> loader) throws IOException {
+    CompletableFuture<V> future = new CompletableFuture<V>();
+    CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+    if (existing != null) {
+      shared.incrementAndGet();
+      return await(existing, key);
+    }
+    loads.incrementAndGet();
+    try {
+      V value = loader.load();
+      future.complete(value);
+      return value;
+    }
+    catch (IOException | RuntimeException | Error e) {
+      future.completeExceptionally(e);
+      throw e;
+    }
+    finally {
+      inFlight.remove(key, future);
+    }
+  }
+
+  /**
+   * @return the number of loads currently in flight
+   */
+  public int getInFlightCount() {
+    return inFlight.size();
+  }
+
+  /**
+   * @return the number of loads performed
+   */
+  public long getLoadCount() {
+    return loads.get();
+  }
+
+  /**
+   * @return the number of callers that received the result of another caller's load
+   */
+  public long getSharedCount() {
+    return shared.get();
+  }
+
+  private V await(CompletableFuture<V> future, K key) throws IOException {
+    try {
+      return future.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for " + key);
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw new IOException(cause.getMessage(), cause);
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException("Unable to load " + key, cause);
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package loci.formats;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+import java.io.IOException;
+import java.net.URI;
+import java.util.Collection;
+
+import com.bc.zarr.storage.Store;
+
+/**
+ * Opens the {@link Store} of a dataset for the URI schemes it handles. Providers are registered
+ * with {@link StoreProviders}, either explicitly or through java.util.ServiceLoader.
+ *
+ * Stores are opened once per dataset and used by every thread reading the dataset, so they must
+ * be thread-safe and their root must not change once opened. Groups and arrays below the root
+ * are accessed through a {@link StoreView}.
+ */
+public interface StoreProvider {
+
+  /**
+   * @return the lower case URI schemes handled by the provider
+   */
+  Collection<String> getSchemes();
+
+  /**
+   * Opens the store rooted at the location
+   * @param location URI of the root of the dataset
+   * @param clientOptions connection pool options of remote stores, null for the defaults
+   */
+  Store open(URI location, S3ClientRegistry.ClientOptions clientOptions) throws IOException;
+}
@@ -0,0 +1,248 @@
+package loci.formats;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.bc.zarr.storage.Store;
+
+/**
+ * Registry of {@link StoreProvider}s keyed by URI scheme. The built in providers handle file,
+ * s3, http, https, zip and memory locations, further providers are found with java.util.ServiceLoader or
+ * added with {@link #register(StoreProvider)}. Locations without a scheme are local paths,
+ * opened as zip locations when they are zipped Zarr datasets.
+ */
+public final class StoreProviders {
+
+  protected static final Logger LOGGER = LoggerFactory.getLogger(StoreProviders.class);
+
+  private static final Map<String, StoreProvider> PROVIDERS = new ConcurrentHashMap<String, StoreProvider>();
+
+  static {
+    register(new FileStoreProvider());
+    register(new S3StoreProvider());
+    register(new HttpStoreProvider());
+    register(new ZipStoreProvider());
+    register(new MemoryStoreProvider());
+    try {
+      for (StoreProvider provider : ServiceLoader.load(StoreProvider.class)) {
+        register(provider);
+      }
+    }
+    catch (ServiceConfigurationError e) {
+      LOGGER.warn("Unable to load store providers", e);
+    }
+  }
+
+  private StoreProviders() {
+  }
+
+  /**
+   * Registers the provider for each of its schemes, replacing any provider previously registered for them
+   */
+  public static void register(StoreProvider provider) {
+    for (String scheme : provider.getSchemes()) {
+      PROVIDERS.put(scheme.toLowerCase(Locale.ROOT), provider);
+    }
+  }
+
+  /**
+   * @return the provider registered for the scheme or null if there is none
+   */
+  public static StoreProvider getProvider(String scheme) {
+    return scheme == null ? null : PROVIDERS.get(scheme.toLowerCase(Locale.ROOT));
+  }
+
+  /**
+   * @return the lower case scheme of the location, "file" for local paths including Windows drive letters
+   */
+  public static String getScheme(String location) {
+    int colon = location.indexOf(':');
+    if (colon < 2) {
+      return "file";
+    }
+    for (int i = 0; i < colon; i++) {
+      char c = location.charAt(i);
+      boolean valid = Character.isLetter(c) || (i > 0 && (Character.isDigit(c) || c == '+' || c == '-' || c == '.'));
+      if (!valid) {
+        return "file";
+      }
+    }
+    return location.substring(0, colon).toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * Opens the store of the dataset at the location with the provider registered for its scheme
+   * @param location URI or local path of the root of the dataset, a single slash after the scheme
+   * as produced by Paths is accepted
+   * @param clientOptions connection pool options of remote stores, null for the defaults
+   */
+  public static Store open(String location, S3ClientRegistry.ClientOptions clientOptions) throws IOException {
+    String scheme = getScheme(location);
+    if (scheme.equals("file") && ZipStore.isZipped(location)) {
+      scheme = ZipStore.SCHEME;
+    }
+    StoreProvider provider = getProvider(scheme);
+    if (provider == null) {
+      throw new IOException("No store provider is registered for " + scheme + " locations: " + location);
+    }
+    return provider.open(toURI(scheme, location), clientOptions);
+  }
+
+  private static URI toURI(String scheme, String location) throws IOException {
+    if (scheme.equals(ZipStore.SCHEME)) {
+      // zip:file:///path/to/image.zarr.zip, the archive itself is always a local file
+      String archive = location.regionMatches(true, 0, "zip:", 0, 4) ? location.substring(4) : location;
+      if (!archive.regionMatches(true, 0, "file:", 0, 5)) {
+        archive = Paths.get(archive).toUri().toString();
+      }
+      return URI.create(ZipStore.SCHEME + ":" + archive);
+    }
+    if (scheme.equals("file") && !location.regionMatches(true, 0, "file:", 0, 5)) {
+      return Paths.get(location).toUri();
+    }
+    try {
+      boolean hierarchical = scheme.equals("http") || scheme.equals("https") || scheme.equals("s3");
+      return new URI((hierarchical ? HttpStore.normalize(location) : location).replace(" ", "%20"));
+    }
+    catch (URISyntaxException e) {
+      throw new IOException("Invalid store location " + location, e);
+    }
+  }
+
+  /**
+   * Path in the form https:/endpoint/bucket/prefix expected by {@link S3FileSystemStore}
+   */
+  static String toS3Path(URI location) {
+    return S3FileSystemStore.ENDPOINT_PROTOCOL.substring(0, S3FileSystemStore.ENDPOINT_PROTOCOL.length() - 1) +
+        location.getRawAuthority() + location.getRawPath();
+  }
+
+  /**
+   * True for https endpoints of S3 compatible object stores, identified as before by s3 in the host name
+   */
+  static boolean isS3Endpoint(URI location) {
+    String lower = location.toString().toLowerCase(Locale.ROOT);
+    return "https".equalsIgnoreCase(location.getScheme()) && (lower.contains("s3:") || lower.contains("s3."));
+  }
+
+  static class FileStoreProvider implements StoreProvider {
+    @Override
+    public Collection<String> getSchemes() {
+      return Collections.singleton("file");
+    }
+
+    @Override
+    public Store open(URI location, S3ClientRegistry.ClientOptions clientOptions) {
+      return new FileChannelStore(Paths.get(location));
+    }
+  }
+
+  /**
+   * Handles zip:file:///path locations of zipped datasets
+   */
+  static class ZipStoreProvider implements StoreProvider {
+    @Override
+    public Collection<String> getSchemes() {
+      return Collections.singleton(ZipStore.SCHEME);
+    }
+
+    @Override
+    public Store open(URI location, S3ClientRegistry.ClientOptions clientOptions) throws IOException {
+      String archive = ZipStore.getZipPath(location.getRawSchemeSpecificPart());
+      return new ZipStore(Paths.get(URI.create(archive == null ? location.getRawSchemeSpecificPart() : archive)));
+    }
+  }
+
+  /**
+   * Handles memory:name locations of stores registered with {@link MemoryStore#register}
+   */
+  static class MemoryStoreProvider implements StoreProvider {
+    @Override
+    public Collection<String> getSchemes() {
+      return Collections.singleton(MemoryStore.SCHEME);
+    }
+
+    @Override
+    public Store open(URI location, S3ClientRegistry.ClientOptions clientOptions) throws IOException {
+      MemoryStore store = MemoryStore.get(location.getSchemeSpecificPart());
+      if (store == null) {
+        throw new IOException("No memory store is registered as " + location.getSchemeSpecificPart());
+      }
+      return store;
+    }
+  }
+
+  /**
+   * Handles s3://endpoint/bucket/prefix locations, always accessed over https
+   */
+  static class S3StoreProvider implements StoreProvider {
+    @Override
+    public Collection<String> getSchemes() {
+      return Collections.singleton("s3");
+    }
+
+    @Override
+    public Store open(URI location, S3ClientRegistry.ClientOptions clientOptions) {
+      return new S3FileSystemStore(Paths.get(toS3Path(location)), clientOptions);
+    }
+  }
+
+  /**
+   * Uses the S3 API for S3 endpoints and plain GET requests for any other server
+   */
+  static class HttpStoreProvider implements StoreProvider {
+    @Override
+    public Collection<String> getSchemes() {
+      return Arrays.asList("http", "https");
+    }
+
+    @Override
+    public Store open(URI location, S3ClientRegistry.ClientOptions clientOptions) {
+      if (isS3Endpoint(location)) {
+        return new S3FileSystemStore(Paths.get(toS3Path(location)), clientOptions);
+      }
+      return new HttpStore(location.toString());
+    }
+  }
+}
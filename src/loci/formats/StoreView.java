@@ -0,0 +1,194 @@
+package loci.formats;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.bc.zarr.ZarrConstants;
+import com.bc.zarr.storage.Store;
+
+/**
+ * Immutable view of the keys of a store below a prefix, used to open the groups and arrays of a
+ * dataset without changing the root of the shared store. Views are as thread-safe as the store.
+ */
+public final class StoreView implements AsyncStore {
+
+  private final Store store;
+  private final String prefix;
+
+  /**
+   * @param store of the whole dataset
+   * @param prefix key of the group or array relative to the root of the store, empty for the root
+   */
+  public StoreView(Store store, String prefix) {
+    this.store = store;
+    this.prefix = normalizePrefix(prefix);
+  }
+
+  public Store getStore() {
+    return store;
+  }
+
+  public String getPrefix() {
+    return prefix;
+  }
+
+  /**
+   * @return the key relative to the root of the underlying store
+   */
+  public String resolve(String key) {
+    while (key.startsWith("/")) {
+      key = key.substring(1);
+    }
+    return prefix.isEmpty() ? key : prefix + "/" + key;
+  }
+
+  @Override
+  public InputStream getInputStream(String key) throws IOException {
+    return store.getInputStream(resolve(key));
+  }
+
+  /**
+   * Fetches the key through the store when it is an {@link AsyncStore}, otherwise reads
+   * it in the calling thread and returns a completed future
+   */
+  @Override
+  public CompletableFuture<ByteBuffer> fetchAsync(String key) {
+    if (store instanceof AsyncStore) {
+      return ((AsyncStore) store).fetchAsync(resolve(key));
+    }
+    CompletableFuture<ByteBuffer> result = new CompletableFuture<ByteBuffer>();
+    try (InputStream in = store.getInputStream(resolve(key))) {
+      result.complete(in == null ? null : ByteBuffer.wrap(readFully(in)));
+    }
+    catch (IOException | RuntimeException e) {
+      result.completeExceptionally(e);
+    }
+    return result;
+  }
+
+  private static byte[] readFully(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+    byte[] buffer = new byte[8192];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+    return out.toByteArray();
+  }
+
+  @Override
+  public OutputStream getOutputStream(String key) throws IOException {
+    return store.getOutputStream(resolve(key));
+  }
+
+  @Override
+  public void delete(String key) throws IOException {
+    store.delete(resolve(key));
+  }
+
+  /**
+   * Lists only the keys below the prefix when the store is a {@link PrefixListingStore},
+   * otherwise derives the arrays from the leaf keys below the prefix
+   */
+  @Override
+  public TreeSet<String> getArrayKeys() throws IOException {
+    if (prefix.isEmpty()) {
+      return store.getArrayKeys();
+    }
+    if (store instanceof PrefixListingStore) {
+      return ((PrefixListingStore) store).getArrayKeys(prefix);
+    }
+    return getParentKeys(ZarrConstants.FILENAME_DOT_ZARRAY);
+  }
+
+  @Override
+  public TreeSet<String> getGroupKeys() throws IOException {
+    if (prefix.isEmpty()) {
+      return store.getGroupKeys();
+    }
+    if (store instanceof PrefixListingStore) {
+      return ((PrefixListingStore) store).getGroupKeys(prefix);
+    }
+    return getParentKeys(ZarrConstants.FILENAME_DOT_ZGROUP);
+  }
+
+  @Override
+  public TreeSet<String> getKeysEndingWith(String suffix) throws IOException {
+    if (prefix.isEmpty()) {
+      return store.getKeysEndingWith(suffix);
+    }
+    if (store instanceof PrefixListingStore) {
+      return ((PrefixListingStore) store).getKeysEndingWith(prefix, suffix);
+    }
+    try (Stream<String> keys = store.getRelativeLeafKeys(prefix)) {
+      return keys.filter(key -> key.endsWith(suffix)).collect(Collectors.toCollection(TreeSet::new));
+    }
+  }
+
+  @Override
+  public Stream<String> getRelativeLeafKeys(String key) throws IOException {
+    return store.getRelativeLeafKeys(resolve(key));
+  }
+
+  /**
+   * @return the keys relative to the prefix of the groups or arrays below it holding the metadata file
+   */
+  private TreeSet<String> getParentKeys(String metadataName) throws IOException {
+    String suffix = "/" + metadataName;
+    try (Stream<String> keys = store.getRelativeLeafKeys(prefix)) {
+      return keys.map(key -> key.replace('\\', '/'))
+          .filter(key -> key.endsWith(suffix))
+          .map(key -> key.substring(0, key.length() - suffix.length()))
+          .collect(Collectors.toCollection(TreeSet::new));
+    }
+  }
+
+  private static String normalizePrefix(String prefix) {
+    if (prefix == null) {
+      return "";
+    }
+    String normalized = prefix.replace('\\', '/');
+    while (normalized.startsWith("/")) {
+      normalized = normalized.substring(1);
+    }
+    while (normalized.endsWith("/")) {
+      normalized = normalized.substring(0, normalized.length() - 1);
+    }
+    return normalized;
+  }
+}
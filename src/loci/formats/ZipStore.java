@@ -0,0 +1,511 @@
+package loci.formats;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import com.bc.zarr.ZarrConstants;
+
+/**
+ * Read only store for a Zarr dataset held in a single ZIP file, usually named .zarr.zip.
+ *
+ * The central directory is parsed once into sorted arrays of entry names and offsets, so
+ * looking up a key is a binary search, and entries are read with positional reads of a
+ * single FileChannel, which is safe to share between threads. Stored and deflated entries
+ * are supported, including archives in the ZIP64 format. The dataset may be at the root of
+ * the archive or in its only top level directory.
+ */
+public class ZipStore implements PrefixListingStore, Closeable {
+
+  public static final String SCHEME = "zip";
+  /** Suffix of zipped Zarr datasets */
+  public static final String ZIPPED_SUFFIX = ".zarr.zip";
+
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int LOCAL_HEADER_SIZE = 30;
+  private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+  private static final int CENTRAL_HEADER_SIZE = 46;
+  private static final int END_SIGNATURE = 0x06054b50;
+  private static final int END_SIZE = 22;
+  private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+  private static final int ZIP64_LOCATOR_SIZE = 20;
+  private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+  private static final int ZIP64_END_SIZE = 56;
+  private static final int ZIP64_EXTRA_ID = 0x0001;
+  private static final int MAX_COMMENT_SIZE = 0xffff;
+  private static final int METHOD_STORED = 0;
+  private static final int METHOD_DEFLATED = 8;
+  private static final int FLAG_ENCRYPTED = 1;
+  private static final int FLAG_UTF8 = 1 << 11;
+
+  private final Path path;
+  private final FileChannel channel;
+  // Directory of the dataset within the archive, empty or ending with a slash
+  private final String prefix;
+  // Entries sorted by name, directories are omitted
+  private final String[] names;
+  private final long[] headerOffsets;
+  private final long[] compressedSizes;
+  private final long[] sizes;
+  private final byte[] methods;
+  // Offset of the data of each entry, 0 until its local header has been read
+  private final AtomicLongArray dataOffsets;
+
+  /**
+   * Opens the archive and reads its central directory
+   */
+  public ZipStore(Path path) throws IOException {
+    this.path = path;
+    channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      ByteBuffer directory = readCentralDirectory();
+      int count = countEntries(directory);
+      String[] unsortedNames = new String[count];
+      long[][] values = new long[3][count];
+      byte[] unsortedMethods = new byte[count];
+      readEntries(directory, unsortedNames, values, unsortedMethods);
+
+      Integer[] order = new Integer[count];
+      for (int i = 0; i < count; i++) {
+        order[i] = i;
+      }
+      Arrays.sort(order, (a, b) -> unsortedNames[a].compareTo(unsortedNames[b]));
+      names = new String[count];
+      headerOffsets = new long[count];
+      compressedSizes = new long[count];
+      sizes = new long[count];
+      methods = new byte[count];
+      for (int i = 0; i < count; i++) {
+        int entry = order[i];
+        names[i] = unsortedNames[entry];
+        headerOffsets[i] = values[0][entry];
+        compressedSizes[i] = values[1][entry];
+        sizes[i] = values[2][entry];
+        methods[i] = unsortedMethods[entry];
+      }
+      dataOffsets = new AtomicLongArray(count);
+      prefix = findPrefix();
+    }
+    catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * @return true if the path is a zipped Zarr dataset or is within one
+   */
+  public static boolean isZipped(String path) {
+    return getZipPath(path) != null;
+  }
+
+  /**
+   * @return the path of the zipped dataset containing the path, or null if the dataset is not zipped
+   */
+  public static String getZipPath(String path) {
+    if (path == null) {
+      return null;
+    }
+    int index = path.toLowerCase().indexOf(ZIPPED_SUFFIX);
+    if (index < 0) {
+      return null;
+    }
+    int end = index + ZIPPED_SUFFIX.length();
+    if (end < path.length() && path.charAt(end) != '/' && path.charAt(end) != '\\') {
+      return null;
+    }
+    return path.substring(0, end);
+  }
+
+  public Path getPath() {
+    return path;
+  }
+
+  /**
+   * @return the number of files in the archive
+   */
+  public int getEntryCount() {
+    return names.length;
+  }
+
+  /**
+   * @return the directory of the dataset within the archive, empty if the dataset is at the root
+   */
+  public String getPrefix() {
+    return prefix;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  @Override
+  public InputStream getInputStream(String key) throws IOException {
+    int entry = find(normalize(key));
+    if (entry < 0) {
+      return null;
+    }
+    byte[] data = readData(entry);
+    if (methods[entry] == METHOD_STORED) {
+      return new ByteArrayInputStream(data);
+    }
+    Inflater inflater = new Inflater(true);
+    return new InflaterInputStream(new ByteArrayInputStream(data), inflater) {
+      private boolean ended = false;
+
+      @Override
+      public void close() throws IOException {
+        super.close();
+        if (!ended) {
+          ended = true;
+          inflater.end();
+        }
+      }
+    };
+  }
+
+  /**
+   * @return the uncompressed size of the key, or -1 if the key does not exist
+   */
+  public long getSize(String key) {
+    int entry = find(normalize(key));
+    return entry < 0 ? -1 : sizes[entry];
+  }
+
+  @Override
+  public OutputStream getOutputStream(String key) throws IOException {
+    throw new IOException("Zipped Zarr stores are read only: " + path);
+  }
+
+  @Override
+  public void delete(String key) throws IOException {
+    throw new IOException("Zipped Zarr stores are read only: " + path);
+  }
+
+  @Override
+  public TreeSet<String> getArrayKeys() throws IOException {
+    return getArrayKeys("");
+  }
+
+  @Override
+  public TreeSet<String> getGroupKeys() throws IOException {
+    return getGroupKeys("");
+  }
+
+  @Override
+  public TreeSet<String> getKeysEndingWith(String suffix) throws IOException {
+    return getKeysEndingWith("", suffix);
+  }
+
+  @Override
+  public TreeSet<String> getArrayKeys(String key) throws IOException {
+    return getParentKeys(getDirectory(key), ZarrConstants.FILENAME_DOT_ZARRAY);
+  }
+
+  @Override
+  public TreeSet<String> getGroupKeys(String key) throws IOException {
+    return getParentKeys(getDirectory(key), ZarrConstants.FILENAME_DOT_ZGROUP);
+  }
+
+  @Override
+  public TreeSet<String> getKeysEndingWith(String key, String suffix) throws IOException {
+    String directory = getDirectory(key);
+    TreeSet<String> keys = new TreeSet<String>();
+    for (int entry = firstUnder(directory); entry < names.length && names[entry].startsWith(directory); entry++) {
+      if (names[entry].endsWith(suffix)) {
+        keys.add(names[entry].substring(directory.length()));
+      }
+    }
+    return keys;
+  }
+
+  @Override
+  public Stream<String> getRelativeLeafKeys(String key) throws IOException {
+    String directory = getDirectory(key);
+    int first = firstUnder(directory);
+    int last = first;
+    while (last < names.length && names[last].startsWith(directory)) {
+      last++;
+    }
+    return IntStream.range(first, last).mapToObj(entry -> names[entry].substring(directory.length()));
+  }
+
+  /**
+   * @param directory name of a directory within the archive, empty or ending with a slash
+   * @return the keys relative to the directory of the groups or arrays below it whose metadata
+   * file is the given name, excluding the directory itself
+   */
+  private TreeSet<String> getParentKeys(String directory, String metadataName) {
+    TreeSet<String> keys = new TreeSet<String>();
+    String suffix = "/" + metadataName;
+    for (int entry = firstUnder(directory); entry < names.length && names[entry].startsWith(directory); entry++) {
+      if (names[entry].endsWith(suffix)) {
+        keys.add(names[entry].substring(directory.length(), names[entry].length() - suffix.length()));
+      }
+    }
+    return keys;
+  }
+
+  /**
+   * @return the name of the directory of a key within the archive, empty or ending with a slash
+   */
+  private String getDirectory(String key) {
+    String normalized = normalize(key);
+    return normalized.isEmpty() || normalized.endsWith("/") ? normalized : normalized + "/";
+  }
+
+  private String normalize(String key) {
+    String normalized = key.replace('\\', '/');
+    while (normalized.startsWith("/")) {
+      normalized = normalized.substring(1);
+    }
+    return prefix + normalized;
+  }
+
+  private int find(String name) {
+    int entry = Arrays.binarySearch(names, name);
+    return entry < 0 ? -1 : entry;
+  }
+
+  /**
+   * @return the index of the first entry whose name is not before the given prefix
+   */
+  private int firstUnder(String namePrefix) {
+    int entry = Arrays.binarySearch(names, namePrefix);
+    return entry < 0 ? -entry - 1 : entry;
+  }
+
+  /**
+   * The dataset is at the root of the archive unless the archive holds a single top level
+   * directory containing the root metadata, as produced by zipping the .zarr directory itself
+   */
+  private String findPrefix() {
+    if (find(ZarrConstants.FILENAME_DOT_ZGROUP) >= 0 || find(ZarrConstants.FILENAME_DOT_ZARRAY) >= 0 ||
+        names.length == 0) {
+      return "";
+    }
+    int slash = names[0].indexOf('/');
+    if (slash < 0) {
+      return "";
+    }
+    String directory = names[0].substring(0, slash + 1);
+    if (!names[names.length - 1].startsWith(directory)) {
+      return "";
+    }
+    if (find(directory + ZarrConstants.FILENAME_DOT_ZGROUP) >= 0 ||
+        find(directory + ZarrConstants.FILENAME_DOT_ZARRAY) >= 0) {
+      return directory;
+    }
+    return "";
+  }
+
+  private byte[] readData(int entry) throws IOException {
+    long size = compressedSizes[entry];
+    if (size > Integer.MAX_VALUE - 8) {
+      throw new IOException("Entry " + names[entry] + " is too large to read from " + path);
+    }
+    byte[] data = new byte[(int) size];
+    readFully(ByteBuffer.wrap(data), getDataOffset(entry));
+    return data;
+  }
+
+  private long getDataOffset(int entry) throws IOException {
+    long offset = dataOffsets.get(entry);
+    if (offset > 0) {
+      return offset;
+    }
+    ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    readFully(header, headerOffsets[entry]);
+    if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+      throw new IOException("Invalid local header for " + names[entry] + " in " + path);
+    }
+    offset = headerOffsets[entry] + LOCAL_HEADER_SIZE + (header.getShort(26) & 0xffff) +
+        (header.getShort(28) & 0xffff);
+    dataOffsets.set(entry, offset);
+    return offset;
+  }
+
+  private void readFully(ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position);
+      if (read < 0) {
+        throw new EOFException("Unexpected end of " + path);
+      }
+      position += read;
+    }
+  }
+
+  /**
+   * Locates the end of central directory record, following the ZIP64 locator when present
+   * @return the central directory, memory mapped
+   */
+  private ByteBuffer readCentralDirectory() throws IOException {
+    long fileSize = channel.size();
+    int tailSize = (int) Math.min(fileSize, END_SIZE + MAX_COMMENT_SIZE);
+    ByteBuffer tail = ByteBuffer.allocate(tailSize).order(ByteOrder.LITTLE_ENDIAN);
+    readFully(tail, fileSize - tailSize);
+    int end = -1;
+    for (int i = tailSize - END_SIZE; i >= 0; i--) {
+      if (tail.getInt(i) == END_SIGNATURE) {
+        end = i;
+        break;
+      }
+    }
+    if (end < 0) {
+      throw new IOException("Not a ZIP file: " + path);
+    }
+    long directorySize = tail.getInt(end + 12) & 0xffffffffL;
+    long directoryOffset = tail.getInt(end + 16) & 0xffffffffL;
+    long locator = fileSize - tailSize + end - ZIP64_LOCATOR_SIZE;
+    if (locator >= 0) {
+      ByteBuffer locatorRecord = ByteBuffer.allocate(ZIP64_LOCATOR_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      readFully(locatorRecord, locator);
+      if (locatorRecord.getInt(0) == ZIP64_LOCATOR_SIGNATURE) {
+        ByteBuffer zip64End = ByteBuffer.allocate(ZIP64_END_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(zip64End, locatorRecord.getLong(8));
+        if (zip64End.getInt(0) != ZIP64_END_SIGNATURE) {
+          throw new IOException("Invalid ZIP64 end of central directory in " + path);
+        }
+        directorySize = zip64End.getLong(40);
+        directoryOffset = zip64End.getLong(48);
+      }
+    }
+    if (directorySize > Integer.MAX_VALUE || directoryOffset + directorySize > fileSize) {
+      throw new IOException("Unsupported central directory in " + path);
+    }
+    MappedByteBuffer directory = channel.map(FileChannel.MapMode.READ_ONLY, directoryOffset, directorySize);
+    directory.order(ByteOrder.LITTLE_ENDIAN);
+    return directory;
+  }
+
+  /**
+   * @return the number of file entries in the central directory
+   */
+  private int countEntries(ByteBuffer directory) throws IOException {
+    int count = 0;
+    int position = 0;
+    while (position + CENTRAL_HEADER_SIZE <= directory.limit()) {
+      if (directory.getInt(position) != CENTRAL_HEADER_SIGNATURE) {
+        throw new IOException("Invalid central directory entry in " + path);
+      }
+      int nameLength = directory.getShort(position + 28) & 0xffff;
+      if (directory.get(position + CENTRAL_HEADER_SIZE + nameLength - 1) != '/') {
+        count++;
+      }
+      position += CENTRAL_HEADER_SIZE + nameLength + (directory.getShort(position + 30) & 0xffff) +
+          (directory.getShort(position + 32) & 0xffff);
+    }
+    return count;
+  }
+
+  /**
+   * Reads the name, local header offset, compressed and uncompressed sizes and method of each file
+   */
+  private void readEntries(ByteBuffer directory, String[] entryNames, long[][] values, byte[] entryMethods)
+      throws IOException {
+    int entry = 0;
+    int position = 0;
+    while (entry < entryNames.length) {
+      int flags = directory.getShort(position + 8) & 0xffff;
+      int method = directory.getShort(position + 10) & 0xffff;
+      long compressedSize = directory.getInt(position + 20) & 0xffffffffL;
+      long size = directory.getInt(position + 24) & 0xffffffffL;
+      int nameLength = directory.getShort(position + 28) & 0xffff;
+      int extraLength = directory.getShort(position + 30) & 0xffff;
+      int commentLength = directory.getShort(position + 32) & 0xffff;
+      long headerOffset = directory.getInt(position + 42) & 0xffffffffL;
+      int nameStart = position + CENTRAL_HEADER_SIZE;
+      byte[] nameBytes = new byte[nameLength];
+      ByteBuffer nameBuffer = directory.duplicate();
+      nameBuffer.position(nameStart);
+      nameBuffer.get(nameBytes);
+      String name = new String(nameBytes, (flags & FLAG_UTF8) != 0 ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1);
+      position = nameStart + nameLength + extraLength + commentLength;
+      if (name.endsWith("/")) {
+        continue;
+      }
+      if ((flags & FLAG_ENCRYPTED) != 0) {
+        throw new IOException("Encrypted entries are not supported: " + name + " in " + path);
+      }
+      if (method != METHOD_STORED && method != METHOD_DEFLATED) {
+        throw new IOException("Unsupported compression method " + method + " for " + name + " in " + path);
+      }
+
+      // ZIP64 values are present only for the fields set to 0xffffffff, in this order
+      int extra = nameStart + nameLength;
+      int extraEnd = extra + extraLength;
+      while (extra + 4 <= extraEnd) {
+        int id = directory.getShort(extra) & 0xffff;
+        int length = directory.getShort(extra + 2) & 0xffff;
+        if (id == ZIP64_EXTRA_ID) {
+          int field = extra + 4;
+          if (size == 0xffffffffL) {
+            size = directory.getLong(field);
+            field += 8;
+          }
+          if (compressedSize == 0xffffffffL) {
+            compressedSize = directory.getLong(field);
+            field += 8;
+          }
+          if (headerOffset == 0xffffffffL) {
+            headerOffset = directory.getLong(field);
+          }
+          break;
+        }
+        extra += 4 + length;
+      }
+      entryNames[entry] = name;
+      values[0][entry] = headerOffset;
+      values[1][entry] = compressedSize;
+      values[2][entry] = size;
+      entryMethods[entry] = (byte) method;
+      entry++;
+    }
+  }
+}
@@ -0,0 +1,262 @@
+package loci.formats.in;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Natural ordering of Zarr group and array paths, so that A/2 is placed
+ * before A/10. Paths with fewer parts come first, integer parts are compared
+ * numerically and sort before non-integer parts, which are compared as strings.
+ *
+ * Each path is parsed once into a {@link SortKey}, comparisons then only
+ * look at the precomputed values. An instance of this class keeps a sorted
+ * list of paths that new paths, such as newly discovered wells, can be
+ * inserted into without sorting everything again.
+ */
+public class ZarrKeyOrdering {
+
+  /**
+   * Comparator parsing both paths on every call, prefer {@link #sort(Collection)}
+   * or {@link SortKey} when the same paths are compared many times.
+   */
+  public static final Comparator<String> KEY_COMPARATOR =
+      (a, b) -> SortKey.of(a).compareTo(SortKey.of(b));
+
+  private final ArrayList<SortKey> sortKeys = new ArrayList<SortKey>();
+
+  /**
+   * Precomputed sort key for a single path. Integer parts are stored as
+   * primitive values, only non-integer parts keep a reference to their text.
+   */
+  public static final class SortKey implements Comparable<SortKey> {
+    private final String path;
+    private final long[] values;
+    // Text of each non-integer part, null where the part is an integer
+    private final String[] text;
+
+    private SortKey(String path, long[] values, String[] text) {
+      this.path = path;
+      this.values = values;
+      this.text = text;
+    }
+
+    /**
+     * Parses the parts of a path separated by '/'. As with String#split
+     * trailing empty parts are ignored.
+     */
+    public static SortKey of(String path) {
+      int partCount = 1;
+      int end = path.length();
+      if (end > 0) {
+        while (end > 0 && path.charAt(end - 1) == '/') {
+          end--;
+        }
+        partCount = 0;
+        if (end > 0) {
+          partCount = 1;
+          for (int i = 0; i < end; i++) {
+            if (path.charAt(i) == '/') {
+              partCount++;
+            }
+          }
+        }
+      }
+      long[] values = new long[partCount];
+      String[] text = null;
+      int start = 0;
+      for (int p = 0; p < partCount; p++) {
+        int stop = path.indexOf('/', start);
+        if (stop < 0 || stop > end) {
+          stop = end;
+        }
+        if (isIntegerPart(path, start, stop)) {
+          values[p] = Long.parseLong(path.substring(start, stop));
+        }
+        else {
+          if (text == null) {
+            text = new String[partCount];
+          }
+          text[p] = path.substring(start, stop);
+        }
+        start = stop + 1;
+      }
+      return new SortKey(path, values, text);
+    }
+
+    public String getPath() {
+      return path;
+    }
+
+    public int getPartCount() {
+      return values.length;
+    }
+
+    public boolean isInteger(int part) {
+      return text == null || text[part] == null;
+    }
+
+    @Override
+    public int compareTo(SortKey other) {
+      int numParts = values.length - other.values.length;
+      if (numParts != 0) return numParts;
+
+      for (int i = 0; i < values.length; i++) {
+        boolean isAInt = isInteger(i);
+        boolean isBInt = other.isInteger(i);
+        if (isAInt && !isBInt) return -1;
+        if (!isAInt && isBInt) return 1;
+
+        if (isAInt) {
+          int numResult = Long.compare(values[i], other.values[i]);
+          if (numResult != 0) return numResult;
+        }
+        else {
+          int stringResult = text[i].compareTo(other.text[i]);
+          if (stringResult != 0) return stringResult;
+        }
+      }
+      return 0;
+    }
+
+    @Override
+    public String toString() {
+      return path;
+    }
+  }
+
+  /**
+   * Returns a new list with the paths in natural order. Each path is parsed
+   * exactly once, the sort is stable so equal paths keep their relative order.
+   */
+  public static List<String> sort(Collection<String> paths) {
+    SortKey[] keys = new SortKey[paths.size()];
+    int index = 0;
+    for (String path : paths) {
+      keys[index++] = SortKey.of(path);
+    }
+    Arrays.sort(keys);
+    List<String> sorted = new ArrayList<String>(keys.length);
+    for (SortKey key : keys) {
+      sorted.add(key.path);
+    }
+    return sorted;
+  }
+
+  public ZarrKeyOrdering() {
+  }
+
+  public ZarrKeyOrdering(Collection<String> paths) {
+    addAll(paths);
+  }
+
+  /**
+   * Inserts a path at its position in the natural order, after any equal paths
+   * @return the index at which the path was inserted
+   */
+  public int add(String path) {
+    SortKey key = SortKey.of(path);
+    int low = 0;
+    int high = sortKeys.size();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (sortKeys.get(mid).compareTo(key) <= 0) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    sortKeys.add(low, key);
+    return low;
+  }
+
+  /**
+   * Adds all of the paths, sorting once rather than inserting each path
+   */
+  public void addAll(Collection<String> paths) {
+    sortKeys.ensureCapacity(sortKeys.size() + paths.size());
+    for (String path : paths) {
+      sortKeys.add(SortKey.of(path));
+    }
+    Collections.sort(sortKeys);
+  }
+
+  public int size() {
+    return sortKeys.size();
+  }
+
+  public String get(int index) {
+    return sortKeys.get(index).path;
+  }
+
+  /**
+   * @return an unmodifiable view of the paths in natural order
+   */
+  public List<String> getPaths() {
+    return new AbstractList<String>() {
+      @Override
+      public String get(int index) {
+        return sortKeys.get(index).path;
+      }
+
+      @Override
+      public int size() {
+        return sortKeys.size();
+      }
+    };
+  }
+
+  public void clear() {
+    sortKeys.clear();
+  }
+
+  private static boolean isIntegerPart(String s, int start, int end) {
+    if (start >= end) return false;
+    int digits = end - start;
+    if (s.charAt(start) == '-') {
+      if (digits == 1) return false;
+      digits--;
+      start++;
+    }
+    // Longer values cannot be held in a long and are compared as text
+    if (digits > 18) return false;
+    for (int i = start; i < end; i++) {
+      if (Character.digit(s.charAt(i), 10) < 0) return false;
+    }
+    return true;
+  }
+}
@@ -32,19 +32,26 @@ package loci.formats.in;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.FileVisitOption;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Stream;
 
 import javax.xml.parsers.ParserConfigurationException;
@@ -63,15 +70,25 @@ import loci.common.services.DependencyException;
 import loci.common.services.ServiceException;
 import loci.common.services.ServiceFactory;
 import loci.common.xml.XMLTools;
+import loci.formats.ChunkOrderTiles;
 import loci.formats.CoreMetadata;
+import loci.formats.DecodedChunkCache;
+import loci.formats.DiskChunkCache;
 import loci.formats.FormatException;
 import loci.formats.FormatReader;
 import loci.formats.FormatTools;
+import loci.formats.MemoryStore;
 import loci.formats.MetadataTools;
+import loci.formats.S3AdmissionController;
+import loci.formats.S3ClientRegistry;
+import loci.formats.S3FileSystemStore;
+import loci.formats.S3RequestPolicy;
+import loci.formats.ZipStore;
 import loci.formats.in.DynamicMetadataOptions;
 import loci.formats.in.MetadataOptions;
 import loci.formats.meta.MetadataStore;
 import loci.formats.ome.OMEXMLMetadata;
+import loci.formats.services.ChunkPrefetcher;
 import loci.formats.services.JZarrServiceImpl;
 import ome.xml.meta.MetadataConverter;
 import ome.xml.meta.MetadataRoot;
@@ -84,6 +101,8 @@ import ome.xml.model.primitives.NonNegativeInteger;
 import ome.xml.model.primitives.PositiveInteger;
 import ome.xml.model.primitives.Timestamp;
 import loci.formats.services.OMEXMLService;
+import loci.formats.services.ZarrArrayHeader;
+import loci.formats.services.ZarrReadPlan;
 import loci.formats.services.ZarrService;
 
 
@@ -100,16 +119,74 @@ public class ZarrReader extends FormatReader {
   public static final boolean INCLUDE_LABELS_DEFAULT = false;
   public static final String ALT_STORE_KEY = "omezarr.alt_store";
   public static final String ALT_STORE_DEFAULT = null;
+  public static final String USED_FILES_MODE_KEY = "omezarr.used_files_mode";
+  public static final String USED_FILES_MODE_WALK = "walk";
+  public static final String USED_FILES_MODE_PARALLEL = "parallel";
+  public static final String USED_FILES_MODE_METADATA = "metadata";
+  public static final String USED_FILES_MODE_DEFAULT = USED_FILES_MODE_WALK;
+  public static final String HEADER_THREADS_KEY = "omezarr.header_threads";
+  public static final int HEADER_THREADS_DEFAULT = 8;
+  public static final String TRUST_OME_XML_KEY = "omezarr.trust_ome_xml";
+  public static final boolean TRUST_OME_XML_DEFAULT = false;
+  public static final String S3_MAX_CONNECTIONS_KEY = "omezarr.s3.max_connections";
+  public static final int S3_MAX_CONNECTIONS_DEFAULT = S3ClientRegistry.ClientOptions.DEFAULT_MAX_CONNECTIONS;
+  public static final String S3_KEEP_ALIVE_KEY = "omezarr.s3.keep_alive";
+  public static final boolean S3_KEEP_ALIVE_DEFAULT = S3ClientRegistry.ClientOptions.DEFAULT_KEEP_ALIVE;
+  public static final String S3_MAX_IDLE_KEY = "omezarr.s3.max_idle_ms";
+  public static final int S3_MAX_IDLE_DEFAULT = (int) S3ClientRegistry.ClientOptions.DEFAULT_MAX_IDLE_MILLIS;
+  public static final String S3_MAX_IN_FLIGHT_KEY = "omezarr.s3.max_in_flight";
+  public static final int S3_MAX_IN_FLIGHT_DEFAULT = S3FileSystemStore.DEFAULT_MAX_IN_FLIGHT;
+  public static final String S3_DELIMITER_LISTING_KEY = "omezarr.s3.delimiter_listing";
+  public static final boolean S3_DELIMITER_LISTING_DEFAULT = false;
+  public static final String S3_MAX_RETRIES_KEY = "omezarr.s3.max_retries";
+  public static final int S3_MAX_RETRIES_DEFAULT = S3RequestPolicy.DEFAULT_MAX_RETRIES;
+  public static final String S3_RETRY_BASE_KEY = "omezarr.s3.retry_base_ms";
+  public static final int S3_RETRY_BASE_DEFAULT = (int) S3RequestPolicy.DEFAULT_RETRY_BASE_MILLIS;
+  public static final String S3_RETRY_MAX_KEY = "omezarr.s3.retry_max_ms";
+  public static final int S3_RETRY_MAX_DEFAULT = (int) S3RequestPolicy.DEFAULT_RETRY_MAX_MILLIS;
+  public static final String S3_REQUEST_TIMEOUT_KEY = "omezarr.s3.request_timeout_ms";
+  public static final int S3_REQUEST_TIMEOUT_DEFAULT = S3RequestPolicy.DEFAULT_REQUEST_TIMEOUT_MILLIS;
+  public static final String S3_HEDGE_PERCENTILE_KEY = "omezarr.s3.hedge_percentile";
+  public static final double S3_HEDGE_PERCENTILE_DEFAULT = S3RequestPolicy.DEFAULT_HEDGE_PERCENTILE;
+  public static final String TRUST_PLATE_METADATA_KEY = "omezarr.trust_plate_metadata";
+  public static final boolean TRUST_PLATE_METADATA_DEFAULT = false;
+  public static final String S3_CACHE_DIR_KEY = "omezarr.s3.cache_dir";
+  public static final String S3_CACHE_SIZE_KEY = "omezarr.s3.cache_size_mb";
+  public static final int S3_CACHE_SIZE_DEFAULT = 10240;
+  public static final String S3_CACHE_REVALIDATE_KEY = "omezarr.s3.cache_revalidate_s";
+  public static final int S3_CACHE_REVALIDATE_DEFAULT = 3600;
+  public static final String S3_RANGED_READS_KEY = "omezarr.s3.ranged_reads";
+  public static final boolean S3_RANGED_READS_DEFAULT = false;
+  public static final String S3_RANGE_COALESCE_KEY = "omezarr.s3.range_coalesce_bytes";
+  public static final int S3_RANGE_COALESCE_DEFAULT = S3FileSystemStore.DEFAULT_RANGE_COALESCE_BYTES;
+  public static final String S3_BUFFER_POOL_KEY = "omezarr.s3.buffer_pool_size";
+  public static final int S3_BUFFER_POOL_DEFAULT = S3FileSystemStore.DEFAULT_BUFFER_POOL_SIZE;
+  public static final String SHARED_CHUNK_READS_KEY = "omezarr.shared_chunk_reads";
+  public static final boolean SHARED_CHUNK_READS_DEFAULT = false;
+  public static final String S3_MAX_CONCURRENT_KEY = "omezarr.s3.max_concurrent_requests";
+  public static final int S3_MAX_CONCURRENT_DEFAULT = S3AdmissionController.DEFAULT_MAX_CONCURRENT;
+  public static final String S3_MAX_RATE_KEY = "omezarr.s3.max_requests_per_second";
+  public static final double S3_MAX_RATE_DEFAULT = S3AdmissionController.DEFAULT_MAX_REQUESTS_PER_SECOND;
+  public static final String MEMORY_PRELOAD_KEY = "omezarr.memory_preload_mb";
+  public static final int MEMORY_PRELOAD_DEFAULT = 0;
+  public static final String CACHED_FILE_CHANNELS_KEY = "omezarr.cached_file_channels";
+  public static final boolean CACHED_FILE_CHANNELS_DEFAULT = false;
+  public static final String LOCAL_ASYNC_READS_KEY = "omezarr.local_async_reads";
+  public static final int LOCAL_ASYNC_READS_DEFAULT = 0;
+  public static final String CHUNK_CACHE_KEY = "omezarr.chunk_cache_mb";
+  public static final int CHUNK_CACHE_DEFAULT = 0;
   protected transient ZarrService zarrService;
+  // Loads the chunks of prefetch hints in the background, created by the first hint
+  private transient ChunkPrefetcher prefetcher;
+  // Size of the shared decoded chunk cache requested by this reader, released on close
+  private transient DecodedChunkCache.SizeRequest chunkCacheRequest;
   private ArrayList<String> arrayPaths = new ArrayList<String>();
   
   // The below fields are only required for initialization and are not required to be serialized
   private transient ArrayList<String> groupKeys = new ArrayList<String>(); 
-  private transient HashMap<Integer, ArrayList<String>> resSeries = new HashMap<Integer, ArrayList<String>>(); // can be removed
-  private transient HashMap<String, Integer> resCounts = new HashMap<String, Integer>(); // can be removed
+  private transient ZarrSeriesIndex seriesIndex = new ZarrSeriesIndex();
   private transient HashSet<Integer> uniqueResCounts = new HashSet<Integer>(); // can be removed
-  private transient HashMap<String, Integer> resIndexes = new HashMap<String, Integer>(); // can be removed
-  private transient HashMap<String, ArrayList<String>> pathArrayDimensions = new HashMap<String, ArrayList<String>>(); // can be removed
+  private transient List<String> plateFieldKeys = null;
   
   private String dimensionOrder = "XYZCT";
   private int wellCount = 0;
@@ -117,6 +194,8 @@ public class ZarrReader extends FormatReader {
   private boolean planesPrePopulated = false;
   private boolean hasSPW = false;
   private transient int currentOpenZarr = -1;
+  // Core indexes populated from OME-XML that have not yet been checked against the array
+  private transient BitSet pendingValidation = null;
 
   public ZarrReader() {
     super("Zarr", "zarr");
@@ -147,17 +226,24 @@ public class ZarrReader extends FormatReader {
   public void close() throws IOException {
     arrayPaths.clear();
     groupKeys.clear();
-    resSeries.clear();
-    resCounts.clear();
+    seriesIndex.clear();
     uniqueResCounts.clear();
-    resIndexes.clear();
-    pathArrayDimensions.clear();
+    plateFieldKeys = null;
+    if (prefetcher != null) {
+      prefetcher.close();
+      prefetcher = null;
+    }
+    if (chunkCacheRequest != null) {
+      chunkCacheRequest.close();
+      chunkCacheRequest = null;
+    }
     if (zarrService != null) {
       zarrService.close();
     }
     planesPrePopulated = false;
     hasSPW = false;
     currentOpenZarr = -1;
+    pendingValidation = null;
     wellCount = 0;
     wellSamplesCount = 0;
     super.close();
@@ -167,6 +253,7 @@ public class ZarrReader extends FormatReader {
   @Override
   public int getOptimalTileHeight() {
     FormatTools.assertId(currentId, true, 1);
+    openZarr();
     int[] chunkSizes = zarrService.getChunkSize();
     return chunkSizes[chunkSizes.length - 2];
   }
@@ -175,6 +262,7 @@ public class ZarrReader extends FormatReader {
   @Override
   public int getOptimalTileWidth() {
     FormatTools.assertId(currentId, true, 1);
+    openZarr();
     int[] chunkSizes = zarrService.getChunkSize();
     return chunkSizes[chunkSizes.length - 1];
   }
@@ -196,9 +284,14 @@ public class ZarrReader extends FormatReader {
     reloadOptionsFile(zarrRootPath);
 
     ArrayList<String> omeSeriesOrder = new ArrayList<String>();
-    if(omeMetaFile.exists()) {
+    InputStream omeMetadata = openOMEXML(omeMetaFile);
+    if (omeMetadata != null) {
       LOGGER.debug("ZarrReader parsing existing OME-XML");
-      parseOMEXML(omeMetaFile, store, omeSeriesOrder);
+      parseOMEXML(omeMetadata, store, omeSeriesOrder);
+      if (trustOMEXML() && initFromOMEXML(zarrRootPath, canonicalPath, store, omeSeriesOrder)) {
+        LOGGER.debug("ZarrReader initialization from OME-XML complete");
+        return;
+      }
     }
     // Parse base level attributes
     Map<String, Object> attr = zarrService.getGroupAttr(canonicalPath);
@@ -257,6 +350,7 @@ public class ZarrReader extends FormatReader {
       arrayPaths.addAll(zarrService.getArrayKeys(canonicalPath));
     }
     orderArrayPaths(zarrRootPath);
+    seriesIndex.setCoreIndexes(arrayPaths);
 
     if (saveAnnotations()) {
       for (String key: arrayPaths) {
@@ -282,22 +376,22 @@ public class ZarrReader extends FormatReader {
     
     HashMap<Integer, int[]> resShapes = new HashMap<Integer, int[]>();
     int pixelType = -1;
+    ZarrArrayHeader[] arrayHeaders = null;
+    if (!quickRead() && headerThreads() > 1) {
+      arrayHeaders = loadArrayHeaders(zarrRootPath, headerThreads());
+    }
 
     for (int i=0; i<arrayPaths.size(); i++) {
-      int resolutionCount = 1;
-      if (resCounts.get(arrayPaths.get(i)) != null) {
-        resolutionCount = resCounts.get(arrayPaths.get(i));
-      }
-      int resolutionIndex= 0;
-      if (resIndexes.get(arrayPaths.get(i)) != null) {
-        resolutionIndex = resIndexes.get(arrayPaths.get(i));
-      }
+      String arrayPath = arrayPaths.get(i);
+      int resolutionCount = seriesIndex.getResolutionCount(arrayPath, 1);
+      int resolutionIndex = seriesIndex.getResolutionIndex(arrayPath, 0);
 
       CoreMetadata ms = new CoreMetadata();
       core.add(ms);
 
-      boolean openZarr = true;
-      if (quickRead() && resShapes.containsKey(resolutionIndex) && !arrayPaths.get(i).toLowerCase().contains("label")) {
+      ZarrArrayHeader arrayHeader = arrayHeaders == null ? null : arrayHeaders[i];
+      boolean openZarr = arrayHeader == null;
+      if (quickRead() && resShapes.containsKey(resolutionIndex) && !arrayPath.toLowerCase().contains("label")) {
         openZarr = false;
       }
         
@@ -313,7 +407,19 @@ public class ZarrReader extends FormatReader {
       }
       
       int[] shape;
-      if (openZarr) {
+      boolean littleEndian;
+      if (arrayHeader != null) {
+        LOGGER.debug("ZarrReader using array header to get Shape");
+        pixelType = arrayHeader.getPixelType();
+        ms.pixelType = pixelType;
+        shape = arrayHeader.getShape();
+        if (shape.length < 5) {
+          shape = get5DShape(shape);
+        }
+        resShapes.put(resolutionIndex, shape);
+        littleEndian = arrayHeader.getByteOrder() == ByteOrder.LITTLE_ENDIAN;
+      }
+      else if (openZarr) {
         LOGGER.debug("ZarrReader opening Zarr to get Shape");
         pixelType = zarrService.getPixelType();
         ms.pixelType = pixelType;
@@ -322,10 +428,12 @@ public class ZarrReader extends FormatReader {
           shape = get5DShape(shape);
         } 
         resShapes.put(resolutionIndex, shape);
+        littleEndian = zarrService.isLittleEndian();
       }
       else {
         ms.pixelType = pixelType;
         shape = resShapes.get(resolutionIndex);
+        littleEndian = zarrService.isLittleEndian();
       }
 
       ms.sizeX = shape[4];
@@ -333,22 +441,18 @@ public class ZarrReader extends FormatReader {
       ms.sizeT = shape[0];
       ms.sizeZ = shape[2];
       ms.sizeC = shape[1];
-      ArrayList<String> pathDimensions = pathArrayDimensions.get(arrayPaths.get(i));
-      if (pathDimensions != null && !pathDimensions.isEmpty()) {
+      List<String> pathDimensions = seriesIndex.getDimensions(arrayPath);
+      if (pathDimensions != null) {
         ms.sizeX = shape[pathDimensions.indexOf("x")];
         ms.sizeY = shape[pathDimensions.indexOf("y")];
         ms.sizeT = shape[pathDimensions.indexOf("t")];
         ms.sizeZ = shape[pathDimensions.indexOf("z")];
         ms.sizeC = shape[pathDimensions.indexOf("c")];
-        String newDimOrder = "";
-        for (int d = 1; d < pathDimensions.size() + 1; d++) {
-          newDimOrder += pathDimensions.get(pathDimensions.size() - d).toUpperCase();
-        }
-        dimensionOrder = newDimOrder;
+        dimensionOrder = seriesIndex.getDimensionOrder(arrayPath);
       }
       ms.dimensionOrder = dimensionOrder;
       ms.imageCount = getSizeZ() * getSizeC() * getSizeT();
-      ms.littleEndian = zarrService.isLittleEndian();
+      ms.littleEndian = littleEndian;
       ms.rgb = false;
       ms.interleaved = false;
       ms.resolutionCount = resolutionCount;
@@ -358,71 +462,269 @@ public class ZarrReader extends FormatReader {
       store.setImageName(arrayPaths.get(seriesToCoreIndex(i)), i);
       store.setImageID(MetadataTools.createLSID("Image", i), i);
     }
-    parsePlate(attr, zarrRootPath, "", store);
+    parsePlate(attr, zarrRootPath, "", store, true);
     setSeries(0);
     LOGGER.debug("ZarrReader initialization complete");
   }
-  
-  private List<String> reorderGroupKeys(ArrayList<String> groupKeys, List<String> originalKeys) {
-    // Reorder group keys to maintain the original order from the OME-XML provided by bioformats2raw
-    if (originalKeys.isEmpty() || !groupKeys.containsAll(originalKeys)) {
-      LOGGER.warn("Mismatch with group key paths and original OME-XML metadata, original ordering wont be maintained");
-      return reorderGroupKeys(groupKeys);
+
+  /**
+   * Populates the series list and core metadata from the OME-XML and the root attributes
+   * without reading the attributes or headers of each image. Assumes the bioformats2raw layout,
+   * with each image stored in a group named by its index, or by its well sample for plates, and
+   * every image sharing the multiscales of the first image. The sizes, pixel type and byte order
+   * of each resolution are read from the array headers of the first image, the arrays of the
+   * other images are validated against them when first read.
+   * @return false if the dataset does not match the expected layout and must be initialized from the Zarr metadata
+   */
+  private boolean initFromOMEXML(String zarrRootPath, String canonicalPath, MetadataStore store,
+      List<String> omeSeriesOrder) throws IOException, FormatException {
+    int imageCount = core.size();
+    if (imageCount == 0) {
+      return false;
+    }
+    Map<String, Object> attr = zarrService.getGroupAttr(canonicalPath);
+    if (attr == null) {
+      attr = new HashMap<String, Object>();
+    }
+    boolean isPlate = attr.get("plate") != null;
+    if (isPlate && omeSeriesOrder.size() != imageCount) {
+      LOGGER.warn("Not all OME-XML images map to a well sample, metadata will be read from the Zarr groups");
+      return false;
+    }
+    List<String> imageKeys = new ArrayList<String>(imageCount);
+    for (int i = 0; i < imageCount; i++) {
+      imageKeys.add(isPlate ? omeSeriesOrder.get(i) : String.valueOf(i));
     }
-    List<String> groupKeysList = new ArrayList<String>();
-    groupKeys.removeAll(originalKeys);
-    groupKeysList.addAll(originalKeys);
-    groupKeysList.addAll(groupKeys);
-    return groupKeysList;
-  }
 
-  private List<String> reorderGroupKeys(ArrayList<String> groupKeys) {
-    // Reorder group keys to avoid order such A/1, A/10, A/11, A/12, A/2, A/20, A/3, A/4 
-    List<String> groupKeysList = new ArrayList<String>();
-    groupKeysList.addAll(groupKeys);
-    Collections.sort(groupKeysList, keyComparator);
-    return groupKeysList;
+    // bioformats2raw stores the multiscales with each image, only the first image is read
+    Map<String, Object> imageAttr = attr;
+    if (attr.get("multiscales") != null) {
+      if (imageCount > 1) {
+        return false;
+      }
+      imageKeys.set(0, "");
+    }
+    else {
+      imageAttr = zarrService.getGroupAttr(canonicalPath + File.separator + imageKeys.get(0));
+    }
+    List<Object> multiscales = imageAttr == null ? null : (List<Object>) imageAttr.get("multiscales");
+    if (multiscales == null || multiscales.size() != 1) {
+      LOGGER.warn("Unexpected multiscales for the first image, metadata will be read from the Zarr groups");
+      return false;
+    }
+    List<Object> datasets = (List<Object>) ((Map<String, Object>) multiscales.get(0)).get("datasets");
+    if (datasets == null || datasets.isEmpty()) {
+      return false;
+    }
+    parseOmeroMetadata(zarrRootPath, imageAttr);
+    for (int i = 0; i < imageKeys.size(); i++) {
+      parseResolutionCount(zarrRootPath, imageKeys.get(i), imageAttr, i == 0);
+    }
+    for (String key : imageKeys) {
+      for (Object dataset : datasets) {
+        String scalePath = (String) ((Map<String, Object>) dataset).get("path");
+        arrayPaths.add(key.isEmpty() ? scalePath : key + File.separator + scalePath);
+      }
+    }
+    seriesIndex.setCoreIndexes(arrayPaths);
+
+    String firstArray = arrayPaths.get(0);
+    List<String> pathDimensions = seriesIndex.getDimensions(firstArray);
+    if (pathDimensions != null) {
+      dimensionOrder = seriesIndex.getDimensionOrder(firstArray);
+    }
+    int resolutionCount = datasets.size();
+
+    // The arrays of the first image give the exact sizes, pixel type and byte order of each resolution
+    ZarrArrayHeader[] firstHeaders = new ZarrArrayHeader[resolutionCount];
+    int[][] firstSizes = new int[resolutionCount][];
+    try {
+      for (int r = 0; r < resolutionCount; r++) {
+        String arrayPath = arrayPaths.get(r);
+        firstHeaders[r] = zarrService.getArrayHeader(
+            new Location(zarrRootPath + File.separator + arrayPath).getCanonicalPath());
+        firstSizes[r] = getArraySizes(firstHeaders[r].getShape(), arrayPath);
+      }
+    }
+    catch (IOException | FormatException | RuntimeException e) {
+      LOGGER.warn("Unable to read the arrays of the first image, metadata will be read from the Zarr groups", e);
+      resetArrayPaths();
+      return false;
+    }
+    CoreMetadata first = core.get(0);
+    int pixelType = firstHeaders[0].getPixelType();
+    int[] omeSizes = {first.sizeX, first.sizeY, first.sizeZ, first.sizeC, first.sizeT};
+    if (!Arrays.equals(omeSizes, firstSizes[0]) || first.pixelType != pixelType) {
+      LOGGER.warn("OME-XML metadata does not match the array at {}, metadata will be read from the Zarr groups",
+          arrayPaths.get(0));
+      resetArrayPaths();
+      return false;
+    }
+    boolean littleEndian = firstHeaders[0].getByteOrder() == ByteOrder.LITTLE_ENDIAN;
+
+    List<CoreMetadata> images = new ArrayList<CoreMetadata>(core);
+    core.clear();
+    for (CoreMetadata image : images) {
+      for (int r = 0; r < resolutionCount; r++) {
+        CoreMetadata ms = new CoreMetadata(image);
+        ms.dimensionOrder = dimensionOrder;
+        ms.sizeX = getResolutionSize(image.sizeX, first.sizeX, firstSizes[r][0]);
+        ms.sizeY = getResolutionSize(image.sizeY, first.sizeY, firstSizes[r][1]);
+        ms.sizeZ = getResolutionSize(image.sizeZ, first.sizeZ, firstSizes[r][2]);
+        ms.sizeC = getResolutionSize(image.sizeC, first.sizeC, firstSizes[r][3]);
+        ms.sizeT = getResolutionSize(image.sizeT, first.sizeT, firstSizes[r][4]);
+        ms.imageCount = ms.sizeZ * ms.sizeC * ms.sizeT;
+        ms.pixelType = pixelType;
+        ms.littleEndian = littleEndian;
+        ms.resolutionCount = r == 0 ? resolutionCount : 1;
+        core.add(ms);
+      }
+    }
+    // Arrays of the other images are checked against the metadata when they are first opened
+    pendingValidation = new BitSet(core.size());
+    pendingValidation.set(resolutionCount, core.size());
+
+    MetadataTools.populatePixels( store, this, !planesPrePopulated );
+    for (int i = 0; i < getSeriesCount(); i++) {
+      store.setImageName(arrayPaths.get(seriesToCoreIndex(i)), i);
+      store.setImageID(MetadataTools.createLSID("Image", i), i);
+    }
+    parsePlate(attr, zarrRootPath, "", store, false);
+    setSeries(0);
+    return true;
   }
 
-  private static Comparator<String> keyComparator = (a,b)->{
-    String[] aParts = a.split("/");
-    String[] bParts = b.split("/");
+  /**
+   * @return the size along one axis of a resolution of an image, the size of the first image when
+   * the image has the same full resolution size, otherwise scaled by the downsampling factor and
+   * rounding of the first image
+   */
+  private static int getResolutionSize(int size, int firstSize, int firstResolutionSize) {
+    if (size == firstSize) {
+      return firstResolutionSize;
+    }
+    double factor = Math.max(1, Math.round((double) firstSize / Math.max(1, firstResolutionSize)));
+    boolean roundUp = Math.max(1, (int) Math.floor(firstSize / factor)) != firstResolutionSize;
+    double scaled = size / factor;
+    return Math.max(1, (int) (roundUp ? Math.ceil(scaled) : Math.floor(scaled)));
+  }
 
-    int numParts = aParts.length - bParts.length;
-    if (numParts != 0) return numParts;
+  /**
+   * Clears the array paths registered while attempting to initialize from the OME-XML
+   */
+  private void resetArrayPaths() {
+    arrayPaths.clear();
+    seriesIndex.clear();
+    uniqueResCounts.clear();
+  }
 
-    for (int i = 0; i < aParts.length; i++) {
-      String aPart = aParts[i];
-      String bPart = bParts[i];
+  /**
+   * @return the sizes along X, Y, Z, C and T of an array with the given shape
+   */
+  private int[] getArraySizes(int[] shape, String arrayPath) {
+    if (shape.length < 5) {
+      shape = get5DShape(shape);
+    }
+    int[] sizes = {shape[4], shape[3], shape[2], shape[1], shape[0]};
+    List<String> pathDimensions = seriesIndex.getDimensions(arrayPath);
+    if (pathDimensions != null) {
+      sizes[0] = shape[pathDimensions.indexOf("x")];
+      sizes[1] = shape[pathDimensions.indexOf("y")];
+      sizes[2] = shape[pathDimensions.indexOf("z")];
+      sizes[3] = shape[pathDimensions.indexOf("c")];
+      sizes[4] = shape[pathDimensions.indexOf("t")];
+    }
+    return sizes;
+  }
 
-      boolean isAInt = isInteger(aPart);
-      boolean isBInt = isInteger(bPart);
-      if (isAInt && !isBInt) return -1;
-      if (!isAInt && isBInt) return 1;
+  /**
+   * Checks the core metadata of the currently open array if it was populated from the OME-XML.
+   * The metadata of the first image is read from its arrays during initialization, the arrays
+   * of the other images must match the metadata derived from it.
+   */
+  private void validateCoreMetadata() throws FormatException {
+    if (pendingValidation == null || currentOpenZarr < 0 || !pendingValidation.get(currentOpenZarr)) {
+      return;
+    }
+    pendingValidation.clear(currentOpenZarr);
+    String arrayPath = arrayPaths.get(currentOpenZarr);
+    int[] sizes = getArraySizes(zarrService.getShape(), arrayPath);
+    CoreMetadata ms = core.get(currentOpenZarr);
+    int[] expected = {ms.sizeX, ms.sizeY, ms.sizeZ, ms.sizeC, ms.sizeT};
+    if (!Arrays.equals(expected, sizes) || ms.pixelType != zarrService.getPixelType() ||
+        ms.littleEndian != zarrService.isLittleEndian()) {
+      throw new FormatException("OME-XML metadata does not match the array at " + arrayPath +
+          ", disable " + TRUST_OME_XML_KEY + " to read the metadata from the Zarr groups");
+    }
+  }
 
-      if (isAInt) {
-        int numResult = Integer.compare(Integer.valueOf(aPart), Integer.valueOf(bPart));
-        if (numResult != 0) return numResult;
+  /**
+   * Reads the headers of all arrays concurrently so that the core metadata can be
+   * populated without opening each array in turn.
+   * @return the header of each array in arrayPaths order, entries are null where the
+   * header could not be read and the array needs to be opened instead
+   */
+  private ZarrArrayHeader[] loadArrayHeaders(String zarrRootPath, int threads) {
+    ZarrArrayHeader[] headers = new ZarrArrayHeader[arrayPaths.size()];
+    if (headers.length == 0) {
+      return headers;
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, headers.length), runnable -> {
+      Thread thread = new Thread(runnable, "ZarrReader-header");
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      List<Future<ZarrArrayHeader>> futures = new ArrayList<Future<ZarrArrayHeader>>(headers.length);
+      for (String arrayPath : arrayPaths) {
+        String canonicalPath = new Location(zarrRootPath + File.separator + arrayPath).getCanonicalPath();
+        futures.add(executor.submit(() -> zarrService.getArrayHeader(canonicalPath)));
       }
-      else {
-        int stringResult = aPart.compareTo(bPart);
-        if (stringResult != 0) return stringResult;
+      for (int i = 0; i < headers.length; i++) {
+        try {
+          headers[i] = futures.get(i).get();
+        }
+        catch (ExecutionException e) {
+          LOGGER.debug("Unable to read array header for {}, the array will be opened instead",
+              arrayPaths.get(i), e.getCause());
+        }
       }
     }
+    catch (IOException e) {
+      LOGGER.debug("Unable to resolve array paths, arrays will be opened instead", e);
+      return null;
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+    finally {
+      executor.shutdownNow();
+    }
+    return headers;
+  }
 
-    return 0;
-  };
-
-  private static boolean isInteger(String s) {
-    if(s.isEmpty()) return false;
-    for(int i = 0; i < s.length(); i++) {
-      if(i == 0 && s.charAt(i) == '-') {
-        if(s.length() == 1) return false;
-        else continue;
+  private List<String> reorderGroupKeys(ArrayList<String> groupKeys, List<String> originalKeys) {
+    // Reorder group keys to maintain the original order from the OME-XML provided by bioformats2raw
+    HashSet<String> groupKeySet = new HashSet<String>(groupKeys);
+    if (originalKeys.isEmpty() || !groupKeySet.containsAll(originalKeys)) {
+      LOGGER.warn("Mismatch with group key paths and original OME-XML metadata, original ordering wont be maintained");
+      return reorderGroupKeys(groupKeys);
+    }
+    HashSet<String> originalKeySet = new HashSet<String>(originalKeys);
+    List<String> groupKeysList = new ArrayList<String>(groupKeys.size());
+    groupKeysList.addAll(originalKeys);
+    for (String key : groupKeys) {
+      if (!originalKeySet.contains(key)) {
+        groupKeysList.add(key);
       }
-      if(Character.digit(s.charAt(i), 10) < 0) return false;
     }
-    return true;
+    return groupKeysList;
+  }
+
+  private List<String> reorderGroupKeys(ArrayList<String> groupKeys) {
+    // Reorder group keys to avoid order such A/1, A/10, A/11, A/12, A/2, A/20, A/3, A/4 
+    return ZarrKeyOrdering.sort(groupKeys);
   }
 
   /**
@@ -471,20 +773,208 @@ public class ZarrReader extends FormatReader {
   }
 
   protected void initializeZarrService() throws IOException, FormatException {
-    zarrService = new JZarrServiceImpl(altStore());
+    zarrService = createZarrService();
     openZarr();
   }
 
+  /**
+   * @return a service reading the dataset with the options of the reader
+   */
+  private JZarrServiceImpl createZarrService() throws IOException {
+    String storeLocation = altStore();
+    if (storeLocation == null && ZipStore.isZipped(currentId)) {
+      storeLocation = ZipStore.getZipPath(new Location(currentId).getAbsolutePath());
+    }
+    if (storeLocation == null && memoryPreloadMB() > 0) {
+      String zarrRootPath = currentId.substring(0, currentId.indexOf(".zarr") + 5);
+      Path root = Paths.get(new Location(zarrRootPath).getAbsolutePath());
+      if (MemoryStore.preload(root, memoryPreloadMB() * 1024L * 1024L) != null) {
+        storeLocation = MemoryStore.SCHEME + ":" + MemoryStore.getName(root);
+      }
+    }
+    JZarrServiceImpl jzarrService = new JZarrServiceImpl(storeLocation, s3ClientOptions());
+    jzarrService.setMaxInFlight(s3MaxInFlight());
+    jzarrService.setDelimiterListing(s3DelimiterListing());
+    jzarrService.setRequestPolicy(s3RequestPolicy());
+    jzarrService.setDiskCache(s3DiskCache());
+    jzarrService.setRangedReads(s3RangedReads());
+    jzarrService.setRangeCoalesceBytes(s3RangeCoalesceBytes());
+    jzarrService.setBufferPoolSize(s3BufferPoolSize());
+    jzarrService.setSharedChunkReads(sharedChunkReads());
+    jzarrService.setCachedFileChannels(cachedFileChannels());
+    jzarrService.setAsyncLocalReads(localAsyncReads());
+    if (s3MaxConcurrentRequests() > 0 || s3MaxRequestsPerSecond() > 0) {
+      jzarrService.setAdmissionLimits(s3MaxConcurrentRequests(), s3MaxRequestsPerSecond());
+    }
+    if (chunkCacheRequest == null && chunkCacheMB() > 0) {
+      chunkCacheRequest = DecodedChunkCache.getShared().requestMaxBytes(chunkCacheMB() * 1024L * 1024L);
+    }
+    return jzarrService;
+  }
+
+  /**
+   * Hints that planes of a region are likely to be read soon, for example the tiles around the
+   * viewport of a viewer or the same region at the next resolution. The chunks of the region are
+   * loaded into the decoded chunk cache on a low priority background thread, enabled with the
+   * {@link #CHUNK_CACHE_KEY} option. Earlier hints are superseded, use
+   * {@link #addPrefetch(int, int, int, int, int, int, int, int)} to keep them.
+   * @param series of the planes
+   * @param resolution of the planes, 0 when resolutions are flattened
+   * @param firstPlane number of the first plane
+   * @param lastPlane number of the last plane, inclusive
+   * @param x position of the region in the plane
+   * @param y position of the region in the plane
+   * @param w width of the region
+   * @param h height of the region
+   * @return the loading of the chunks completing with the number of chunks loaded, null if the cache is disabled
+   */
+  public Future<Integer> prefetch(int series, int resolution, int firstPlane, int lastPlane,
+      int x, int y, int w, int h) throws IOException {
+    cancelPrefetch();
+    return addPrefetch(series, resolution, firstPlane, lastPlane, x, y, w, h);
+  }
+
+  /**
+   * Hints that planes of a region are likely to be read soon, in addition to the current hints
+   * @see #prefetch(int, int, int, int, int, int, int, int)
+   */
+  public Future<Integer> addPrefetch(int series, int resolution, int firstPlane, int lastPlane,
+      int x, int y, int w, int h) throws IOException {
+    FormatTools.assertId(currentId, true, 1);
+    if (!DecodedChunkCache.getShared().isEnabled()) {
+      LOGGER.debug("Prefetch hint ignored, the chunk cache is disabled");
+      return null;
+    }
+    if (series < 0 || series >= getSeriesCount()) {
+      throw new IllegalArgumentException("Invalid series: " + series);
+    }
+    // The metadata of the hinted planes is looked up without changing the current series of the reader
+    int coreIndex = seriesToCoreIndex(series);
+    if (resolution < 0 || resolution >= (hasFlattenedResolutions() ? 1 : core.get(coreIndex).resolutionCount)) {
+      throw new IllegalArgumentException("Invalid resolution: " + resolution);
+    }
+    coreIndex += resolution;
+    CoreMetadata ms = core.get(coreIndex);
+    String zarrRootPath = currentId.substring(0, currentId.indexOf(".zarr") + 5);
+    String arrayPath = new Location(zarrRootPath + File.separator + arrayPaths.get(coreIndex)).getCanonicalPath();
+    List<int[]> shapes = new ArrayList<int[]>();
+    List<int[]> offsets = new ArrayList<int[]>();
+    int[] shape = {1, 1, 1, h, w};
+    int zIndex = 4 - ms.dimensionOrder.indexOf("Z");
+    int cIndex = 4 - ms.dimensionOrder.indexOf("C");
+    int tIndex = 4 - ms.dimensionOrder.indexOf("T");
+    for (int no = Math.max(0, firstPlane); no <= Math.min(lastPlane, ms.imageCount - 1); no++) {
+      int[] coordinates = FormatTools.getZCTCoords(ms.dimensionOrder, ms.sizeZ, ms.sizeC, ms.sizeT, ms.imageCount, no);
+      int[] offset = {0, 0, 0, y, x};
+      offset[zIndex] = coordinates[0];
+      offset[cIndex] = coordinates[1];
+      offset[tIndex] = coordinates[2];
+      shapes.add(shape);
+      offsets.add(offset);
+    }
+    synchronized (this) {
+      if (prefetcher == null) {
+        prefetcher = new ChunkPrefetcher(createZarrService());
+      }
+      return prefetcher.submit(arrayPath, shapes, offsets);
+    }
+  }
+
+  /**
+   * Stops loading the chunks of every hint given so far
+   */
+  public void cancelPrefetch() {
+    ChunkPrefetcher current = prefetcher;
+    if (current != null) {
+      current.supersede();
+    }
+  }
+
   @Override
   public byte[] openBytes(int no, byte[] buf, int x, int y, int w, int h) throws FormatException, IOException {
+    openZarr();
+    validateCoreMetadata();
     FormatTools.checkPlaneParameters(this, no, buf.length, x, y, w, h);
+    Object image = zarrService.readBytes(getRegionShape(w, h), getRegionOffset(no, x, y));
+    return unpackRegion(image, buf, w, h);
+  }
+
+  /**
+   * Reads a batch of tiles of the current series and resolution together, each chunk touched
+   * by any of the tiles is loaded and decoded once however many of the tiles overlap it.
+   * Suited to tiled export, stitching and projections reading many overlapping tiles.
+   * @param tiles each tile as {plane number, x, y, width, height}
+   * @return the pixels of each tile, in the order of the tiles
+   */
+  public byte[][] openTiles(int[][] tiles) throws FormatException, IOException {
     openZarr();
-    int[] coordinates = getZCTCoords(no);
+    validateCoreMetadata();
+    ZarrReadPlan plan = new ZarrReadPlan(zarrService.getShape(), zarrService.getChunkSize());
+    int bpp = FormatTools.getBytesPerPixel(getPixelType());
+    for (int[] tile : tiles) {
+      FormatTools.checkPlaneParameters(this, tile[0], tile[3] * tile[4] * bpp, tile[1], tile[2], tile[3], tile[4]);
+      plan.addRegion(getRegionShape(tile[3], tile[4]), getRegionOffset(tile[0], tile[1], tile[2]));
+    }
+    Object[] images = zarrService.readBytes(plan);
+    byte[][] bufs = new byte[tiles.length][];
+    for (int i = 0; i < tiles.length; i++) {
+      bufs[i] = unpackRegion(images[i], new byte[tiles[i][3] * tiles[i][4] * bpp], tiles[i][3], tiles[i][4]);
+    }
+    return bufs;
+  }
+
+  /**
+   * Lists the tiles of every plane of the current series and resolution in the order that
+   * consumes each chunk fully before moving on: planes stored in the same chunks along Z, C and
+   * T are visited together, block of chunks by block of chunks. Reading the tiles in this order,
+   * or in batches with {@link #openTiles(int[][])}, decodes each chunk once rather than once
+   * per plane and tile when chunks span several planes.
+   * @param tileWidth width of the tiles, the optimal tile width if 0 or less
+   * @param tileHeight height of the tiles, the optimal tile height if 0 or less
+   * @param order of the blocks of chunks, {@link ChunkOrderTiles.Order#ROW_MAJOR} visits planes in turn
+   * @return the tiles as {plane number, x, y, width, height}
+   */
+  public ChunkOrderTiles getTiles(int tileWidth, int tileHeight, ChunkOrderTiles.Order order) {
+    FormatTools.assertId(currentId, true, 1);
+    openZarr();
+    int[] chunkSizes = zarrService.getChunkSize();
+    int[] chunks5D = {1, 1, 1, 1, 1};
+    for (int d = 0; d < chunkSizes.length && d < 5; d++) {
+      chunks5D[4 - d] = Math.max(1, chunkSizes[chunkSizes.length - 1 - d]);
+    }
+    int zChunk = chunks5D[4 - dimensionOrder.indexOf("Z")];
+    int cChunk = chunks5D[4 - dimensionOrder.indexOf("C")];
+    int tChunk = chunks5D[4 - dimensionOrder.indexOf("T")];
+    int zChunks = (getSizeZ() + zChunk - 1) / zChunk;
+    int cChunks = (getSizeC() + cChunk - 1) / cChunk;
+    int[] planeGroups = new int[getImageCount()];
+    for (int no = 0; no < planeGroups.length; no++) {
+      int[] coordinates = getZCTCoords(no);
+      planeGroups[no] = ((coordinates[2] / tChunk) * cChunks + coordinates[1] / cChunk) * zChunks +
+          coordinates[0] / zChunk;
+    }
+    return new ChunkOrderTiles(getSizeX(), getSizeY(),
+        tileWidth > 0 ? tileWidth : chunks5D[4], tileHeight > 0 ? tileHeight : chunks5D[3],
+        chunks5D[4], chunks5D[3], planeGroups, order);
+  }
+
+  /**
+   * @return the shape of a tile of a single plane in the dimensions of the open array
+   */
+  private int[] getRegionShape(int w, int h) {
     int [] shape = {1, 1, 1, h, w};
     int zarrArrayShapeSize = zarrService.getShape().length;
     if (zarrArrayShapeSize < 5) {
       shape = getOriginalShape(shape, zarrArrayShapeSize);
     }
+    return shape;
+  }
+
+  /**
+   * @return the offset of a tile of the plane in the dimensions of the open array
+   */
+  private int[] getRegionOffset(int no, int x, int y) {
+    int[] coordinates = getZCTCoords(no);
     int zIndex = 4 - dimensionOrder.indexOf("Z");
     int cIndex = 4 - dimensionOrder.indexOf("C");
     int tIndex = 4 - dimensionOrder.indexOf("T");
@@ -492,11 +982,17 @@ public class ZarrReader extends FormatReader {
     offsets[zIndex] = coordinates[0];
     offsets[cIndex] = coordinates[1];
     offsets[tIndex] = coordinates[2];
+    int zarrArrayShapeSize = zarrService.getShape().length;
     if (zarrArrayShapeSize < 5) {
       offsets = getOriginalShape(offsets, zarrArrayShapeSize);
     }
-    Object image = zarrService.readBytes(shape, offsets);
+    return offsets;
+  }
 
+  /**
+   * Converts the values read from the array into the bytes of a tile
+   */
+  private byte[] unpackRegion(Object image, byte[] buf, int w, int h) {
     boolean little = zarrService.isLittleEndian();
     int bpp = FormatTools.getBytesPerPixel(zarrService.getPixelType());
     if (image instanceof byte[]) {
@@ -595,19 +1091,18 @@ public class ZarrReader extends FormatReader {
   }
 
   private void orderArrayPaths(String root) {
-    for (int i = 0; i < resSeries.size(); i++) {
-      for (String arrayPath: resSeries.get(i)) {
-        arrayPaths.remove(arrayPath);
-      }
-      for (String arrayPath: resSeries.get(i)) {
-        if (includeLabels() || !arrayPath.toLowerCase().contains("labels")) {
-          arrayPaths.add(arrayPath);
-        }
-      }
-    }
+    seriesIndex.orderArrayPaths(arrayPaths, includeLabels());
   }
 
   private void parseResolutionCount(String root, String key, Map<String, Object> attr) throws IOException, FormatException {
+    parseResolutionCount(root, key, attr, true);
+  }
+
+  /**
+   * @param addMetadata false if the attributes were already added to the global metadata by another image
+   */
+  private void parseResolutionCount(String root, String key, Map<String, Object> attr, boolean addMetadata)
+      throws IOException, FormatException {
     ArrayList<Object> multiscales = (ArrayList<Object>) attr.get("multiscales");
     if (multiscales != null) {
       for (int x = 0; x < multiscales.size(); x++) {
@@ -618,17 +1113,17 @@ public class ZarrReader extends FormatReader {
           for (int i = 0; i < multiscaleAxes.size(); i++) {
             if (multiscaleAxes.get(i) instanceof String) {
               String axis = (String) multiscaleAxes.get(i);
-              addGlobalMeta(MetadataTools.createLSID("Axis", x, i), axis);
+              if (addMetadata) addGlobalMeta(MetadataTools.createLSID("Axis", x, i), axis);
               pathDimensions.add(axis.toLowerCase());
             }
             else if (multiscaleAxes.get(i) instanceof HashMap) {
               HashMap<String, String> axis = (HashMap<String, String>) multiscaleAxes.get(i);
               String type = axis.get("type");
-              addGlobalMeta(MetadataTools.createLSID("Axis type", x, i), type);
+              if (addMetadata) addGlobalMeta(MetadataTools.createLSID("Axis type", x, i), type);
               String name = axis.get("name");
-              addGlobalMeta(MetadataTools.createLSID("Axis name", x, i), name);
+              if (addMetadata) addGlobalMeta(MetadataTools.createLSID("Axis name", x, i), name);
               String units = axis.get("units");
-              addGlobalMeta(MetadataTools.createLSID("Axis units", x, i), units);
+              if (addMetadata) addGlobalMeta(MetadataTools.createLSID("Axis units", x, i), units);
               pathDimensions.add(name.toLowerCase());
             }
           }
@@ -642,106 +1137,172 @@ public class ZarrReader extends FormatReader {
           }
         }
         ArrayList<Object> multiscalePaths = (ArrayList<Object>)datasets.get("datasets");
-        resSeries.put(resCounts.size(), new ArrayList<String>());
-        for (int i = 0; i < multiscalePaths.size(); i++) {
+        seriesIndex.startMultiscale();
+        int numRes = multiscalePaths.size();
+        for (int i = 0; i < numRes; i++) {
           Map<String, Object> multiScale = (Map<String, Object>) multiscalePaths.get(i);
           String scalePath = (String) multiScale.get("path");
-          int numRes = multiscalePaths.size();
           if (i == 0) {
-            resCounts.put(key.isEmpty() ? scalePath : key + File.separator + scalePath, numRes);
             uniqueResCounts.add(numRes);
           }
-          resIndexes.put(key.isEmpty() ? scalePath : key + File.separator + scalePath, i);
-          ArrayList<String> list = resSeries.get(resCounts.size() - 1);
-          list.add(key.isEmpty() ? scalePath : key + File.separator + scalePath);
-          resSeries.put(resCounts.size() - 1, list);
-          pathArrayDimensions.put(key.isEmpty() ? scalePath : key + File.separator + scalePath, pathDimensions);
+          seriesIndex.addResolution(key.isEmpty() ? scalePath : key + File.separator + scalePath, i, numRes, pathDimensions);
         }
         List<Object> coordinateTransformations = (List<Object>)datasets.get("coordinateTransformations");
         if (coordinateTransformations != null) {
           for (int i = 0; i < coordinateTransformations.size(); i++) {
               HashMap<String, Object> transformation = (HashMap<String, Object>) coordinateTransformations.get(i);
               String type = (String)transformation.get("type");
-              addGlobalMeta(MetadataTools.createLSID("Coordinate Transformation type", x, i), type);
+              if (addMetadata) addGlobalMeta(MetadataTools.createLSID("Coordinate Transformation type", x, i), type);
               ArrayList<Object> scale = (ArrayList<Object>)transformation.get("scale");
-              if (scale != null)addGlobalMeta(MetadataTools.createLSID("Coordinate Transformation scale", x, i), scale);
+              if (addMetadata && scale != null) addGlobalMeta(MetadataTools.createLSID("Coordinate Transformation scale", x, i), scale);
               ArrayList<Object> translation = (ArrayList<Object>)transformation.get("translation");
-              if (translation != null)addGlobalMeta(MetadataTools.createLSID("Coordinate Transformation translation", x, i), translation);
+              if (addMetadata && translation != null) addGlobalMeta(MetadataTools.createLSID("Coordinate Transformation translation", x, i), translation);
           }
         }
       }
     }
   }
 
-  private void generateArrayKeys(Map<String, Object> attr, String canonicalPath) {
+  private void generateArrayKeys(Map<String, Object> attr, String canonicalPath) throws IOException, FormatException {
     if (uniqueResCounts.size() != 1) {
       LOGGER.debug("Cannout automatically generate ArrayKeys as resolution counts differ");
     }
     Map<Object, Object> plates = (Map<Object, Object>) attr.get("plate");
-    if (plates != null) {
-      ArrayList<Object> columns = (ArrayList<Object>)plates.get("columns");
-      ArrayList<Object> rows = (ArrayList<Object>)plates.get("rows");
-      Integer fieldCount = (Integer) plates.get("field_count");
-      for (Object row: rows) {
-        String rowName = ((Map<String, String>) row).get("name");
-        for (Object column: columns) {
-          String columnName = ((Map<String, String>) column).get("name");
-          for (int i = 0; i < fieldCount; i++) {
-            int resolutionCount = (Integer)(uniqueResCounts.toArray())[0];
-            for (int j = 0; j < resolutionCount; j++) {
-              String key = rowName + File.separator + columnName + File.separator + i + File.separator + j;
-              if (Files.isDirectory(Paths.get(canonicalPath+File.separator+key))) {
-                arrayPaths.add(rowName + File.separator + columnName + File.separator + i + File.separator + j);
-              }
-              else {
-                LOGGER.debug("Skipping array path as sparse data: {}", key);
-              }
+    if (plates != null && !uniqueResCounts.isEmpty()) {
+      int resolutionCount = (Integer)(uniqueResCounts.toArray())[0];
+      List<String> fieldKeys;
+      if (trustPlateMetadata()) {
+        fieldKeys = getPlateFieldKeys(plates, canonicalPath);
+      }
+      else {
+        fieldKeys = new ArrayList<String>();
+        ArrayList<Object> columns = (ArrayList<Object>)plates.get("columns");
+        ArrayList<Object> rows = (ArrayList<Object>)plates.get("rows");
+        Integer fieldCount = (Integer) plates.get("field_count");
+        for (Object row: rows) {
+          String rowName = ((Map<String, String>) row).get("name");
+          for (Object column: columns) {
+            String columnName = ((Map<String, String>) column).get("name");
+            for (int i = 0; i < fieldCount; i++) {
+              fieldKeys.add(rowName + File.separator + columnName + File.separator + i);
             }
           }
         }
       }
+      List<String> keys = new ArrayList<String>(fieldKeys.size() * resolutionCount);
+      for (String fieldKey : fieldKeys) {
+        for (int j = 0; j < resolutionCount; j++) {
+          keys.add(fieldKey + File.separator + j);
+        }
+      }
+      if (trustPlateMetadata()) {
+        arrayPaths.addAll(keys);
+        return;
+      }
+      Set<String> existing = zarrService.filterExisting(canonicalPath, keys);
+      for (String key : keys) {
+        if (existing.contains(key)) {
+          arrayPaths.add(key);
+        }
+        else {
+          LOGGER.debug("Skipping array path as sparse data: {}", key);
+        }
+      }
     }
   }
 
-  private void generateGroupKeys(Map<String, Object> attr, String canonicalPath) {
+  private void generateGroupKeys(Map<String, Object> attr, String canonicalPath) throws IOException, FormatException {
     Map<Object, Object> plates = (Map<Object, Object>) attr.get("plate");
     if (plates != null) {
+      if (trustPlateMetadata()) {
+        LinkedHashSet<String> keys = new LinkedHashSet<String>();
+        for (String fieldKey : getPlateFieldKeys(plates, canonicalPath)) {
+          int fieldSeparator = fieldKey.lastIndexOf(File.separator);
+          String wellKey = fieldKey.substring(0, fieldSeparator);
+          keys.add(wellKey.substring(0, wellKey.lastIndexOf(File.separator)));
+          keys.add(wellKey);
+          keys.add(fieldKey);
+        }
+        groupKeys.addAll(keys);
+        return;
+      }
       ArrayList<Object> columns = (ArrayList<Object>)plates.get("columns");
       ArrayList<Object> rows = (ArrayList<Object>)plates.get("rows");
       Integer fieldCount = (Integer) plates.get("field_count");
 
+      List<String> keys = new ArrayList<String>();
       for (Object row: rows) {
         String rowName = ((Map<String, String>) row).get("name");
-        if (Files.isDirectory(Paths.get(canonicalPath+File.separator+rowName))) {
-          groupKeys.add(rowName);
-        }
-        else {
-          LOGGER.debug("Skipping group key as sparse data: {}", rowName);
-        }
+        keys.add(rowName);
         for (Object column: columns) {
           String columnName = ((Map<String, String>) column).get("name");
           String columnKey = rowName + File.separator + columnName;
-          if (Files.isDirectory(Paths.get(canonicalPath+File.separator+columnKey))) {
-            groupKeys.add(columnKey);
+          keys.add(columnKey);
+          for (int i = 0; i < fieldCount; i++) {
+            keys.add(rowName + File.separator + columnName + File.separator + i);
           }
-          else {
-            LOGGER.debug("Skipping group key as sparse data: {}", columnKey);
+        }
+      }
+      Set<String> existing = zarrService.filterExisting(canonicalPath, keys);
+      for (String key : keys) {
+        if (existing.contains(key)) {
+          groupKeys.add(key);
+        }
+        else {
+          LOGGER.debug("Skipping group key as sparse data: {}", key);
+        }
+      }
+    }
+  }
+
+  /**
+   * Lists the field groups of a plate using only the plate and well metadata. Wells are taken from
+   * plate.wells, the fields of each well from well.images or plate.field_count if the well has no
+   * images. Wells with a path that is not in the Row/Column form are skipped.
+   */
+  private List<String> getPlateFieldKeys(Map<Object, Object> plates, String canonicalPath) throws IOException, FormatException {
+    if (plateFieldKeys != null) {
+      return plateFieldKeys;
+    }
+    List<String> fieldKeys = new ArrayList<String>();
+    ArrayList<Object> wells = (ArrayList<Object>)plates.get("wells");
+    Integer fieldCount = (Integer) plates.get("field_count");
+    if (wells != null) {
+      for (Object well : wells) {
+        String wellPath = (String) ((Map<String, Object>) well).get("path");
+        if (wellPath == null || wellPath.indexOf('/') <= 0) {
+          LOGGER.warn("Skipping well with invalid path: {}", wellPath);
+          continue;
+        }
+        String wellKey = wellPath.replace("/", File.separator);
+        Map<String, Object> wellAttr = zarrService.getGroupAttr(canonicalPath + File.separator + wellKey);
+        Map<Object, Object> wellMetadata = wellAttr == null ? null : (Map<Object, Object>) wellAttr.get("well");
+        ArrayList<Object> images = wellMetadata == null ? null : (ArrayList<Object>) wellMetadata.get("images");
+        if (images != null) {
+          for (Object image : images) {
+            fieldKeys.add(wellKey + File.separator + ((Map<String, Object>) image).get("path"));
           }
+        }
+        else if (fieldCount != null) {
           for (int i = 0; i < fieldCount; i++) {
-            String key = rowName + File.separator + columnName + File.separator + i;
-            if (Files.isDirectory(Paths.get(canonicalPath+File.separator+key))) {
-              groupKeys.add(key);
-            }
-            else {
-              LOGGER.debug("Skipping group key as sparse data: {}", key);
-            }
+            fieldKeys.add(wellKey + File.separator + i);
           }
         }
+        else {
+          LOGGER.warn("Skipping well without images: {}", wellPath);
+        }
       }
     }
+    plateFieldKeys = fieldKeys;
+    return fieldKeys;
   }
 
-  private void parsePlate(Map<String, Object> attr, String root, String key, MetadataStore store) throws IOException, FormatException {
+  /**
+   * @param readWells false if the well samples should be derived from the array paths rather than
+   * reading the attributes of each well, in which case acquisitions are not linked to well samples
+   */
+  private void parsePlate(Map<String, Object> attr, String root, String key, MetadataStore store,
+      boolean readWells) throws IOException, FormatException {
     Map<Object, Object> plates = (Map<Object, Object>) attr.get("plate");
     if (plates != null) {
       ArrayList<Object> columns = (ArrayList<Object>)plates.get("columns");
@@ -806,6 +1367,7 @@ public class ZarrReader extends FormatReader {
           store.setWellColumn(new NonNegativeInteger(c), 0, wellIndex);
         }
       }
+      Map<String, List<Integer>> wellSeries = readWells ? null : getSeriesByWell();
       for (int w = 0; w < wells.size(); w++) {
         Map<String, Object> well = (Map<String, Object>) wells.get(w);
         String wellPath = (String) well.get("path");
@@ -834,11 +1396,41 @@ public class ZarrReader extends FormatReader {
         }
         int wellIndex = (wellRowIndex * columns.size()) + wellColIndex;
         store.setWellExternalIdentifier(wellPath, 0, wellIndex);
-        parseWells(root, wellPath, store, 0, wellIndex, acqIdsIndexMap);
+        if (readWells) {
+          parseWells(root, wellPath, store, 0, wellIndex, acqIdsIndexMap);
+        }
+        else {
+          List<Integer> seriesList = wellSeries.get(wellPath.replace("/", File.separator));
+          if (seriesList != null) {
+            for (int i = 0; i < seriesList.size(); i++) {
+              String site_id = MetadataTools.createLSID("WellSample", 0, wellIndex, i);
+              store.setWellSampleID(site_id, 0, wellIndex, i);
+              store.setWellSampleIndex(new NonNegativeInteger(i), 0, wellIndex, i);
+              store.setWellSampleImageRef(MetadataTools.createLSID("Image", seriesList.get(i)), 0, wellIndex, i);
+              wellSamplesCount++;
+            }
+          }
+        }
       }
     }
   }
 
+  /**
+   * Groups the series by well, using the Row/Column/Field/Resolution layout of the array paths
+   */
+  private Map<String, List<Integer>> getSeriesByWell() {
+    Map<String, List<Integer>> wellSeries = new HashMap<String, List<Integer>>();
+    for (int s = 0; s < getSeriesCount(); s++) {
+      String arrayPath = arrayPaths.get(seriesToCoreIndex(s));
+      int fieldEnd = arrayPath.lastIndexOf(File.separator);
+      int wellEnd = fieldEnd < 0 ? -1 : arrayPath.lastIndexOf(File.separator, fieldEnd - 1);
+      if (wellEnd > 0) {
+        wellSeries.computeIfAbsent(arrayPath.substring(0, wellEnd), k -> new ArrayList<Integer>()).add(s);
+      }
+    }
+    return wellSeries;
+  }
+
   private void parseWells(String root, String key, MetadataStore store, int plateIndex, int wellIndex,
       HashMap<Integer, Integer> acqIdsIndexMap) throws IOException, FormatException {
     String path = key.isEmpty() ? root : root + File.separator + key;
@@ -861,10 +1453,10 @@ public class ZarrReader extends FormatReader {
         if (key != null && !key.isEmpty()) {
           imageRefPath = key + File.separator + i;
         }
-        if (resCounts.containsKey(imageRefPath + File.separator + "0")) {
+        if (seriesIndex.isMultiscaleStart(imageRefPath + File.separator + "0")) {
           imageRefPath += File.separator + "0";
         }
-        String imageID = MetadataTools.createLSID("Image", coreIndexToSeries(arrayPaths.indexOf(imageRefPath)));
+        String imageID = MetadataTools.createLSID("Image", coreIndexToSeries(seriesIndex.getCoreIndex(imageRefPath)));
         store.setWellSampleImageRef(imageID, plateIndex, wellIndex, i);
         if (acquisition != null && acquisition >= 0) {
           store.setPlateAcquisitionWellSampleRef(site_id, plateIndex, (int) acquisition, i);
@@ -952,10 +1544,20 @@ public class ZarrReader extends FormatReader {
     }
   }
 
-  private void parseOMEXML(Location omeMetaFile, MetadataStore store, ArrayList<String> origSeries) throws IOException, FormatException {
+  /**
+   * @return the OME-XML metadata of the dataset, read from the archive for zipped datasets,
+   * or null if the dataset has none
+   */
+  private InputStream openOMEXML(Location omeMetaFile) throws IOException {
+    if (ZipStore.isZipped(currentId)) {
+      return zarrService.getInputStream(omeMetaFile.getAbsolutePath());
+    }
+    return omeMetaFile.exists() ? new RandomAccessInputStream(omeMetaFile.getAbsolutePath()) : null;
+  }
+
+  private void parseOMEXML(InputStream omeMetadata, MetadataStore store, ArrayList<String> origSeries) throws IOException, FormatException {
     Document omeDocument = null;
-    try (RandomAccessInputStream measurement =
-        new RandomAccessInputStream(omeMetaFile.getAbsolutePath())) {
+    try (InputStream measurement = omeMetadata) {
       try {
         omeDocument = XMLTools.parseDOM(measurement);
       }
@@ -1123,27 +1725,47 @@ public class ZarrReader extends FormatReader {
   /* @see loci.formats.IFormatReader#getUsedFiles(boolean) */
   @Override
   public String[] getUsedFiles(boolean noPixels) {
+    FormatTools.assertId(currentId, true, 1);
+    try (Stream<String> usedFiles = getUsedFilesStream(noPixels)) {
+      return usedFiles.toArray(String[]::new);
+    } catch (IOException | UncheckedIOException e) {
+      e.printStackTrace();
+    }
+    return new String[0];
+  }
+
+  /**
+   * Lists the files used by the current dataset as a lazily populated stream,
+   * allowing very large filesets to be processed without holding every path in memory.
+   * The stream must be closed after use, the listing strategy is set by {@link #usedFilesMode()}
+   * @param noPixels true if the pixel chunks should not be listed
+   * @return a stream of absolute file paths
+   */
+  public Stream<String> getUsedFilesStream(boolean noPixels) throws IOException {
     FormatTools.assertId(currentId, true, 1);
     String zarrRootPath = currentId.substring(0, currentId.indexOf(".zarr") + 5);
-    ArrayList<String> usedFiles = new ArrayList<String>();
     reloadOptionsFile(zarrRootPath);
+    if (ZipStore.isZipped(currentId)) {
+      // Every key of a zipped dataset is in the archive
+      return Stream.of(new Location(ZipStore.getZipPath(currentId)).getAbsolutePath());
+    }
 
     boolean skipPixels = noPixels || !listPixels() || !systemEnvListPixels();
     boolean includeLabels = includeLabels();
-    try (Stream<Path> paths = Files.walk(Paths.get(zarrRootPath), FileVisitOption.FOLLOW_LINKS)) {
-      paths.filter(Files::isRegularFile) 
-      .forEach(path -> {if ((!skipPixels && includeLabels) || 
-          (!skipPixels && !includeLabels && !path.toString().toLowerCase().contains("labels")) ||
-          (skipPixels && includeLabels && (path.endsWith(".zgroup") || path.endsWith(".zattrs") || path.endsWith(".xml"))) ||
-          (skipPixels && !includeLabels &&  !path.toString().toLowerCase().contains("labels") &&(path.endsWith(".zgroup") || path.endsWith(".zattrs") || path.endsWith(".xml"))))
-        usedFiles.add(path.toFile().getAbsolutePath());
-      });
-    } catch (IOException e) {
-      e.printStackTrace();
+    Path root = Paths.get(zarrRootPath);
+    Stream<Path> paths;
+    String mode = usedFilesMode();
+    if (USED_FILES_MODE_METADATA.equalsIgnoreCase(mode) && !arrayPaths.isEmpty()) {
+      paths = ZarrUsedFiles.fromMetadata(root, arrayPaths, skipPixels, includeLabels);
     }
-    String[] fileArr = new String[usedFiles.size()];
-    fileArr = usedFiles.toArray(fileArr);
-    return fileArr;
+    else if (USED_FILES_MODE_PARALLEL.equalsIgnoreCase(mode)) {
+      int parallelism = Math.max(4, Runtime.getRuntime().availableProcessors());
+      paths = ZarrUsedFiles.parallelWalk(root, skipPixels, includeLabels, parallelism).stream();
+    }
+    else {
+      paths = ZarrUsedFiles.walk(root, skipPixels, includeLabels);
+    }
+    return paths.map(path -> path.toFile().getAbsolutePath());
   }
 
   /* @see loci.formats.SubResolutionFormatReader#getDomains() */
@@ -1163,6 +1785,33 @@ public class ZarrReader extends FormatReader {
     optionsList.add(QUICK_READ_KEY);
     optionsList.add(INCLUDE_LABELS_KEY);
     optionsList.add(ALT_STORE_KEY);
+    optionsList.add(USED_FILES_MODE_KEY);
+    optionsList.add(HEADER_THREADS_KEY);
+    optionsList.add(TRUST_OME_XML_KEY);
+    optionsList.add(S3_MAX_CONNECTIONS_KEY);
+    optionsList.add(S3_KEEP_ALIVE_KEY);
+    optionsList.add(S3_MAX_IDLE_KEY);
+    optionsList.add(S3_MAX_IN_FLIGHT_KEY);
+    optionsList.add(S3_DELIMITER_LISTING_KEY);
+    optionsList.add(TRUST_PLATE_METADATA_KEY);
+    optionsList.add(S3_MAX_RETRIES_KEY);
+    optionsList.add(S3_RETRY_BASE_KEY);
+    optionsList.add(S3_RETRY_MAX_KEY);
+    optionsList.add(S3_REQUEST_TIMEOUT_KEY);
+    optionsList.add(S3_HEDGE_PERCENTILE_KEY);
+    optionsList.add(S3_CACHE_DIR_KEY);
+    optionsList.add(S3_CACHE_SIZE_KEY);
+    optionsList.add(S3_CACHE_REVALIDATE_KEY);
+    optionsList.add(S3_RANGED_READS_KEY);
+    optionsList.add(S3_RANGE_COALESCE_KEY);
+    optionsList.add(S3_BUFFER_POOL_KEY);
+    optionsList.add(SHARED_CHUNK_READS_KEY);
+    optionsList.add(S3_MAX_CONCURRENT_KEY);
+    optionsList.add(S3_MAX_RATE_KEY);
+    optionsList.add(MEMORY_PRELOAD_KEY);
+    optionsList.add(CACHED_FILE_CHANNELS_KEY);
+    optionsList.add(LOCAL_ASYNC_READS_KEY);
+    optionsList.add(CHUNK_CACHE_KEY);
     return optionsList;
   }
 
@@ -1232,6 +1881,298 @@ public class ZarrReader extends FormatReader {
     return ALT_STORE_DEFAULT;
   }
 
+  /**
+   * Used to decide how getUsedFiles lists the files of the dataset.
+   * walk lists the directory tree, parallel lists the directories of the tree concurrently
+   * and metadata derives the file list from the Zarr metadata without listing any directories
+   * @return String representing the listing strategy, default is walk
+   */
+  public String usedFilesMode() {
+    MetadataOptions options = getMetadataOptions();
+    if (options instanceof DynamicMetadataOptions) {
+      return ((DynamicMetadataOptions) options).get(
+          USED_FILES_MODE_KEY, USED_FILES_MODE_DEFAULT);
+    }
+    return USED_FILES_MODE_DEFAULT;
+  }
+
+  /**
+   * Used to decide how many array headers are read concurrently during initialization when quick read is disabled
+   * @return int representing the number of threads used to read array headers, 1 or less opens each array in turn, default is 8
+   */
+  public int headerThreads() {
+    MetadataOptions options = getMetadataOptions();
+    if (options instanceof DynamicMetadataOptions) {
+      return ((DynamicMetadataOptions) options).getInteger(
+          HEADER_THREADS_KEY, HEADER_THREADS_DEFAULT);
+    }
+    return HEADER_THREADS_DEFAULT;
+  }
+
+  /**
+   * Used to decide if the series and core metadata of bioformats2raw datasets are populated from the OME-XML
+   * without reading the attributes and headers of each image. The metadata is validated when each image is read
+   * @return boolean true if the OME-XML should be trusted, default is false
+   */
+  public boolean trustOMEXML() {
+    MetadataOptions options = getMetadataOptions();
+    if (options instanceof DynamicMetadataOptions) {
+      return ((DynamicMetadataOptions) options).getBoolean(
+          TRUST_OME_XML_KEY, TRUST_OME_XML_DEFAULT);
+    }
+    return TRUST_OME_XML_DEFAULT;
+  }
+
+  /**
+   * Used to configure the connection pool of the S3 client shared by all readers using the same endpoint
+   * and settings. The max connections, TCP keep-alive and the time idle connections are kept in the pool
+   * are set by the omezarr.s3.max_connections, omezarr.s3.keep_alive and omezarr.s3.max_idle_ms options
+   * @return the client options, defaults are those of the AWS SDK with keep-alive enabled
+   */
+  public S3ClientRegistry.ClientOptions s3ClientOptions() {
+    MetadataOptions options = getMetadataOptions();
+    if (options instanceof DynamicMetadataOptions) {
+      DynamicMetadataOptions dynamicOptions = (DynamicMetadataOptions) options;
+      return new S3ClientRegistry.ClientOptions(
+          dynamicOptions.getInteger(S3_MAX_CONNECTIONS_KEY, S3_MAX_CONNECTIONS_DEFAULT),
+          dynamicOptions.getBoolean(S3_KEEP_ALIVE_KEY, S3_KEEP_ALIVE_DEFAULT),
+          dynamicOptions.getInteger(S3_MAX_IDLE_KEY, S3_MAX_IDLE_DEFAULT));
+    }
+    return new S3ClientRegistry.ClientOptions();
+  }
+
+  /**
+   * Used to decide how many chunks are downloaded concurrently when a read from S3 spans several chunks
+   * @return int representing the maximum number of concurrent requests, 1 or less requests one chunk at a time, default is 16
+   */
+  public int s3MaxInFlight() {
+    MetadataOptions options = getMetadataOptions();
+    if (options instanceof DynamicMetadataOptions) {
+      return ((DynamicMetadataOptions) options).getInteger(
+          S3_MAX_IN_FLIGHT_KEY, S3_MAX_IN_FLIGHT_DEFAULT);
+    }
+    return S3_MAX_IN_FLIGHT_DEFAULT;
+  }
+
+  /**
+   * Used to decide if arrays and groups on S3 are discovered by listing each level of the hierarchy
+   * with '/' delimiters, never listing the chunks of an array
+   * @return boolean true if delimiter based listing should be used, default is false
+   */
+  public boolean s3DelimiterListing() {
+    MetadataOptions options = getMetadataOptions();
+    if (options instanceof DynamicMetadataOptions) {
+      return ((DynamicMetadataOptions) options).getBoolean(
+          S3_DELIMITER_LISTING_KEY, S3_DELIMITER_LISTING_DEFAULT);
+    }
+    return S3_DELIMITER_LISTING_DEFAULT;
+  }
+
+  /**
+   * Used to decide if the wells and fields of a plate are taken from the plate and well metadata
+   * without checking that each group and array exists
+   * @return boolean true if the plate metadata should be trusted, default is false
+   */
+  public boolean trustPlateMetadata() {
+    MetadataOptions options = getMetadataOptions();
+    if (options instanceof DynamicMetadataOptions) {
+      return ((DynamicMetadataOptions) options).getBoolean(
+          TRUST_PLATE_METADATA_KEY, TRUST_PLATE_METADATA_DEFAULT);
+    }
+    return TRUST_PLATE_METADATA_DEFAULT;
+  }
+
+  /**
+   * Used to configure how requests to S3 are retried, timed out and hedged. Failed requests are retried up to
+   * omezarr.s3.max_retries times with a jittered backoff growing from omezarr.s3.retry_base_ms to omezarr.s3.retry_max_ms.
+   * Requests are aborted after omezarr.s3.request_timeout_ms and a duplicate request is sent when a request
+   * takes longer than the omezarr.s3.hedge_percentile latency percentile of previous requests
+   * @return the request policy, by default 3 retries with no timeout and no hedging
+   */
+  public S3RequestPolicy s3RequestPolicy() {
+    MetadataOptions options = getMetadataOptions();
+    if (options instanceof DynamicMetadataOptions) {
+      DynamicMetadataOptions dynamicOptions = (DynamicMetadataOptions) options;
+      return new S3RequestPolicy(
+          dynamicOptions.getInteger(S3_MAX_RETRIES_KEY, S3_MAX_RETRIES_DEFAULT),
+          dynamicOptions.getInteger(S3_RETRY_BASE_KEY, S3_RETRY_BASE_DEFAULT),
+          dynamicOptions.getInteger(S3_RETRY_MAX_KEY, S3_RETRY_MAX_DEFAULT),
+          dynamicOptions.getInteger(S3_REQUEST_TIMEOUT_KEY, S3_REQUEST_TIMEOUT_DEFAULT),
+          dynamicOptions.getDouble(S3_HEDGE_PERCENTILE_KEY, S3_HEDGE_PERCENTILE_DEFAULT));
+    }
+    return new S3RequestPolicy();
+  }
+
+  /**
+   * Used to configure the on disk cache of objects read from S3, shared by every reader and JVM using the
+   * same omezarr.s3.cache_dir. The cache is capped at omezarr.s3.cache_size_mb and entries older than
+   * omezarr.s3.cache_revalidate_s are checked against their ETag before being used, readers sharing
+   * the directory use the smallest cap and the shortest interval requested
+   * @return the disk cache or null if no cache directory is set, by default no cache is used
+   */
+  public DiskChunkCache s3DiskCache() {
+    MetadataOptions options = getMetadataOptions();
+    if (!(options instanceof DynamicMetadataOptions)) {
+      return null;
+    }
+    DynamicMetadataOptions dynamicOptions = (DynamicMetadataOptions) options;
+    String directory = dynamicOptions.get(S3_CACHE_DIR_KEY);
+    if (directory == null || directory.isEmpty()) {
+      return null;
+    }
+    int sizeMB = dynamicOptions.getInteger(S3_CACHE_SIZE_KEY, S3_CACHE_SIZE_DEFAULT);
+    int revalidateSeconds = dynamicOptions.getInteger(S3_CACHE_REVALIDATE_KEY, S3_CACHE_REVALIDATE_DEFAULT);
+    try {
+      return DiskChunkCache.forDirectory(Paths.get(directory), sizeMB * 1024L * 1024L,
+          revalidateSeconds < 0 ? -1 : revalidateSeconds * 1000L);
+    }
+    catch (IOException e) {
+      LOGGER.warn("Unable to use S3 cache directory " + directory, e);
+      return null;
+    }
+  }
+
+  /**
+   * Used to decide if reads covering only part of the chunks of an uncompressed array on S3
+   * or HTTP request just the bytes within the region rather than the whole chunks
+   * @return boolean true if byte range requests should be used, default is false
+   */
+  public boolean s3RangedReads() {
+    MetadataOptions options = getMetadataOptions();
+    if (options instanceof DynamicMetadataOptions) {
+      return ((DynamicMetadataOptions) options).getBoolean(
+          S3_RANGED_READS_KEY, S3_RANGED_READS_DEFAULT);
+    }
+    return S3_RANGED_READS_DEFAULT;
+  }
+
+  /**
+   * Used to decide when byte ranges of the same chunk are read with a single request
+   * @return int representing the largest gap in bytes between coalesced ranges, default is 65536
+   */
+  public int s3RangeCoalesceBytes() {
+    MetadataOptions options = getMetadataOptions();
+    if (options instanceof DynamicMetadataOptions) {
+      return ((DynamicMetadataOptions) options).getInteger(
+          S3_RANGE_COALESCE_KEY, S3_RANGE_COALESCE_DEFAULT);
+    }
+    return S3_RANGE_COALESCE_DEFAULT;
+  }
+
+  /**
+   * Used to decide how many chunk sized download buffers are kept for reuse when reading from S3
+   * @return int representing the number of pooled buffers, 0 disables pooling, default is 32
+   */
+  public int s3BufferPoolSize() {
+    MetadataOptions options = getMetadataOptions();
+    if (options instanceof DynamicMetadataOptions) {
+      return ((DynamicMetadataOptions) options).getInteger(
+          S3_BUFFER_POOL_KEY, S3_BUFFER_POOL_DEFAULT);
+    }
+    return S3_BUFFER_POOL_DEFAULT;
+  }
+
+  /**
+   * Used to decide if planes are read chunk by chunk so that concurrent reads of the same chunk,
+   * such as neighbouring tiles requested by a viewer, share a single load and decode. Costs an
+   * allocation and copy of each whole chunk read, so only worth enabling for concurrent readers
+   * @return boolean true if chunk loads should be shared, default is false
+   */
+  public boolean sharedChunkReads() {
+    MetadataOptions options = getMetadataOptions();
+    if (options instanceof DynamicMetadataOptions) {
+      return ((DynamicMetadataOptions) options).getBoolean(
+          SHARED_CHUNK_READS_KEY, SHARED_CHUNK_READS_DEFAULT);
+    }
+    return SHARED_CHUNK_READS_DEFAULT;
+  }
+
+  /**
+   * Used to limit the requests in flight to an S3 endpoint across every reader in the JVM,
+   * the most restrictive limit set by any reader applies to the endpoint
+   * @return int representing the maximum number of concurrent requests per endpoint, 0 for no limit, default is 0
+   */
+  public int s3MaxConcurrentRequests() {
+    MetadataOptions options = getMetadataOptions();
+    if (options instanceof DynamicMetadataOptions) {
+      return ((DynamicMetadataOptions) options).getInteger(
+          S3_MAX_CONCURRENT_KEY, S3_MAX_CONCURRENT_DEFAULT);
+    }
+    return S3_MAX_CONCURRENT_DEFAULT;
+  }
+
+  /**
+   * Used to limit the rate of requests to an S3 endpoint across every reader in the JVM,
+   * the most restrictive limit set by any reader applies to the endpoint
+   * @return double representing the maximum requests per second per endpoint, 0 for no limit, default is 0
+   */
+  public double s3MaxRequestsPerSecond() {
+    MetadataOptions options = getMetadataOptions();
+    if (options instanceof DynamicMetadataOptions) {
+      return ((DynamicMetadataOptions) options).getDouble(
+          S3_MAX_RATE_KEY, S3_MAX_RATE_DEFAULT);
+    }
+    return S3_MAX_RATE_DEFAULT;
+  }
+
+  /**
+   * Used to keep small local datasets in memory, shared by every reader in the JVM. The least recently
+   * opened datasets are released once the loaded datasets exceed the limit. Changes to the files of a
+   * dataset are not seen once it has been loaded.
+   * @return int representing the largest total size in megabytes of the datasets kept in memory, 0 to disable, default is 0
+   */
+  public int memoryPreloadMB() {
+    MetadataOptions options = getMetadataOptions();
+    if (options instanceof DynamicMetadataOptions) {
+      return ((DynamicMetadataOptions) options).getInteger(
+          MEMORY_PRELOAD_KEY, MEMORY_PRELOAD_DEFAULT);
+    }
+    return MEMORY_PRELOAD_DEFAULT;
+  }
+
+  /**
+   * Used to keep the chunk files of local datasets open between reads, in a cache shared by every
+   * reader in the JVM and bounded by the file descriptor limit of the process. The channels of a dataset
+   * are closed when the reader is closed.
+   * @return boolean true if local chunks are read through cached file channels, default is false
+   */
+  public boolean cachedFileChannels() {
+    MetadataOptions options = getMetadataOptions();
+    if (options instanceof DynamicMetadataOptions) {
+      return ((DynamicMetadataOptions) options).getBoolean(
+          CACHED_FILE_CHANNELS_KEY, CACHED_FILE_CHANNELS_DEFAULT);
+    }
+    return CACHED_FILE_CHANNELS_DEFAULT;
+  }
+
+  /**
+   * Used to read the chunk files of a plane from local storage concurrently with asynchronous
+   * file channels before they are decoded, keeping fast local and parallel file systems busy.
+   * @return int representing the number of chunk files read at once, 0 to disable, default is 0
+   */
+  public int localAsyncReads() {
+    MetadataOptions options = getMetadataOptions();
+    if (options instanceof DynamicMetadataOptions) {
+      return ((DynamicMetadataOptions) options).getInteger(
+          LOCAL_ASYNC_READS_KEY, LOCAL_ASYNC_READS_DEFAULT);
+    }
+    return LOCAL_ASYNC_READS_DEFAULT;
+  }
+
+  /**
+   * Used to keep decoded chunks in memory, in a cache shared by every reader in the JVM that
+   * takes the largest size requested by the open readers. Required for prefetch hints.
+   * @return int representing the size of the decoded chunk cache in megabytes, 0 to disable, default is 0
+   */
+  public int chunkCacheMB() {
+    MetadataOptions options = getMetadataOptions();
+    if (options instanceof DynamicMetadataOptions) {
+      return ((DynamicMetadataOptions) options).getInteger(
+          CHUNK_CACHE_KEY, CHUNK_CACHE_DEFAULT);
+    }
+    return CHUNK_CACHE_DEFAULT;
+  }
+
   private boolean systemEnvListPixels() {
     String value = System.getenv(LIST_PIXELS_ENV_KEY);
     if (value != null && value.equalsIgnoreCase("true")) return true;
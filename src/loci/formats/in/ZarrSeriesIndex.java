@@ -0,0 +1,339 @@
+package loci.formats.in;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact index of the array paths found while parsing multiscales metadata.
+ * Each path is interned once and assigned an integer id, all per-path values
+ * are then held in primitive arrays indexed by that id. Dimension lists are
+ * shared between every path using the same axes.
+ */
+public class ZarrSeriesIndex {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  // Interned paths, indexed by id
+  private String[] paths = new String[INITIAL_CAPACITY];
+  // Open addressing hash table storing id + 1, 0 marks an empty slot
+  private int[] table = new int[INITIAL_CAPACITY * 2];
+  private int size = 0;
+
+  private int[] resolutionCounts = new int[INITIAL_CAPACITY];
+  private int[] resolutionIndexes = new int[INITIAL_CAPACITY];
+  private int[] dimensionIds = new int[INITIAL_CAPACITY];
+  private int[] multiscaleIds = new int[INITIAL_CAPACITY];
+  private int[] coreIndexes = new int[INITIAL_CAPACITY];
+
+  // Members of each multiscale in insertion order, multiscale m owns
+  // multiscaleMembers[multiscaleOffsets[m]] to multiscaleMembers[multiscaleOffsets[m + 1] - 1]
+  private int[] multiscaleMembers = new int[INITIAL_CAPACITY];
+  private int memberCount = 0;
+  private int[] multiscaleOffsets = new int[] {0, 0};
+  private int multiscaleCount = 0;
+
+  private final List<List<String>> dimensions = new ArrayList<List<String>>();
+  private final List<String> dimensionOrders = new ArrayList<String>();
+  private final Map<List<String>, Integer> dimensionLookup = new HashMap<List<String>, Integer>();
+
+  /**
+   * Starts a new multiscale, subsequent calls to {@link #addResolution} are added to it
+   * @return the index of the new multiscale
+   */
+  public int startMultiscale() {
+    multiscaleCount++;
+    if (multiscaleOffsets.length <= multiscaleCount + 1) {
+      multiscaleOffsets = Arrays.copyOf(multiscaleOffsets, multiscaleOffsets.length * 2);
+    }
+    multiscaleOffsets[multiscaleCount] = memberCount;
+    return multiscaleCount - 1;
+  }
+
+  /**
+   * Adds a resolution path to the current multiscale
+   * @param path of the array relative to the zarr root
+   * @param resolutionIndex of the array within the multiscale
+   * @param resolutionCount number of resolutions in the multiscale, only recorded for the first resolution
+   * @param pathDimensions lower case axes names, the list is shared with any other path using the same axes
+   * @return the id of the path
+   */
+  public int addResolution(String path, int resolutionIndex, int resolutionCount, List<String> pathDimensions) {
+    if (multiscaleCount == 0) {
+      startMultiscale();
+    }
+    int id = intern(path);
+    if (resolutionIndex == 0) {
+      resolutionCounts[id] = resolutionCount;
+    }
+    resolutionIndexes[id] = resolutionIndex;
+    dimensionIds[id] = internDimensions(pathDimensions);
+    multiscaleIds[id] = multiscaleCount - 1;
+    if (memberCount == multiscaleMembers.length) {
+      multiscaleMembers = Arrays.copyOf(multiscaleMembers, memberCount * 2);
+    }
+    multiscaleMembers[memberCount++] = id;
+    multiscaleOffsets[multiscaleCount] = memberCount;
+    return id;
+  }
+
+  /**
+   * @param path of the array relative to the zarr root
+   * @return the id of the path or -1 if the path is not indexed
+   */
+  public int getId(String path) {
+    int mask = table.length - 1;
+    int slot = hash(path) & mask;
+    while (table[slot] != 0) {
+      int id = table[slot] - 1;
+      if (paths[id].equals(path)) {
+        return id;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+  public boolean contains(String path) {
+    return getId(path) >= 0;
+  }
+
+  public String getPath(int id) {
+    return paths[id];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int getMultiscaleCount() {
+    return multiscaleCount;
+  }
+
+  /**
+   * @return true if the path is the first resolution of a multiscale
+   */
+  public boolean isMultiscaleStart(String path) {
+    int id = getId(path);
+    return id >= 0 && resolutionCounts[id] > 0;
+  }
+
+  /**
+   * @return the number of resolutions recorded for the path, or the default value
+   */
+  public int getResolutionCount(String path, int defaultValue) {
+    int id = getId(path);
+    if (id < 0 || resolutionCounts[id] == 0) {
+      return defaultValue;
+    }
+    return resolutionCounts[id];
+  }
+
+  /**
+   * @return the resolution index recorded for the path, or the default value
+   */
+  public int getResolutionIndex(String path, int defaultValue) {
+    int id = getId(path);
+    if (id < 0 || multiscaleIds[id] < 0) {
+      return defaultValue;
+    }
+    return resolutionIndexes[id];
+  }
+
+  /**
+   * @return the shared, unmodifiable list of axes for the path, or null if none were recorded
+   */
+  public List<String> getDimensions(String path) {
+    int id = getId(path);
+    if (id < 0 || dimensionIds[id] < 0) {
+      return null;
+    }
+    return dimensions.get(dimensionIds[id]);
+  }
+
+  /**
+   * @return the dimension order derived from the axes of the path, or null if none were recorded
+   */
+  public String getDimensionOrder(String path) {
+    int id = getId(path);
+    if (id < 0 || dimensionIds[id] < 0) {
+      return null;
+    }
+    return dimensionOrders.get(dimensionIds[id]);
+  }
+
+  /**
+   * Orders the array paths so that the resolutions of each multiscale are
+   * contiguous and follow the order of the multiscales metadata. Paths not
+   * belonging to any multiscale keep their relative order at the start.
+   * @param arrayPaths to be reordered in place
+   * @param includeLabels false if paths of multiscales within labels should be dropped
+   */
+  public void orderArrayPaths(List<String> arrayPaths, boolean includeLabels) {
+    if (multiscaleCount == 0) {
+      return;
+    }
+    // A path listed by more than one multiscale is kept with the last one
+    int[] lastMultiscale = new int[size];
+    Arrays.fill(lastMultiscale, -1);
+    for (int m = 0; m < multiscaleCount; m++) {
+      for (int i = multiscaleOffsets[m]; i < multiscaleOffsets[m + 1]; i++) {
+        lastMultiscale[multiscaleMembers[i]] = m;
+      }
+    }
+    ArrayList<String> ordered = new ArrayList<String>(arrayPaths.size());
+    for (String arrayPath : arrayPaths) {
+      int id = getId(arrayPath);
+      if (id < 0 || lastMultiscale[id] < 0) {
+        ordered.add(arrayPath);
+      }
+    }
+    for (int m = 0; m < multiscaleCount; m++) {
+      for (int i = multiscaleOffsets[m]; i < multiscaleOffsets[m + 1]; i++) {
+        int id = multiscaleMembers[i];
+        if (lastMultiscale[id] != m) {
+          continue;
+        }
+        lastMultiscale[id] = -1;
+        String arrayPath = paths[id];
+        if (includeLabels || !arrayPath.toLowerCase().contains("labels")) {
+          ordered.add(arrayPath);
+        }
+      }
+    }
+    arrayPaths.clear();
+    arrayPaths.addAll(ordered);
+  }
+
+  /**
+   * Records the core index of each of the final, ordered array paths
+   * @param arrayPaths in core index order
+   */
+  public void setCoreIndexes(List<String> arrayPaths) {
+    Arrays.fill(coreIndexes, 0, size, -1);
+    for (int i = 0; i < arrayPaths.size(); i++) {
+      int id = intern(arrayPaths.get(i));
+      coreIndexes[id] = i;
+    }
+  }
+
+  /**
+   * @return the core index of the path as set by {@link #setCoreIndexes(List)} or -1 if not present
+   */
+  public int getCoreIndex(String path) {
+    int id = getId(path);
+    return id < 0 ? -1 : coreIndexes[id];
+  }
+
+  public void clear() {
+    Arrays.fill(paths, 0, size, null);
+    Arrays.fill(table, 0);
+    size = 0;
+    memberCount = 0;
+    multiscaleCount = 0;
+    multiscaleOffsets[0] = 0;
+    multiscaleOffsets[1] = 0;
+    dimensions.clear();
+    dimensionOrders.clear();
+    dimensionLookup.clear();
+  }
+
+  private int intern(String path) {
+    int id = getId(path);
+    if (id >= 0) {
+      return id;
+    }
+    if (size == paths.length) {
+      grow();
+    }
+    id = size++;
+    paths[id] = path;
+    resolutionCounts[id] = 0;
+    resolutionIndexes[id] = 0;
+    dimensionIds[id] = -1;
+    multiscaleIds[id] = -1;
+    coreIndexes[id] = -1;
+    insert(id);
+    return id;
+  }
+
+  private void insert(int id) {
+    int mask = table.length - 1;
+    int slot = hash(paths[id]) & mask;
+    while (table[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    table[slot] = id + 1;
+  }
+
+  private void grow() {
+    int capacity = paths.length * 2;
+    paths = Arrays.copyOf(paths, capacity);
+    resolutionCounts = Arrays.copyOf(resolutionCounts, capacity);
+    resolutionIndexes = Arrays.copyOf(resolutionIndexes, capacity);
+    dimensionIds = Arrays.copyOf(dimensionIds, capacity);
+    multiscaleIds = Arrays.copyOf(multiscaleIds, capacity);
+    coreIndexes = Arrays.copyOf(coreIndexes, capacity);
+    // Keep the load factor of the hash table at or below 0.5
+    table = new int[capacity * 2];
+    for (int id = 0; id < size; id++) {
+      insert(id);
+    }
+  }
+
+  private int internDimensions(List<String> pathDimensions) {
+    if (pathDimensions == null || pathDimensions.isEmpty()) {
+      return -1;
+    }
+    Integer dimensionId = dimensionLookup.get(pathDimensions);
+    if (dimensionId == null) {
+      List<String> shared = Collections.unmodifiableList(new ArrayList<String>(pathDimensions));
+      dimensionId = dimensions.size();
+      dimensions.add(shared);
+      String dimensionOrder = "";
+      for (int d = 1; d < shared.size() + 1; d++) {
+        dimensionOrder += shared.get(shared.size() - d).toUpperCase();
+      }
+      dimensionOrders.add(dimensionOrder);
+      dimensionLookup.put(shared, dimensionId);
+    }
+    return dimensionId;
+  }
+
+  private static int hash(String path) {
+    int h = path.hashCode();
+    return h ^ (h >>> 16);
+  }
+}
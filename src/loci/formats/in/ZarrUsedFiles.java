@@ -0,0 +1,231 @@
+package loci.formats.in;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.bc.zarr.ZarrConstants;
+
+import loci.formats.services.ZarrArrayHeader;
+
+/**
+ * Strategies used by {@link ZarrReader#getUsedFiles(boolean)} to list the
+ * files of a local Zarr fileset.
+ */
+public class ZarrUsedFiles {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ZarrUsedFiles.class);
+
+  private static final String OME_GROUP = "OME";
+  private static final String OME_METADATA = "METADATA.ome.xml";
+
+  private ZarrUsedFiles() {
+  }
+
+  /**
+   * Filter applied to every listed file, matching the historic behaviour of getUsedFiles
+   * @param path of a regular file within the Zarr fileset
+   * @param skipPixels true if only group metadata files should be accepted
+   * @param includeLabels false if files within a labels folder should be rejected
+   */
+  public static boolean accept(Path path, boolean skipPixels, boolean includeLabels) {
+    if (!includeLabels && path.toString().toLowerCase().contains("labels")) {
+      return false;
+    }
+    return !skipPixels || path.endsWith(ZarrConstants.FILENAME_DOT_ZGROUP) ||
+        path.endsWith(ZarrConstants.FILENAME_DOT_ZATTRS) || path.endsWith(".xml");
+  }
+
+  /**
+   * Lazily lists the files of the fileset by walking the directory tree
+   * The returned stream must be closed to release the directory handles
+   */
+  public static Stream<Path> walk(Path root, boolean skipPixels, boolean includeLabels) throws IOException {
+    return Files.walk(root, FileVisitOption.FOLLOW_LINKS)
+      .filter(Files::isRegularFile)
+      .filter(path -> accept(path, skipPixels, includeLabels));
+  }
+
+  /**
+   * Lists the files of the fileset by walking the directory tree, reading
+   * the entries of each directory as a separate task on a fork join pool.
+   * This is intended for network filesystems where listing a directory has
+   * a high latency, ordering of the result is not defined.
+   * @param parallelism number of directories that may be listed concurrently
+   */
+  public static List<Path> parallelWalk(Path root, boolean skipPixels, boolean includeLabels,
+      int parallelism) throws IOException {
+    ConcurrentLinkedQueue<Path> files = new ConcurrentLinkedQueue<Path>();
+    Set<Object> visited = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+    ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+    try {
+      pool.invoke(new DirectoryTask(root, files, visited, skipPixels, includeLabels));
+    }
+    catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    finally {
+      pool.shutdown();
+    }
+    return new ArrayList<Path>(files);
+  }
+
+  /**
+   * Lists the files of the fileset using only the Zarr metadata. Group and
+   * array metadata files are checked for existence, the chunk files are
+   * derived from the shape, chunks and dimension separator of each array
+   * and each is checked for existence as the stream is consumed, as chunks
+   * holding only the fill value are often not written.
+   * @param root of the Zarr fileset
+   * @param arrayPaths of the arrays relative to the root
+   */
+  public static Stream<Path> fromMetadata(Path root, List<String> arrayPaths,
+      boolean skipPixels, boolean includeLabels) {
+    Set<Path> groups = new LinkedHashSet<Path>();
+    groups.add(root);
+    Path omeGroup = root.resolve(OME_GROUP);
+    if (Files.isDirectory(omeGroup)) {
+      groups.add(omeGroup);
+    }
+    List<Path> arrays = new ArrayList<Path>(arrayPaths.size());
+    for (String arrayPath : arrayPaths) {
+      Path array = root.resolve(arrayPath);
+      arrays.add(array);
+      for (Path parent = array.getParent(); parent != null && parent.startsWith(root)
+          && !parent.equals(root); parent = parent.getParent()) {
+        if (!groups.add(parent)) {
+          break;
+        }
+      }
+    }
+
+    Stream<Path> groupFiles = groups.stream().flatMap(group -> {
+      List<Path> metadataFiles = new ArrayList<Path>(3);
+      metadataFiles.add(group.resolve(ZarrConstants.FILENAME_DOT_ZGROUP));
+      metadataFiles.add(group.resolve(ZarrConstants.FILENAME_DOT_ZATTRS));
+      if (group.equals(omeGroup)) {
+        metadataFiles.add(group.resolve(OME_METADATA));
+      }
+      return metadataFiles.stream();
+    });
+    Stream<Path> arrayFiles = arrays.stream().flatMap(array -> {
+      Stream<Path> metadataFiles = Stream.of(
+          array.resolve(ZarrConstants.FILENAME_DOT_ZARRAY),
+          array.resolve(ZarrConstants.FILENAME_DOT_ZATTRS))
+        .filter(path -> Files.isRegularFile(path) && accept(path, skipPixels, includeLabels));
+      if (skipPixels || (!includeLabels && array.toString().toLowerCase().contains("labels"))) {
+        return metadataFiles;
+      }
+      return Stream.concat(metadataFiles, chunkFiles(array));
+    });
+    return Stream.concat(
+        groupFiles.filter(path -> Files.isRegularFile(path) && accept(path, skipPixels, includeLabels)),
+        arrayFiles);
+  }
+
+  private static Stream<Path> chunkFiles(Path array) {
+    ZarrArrayHeader header;
+    try (Reader reader = Files.newBufferedReader(array.resolve(ZarrConstants.FILENAME_DOT_ZARRAY))) {
+      header = ZarrArrayHeader.read(reader);
+    }
+    catch (IOException e) {
+      LOGGER.warn("Unable to read array header, chunks will not be listed: {}", array, e);
+      return Stream.empty();
+    }
+    Iterator<String> keys = header.chunkKeys();
+    long count = header.getChunkCount();
+    Spliterator<String> spliterator = Spliterators.spliterator(keys, count,
+        Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.DISTINCT);
+    return StreamSupport.stream(spliterator, false).map(array::resolve).filter(Files::isRegularFile);
+  }
+
+  private static class DirectoryTask extends RecursiveAction {
+    private final Path directory;
+    private final ConcurrentLinkedQueue<Path> files;
+    private final Set<Object> visited;
+    private final boolean skipPixels;
+    private final boolean includeLabels;
+
+    DirectoryTask(Path directory, ConcurrentLinkedQueue<Path> files, Set<Object> visited,
+        boolean skipPixels, boolean includeLabels) {
+      this.directory = directory;
+      this.files = files;
+      this.visited = visited;
+      this.skipPixels = skipPixels;
+      this.includeLabels = includeLabels;
+    }
+
+    @Override
+    protected void compute() {
+      List<DirectoryTask> subTasks = new ArrayList<DirectoryTask>();
+      try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+        for (Path entry : entries) {
+          if (Files.isDirectory(entry)) {
+            // Guard against cycles created by following symbolic links
+            if (Files.isSymbolicLink(entry) && !visited.add(entry.toRealPath())) {
+              continue;
+            }
+            subTasks.add(new DirectoryTask(entry, files, visited, skipPixels, includeLabels));
+          }
+          else if (Files.isRegularFile(entry) && accept(entry, skipPixels, includeLabels)) {
+            files.add(entry);
+          }
+        }
+      }
+      catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      invokeAll(subTasks);
+    }
+  }
+}
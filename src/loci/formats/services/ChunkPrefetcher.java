@@ -0,0 +1,164 @@
+package loci.formats.services;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads the chunks of regions that are likely to be read soon into the shared
+ * {@link loci.formats.DecodedChunkCache}, one hint at a time on a low priority background thread.
+ * Each hint belongs to a generation, starting a new generation with {@link #supersede()} stops
+ * the hints of earlier generations before their next chunk, so that hints follow a moving viewport.
+ * Chunks are read through a service of its own so that hints never change the array opened by the reader.
+ */
+public class ChunkPrefetcher implements Closeable {
+
+  protected static final Logger LOGGER = LoggerFactory.getLogger(ChunkPrefetcher.class);
+
+  private final JZarrServiceImpl service;
+  private final ExecutorService executor;
+  private final AtomicLong generation = new AtomicLong();
+  private final AtomicLong loadedChunks = new AtomicLong();
+  private volatile boolean closed = false;
+
+  /**
+   * @param service used only by the prefetcher, closed with it
+   */
+  public ChunkPrefetcher(JZarrServiceImpl service) {
+    this.service = service;
+    executor = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "ChunkPrefetcher");
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MIN_PRIORITY);
+      return thread;
+    });
+  }
+
+  /**
+   * Starts a new generation, hints of earlier generations stop before loading their next chunk
+   * @return the new generation
+   */
+  public long supersede() {
+    return generation.incrementAndGet();
+  }
+
+  public long getGeneration() {
+    return generation.get();
+  }
+
+  /**
+   * @return the number of chunks loaded by hints
+   */
+  public long getLoadedChunkCount() {
+    return loadedChunks.get();
+  }
+
+  /**
+   * Queues the loading of the chunks of regions of an array in the current generation.
+   * Regions are given in five dimensions and reduced to the dimensions of the array,
+   * the parts of the regions outside of the array are ignored.
+   * @param arrayPath of the array, in the form used by the reader to open it
+   * @param shapes of the regions
+   * @param offsets of the regions
+   * @return the number of chunks loaded by the hint, 0 if it was superseded before starting or failed
+   */
+  public Future<Integer> submit(String arrayPath, List<int[]> shapes, List<int[]> offsets) {
+    final long hintGeneration = generation.get();
+    return executor.submit(() -> {
+      if (isSuperseded(hintGeneration)) {
+        return 0;
+      }
+      try {
+        if (!arrayPath.equals(service.getID())) {
+          service.open(arrayPath);
+        }
+        ZarrReadPlan plan = new ZarrReadPlan(service.getShape(), service.getChunkSize());
+        for (int i = 0; i < shapes.size(); i++) {
+          addClippedRegion(plan, shapes.get(i), offsets.get(i));
+        }
+        int loaded = service.cacheChunks(plan, () -> isSuperseded(hintGeneration));
+        loadedChunks.addAndGet(loaded);
+        return loaded;
+      }
+      catch (Exception e) {
+        LOGGER.debug("Unable to prefetch chunks of {}", arrayPath, e);
+        return 0;
+      }
+    });
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    // Not interrupted, interrupting a read would close file channels shared with other readers
+    executor.shutdown();
+    try {
+      executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    service.close();
+  }
+
+  private boolean isSuperseded(long hintGeneration) {
+    return closed || generation.get() != hintGeneration;
+  }
+
+  /**
+   * Adds the part of a five dimensional region within the array to the plan
+   */
+  static void addClippedRegion(ZarrReadPlan plan, int[] shape5D, int[] offset5D) {
+    int[] arrayShape = plan.getArrayShape();
+    int n = arrayShape.length;
+    int[] shape = new int[n];
+    int[] offset = new int[n];
+    for (int d = 0; d < n; d++) {
+      int d5 = shape5D.length - n + d;
+      int start = d5 < 0 ? 0 : Math.max(0, offset5D[d5]);
+      int end = d5 < 0 ? 1 : Math.min(arrayShape[d], offset5D[d5] + shape5D[d5]);
+      if (end <= start) {
+        return;
+      }
+      offset[d] = start;
+      shape[d] = end - start;
+    }
+    plan.addRegion(shape, offset);
+  }
+}
@@ -31,17 +31,37 @@ import java.io.File;
  * #L%
  */
 
+import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.Array;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BooleanSupplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,13 +70,27 @@ import com.bc.zarr.ArrayParams;
 import com.bc.zarr.Compressor;
 import com.bc.zarr.CompressorFactory;
 import com.bc.zarr.DataType;
+import com.bc.zarr.ZarrConstants;
 import com.bc.zarr.ZarrArray;
 import com.bc.zarr.ZarrGroup;
+import com.bc.zarr.storage.Store;
 
 import loci.common.services.AbstractService;
+import loci.formats.AsyncFileReader;
+import loci.formats.DecodedChunkCache;
+import loci.formats.DiskChunkCache;
+import loci.formats.FileChannelCache;
+import loci.formats.FileChannelStore;
 import loci.formats.FormatException;
 import loci.formats.FormatTools;
+import loci.formats.HttpStore;
+import loci.formats.PrefetchedObjects;
+import loci.formats.S3ClientRegistry;
 import loci.formats.S3FileSystemStore;
+import loci.formats.S3RequestPolicy;
+import loci.formats.SingleFlight;
+import loci.formats.StoreProviders;
+import loci.formats.StoreView;
 import loci.formats.meta.IPyramidStore;
 import loci.formats.meta.MetadataRetrieve;
 import ucar.ma2.InvalidRangeException;
@@ -66,11 +100,34 @@ implements ZarrService  {
   // -- Constants --
   private static final Logger LOGGER = LoggerFactory.getLogger(JZarrServiceImpl.class);
   public static final String NO_ZARR_MSG = "JZARR is required to read Zarr files.";
+  // Allowance for the header added by compressors such as blosc to incompressible chunks
+  private static final int CHUNK_HEADER_BYTES = 64;
+  // Chunks of a read plan fetched ahead of decoding for each concurrent fetch
+  private static final int PLAN_WINDOW_PER_FETCH = 4;
 
   // -- Fields --
+  // Store of the alternative dataset, opened once and shared by every thread
+  Store store;
+  // The store when it supports prefetching and range reads
   S3FileSystemStore s3fs;
+  HttpStore httpStore;
   ZarrArray zarrArray;
   String currentId;
+  // Header of the open array, only loaded when chunks are prefetched or read by range
+  ZarrArrayHeader currentHeader;
+  boolean rangedReads = false;
+  boolean sharedChunkReads = false;
+  // Whether chunks of local arrays are read through the shared cache of open file channels
+  boolean cachedFileChannels = false;
+  // Local arrays read through the shared cache, their channels are closed when the service is closed
+  private final Set<Path> cachedArrayRoots = new HashSet<Path>();
+  // Reads the chunks of local arrays concurrently when set, and the store of the open local array using it
+  AsyncFileReader asyncReader;
+  FileChannelStore localStore;
+  // Whether the open array was opened from local files, whose cached chunks are checked against their file
+  boolean localFiles = false;
+  // Decoded chunks being loaded by any reader, keyed by array and chunk index
+  private static final SingleFlight<String, Object> CHUNK_LOADS = new SingleFlight<String, Object>();
   Compressor zlibComp = CompressorFactory.create("zlib", "level", 8);  // 8 = compression level .. valid values 0 .. 9
   Compressor bloscComp = CompressorFactory.create("blosc", "cname", "lz4hc", "clevel", 7);
   Compressor nullComp = CompressorFactory.create("null");
@@ -79,14 +136,27 @@ implements ZarrService  {
    * Default constructor.
    */
   public JZarrServiceImpl(String root) {
+    this(root, null);
+  }
+
+  /**
+   * @param root of an alternative store or null if the data is stored locally
+   * @param clientOptions of the shared S3 client used for S3 stores, null for the defaults
+   */
+  public JZarrServiceImpl(String root, S3ClientRegistry.ClientOptions clientOptions) {
       checkClassDependency(com.bc.zarr.ZarrArray.class);
-      if (root != null && (root.toLowerCase().contains("s3:") || root.toLowerCase().contains("s3."))) {
-        String[] pathSplit = root.toString().split(File.separator);
-        if (S3FileSystemStore.ENDPOINT_PROTOCOL.contains(pathSplit[0].toLowerCase())) {
-          s3fs = new S3FileSystemStore(Paths.get(root));
+      if (root != null) {
+        try {
+          store = StoreProviders.open(getDatasetRoot(root), clientOptions);
         }
-        else {
-          LOGGER.warn("Zarr Reader is not using S3FileSystemStore as this is currently for use with S3 configured with a https endpoint");
+        catch (IOException e) {
+          LOGGER.warn("Unable to open the alternative store {}, reading the original files", root, e);
+        }
+        if (store instanceof S3FileSystemStore) {
+          s3fs = (S3FileSystemStore) store;
+        }
+        else if (store instanceof HttpStore) {
+          httpStore = (HttpStore) store;
         }
       }
   }
@@ -94,12 +164,156 @@ implements ZarrService  {
   @Override
   public void open(String file) throws IOException, FormatException {
     currentId = file;
-    zarrArray = getArray(file);
+    currentHeader = null;
+    localStore = null;
+    localFiles = store == null;
+    if (store == null && (cachedFileChannels || asyncReader != null)) {
+      localStore = new FileChannelStore(Paths.get(file));
+      localStore.setAsyncReader(asyncReader);
+      cachedArrayRoots.add(Paths.get(file));
+      zarrArray = ZarrArray.open(localStore);
+    }
+    else {
+      zarrArray = getArray(file);
+    }
+    updateBufferSize();
   }
   
   public void open(String id, ZarrArray array) {
     currentId = id;
+    currentHeader = null;
+    localStore = null;
+    localFiles = false;
     zarrArray = array;
+    updateBufferSize();
+  }
+
+  /**
+   * Sizes the pooled download buffers to the uncompressed chunk size of the open array,
+   * compressed chunks are never larger apart from a small header
+   */
+  private void updateBufferSize() {
+    if ((s3fs == null && asyncReader == null) || zarrArray == null) {
+      return;
+    }
+    int pixelType = getOMEPixelType(zarrArray.getDataType());
+    if (pixelType < 0) {
+      return;
+    }
+    long size = FormatTools.getBytesPerPixel(pixelType);
+    for (int chunk : zarrArray.getChunks()) {
+      size *= chunk;
+    }
+    size += CHUNK_HEADER_BYTES;
+    int bufferSize = size < Integer.MAX_VALUE ? (int) size : 0;
+    if (s3fs != null) {
+      s3fs.setBufferSize(bufferSize);
+    }
+    if (asyncReader != null) {
+      asyncReader.setBufferSize(bufferSize);
+    }
+  }
+
+  /**
+   * Sets the number of download buffers kept for reuse when reading from S3, 0 disables pooling
+   */
+  public void setBufferPoolSize(int bufferPoolSize) {
+    if (s3fs != null) {
+      s3fs.setBufferPoolSize(bufferPoolSize);
+    }
+  }
+
+  /**
+   * Sets the number of chunk files of local arrays read concurrently with asynchronous file
+   * channels, for the arrays opened afterwards. The chunks of a region are then read together
+   * before being decoded. 0 reads the chunks one at a time as they are decoded.
+   */
+  public void setAsyncLocalReads(int maxInFlight) {
+    if (asyncReader != null) {
+      asyncReader.close();
+      asyncReader = null;
+    }
+    if (maxInFlight > 0 && store == null) {
+      asyncReader = new AsyncFileReader(maxInFlight);
+    }
+  }
+
+  /**
+   * Sets the maximum number of chunks downloaded concurrently when reading from S3,
+   * 1 or less reads the chunks of a region one at a time
+   */
+  public void setMaxInFlight(int maxInFlight) {
+    if (s3fs != null) {
+      s3fs.setMaxInFlight(maxInFlight);
+    }
+    if (httpStore != null) {
+      httpStore.setMaxInFlight(maxInFlight);
+    }
+  }
+
+  /**
+   * Sets the retry, timeout and hedging policy of requests made to S3
+   */
+  public void setRequestPolicy(S3RequestPolicy requestPolicy) {
+    if (s3fs != null) {
+      s3fs.setRequestPolicy(requestPolicy);
+    }
+    if (httpStore != null) {
+      httpStore.setRequestPolicy(requestPolicy);
+    }
+  }
+
+  /**
+   * Sets whether regions covering only part of the chunks of an uncompressed array on S3 or HTTP
+   * are read by requesting the byte ranges of the region rather than the whole chunks, disabled by default
+   */
+  public void setRangedReads(boolean rangedReads) {
+    this.rangedReads = rangedReads;
+  }
+
+  /**
+   * Sets the largest gap in bytes between two ranges of a chunk for them to be read with a single request
+   */
+  public void setRangeCoalesceBytes(int rangeCoalesceBytes) {
+    if (s3fs != null) {
+      s3fs.setRangeCoalesceBytes(rangeCoalesceBytes);
+    }
+    if (httpStore != null) {
+      httpStore.setRangeCoalesceBytes(rangeCoalesceBytes);
+    }
+  }
+
+  /**
+   * Restricts the limits on requests to the S3 endpoint, shared by every reader using the endpoint
+   * @param maxConcurrent maximum number of requests in flight, 0 or less to keep the current limit
+   * @param requestsPerSecond maximum rate of requests, 0 or less to keep the current limit
+   */
+  public void setAdmissionLimits(int maxConcurrent, double requestsPerSecond) {
+    if (s3fs != null) {
+      s3fs.setAdmissionLimits(maxConcurrent, requestsPerSecond);
+    }
+  }
+
+  /**
+   * Sets the on disk cache of objects read from S3, null disables caching
+   */
+  public void setDiskCache(DiskChunkCache diskCache) {
+    if (s3fs != null) {
+      s3fs.setDiskCache(diskCache);
+    }
+    if (httpStore != null) {
+      httpStore.setDiskCache(diskCache);
+    }
+  }
+
+  /**
+   * Sets whether arrays and groups on S3 are discovered by listing the hierarchy with '/'
+   * delimiters, rather than listing every object including the chunks
+   */
+  public void setDelimiterListing(boolean delimiterListing) {
+    if (s3fs != null) {
+      s3fs.setDelimiterListing(delimiterListing);
+    }
   }
   
   public Map<String, Object> getGroupAttr(String path) throws IOException, FormatException {
@@ -118,6 +332,65 @@ implements ZarrService  {
     return getGroup(path).getArrayKeys();
   }
 
+  @Override
+  public Set<String> filterExisting(String root, Collection<String> keys) throws IOException, FormatException {
+    if (httpStore != null) {
+      return httpStore.filterExisting(getStoreRoot(httpStore.getRoot(), root), keys);
+    }
+    if (s3fs != null) {
+      return s3fs.filterExisting(Paths.get(getStoreRoot(s3fs.getRoot(), root)), keys);
+    }
+    Set<String> existing = new HashSet<String>();
+    if (store != null) {
+      StoreView view = new StoreView(store, getStoreKey(root));
+      for (String key : keys) {
+        if (exists(view, key + "/" + ZarrConstants.FILENAME_DOT_ZGROUP) ||
+            exists(view, key + "/" + ZarrConstants.FILENAME_DOT_ZARRAY)) {
+          existing.add(key);
+        }
+      }
+      return existing;
+    }
+    for (String key : keys) {
+      if (Files.isDirectory(Paths.get(root + File.separator + key))) {
+        existing.add(key);
+      }
+    }
+    return existing;
+  }
+
+  @Override
+  public InputStream getInputStream(String path) throws IOException {
+    if (store == null) {
+      Path file = Paths.get(path);
+      return Files.isRegularFile(file) ? Files.newInputStream(file) : null;
+    }
+    return new StoreView(store, "").getInputStream(getStoreKey(path));
+  }
+
+  private static boolean exists(Store store, String key) throws IOException {
+    try (InputStream in = store.getInputStream(key)) {
+      return in != null;
+    }
+  }
+
+  @Override
+  public ZarrArrayHeader getArrayHeader(String path) throws IOException, FormatException {
+    InputStream headerStream;
+    if (store == null) {
+      headerStream = Files.newInputStream(Paths.get(path, ZarrConstants.FILENAME_DOT_ZARRAY));
+    }
+    else {
+      headerStream = new StoreView(store, getStoreKey(path)).getInputStream(ZarrConstants.FILENAME_DOT_ZARRAY);
+    }
+    if (headerStream == null) {
+      throw new IOException("Unable to locate array header for " + path);
+    }
+    try (Reader reader = new BufferedReader(new InputStreamReader(headerStream, StandardCharsets.UTF_8))) {
+      return ZarrArrayHeader.read(reader);
+    }
+  }
+
   public DataType getZarrPixelType(int pixType) {
     DataType pixelType = null;
       switch(pixType) {
@@ -150,40 +423,7 @@ implements ZarrService  {
   }
   
   public int getOMEPixelType(DataType pixType) {
-
-    int pixelType = -1;
-      switch(pixType) {
-        case i1:
-          pixelType = FormatTools.INT8;
-          break;
-        case i2:
-          pixelType = FormatTools.INT16;
-          break;
-        case i4:
-          pixelType = FormatTools.INT32;
-          break;
-        case u1:
-          pixelType = FormatTools.UINT8;
-          break;
-        case u2:
-          pixelType = FormatTools.UINT16;
-          break;
-        case u4:
-          pixelType = FormatTools.UINT32;
-          break;
-        case f4:
-          pixelType = FormatTools.FLOAT;
-          break;
-        case f8:
-          pixelType = FormatTools.DOUBLE;
-          break;
-        case i8:
-          pixelType = FormatTools.DOUBLE;
-          break;
-      default:
-        break;
-      }
-      return(pixelType);
+    return ZarrArrayHeader.getOMEPixelType(pixType);
   }
 
   @Override
@@ -219,9 +459,25 @@ implements ZarrService  {
   public void close() throws IOException {
     zarrArray = null;
     currentId = null;
+    localStore = null;
+    // Channels left open would keep the files of the dataset from being deleted or moved
+    for (Path arrayRoot : cachedArrayRoots) {
+      FileChannelCache.getShared().invalidateAll(arrayRoot);
+    }
+    cachedArrayRoots.clear();
+    if (asyncReader != null) {
+      asyncReader.close();
+      asyncReader = null;
+    }
     if (s3fs != null) {
       s3fs.close();
     }
+    else if (httpStore != null) {
+      httpStore.close();
+    }
+    else if (store instanceof Closeable) {
+      ((Closeable) store).close();
+    }
   }
 
   @Override
@@ -237,18 +493,295 @@ implements ZarrService  {
   @Override
   public Object readBytes(int[] shape, int[] offset) throws FormatException, IOException {
     if (zarrArray != null) {
-      try {
-        return zarrArray.read(shape, offset);
-      } catch (InvalidRangeException e) {
-        throw new FormatException(e);
+      if (currentId != null && isCached(shape, offset)) {
+        Object region = readChunks(shape, offset);
+        if (region != null) {
+          return region;
+        }
+      }
+      Object ranged = readRanges(shape, offset);
+      if (ranged != null) {
+        return ranged;
+      }
+      try (PrefetchedObjects.Batch prefetch = prefetchChunks(shape, offset)) {
+        if (sharedChunkReads && currentId != null) {
+          Object region = readChunks(shape, offset);
+          if (region != null) {
+            return region;
+          }
+        }
+        try {
+          return zarrArray.read(shape, offset);
+        } catch (InvalidRangeException e) {
+          throw new FormatException(e);
+        }
       }
     }
     else throw new IOException("No Zarr file opened");
   }
 
+  /**
+   * Sets whether the chunks of local arrays opened afterwards are read through the
+   * {@link loci.formats.FileChannelCache} shared by every reader, rather than opening each chunk file per read.
+   * Disabled by default, the channels are closed when the service is closed
+   */
+  public void setCachedFileChannels(boolean cachedFileChannels) {
+    this.cachedFileChannels = cachedFileChannels;
+  }
+
+  /**
+   * Sets whether regions are read chunk by chunk, so that concurrent reads of the same
+   * chunk by any reader in the JVM share a single load and decode. Each whole chunk is
+   * decoded and copied into the region, disabled by default
+   */
+  public void setSharedChunkReads(boolean sharedChunkReads) {
+    this.sharedChunkReads = sharedChunkReads;
+  }
+
+  /**
+   * @return the loads of decoded chunks shared between concurrent reads
+   */
+  public static SingleFlight<String, Object> getChunkLoads() {
+    return CHUNK_LOADS;
+  }
+
+  /**
+   * Reads each chunk intersecting the region as a whole, through a load shared with
+   * concurrent reads of the same chunk, and copies the intersecting part into the region
+   * @return the region or null if it is empty or the chunk grid is unknown
+   */
+  private Object readChunks(int[] shape, int[] offset) throws FormatException, IOException {
+    int[] arrayShape = zarrArray.getShape();
+    int[] chunks = zarrArray.getChunks();
+    if (arrayShape == null || chunks == null || arrayShape.length != shape.length) {
+      return null;
+    }
+    int n = arrayShape.length;
+    ZarrArrayHeader grid = new ZarrArrayHeader(arrayShape, chunks, null, null, null, null);
+    Object region = null;
+    int elements = 1;
+    for (int size : shape) {
+      elements *= size;
+    }
+    for (int[] chunkIndex : grid.getChunkIndices(offset, shape)) {
+      int[] origin = new int[n];
+      int[] chunkShape = new int[n];
+      for (int d = 0; d < n; d++) {
+        origin[d] = chunkIndex[d] * chunks[d];
+        chunkShape[d] = Math.min(chunks[d], arrayShape[d] - origin[d]);
+      }
+      Object chunk = loadChunk(chunkIndex, origin, chunkShape);
+      if (region == null) {
+        region = Array.newInstance(chunk.getClass().getComponentType(), elements);
+      }
+      copyChunk(chunk, origin, chunkShape, region, offset, shape);
+    }
+    return region;
+  }
+
+  /**
+   * Loads and decodes a whole chunk of the open array, sharing the load with concurrent reads of the
+   * same chunk. Chunks are kept in the shared {@link DecodedChunkCache} when it is enabled.
+   */
+  private Object loadChunk(int[] chunkIndex, int[] origin, int[] chunkShape) throws IOException {
+    final ZarrArray array = zarrArray;
+    final String key = getChunkCacheKey(chunkIndex);
+    final DecodedChunkCache cache = DecodedChunkCache.getShared();
+    final Object version = cache.isEnabled() ? getChunkVersion(chunkIndex) : null;
+    if (cache.isEnabled()) {
+      Object chunk = cache.get(key, version);
+      if (chunk != null) {
+        return chunk;
+      }
+    }
+    return CHUNK_LOADS.load(key, () -> {
+      try {
+        Object chunk = array.read(chunkShape, origin);
+        if (cache.isEnabled()) {
+          cache.put(key, chunk, version);
+        }
+        return chunk;
+      }
+      catch (InvalidRangeException e) {
+        throw new IOException(e);
+      }
+    });
+  }
+
+  private String getChunkCacheKey(int[] chunkIndex) {
+    return currentId + "@" + Arrays.toString(chunkIndex);
+  }
+
+  /**
+   * @return the version of a chunk of a local array from the modification time and size of its file,
+   * so that cached chunks are reloaded once the file changes, or null for other stores whose objects
+   * are not expected to change while cached
+   */
+  private Object getChunkVersion(int[] chunkIndex) throws IOException {
+    if (!localFiles) {
+      return null;
+    }
+    if (currentHeader == null) {
+      try {
+        currentHeader = getArrayHeader(currentId);
+      }
+      catch (FormatException e) {
+        throw new IOException(e);
+      }
+    }
+    Path file = Paths.get(currentId, currentHeader.getChunkKey(chunkIndex));
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+      return attributes.lastModifiedTime() + "/" + attributes.size();
+    }
+    catch (NoSuchFileException e) {
+      return "missing";
+    }
+  }
+
+  /**
+   * @return true if every chunk intersecting the region is in the decoded chunk cache
+   */
+  private boolean isCached(int[] shape, int[] offset) throws IOException {
+    DecodedChunkCache cache = DecodedChunkCache.getShared();
+    if (!cache.isEnabled()) {
+      return false;
+    }
+    int[] arrayShape = zarrArray.getShape();
+    int[] chunks = zarrArray.getChunks();
+    if (arrayShape == null || chunks == null || arrayShape.length != shape.length) {
+      return false;
+    }
+    ZarrArrayHeader grid = new ZarrArrayHeader(arrayShape, chunks, null, null, null, null);
+    for (int[] chunkIndex : grid.getChunkIndices(offset, shape)) {
+      if (!cache.contains(getChunkCacheKey(chunkIndex), getChunkVersion(chunkIndex))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Loads the chunks of a plan that are not yet cached into the shared {@link DecodedChunkCache},
+   * in the order of the plan, without copying them into the regions. Used to prepare chunks that
+   * are likely to be read soon. Does nothing if the cache is disabled.
+   * @param plan regions of the open array
+   * @param cancelled checked before each chunk, loading stops once it returns true
+   * @return the number of chunks loaded
+   */
+  public int cacheChunks(ZarrReadPlan plan, BooleanSupplier cancelled) throws FormatException, IOException {
+    if (zarrArray == null) {
+      throw new IOException("No Zarr file opened");
+    }
+    DecodedChunkCache cache = DecodedChunkCache.getShared();
+    if (!cache.isEnabled()) {
+      return 0;
+    }
+    List<ZarrReadPlan.PlannedChunk> missing = new ArrayList<ZarrReadPlan.PlannedChunk>();
+    for (ZarrReadPlan.PlannedChunk chunk : plan.getPlannedChunks()) {
+      if (!cache.contains(getChunkCacheKey(chunk.getIndex()), getChunkVersion(chunk.getIndex()))) {
+        missing.add(chunk);
+      }
+    }
+    int loaded = 0;
+    int window = Math.max(1, getMaxInFlight()) * PLAN_WINDOW_PER_FETCH;
+    for (int start = 0; start < missing.size(); start += window) {
+      if (cancelled.getAsBoolean()) {
+        return loaded;
+      }
+      List<ZarrReadPlan.PlannedChunk> batch = missing.subList(start, Math.min(missing.size(), start + window));
+      try (PrefetchedObjects.Batch prefetch = prefetchChunks(batch)) {
+        for (ZarrReadPlan.PlannedChunk chunk : batch) {
+          if (cancelled.getAsBoolean()) {
+            return loaded;
+          }
+          loadChunk(chunk.getIndex(), chunk.getOrigin(), chunk.getShape());
+          loaded++;
+        }
+      }
+    }
+    return loaded;
+  }
+
+  @Override
+  public Object[] readBytes(ZarrReadPlan plan) throws FormatException, IOException {
+    if (zarrArray == null) {
+      throw new IOException("No Zarr file opened");
+    }
+    if (!Arrays.equals(plan.getArrayShape(), zarrArray.getShape()) ||
+        !Arrays.equals(plan.getChunkShape(), zarrArray.getChunks())) {
+      throw new FormatException("Read plan does not match the shape and chunks of " + currentId);
+    }
+    Object[] regions = new Object[plan.getRegionCount()];
+    Class<?> componentType = null;
+    List<ZarrReadPlan.PlannedChunk> chunks = new ArrayList<ZarrReadPlan.PlannedChunk>(plan.getPlannedChunks());
+    int window = Math.max(1, getMaxInFlight()) * PLAN_WINDOW_PER_FETCH;
+    for (int start = 0; start < chunks.size(); start += window) {
+      List<ZarrReadPlan.PlannedChunk> batch = chunks.subList(start, Math.min(chunks.size(), start + window));
+      try (PrefetchedObjects.Batch prefetch = prefetchChunks(batch)) {
+        for (ZarrReadPlan.PlannedChunk chunk : batch) {
+          int[] origin = chunk.getOrigin();
+          int[] chunkShape = chunk.getShape();
+          Object data = loadChunk(chunk.getIndex(), origin, chunkShape);
+          componentType = data.getClass().getComponentType();
+          for (int region : chunk.getRegions()) {
+            if (regions[region] == null) {
+              regions[region] = Array.newInstance(componentType, plan.getElementCount(region));
+            }
+            copyChunk(data, origin, chunkShape, regions[region], plan.getOffset(region), plan.getShape(region));
+          }
+        }
+      }
+    }
+    for (int region = 0; region < regions.length; region++) {
+      if (regions[region] == null) {
+        regions[region] = Array.newInstance(componentType == null ? byte.class : componentType, 0);
+      }
+    }
+    return regions;
+  }
+
+  /**
+   * Copies the part of a decoded chunk within the region, row by row along the last dimension
+   */
+  private static void copyChunk(Object chunk, int[] origin, int[] chunkShape, Object region,
+      int[] offset, int[] shape) {
+    int n = shape.length;
+    int[] lo = new int[n];
+    int[] hi = new int[n];
+    for (int d = 0; d < n; d++) {
+      lo[d] = Math.max(offset[d], origin[d]);
+      hi[d] = Math.min(offset[d] + shape[d], origin[d] + chunkShape[d]);
+      if (lo[d] >= hi[d]) {
+        return;
+      }
+    }
+    int rowLength = hi[n - 1] - lo[n - 1];
+    int[] position = lo.clone();
+    while (true) {
+      int source = 0;
+      int target = 0;
+      for (int d = 0; d < n; d++) {
+        source = source * chunkShape[d] + (position[d] - origin[d]);
+        target = target * shape[d] + (position[d] - offset[d]);
+      }
+      System.arraycopy(chunk, source, region, target, rowLength);
+      int d = n - 2;
+      while (d >= 0 && position[d] == hi[d] - 1) {
+        position[d] = lo[d];
+        d--;
+      }
+      if (d < 0) {
+        return;
+      }
+      position[d]++;
+    }
+  }
+
   @Override
   public void saveBytes(Object data, int[] shape, int[] offset) throws FormatException, IOException {
     if (zarrArray != null) {
+      DecodedChunkCache.getShared().invalidate(currentId + "@");
       try {
         zarrArray.write(data, shape, offset);
       } catch (InvalidRangeException e) {
@@ -333,39 +866,271 @@ implements ZarrService  {
     create(id, meta, chunks, Compression.NONE);
   }
 
-  private String stripZarrRoot(String path) {
-    return path.substring(path.indexOf(".zarr")+5);
+  /**
+   * Reads a region of an uncompressed array on S3 or HTTP by requesting only the bytes of each
+   * chunk that fall within the region
+   * @return the region in the same form as JZarr returns it, or null if the region should
+   * be read through JZarr because the array is compressed, a chunk is missing or the
+   * region covers whole chunks
+   */
+  private Object readRanges(int[] shape, int[] offset) {
+    if ((s3fs == null && httpStore == null) || !rangedReads || currentId == null) {
+      return null;
+    }
+    try {
+      if (currentHeader == null) {
+        currentHeader = getArrayHeader(currentId);
+      }
+      ZarrArrayHeader header = currentHeader;
+      if (!header.isRangeReadable()) {
+        return null;
+      }
+      List<int[]> chunkIndices = header.getChunkIndices(offset, shape);
+      Map<String, List<S3FileSystemStore.ByteRange>> rangesByKey =
+          new LinkedHashMap<String, List<S3FileSystemStore.ByteRange>>();
+      Map<String, List<long[]>> runsByKey = new HashMap<String, List<long[]>>();
+      long requested = 0;
+      for (int[] chunkIndex : chunkIndices) {
+        String key = header.getChunkKey(chunkIndex);
+        List<long[]> runs = header.getChunkRuns(chunkIndex, offset, shape);
+        List<S3FileSystemStore.ByteRange> ranges = new ArrayList<S3FileSystemStore.ByteRange>(runs.size());
+        for (long[] run : runs) {
+          ranges.add(new S3FileSystemStore.ByteRange(run[0], (int) run[2]));
+          requested += run[2];
+        }
+        rangesByKey.put(key, ranges);
+        runsByKey.put(key, runs);
+      }
+      if (requested >= chunkIndices.size() * header.getChunkByteSize()) {
+        return null;
+      }
+
+      Map<String, List<ByteBuffer>> data;
+      if (httpStore != null) {
+        data = httpStore.readRanges(getStoreRoot(httpStore.getRoot(), currentId), rangesByKey);
+      }
+      else {
+        data = s3fs.readRanges(Paths.get(getStoreRoot(s3fs.getRoot(), currentId)), rangesByKey);
+      }
+      if (data.size() < rangesByKey.size()) {
+        // Missing chunks are filled by JZarr
+        return null;
+      }
+      int elements = 1;
+      for (int size : shape) {
+        elements *= size;
+      }
+      byte[] region = new byte[elements * header.getItemSize()];
+      for (Map.Entry<String, List<long[]>> entry : runsByKey.entrySet()) {
+        List<ByteBuffer> slices = data.get(entry.getKey());
+        List<long[]> runs = entry.getValue();
+        for (int r = 0; r < runs.size(); r++) {
+          slices.get(r).get(region, (int) runs.get(r)[1], (int) runs.get(r)[2]);
+        }
+      }
+      return toArray(region, header);
+    }
+    catch (IOException | FormatException | IllegalArgumentException e) {
+      LOGGER.debug("Unable to read ranges of {}, reading whole chunks", currentId, e);
+      return null;
+    }
   }
-  
-  private String getZarrRoot(String path) {
-    return path.substring(0, path.indexOf(".zarr")+5);
+
+  private static Object toArray(byte[] region, ZarrArrayHeader header) {
+    ByteBuffer buffer = ByteBuffer.wrap(region).order(header.getByteOrder());
+    switch (header.getItemSize()) {
+      case 1:
+        return region;
+      case 2: {
+        short[] values = new short[region.length / 2];
+        buffer.asShortBuffer().get(values);
+        return values;
+      }
+      case 4:
+        if (header.getDataType() == DataType.f4) {
+          float[] values = new float[region.length / 4];
+          buffer.asFloatBuffer().get(values);
+          return values;
+        }
+        else {
+          int[] values = new int[region.length / 4];
+          buffer.asIntBuffer().get(values);
+          return values;
+        }
+      default: {
+        double[] values = new double[region.length / 8];
+        buffer.asDoubleBuffer().get(values);
+        return values;
+      }
+    }
   }
 
-  private ZarrGroup getGroup(String path) throws IOException {
-    ZarrGroup group = null;
-    if (s3fs == null) {
-      group = ZarrGroup.open(path);
+  /**
+   * Starts fetching the encoded chunks of the open array intersecting the region without
+   * waiting for them. Remote stores queue the fetches on their I/O threads, local chunks are
+   * read asynchronously when asynchronous local reads are enabled and otherwise before returning.
+   * @return the content of each chunk keyed by chunk key in the order of the chunk grid,
+   * completing with null for chunks that do not exist
+   */
+  public Map<String, CompletableFuture<ByteBuffer>> fetchChunksAsync(int[] shape, int[] offset)
+      throws IOException, FormatException {
+    if (currentId == null) {
+      throw new IOException("No Zarr file opened");
+    }
+    if (currentHeader == null) {
+      currentHeader = getArrayHeader(currentId);
+    }
+    StoreView array;
+    if (store == null) {
+      FileChannelStore local = localStore;
+      if (local == null) {
+        local = new FileChannelStore(Paths.get(currentId));
+        local.setAsyncReader(asyncReader);
+      }
+      array = new StoreView(local, "");
     }
     else {
-      s3fs.updateRoot(getZarrRoot(s3fs.getRoot()) + stripZarrRoot(path));
-      group = ZarrGroup.open(s3fs);
+      array = new StoreView(store, getStoreKey(currentId));
+    }
+    Map<String, CompletableFuture<ByteBuffer>> chunks = new LinkedHashMap<String, CompletableFuture<ByteBuffer>>();
+    for (String key : currentHeader.getChunkKeys(offset, shape)) {
+      chunks.put(key, array.fetchAsync(key));
     }
-    return group;
+    return chunks;
   }
-  
-  private ZarrArray getArray(String path) throws IOException {
-    ZarrArray array = null;
-    if (s3fs == null) {
-      array = ZarrArray.open(path);
+
+  /**
+   * Starts downloading or reading all chunks of the region concurrently, JZarr then
+   * consumes each chunk as it arrives rather than requesting them in turn
+   * @return the prefetches to close once the region has been read, or null if none were started
+   */
+  private PrefetchedObjects.Batch prefetchChunks(int[] shape, int[] offset) {
+    if (getMaxInFlight() <= 1 || currentId == null) {
+      return null;
     }
-    else {
-      s3fs.updateRoot(getZarrRoot(s3fs.getRoot()) + stripZarrRoot(path));
-      array = ZarrArray.open(s3fs);
+    try {
+      if (currentHeader == null) {
+        currentHeader = getArrayHeader(currentId);
+      }
+      return prefetchKeys(currentHeader.getChunkKeys(offset, shape));
     }
-    return array;
+    catch (IOException | FormatException | IllegalArgumentException e) {
+      LOGGER.debug("Unable to prefetch chunks for {}", currentId, e);
+    }
+    return null;
   }
-  
+
+  /**
+   * Starts downloading or reading the chunks of a read plan concurrently
+   * @return the prefetches to close once the chunks have been read, or null if none were started
+   */
+  private PrefetchedObjects.Batch prefetchChunks(List<ZarrReadPlan.PlannedChunk> chunks) {
+    if (getMaxInFlight() <= 1 || currentId == null) {
+      return null;
+    }
+    try {
+      if (currentHeader == null) {
+        currentHeader = getArrayHeader(currentId);
+      }
+      List<String> chunkKeys = new ArrayList<String>(chunks.size());
+      for (ZarrReadPlan.PlannedChunk chunk : chunks) {
+        chunkKeys.add(currentHeader.getChunkKey(chunk.getIndex()));
+      }
+      return prefetchKeys(chunkKeys);
+    }
+    catch (IOException | FormatException | IllegalArgumentException e) {
+      LOGGER.debug("Unable to prefetch chunks for {}", currentId, e);
+    }
+    return null;
+  }
+
+  /**
+   * @return the number of chunks fetched concurrently from the store of the open array, 0 if chunks are read in turn
+   */
+  private int getMaxInFlight() {
+    if (s3fs != null) {
+      return s3fs.getMaxInFlight();
+    }
+    if (httpStore != null) {
+      return httpStore.getMaxInFlight();
+    }
+    if (localStore != null && localStore.getAsyncReader() != null) {
+      return localStore.getAsyncReader().getMaxInFlight();
+    }
+    return 0;
+  }
+
+  private PrefetchedObjects.Batch prefetchKeys(List<String> chunkKeys) {
+    if (chunkKeys.size() <= 1) {
+      return null;
+    }
+    if (localStore != null) {
+      return localStore.prefetch(chunkKeys);
+    }
+    else if (httpStore != null) {
+      return httpStore.prefetch(getStoreRoot(httpStore.getRoot(), currentId), chunkKeys);
+    }
+    return s3fs.prefetch(Paths.get(getStoreRoot(s3fs.getRoot(), currentId)), chunkKeys);
+  }
+
+  /**
+   * @return the location up to the end of the name of the .zarr directory or .zarr.zip file
+   */
+  private static String getDatasetRoot(String location) {
+    int zarrRoot = location.indexOf(".zarr");
+    if (zarrRoot < 0) {
+      return location;
+    }
+    int end = zarrRoot + 5;
+    while (end < location.length() && location.charAt(end) != '/' && location.charAt(end) != File.separatorChar) {
+      end++;
+    }
+    return location.substring(0, end);
+  }
+
+  /**
+   * @return the key of a local group or array relative to the root of the dataset, which
+   * is the same in the alternative store
+   */
+  private static String getStoreKey(String path) {
+    String datasetRoot = getDatasetRoot(path);
+    if (datasetRoot.length() == path.length()) {
+      return "";
+    }
+    String key = path.substring(datasetRoot.length()).replace(File.separatorChar, '/');
+    while (key.startsWith("/")) {
+      key = key.substring(1);
+    }
+    return key;
+  }
+
+  /**
+   * @return the root of the local group or array in the form used by the store
+   */
+  private static String getStoreRoot(String storeRoot, String path) {
+    String key = getStoreKey(path);
+    return key.isEmpty() ? storeRoot : storeRoot + "/" + key;
+  }
+
+  private ZarrGroup getGroup(String path) throws IOException {
+    if (store == null) {
+      return ZarrGroup.open(path);
+    }
+    return ZarrGroup.open(new StoreView(store, getStoreKey(path)));
+  }
+
+  private ZarrArray getArray(String path) throws IOException {
+    if (store == null) {
+      return ZarrArray.open(path);
+    }
+    return ZarrArray.open(new StoreView(store, getStoreKey(path)));
+  }
+
   public boolean usingS3FileSystemStore() {
     return s3fs != null;
   }
+
+  public boolean usingHttpStore() {
+    return httpStore != null;
+  }
 }
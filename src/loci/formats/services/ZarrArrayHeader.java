@@ -0,0 +1,433 @@
+package loci.formats.services;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import com.bc.zarr.DataType;
+import com.bc.zarr.ZarrUtils;
+
+import loci.formats.FormatTools;
+
+/**
+ * Parsed content of a .zarray header, along with helpers for working with
+ * the chunk grid of the array without opening it through JZarr.
+ */
+public class ZarrArrayHeader {
+
+  public static final String DEFAULT_DIMENSION_SEPARATOR = ".";
+
+  private final int[] shape;
+  private final int[] chunks;
+  private final String dtype;
+  private final String dimensionSeparator;
+  private final String order;
+  private final String compressorId;
+  private final boolean filtered;
+
+  public ZarrArrayHeader(int[] shape, int[] chunks, String dtype, String dimensionSeparator,
+      String order, String compressorId) {
+    this(shape, chunks, dtype, dimensionSeparator, order, compressorId, false);
+  }
+
+  /**
+   * @param filtered true if the chunks are encoded by one or more filters before compression
+   */
+  public ZarrArrayHeader(int[] shape, int[] chunks, String dtype, String dimensionSeparator,
+      String order, String compressorId, boolean filtered) {
+    if (shape.length != chunks.length) {
+      throw new IllegalArgumentException("Shape and chunks must have the same number of dimensions");
+    }
+    this.shape = shape;
+    this.chunks = chunks;
+    this.dtype = dtype;
+    this.dimensionSeparator = dimensionSeparator == null ? DEFAULT_DIMENSION_SEPARATOR : dimensionSeparator;
+    this.order = order == null ? "C" : order;
+    this.compressorId = compressorId;
+    this.filtered = filtered;
+  }
+
+  /**
+   * Reads the JSON content of a .zarray file
+   * @param reader for the .zarray content, not closed by this method
+   */
+  public static ZarrArrayHeader read(Reader reader) throws IOException {
+    Map<String, Object> header = ZarrUtils.fromJson(reader, Map.class);
+    if (header == null) {
+      throw new IOException("Empty .zarray header");
+    }
+    return fromMap(header);
+  }
+
+  /**
+   * Creates a header from the already parsed JSON content of a .zarray file
+   */
+  public static ZarrArrayHeader fromMap(Map<String, Object> header) throws IOException {
+    int[] shape = toIntArray(header.get("shape"));
+    int[] chunks = toIntArray(header.get("chunks"));
+    if (shape == null || chunks == null || shape.length != chunks.length) {
+      throw new IOException("Invalid shape or chunks in .zarray header");
+    }
+    String dtype = (String) header.get("dtype");
+    String separator = (String) header.get("dimension_separator");
+    String order = (String) header.get("order");
+    String compressorId = null;
+    Map<String, Object> compressor = (Map<String, Object>) header.get("compressor");
+    if (compressor != null) {
+      compressorId = (String) compressor.get("id");
+    }
+    Object filters = header.get("filters");
+    boolean filtered = filters instanceof List && !((List<Object>) filters).isEmpty();
+    return new ZarrArrayHeader(shape, chunks, dtype, separator, order, compressorId, filtered);
+  }
+
+  public int[] getShape() {
+    return shape.clone();
+  }
+
+  public int[] getChunks() {
+    return chunks.clone();
+  }
+
+  public String getDtype() {
+    return dtype;
+  }
+
+  /**
+   * @return the JZarr data type or null if the dtype is not supported
+   */
+  public DataType getDataType() {
+    if (dtype == null || dtype.length() < 2) {
+      return null;
+    }
+    try {
+      return DataType.valueOf(dtype.substring(1));
+    }
+    catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @return the Bio-Formats pixel type of the array or -1 if the dtype is not supported
+   */
+  public int getPixelType() {
+    DataType dataType = getDataType();
+    return dataType == null ? -1 : getOMEPixelType(dataType);
+  }
+
+  public ByteOrder getByteOrder() {
+    if (dtype != null && dtype.startsWith(">")) {
+      return ByteOrder.BIG_ENDIAN;
+    }
+    return ByteOrder.LITTLE_ENDIAN;
+  }
+
+  public String getDimensionSeparator() {
+    return dimensionSeparator;
+  }
+
+  public String getOrder() {
+    return order;
+  }
+
+  /**
+   * @return the id of the compressor or null if the chunks are stored uncompressed
+   */
+  public String getCompressorId() {
+    return compressorId;
+  }
+
+  public boolean isFiltered() {
+    return filtered;
+  }
+
+  /**
+   * @return the number of bytes of each element or -1 if the dtype is not supported
+   */
+  public int getItemSize() {
+    DataType dataType = getDataType();
+    if (dataType == null) {
+      return -1;
+    }
+    try {
+      return Integer.parseInt(dtype.substring(2));
+    }
+    catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * @return true if chunks are stored as raw C order elements, so that any part of a chunk
+   * can be read from its byte offset without reading the rest of the chunk
+   */
+  public boolean isRangeReadable() {
+    return compressorId == null && !filtered && "C".equals(order) &&
+        getItemSize() > 0 && getPixelType() >= 0 && getDataType() != DataType.i8;
+  }
+
+  /**
+   * @return the number of bytes of an uncompressed chunk, -1 if the dtype is not supported
+   */
+  public long getChunkByteSize() {
+    long size = getItemSize();
+    if (size < 0) {
+      return -1;
+    }
+    for (int chunk : chunks) {
+      size *= chunk;
+    }
+    return size;
+  }
+
+  /**
+   * @return the number of chunks along each dimension
+   */
+  public int[] getChunkGridShape() {
+    int[] grid = new int[shape.length];
+    for (int d = 0; d < shape.length; d++) {
+      grid[d] = chunks[d] <= 0 ? 0 : (shape[d] + chunks[d] - 1) / chunks[d];
+    }
+    return grid;
+  }
+
+  /**
+   * @return the total number of chunks in the chunk grid
+   */
+  public long getChunkCount() {
+    long count = 1;
+    for (int size : getChunkGridShape()) {
+      count *= size;
+    }
+    return count;
+  }
+
+  /**
+   * @param chunkIndex position of the chunk in the chunk grid
+   * @return the storage key of the chunk relative to the array
+   */
+  public String getChunkKey(int[] chunkIndex) {
+    if (chunkIndex.length == 0) {
+      return "0";
+    }
+    StringBuilder key = new StringBuilder();
+    for (int d = 0; d < chunkIndex.length; d++) {
+      if (d > 0) {
+        key.append(dimensionSeparator);
+      }
+      key.append(chunkIndex[d]);
+    }
+    return key.toString();
+  }
+
+  /**
+   * @param offset of the region within the array
+   * @param regionShape of the region
+   * @return the keys of the chunks intersecting the region, in C order
+   */
+  public List<String> getChunkKeys(int[] offset, int[] regionShape) {
+    List<String> keys = new ArrayList<String>();
+    for (int[] chunkIndex : getChunkIndices(offset, regionShape)) {
+      keys.add(getChunkKey(chunkIndex));
+    }
+    return keys;
+  }
+
+  /**
+   * @param offset of the region within the array
+   * @param regionShape of the region
+   * @return the positions in the chunk grid of the chunks intersecting the region, in C order
+   */
+  public List<int[]> getChunkIndices(int[] offset, int[] regionShape) {
+    if (offset.length != shape.length || regionShape.length != shape.length) {
+      throw new IllegalArgumentException("Region must have the same number of dimensions as the array");
+    }
+    int[] first = new int[shape.length];
+    int[] last = new int[shape.length];
+    for (int d = 0; d < shape.length; d++) {
+      if (regionShape[d] <= 0 || chunks[d] <= 0) {
+        return new ArrayList<int[]>();
+      }
+      first[d] = offset[d] / chunks[d];
+      last[d] = (offset[d] + regionShape[d] - 1) / chunks[d];
+    }
+    List<int[]> indices = new ArrayList<int[]>();
+    int[] position = first.clone();
+    while (true) {
+      indices.add(position.clone());
+      int d = shape.length - 1;
+      while (d >= 0 && position[d] == last[d]) {
+        position[d] = first[d];
+        d--;
+      }
+      if (d < 0) {
+        return indices;
+      }
+      position[d]++;
+    }
+  }
+
+  /**
+   * Locates the bytes of a chunk that fall within a region, for chunks that are range readable.
+   * Each run is a contiguous row of elements along the last dimension.
+   * @param chunkIndex position of the chunk in the chunk grid
+   * @param offset of the region within the array
+   * @param regionShape of the region
+   * @return for each run the byte offset within the chunk, the byte offset within the
+   * region stored in C order and the length in bytes
+   */
+  public List<long[]> getChunkRuns(int[] chunkIndex, int[] offset, int[] regionShape) {
+    int n = shape.length;
+    int itemSize = getItemSize();
+    int[] lo = new int[n];
+    int[] hi = new int[n];
+    for (int d = 0; d < n; d++) {
+      int origin = chunkIndex[d] * chunks[d];
+      lo[d] = Math.max(offset[d], origin);
+      hi[d] = Math.min(Math.min(offset[d] + regionShape[d], origin + chunks[d]), shape[d]);
+      if (lo[d] >= hi[d]) {
+        return new ArrayList<long[]>();
+      }
+    }
+    List<long[]> runs = new ArrayList<long[]>();
+    long runLength = (long) (hi[n - 1] - lo[n - 1]) * itemSize;
+    int[] position = lo.clone();
+    while (true) {
+      long source = 0;
+      long target = 0;
+      for (int d = 0; d < n; d++) {
+        source = source * chunks[d] + (position[d] - chunkIndex[d] * chunks[d]);
+        target = target * regionShape[d] + (position[d] - offset[d]);
+      }
+      runs.add(new long[] {source * itemSize, target * itemSize, runLength});
+      int d = n - 2;
+      while (d >= 0 && position[d] == hi[d] - 1) {
+        position[d] = lo[d];
+        d--;
+      }
+      if (d < 0) {
+        return runs;
+      }
+      position[d]++;
+    }
+  }
+
+  /**
+   * Lazily iterates over the keys of all chunks in the chunk grid, in C order
+   */
+  public Iterator<String> chunkKeys() {
+    final int[] grid = getChunkGridShape();
+    final long count = getChunkCount();
+    return new Iterator<String>() {
+      private final int[] position = new int[grid.length];
+      private long next = 0;
+
+      @Override
+      public boolean hasNext() {
+        return next < count;
+      }
+
+      @Override
+      public String next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        String key = getChunkKey(position);
+        next++;
+        for (int d = grid.length - 1; d >= 0; d--) {
+          if (++position[d] < grid[d]) {
+            break;
+          }
+          position[d] = 0;
+        }
+        return key;
+      }
+    };
+  }
+
+  /**
+   * @return the Bio-Formats pixel type matching the JZarr data type or -1 if there is no match
+   */
+  public static int getOMEPixelType(DataType pixType) {
+    int pixelType = -1;
+    switch(pixType) {
+      case i1:
+        pixelType = FormatTools.INT8;
+        break;
+      case i2:
+        pixelType = FormatTools.INT16;
+        break;
+      case i4:
+        pixelType = FormatTools.INT32;
+        break;
+      case u1:
+        pixelType = FormatTools.UINT8;
+        break;
+      case u2:
+        pixelType = FormatTools.UINT16;
+        break;
+      case u4:
+        pixelType = FormatTools.UINT32;
+        break;
+      case f4:
+        pixelType = FormatTools.FLOAT;
+        break;
+      case f8:
+        pixelType = FormatTools.DOUBLE;
+        break;
+      case i8:
+        pixelType = FormatTools.DOUBLE;
+        break;
+      default:
+        break;
+    }
+    return pixelType;
+  }
+
+  private static int[] toIntArray(Object value) {
+    if (!(value instanceof List)) {
+      return null;
+    }
+    List<Object> list = (List<Object>) value;
+    int[] values = new int[list.size()];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = ((Number) list.get(i)).intValue();
+    }
+    return values;
+  }
+}
@@ -0,0 +1,205 @@
+package loci.formats.services;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Batch of regions of one array read together by {@link ZarrService#readBytes(ZarrReadPlan)}.
+ * The plan keeps the set of chunks touched by any region, in C order of the chunk grid, together
+ * with the regions each chunk contributes to, so that every chunk is loaded and decoded once
+ * however many of the regions overlap it.
+ */
+public class ZarrReadPlan {
+
+  private final int[] arrayShape;
+  private final int[] chunks;
+  private final ZarrArrayHeader grid;
+  private final List<int[]> shapes = new ArrayList<int[]>();
+  private final List<int[]> offsets = new ArrayList<int[]>();
+  // Chunks keyed by their position in C order of the chunk grid
+  private final TreeMap<Long, PlannedChunk> plannedChunks = new TreeMap<Long, PlannedChunk>();
+
+  /**
+   * Chunk of the array and the regions it intersects
+   */
+  public static final class PlannedChunk {
+    private final int[] index;
+    private final int[] origin;
+    private final int[] shape;
+    private final List<Integer> regions = new ArrayList<Integer>();
+
+    private PlannedChunk(int[] index, int[] origin, int[] shape) {
+      this.index = index;
+      this.origin = origin;
+      this.shape = shape;
+    }
+
+    /**
+     * @return the position of the chunk in the chunk grid
+     */
+    public int[] getIndex() {
+      return index.clone();
+    }
+
+    /**
+     * @return the position of the first element of the chunk in the array
+     */
+    public int[] getOrigin() {
+      return origin.clone();
+    }
+
+    /**
+     * @return the shape of the chunk, clipped to the array at its edges
+     */
+    public int[] getShape() {
+      return shape.clone();
+    }
+
+    /**
+     * @return the indices of the regions of the plan intersecting the chunk, in the order they were added
+     */
+    public List<Integer> getRegions() {
+      return Collections.unmodifiableList(regions);
+    }
+  }
+
+  /**
+   * @param arrayShape shape of the array read by the plan
+   * @param chunks chunk shape of the array
+   */
+  public ZarrReadPlan(int[] arrayShape, int[] chunks) {
+    if (arrayShape.length != chunks.length) {
+      throw new IllegalArgumentException("Chunks must have the same number of dimensions as the array");
+    }
+    this.arrayShape = arrayShape.clone();
+    this.chunks = chunks.clone();
+    grid = new ZarrArrayHeader(this.arrayShape, this.chunks, null, null, null, null);
+  }
+
+  /**
+   * Adds a region to the plan
+   * @param shape of the region
+   * @param offset of the region within the array
+   * @return the index of the region, used to find its data in the result of the read
+   */
+  public int addRegion(int[] shape, int[] offset) {
+    if (shape.length != arrayShape.length || offset.length != arrayShape.length) {
+      throw new IllegalArgumentException("Region must have the same number of dimensions as the array");
+    }
+    for (int d = 0; d < arrayShape.length; d++) {
+      if (offset[d] < 0 || shape[d] < 0 || (long) offset[d] + shape[d] > arrayShape[d]) {
+        throw new IllegalArgumentException("Region is outside of the array along dimension " + d);
+      }
+    }
+    int region = shapes.size();
+    shapes.add(shape.clone());
+    offsets.add(offset.clone());
+    int[] gridShape = grid.getChunkGridShape();
+    for (int[] chunkIndex : grid.getChunkIndices(offset, shape)) {
+      long position = 0;
+      for (int d = 0; d < chunkIndex.length; d++) {
+        position = position * gridShape[d] + chunkIndex[d];
+      }
+      PlannedChunk chunk = plannedChunks.get(position);
+      if (chunk == null) {
+        int[] origin = new int[chunkIndex.length];
+        int[] chunkShape = new int[chunkIndex.length];
+        for (int d = 0; d < chunkIndex.length; d++) {
+          origin[d] = chunkIndex[d] * chunks[d];
+          chunkShape[d] = Math.min(chunks[d], arrayShape[d] - origin[d]);
+        }
+        chunk = new PlannedChunk(chunkIndex, origin, chunkShape);
+        plannedChunks.put(position, chunk);
+      }
+      chunk.regions.add(region);
+    }
+    return region;
+  }
+
+  public int[] getArrayShape() {
+    return arrayShape.clone();
+  }
+
+  public int[] getChunkShape() {
+    return chunks.clone();
+  }
+
+  public int getRegionCount() {
+    return shapes.size();
+  }
+
+  public int[] getShape(int region) {
+    return shapes.get(region).clone();
+  }
+
+  public int[] getOffset(int region) {
+    return offsets.get(region).clone();
+  }
+
+  /**
+   * @return the number of elements of the region
+   */
+  public int getElementCount(int region) {
+    int elements = 1;
+    for (int size : shapes.get(region)) {
+      elements *= size;
+    }
+    return elements;
+  }
+
+  /**
+   * @return the chunks intersecting any region, each once, in C order of the chunk grid
+   */
+  public Collection<PlannedChunk> getPlannedChunks() {
+    return Collections.unmodifiableCollection(plannedChunks.values());
+  }
+
+  /**
+   * @return the number of distinct chunks read by the plan
+   */
+  public int getChunkCount() {
+    return plannedChunks.size();
+  }
+
+  /**
+   * @return the number of chunk reads the regions would need if each was read separately
+   */
+  public int getUnplannedChunkCount() {
+    int count = 0;
+    for (PlannedChunk chunk : plannedChunks.values()) {
+      count += chunk.regions.size();
+    }
+    return count;
+  }
+}
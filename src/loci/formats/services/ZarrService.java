@@ -29,10 +29,23 @@ package loci.formats.services;
  * #L%
  */
 
+import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
+import com.bc.zarr.ZarrConstants;
+
 import loci.common.services.Service;
 import loci.formats.FormatException;
 import loci.formats.meta.MetadataRetrieve;
@@ -82,6 +95,21 @@ public interface ZarrService extends Service {
   */
   public Object readBytes(int [] shape, int [] offset) throws FormatException, IOException;
 
+  /**
+   * Reads every region of a plan, loading and decoding each chunk touched by the plan once
+   * and copying it into all the regions it intersects. By default each region is read on its own
+   * with {@link #readBytes(int[], int[])}.
+   * @param plan regions of the open array
+   * @return the values of each region in the order of the regions of the plan
+   */
+  public default Object[] readBytes(ZarrReadPlan plan) throws FormatException, IOException {
+    Object[] regions = new Object[plan.getRegionCount()];
+    for (int region = 0; region < regions.length; region++) {
+      regions[region] = readBytes(plan.getShape(region), plan.getOffset(region));
+    }
+    return regions;
+  }
+
   /**
   * Writes values to the Zarr Array
   * @param      buf            values to be written in a one dimensional array
@@ -109,4 +137,50 @@ public interface ZarrService extends Service {
   public Set<String> getGroupKeys(String path) throws IOException, FormatException;
   
   public Set<String> getArrayKeys(String path) throws IOException, FormatException;
+
+  /**
+   * Reads the .zarray header of an array without opening the array.
+   * Implementations must allow headers of different arrays to be read concurrently.
+   * By default the header is read with {@link #getInputStream(String)}.
+   * @param path of the array
+   * @return the parsed header
+   */
+  public default ZarrArrayHeader getArrayHeader(String path) throws IOException, FormatException {
+    InputStream headerStream = getInputStream(path + File.separator + ZarrConstants.FILENAME_DOT_ZARRAY);
+    if (headerStream == null) {
+      throw new IOException("Unable to locate array header for " + path);
+    }
+    try (Reader reader = new BufferedReader(new InputStreamReader(headerStream, StandardCharsets.UTF_8))) {
+      return ZarrArrayHeader.read(reader);
+    }
+  }
+
+  /**
+   * Checks which of the keys exist as a group or array under the root.
+   * Implementations may batch or run the checks concurrently.
+   * By default the keys that are local directories are returned.
+   * @param root path of the Zarr root
+   * @param keys relative to the root
+   * @return the subset of the keys that exist
+   */
+  public default Set<String> filterExisting(String root, Collection<String> keys) throws IOException, FormatException {
+    Set<String> existing = new HashSet<String>();
+    for (String key : keys) {
+      if (Files.isDirectory(Paths.get(root + File.separator + key))) {
+        existing.add(key);
+      }
+    }
+    return existing;
+  }
+
+  /**
+   * Opens a file of the dataset that is neither group nor array metadata, such as the OME-XML
+   * metadata, from the store holding the dataset. By default the local file is opened.
+   * @param path of the file
+   * @return the content of the file or null if it does not exist
+   */
+  public default InputStream getInputStream(String path) throws IOException {
+    Path file = Paths.get(path);
+    return Files.isRegularFile(file) ? Files.newInputStream(file) : null;
+  }
 }
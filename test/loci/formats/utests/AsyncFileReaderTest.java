@@ -0,0 +1,107 @@
+package test.loci.formats.utests;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.testng.annotations.Test;
+
+import loci.formats.AsyncFileReader;
+import loci.formats.FileChannelCache;
+import loci.formats.FileChannelStore;
+import loci.formats.PrefetchedObjects;
+
+/**
+ * Tests reading local files with asynchronous file channels
+ */
+public class AsyncFileReaderTest {
+
+  private static Path createFiles(int count, int size) throws IOException {
+    Path root = Files.createTempDirectory("async");
+    for (int i = 0; i < count; i++) {
+      byte[] data = new byte[size];
+      Arrays.fill(data, (byte) i);
+      Files.write(root.resolve(Integer.toString(i)), data);
+    }
+    return root;
+  }
+
+  @Test
+  public void testQueuedReads() throws Exception {
+    Path root = createFiles(32, 10000);
+    try (AsyncFileReader reader = new AsyncFileReader(4)) {
+      reader.setBufferSize(10000);
+      List<CompletableFuture<ByteBuffer>> reads = new ArrayList<CompletableFuture<ByteBuffer>>();
+      for (int i = 0; i < 32; i++) {
+        reads.add(reader.read(root.resolve(Integer.toString(i))));
+      }
+      reads.add(reader.read(root.resolve("missing")));
+      for (int i = 0; i < 32; i++) {
+        ByteBuffer data = reads.get(i).get();
+        assertEquals(10000, data.remaining());
+        assertEquals((byte) i, data.get(9999));
+        reader.release(data);
+      }
+      assertNull(reads.get(32).get());
+      assertTrue(reader.getBufferPool().getFreeCount() > 0);
+    }
+  }
+
+  @Test
+  public void testPrefetchConsumedByStore() throws Exception {
+    Path root = createFiles(4, 100);
+    FileChannelStore store = new FileChannelStore(root, new FileChannelCache(4));
+    try (AsyncFileReader reader = new AsyncFileReader(2)) {
+      store.setAsyncReader(reader);
+      try (PrefetchedObjects.Batch batch = store.prefetch(Arrays.asList("0", "1", "2", "3", "4"))) {
+        for (int i = 0; i < 4; i++) {
+          try (InputStream in = store.getInputStream(Integer.toString(i))) {
+            assertEquals(100, in.available());
+            assertEquals(i, in.read());
+          }
+        }
+        assertNull(store.getInputStream("4"));
+      }
+      assertEquals(0, store.getCache().getOpenCount());
+      assertEquals(100, store.fetchAsync("3").get().remaining());
+    }
+  }
+}
@@ -0,0 +1,171 @@
+package test.loci.formats.utests;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.testng.annotations.Test;
+
+import loci.formats.ChunkOrderTiles;
+import loci.formats.MemoryStore;
+
+/**
+ * Compares the number of chunk decodes and the time taken to read every tile of a stack when
+ * tiles are visited plane by plane in row-major order and in the chunk orders of ChunkOrderTiles.
+ * Deflated chunks spanning several planes are served from a MemoryStore, so that no file I/O is
+ * measured, and decoded chunks are kept in a small LRU cache as a reader would.
+ * Not run by default, run with mvn test -Dtest=ChunkOrderTilesBenchmark
+ */
+public class ChunkOrderTilesBenchmark {
+
+  private static final int SIZE_X = 1024;
+  private static final int SIZE_Y = 1024;
+  private static final int SIZE_Z = 16;
+  private static final int CHUNK_Z = 8;
+  private static final int CHUNK_XY = 128;
+  private static final int TILE = 64;
+  private static final int CACHED_CHUNKS = 8;
+  private static final int ROUNDS = 3;
+
+  private final MemoryStore store = new MemoryStore();
+
+  /**
+   * Decoded chunks kept in least recently used order, counting the chunks decoded
+   */
+  private class ChunkCache extends LinkedHashMap<String, byte[]> {
+    int decodes = 0;
+
+    ChunkCache() {
+      super(16, 0.75f, true);
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+      return size() > CACHED_CHUNKS;
+    }
+
+    byte[] load(String key) throws DataFormatException {
+      byte[] chunk = get(key);
+      if (chunk == null) {
+        decodes++;
+        ByteBuffer data = store.getData(key);
+        byte[] compressed = new byte[data.remaining()];
+        data.get(compressed);
+        Inflater inflater = new Inflater();
+        inflater.setInput(compressed);
+        chunk = new byte[CHUNK_Z * CHUNK_XY * CHUNK_XY];
+        inflater.inflate(chunk);
+        inflater.end();
+        put(key, chunk);
+      }
+      return chunk;
+    }
+  }
+
+  private void createChunks() {
+    byte[] chunk = new byte[CHUNK_Z * CHUNK_XY * CHUNK_XY];
+    byte[] compressed = new byte[chunk.length * 2];
+    for (int z = 0; z < SIZE_Z / CHUNK_Z; z++) {
+      for (int y = 0; y < SIZE_Y / CHUNK_XY; y++) {
+        for (int x = 0; x < SIZE_X / CHUNK_XY; x++) {
+          for (int i = 0; i < chunk.length; i++) {
+            chunk[i] = (byte) ((i * 31 + x * 7 + y * 13 + z) % 251 / 16);
+          }
+          Deflater deflater = new Deflater(6);
+          deflater.setInput(chunk);
+          deflater.finish();
+          int length = deflater.deflate(compressed);
+          deflater.end();
+          byte[] data = new byte[length];
+          System.arraycopy(compressed, 0, data, 0, length);
+          store.put(z + "." + y + "." + x, data);
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads every tile in the given order, copying each tile out of its chunk
+   * @return the number of chunks decoded
+   */
+  private int readTiles(ChunkOrderTiles tiles) throws DataFormatException {
+    ChunkCache cache = new ChunkCache();
+    byte[] tile = new byte[TILE * TILE];
+    long checksum = 0;
+    for (int[] unit : tiles) {
+      int z = unit[0];
+      String key = (z / CHUNK_Z) + "." + (unit[2] / CHUNK_XY) + "." + (unit[1] / CHUNK_XY);
+      byte[] chunk = cache.load(key);
+      int planeOffset = (z % CHUNK_Z) * CHUNK_XY * CHUNK_XY;
+      for (int row = 0; row < unit[4]; row++) {
+        int source = planeOffset + ((unit[2] % CHUNK_XY) + row) * CHUNK_XY + unit[1] % CHUNK_XY;
+        System.arraycopy(chunk, source, tile, row * unit[3], unit[3]);
+      }
+      checksum += tile[0];
+    }
+    assertTrue(checksum >= 0);
+    return cache.decodes;
+  }
+
+  @Test
+  public void compareOrders() throws DataFormatException {
+    createChunks();
+    int[] planeGroups = new int[SIZE_Z];
+    for (int z = 0; z < SIZE_Z; z++) {
+      planeGroups[z] = z / CHUNK_Z;
+    }
+    Map<ChunkOrderTiles.Order, Integer> decodes = new EnumMap<ChunkOrderTiles.Order, Integer>(ChunkOrderTiles.Order.class);
+    for (int round = 0; round < ROUNDS; round++) {
+      for (ChunkOrderTiles.Order order : ChunkOrderTiles.Order.values()) {
+        ChunkOrderTiles tiles = new ChunkOrderTiles(SIZE_X, SIZE_Y, TILE, TILE, CHUNK_XY, CHUNK_XY, planeGroups, order);
+        long start = System.nanoTime();
+        decodes.put(order, readTiles(tiles));
+        long elapsed = System.nanoTime() - start;
+        if (round == ROUNDS - 1) {
+          System.out.println(String.format("%-10s %6d tiles %6d chunk decodes %8.1f ms",
+              order, tiles.getTileCount(), decodes.get(order), elapsed / 1e6));
+        }
+      }
+    }
+    int chunkCount = (SIZE_Z / CHUNK_Z) * (SIZE_Y / CHUNK_XY) * (SIZE_X / CHUNK_XY);
+    assertEquals(chunkCount, (int) decodes.get(ChunkOrderTiles.Order.CHUNK));
+    assertEquals(chunkCount, (int) decodes.get(ChunkOrderTiles.Order.HILBERT));
+    // Row-major iteration decodes each chunk again for every plane it holds
+    assertEquals(chunkCount * CHUNK_Z, (int) decodes.get(ChunkOrderTiles.Order.ROW_MAJOR));
+  }
+}
@@ -0,0 +1,101 @@
+package test.loci.formats.utests;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+import loci.formats.ChunkOrderTiles;
+
+/**
+ * Tests the order in which tiles are visited
+ */
+public class ChunkOrderTilesTest {
+
+  private static List<int[]> list(ChunkOrderTiles tiles) {
+    List<int[]> list = new ArrayList<int[]>();
+    for (int[] tile : tiles) {
+      list.add(tile);
+    }
+    return list;
+  }
+
+  @Test
+  public void testEveryTileOnce() {
+    int[] planeGroups = {0, 0, 0, 1, 1, 2};
+    for (ChunkOrderTiles.Order order : ChunkOrderTiles.Order.values()) {
+      ChunkOrderTiles tiles = new ChunkOrderTiles(300, 200, 64, 48, 100, 100, planeGroups, order);
+      List<int[]> list = list(tiles);
+      assertEquals(tiles.getTileCount(), list.size());
+      Set<String> seen = new HashSet<String>();
+      long pixels = 0;
+      for (int[] tile : list) {
+        assertTrue(order + " " + Arrays.toString(tile), seen.add(tile[0] + "," + tile[1] + "," + tile[2]));
+        assertTrue(tile[1] + tile[3] <= 300 && tile[2] + tile[4] <= 200);
+        pixels += tile[3] * tile[4];
+      }
+      assertEquals(6L * 300 * 200, pixels);
+    }
+  }
+
+  @Test
+  public void testPlanesSharingChunksVisitedTogether() {
+    ChunkOrderTiles tiles = new ChunkOrderTiles(64, 64, 32, 32, 64, 64, new int[] {1, 0, 1, 0},
+        ChunkOrderTiles.Order.CHUNK);
+    List<Integer> planes = new ArrayList<Integer>();
+    for (int[] tile : tiles) {
+      planes.add(tile[0]);
+    }
+    assertEquals(Arrays.asList(1, 1, 1, 1, 3, 3, 3, 3, 0, 0, 0, 0, 2, 2, 2, 2), planes);
+  }
+
+  @Test
+  public void testCurveOrder() {
+    // Four by four blocks of one tile
+    int[] plane = {0};
+    List<int[]> zOrder = list(new ChunkOrderTiles(4, 4, 1, 1, 1, 1, plane, ChunkOrderTiles.Order.Z_ORDER));
+    assertTrue(Arrays.equals(new int[] {0, 1, 0, 1, 1}, zOrder.get(1)));
+    assertTrue(Arrays.equals(new int[] {0, 0, 1, 1, 1}, zOrder.get(2)));
+    List<int[]> hilbert = list(new ChunkOrderTiles(4, 4, 1, 1, 1, 1, plane, ChunkOrderTiles.Order.HILBERT));
+    for (int i = 1; i < hilbert.size(); i++) {
+      // Consecutive cells of a Hilbert curve are adjacent
+      int distance = Math.abs(hilbert.get(i)[1] - hilbert.get(i - 1)[1]) +
+          Math.abs(hilbert.get(i)[2] - hilbert.get(i - 1)[2]);
+      assertEquals(1, distance);
+    }
+  }
+}
@@ -0,0 +1,106 @@
+package test.loci.formats.utests;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import org.testng.annotations.Test;
+
+import loci.formats.DecodedChunkCache;
+
+/**
+ * Tests the size bounded cache of decoded chunks
+ */
+public class DecodedChunkCacheTest {
+
+  @Test
+  public void testEvictsLeastRecentlyUsedBySize() {
+    DecodedChunkCache cache = new DecodedChunkCache(3000);
+    short[] first = new short[500];
+    cache.put("a@[0]", first);
+    cache.put("a@[1]", new float[250]);
+    assertEquals(2000, cache.getBytes());
+    assertSame(first, cache.get("a@[0]"));
+    cache.put("a@[2]", new byte[1000]);
+    assertEquals(3000, cache.getBytes());
+    cache.put("a@[3]", new double[10]);
+    // The float chunk is the least recently used
+    assertNull(cache.get("a@[1]"));
+    assertTrue(cache.contains("a@[0]"));
+    assertEquals(2080, cache.getBytes());
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+  }
+
+  @Test
+  public void testSizeAndInvalidation() {
+    DecodedChunkCache cache = new DecodedChunkCache(0);
+    assertFalse(cache.isEnabled());
+    cache.put("a@[0]", new byte[1]);
+    assertEquals(0, cache.getChunkCount());
+    DecodedChunkCache.SizeRequest large = cache.requestMaxBytes(100);
+    DecodedChunkCache.SizeRequest small = cache.requestMaxBytes(10);
+    assertEquals(100, cache.getMaxBytes());
+    cache.put("a@[0]", new int[10]);
+    cache.put("ab@[0]", new int[10]);
+    cache.put("b@[0]", new int[10]);
+    assertEquals(2, cache.getChunkCount());
+    cache.invalidate("ab@");
+    assertEquals(1, cache.getChunkCount());
+    assertTrue(cache.contains("b@[0]"));
+    // The cache shrinks to the largest open request once the larger reader closes
+    large.close();
+    assertEquals(10, cache.getMaxBytes());
+    assertEquals(0, cache.getBytes());
+    small.close();
+    assertFalse(cache.isEnabled());
+    cache.setMaxBytes(50);
+    assertEquals(50, cache.getMaxBytes());
+  }
+
+  @Test
+  public void testVersionMismatchDropsChunk() {
+    DecodedChunkCache cache = new DecodedChunkCache(1000);
+    cache.put("a@[0]", new byte[10], "1/10");
+    assertTrue(cache.contains("a@[0]", "1/10"));
+    assertFalse(cache.contains("a@[0]", "2/10"));
+    assertNotNull(cache.get("a@[0]", "1/10"));
+    // The file changed, the chunk is reloaded
+    assertNull(cache.get("a@[0]", "2/10"));
+    assertEquals(0, cache.getChunkCount());
+    assertEquals(0, cache.getBytes());
+    cache.put("a@[1]", new byte[10]);
+    assertSame(cache.get("a@[1]"), cache.get("a@[1]", null));
+  }
+}
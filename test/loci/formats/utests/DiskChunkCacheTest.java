@@ -0,0 +1,156 @@
+package test.loci.formats.utests;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.stream.Stream;
+
+import org.testng.annotations.Test;
+
+import loci.formats.DiskChunkCache;
+
+/**
+ * Tests the functionality of DiskChunkCache
+ */
+public class DiskChunkCacheTest {
+
+  @Test
+  public void testPutAndGet() throws IOException {
+    Path directory = Files.createTempDirectory("zarr-cache");
+    DiskChunkCache cache = DiskChunkCache.forDirectory(directory, 1024 * 1024, -1);
+    assertNull(cache.get("bucket", "image.zarr/0/0.0"));
+    cache.put("bucket", "image.zarr/0/0.0", ByteBuffer.wrap(new byte[] {1, 2, 3}), "\"etag\"");
+
+    DiskChunkCache.Entry entry = cache.get("bucket", "image.zarr/0/0.0");
+    assertNotNull(entry);
+    assertEquals("\"etag\"", entry.getETag());
+    ByteBuffer data = entry.getData();
+    assertEquals(3, data.remaining());
+    assertEquals(3, data.get(data.position() + 2));
+    assertTrue(cache.isFresh(entry));
+    assertNull(cache.get("other", "image.zarr/0/0.0"));
+    assertEquals(1, cache.getHitCount());
+    assertEquals(2, cache.getMissCount());
+    deleteRecursively(directory);
+  }
+
+  @Test
+  public void testRevalidation() throws IOException {
+    Path directory = Files.createTempDirectory("zarr-cache");
+    DiskChunkCache cache = DiskChunkCache.forDirectory(directory, 1024 * 1024, 60000);
+    cache.put("bucket", "key", ByteBuffer.wrap(new byte[] {1}), null);
+    DiskChunkCache.Entry entry = cache.get("bucket", "key");
+    assertNull(entry.getETag());
+    assertTrue(cache.isFresh(entry));
+
+    // The shortest interval requested for the directory is kept
+    assertSame(cache, DiskChunkCache.forDirectory(directory, 1024 * 1024, 0));
+    assertFalse(cache.isFresh(cache.get("bucket", "key")));
+    DiskChunkCache.forDirectory(directory, 1024 * 1024, -1);
+    DiskChunkCache.forDirectory(directory, 1024 * 1024, 60000);
+    assertEquals(0, cache.getRevalidateMillis());
+    deleteRecursively(directory);
+  }
+
+  @Test
+  public void testSmallestSizeCapKept() throws IOException {
+    Path directory = Files.createTempDirectory("zarr-cache");
+    DiskChunkCache cache = DiskChunkCache.forDirectory(directory, 2000, -1);
+    DiskChunkCache.forDirectory(directory, 4000, -1);
+    assertEquals(2000, cache.getMaxBytes());
+    DiskChunkCache.forDirectory(directory, 1000, -1);
+    assertEquals(1000, cache.getMaxBytes());
+    deleteRecursively(directory);
+  }
+
+  @Test
+  public void testObjectLargerThanCapNotCached() throws IOException {
+    Path directory = Files.createTempDirectory("zarr-cache");
+    DiskChunkCache cache = DiskChunkCache.forDirectory(directory, 1000, -1);
+    cache.put("bucket", "small", ByteBuffer.allocate(500), null);
+    cache.put("bucket", "key", ByteBuffer.allocate(100), "\"v1\"");
+    // The object grew beyond the cap, the previous entry is removed rather than kept stale
+    cache.put("bucket", "key", ByteBuffer.allocate(2000), "\"v2\"");
+    assertNull(cache.get("bucket", "key"));
+    assertFalse(Files.exists(cache.getPath("bucket", "key")));
+    assertNotNull(cache.get("bucket", "small"));
+    deleteRecursively(directory);
+  }
+
+  @Test
+  public void testEviction() throws IOException {
+    Path directory = Files.createTempDirectory("zarr-cache");
+    DiskChunkCache cache = DiskChunkCache.forDirectory(directory, 3000, -1);
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < 2; i++) {
+      cache.put("bucket", "chunk" + i, ByteBuffer.allocate(1000), null);
+    }
+    // chunk0 is older but has been used more recently than chunk1
+    Files.setLastModifiedTime(cache.getPath("bucket", "chunk0"), FileTime.fromMillis(now - 2000));
+    Files.setLastModifiedTime(cache.getPath("bucket", "chunk1"), FileTime.fromMillis(now - 1000));
+    cache.get("bucket", "chunk0");
+    cache.put("bucket", "chunk2", ByteBuffer.allocate(1000), null);
+
+    assertNull(cache.get("bucket", "chunk1"));
+    assertNotNull(cache.get("bucket", "chunk0"));
+    assertNotNull(cache.get("bucket", "chunk2"));
+    assertTrue(cache.getCurrentBytes() <= cache.getMaxBytes());
+    deleteRecursively(directory);
+  }
+
+  @Test
+  public void testCorruptEntry() throws IOException {
+    Path directory = Files.createTempDirectory("zarr-cache");
+    DiskChunkCache cache = DiskChunkCache.forDirectory(directory, 1024 * 1024, -1);
+    cache.put("bucket", "key", ByteBuffer.wrap(new byte[] {1}), null);
+    Path path = cache.getPath("bucket", "key");
+    Files.write(path, new byte[] {1, 2});
+    assertNull(cache.get("bucket", "key"));
+    assertFalse(Files.exists(path));
+    deleteRecursively(directory);
+  }
+
+  private static void deleteRecursively(Path directory) throws IOException {
+    try (Stream<Path> paths = Files.walk(directory)) {
+      paths.sorted((a, b) -> b.compareTo(a)).forEach(p -> p.toFile().delete());
+    }
+  }
+}
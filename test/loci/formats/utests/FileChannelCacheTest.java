@@ -0,0 +1,257 @@
+package test.loci.formats.utests;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+import com.bc.zarr.ArrayParams;
+import com.bc.zarr.CompressorFactory;
+import com.bc.zarr.DataType;
+import com.bc.zarr.ZarrArray;
+
+import loci.formats.FileChannelCache;
+import loci.formats.FileChannelStore;
+import loci.formats.services.JZarrServiceImpl;
+
+/**
+ * Tests the LRU cache of open file channels and the store reading through it
+ */
+public class FileChannelCacheTest {
+
+  private static Path createFiles(int count, int size) throws IOException {
+    Path root = Files.createTempDirectory("channels");
+    for (int i = 0; i < count; i++) {
+      byte[] data = new byte[size];
+      for (int j = 0; j < size; j++) {
+        data[j] = (byte) (i + j);
+      }
+      Files.write(root.resolve(Integer.toString(i)), data);
+    }
+    return root;
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEviction() throws IOException {
+    Path root = createFiles(3, 16);
+    FileChannelCache cache = new FileChannelCache(2);
+    FileChannel first;
+    try (FileChannelCache.Lease lease = cache.acquire(root.resolve("0"))) {
+      first = lease.getChannel();
+    }
+    cache.acquire(root.resolve("1")).close();
+    try (FileChannelCache.Lease lease = cache.acquire(root.resolve("0"))) {
+      assertSame(first, lease.getChannel());
+    }
+    cache.acquire(root.resolve("2")).close();
+    assertEquals(2, cache.getOpenCount());
+    assertEquals(1, cache.getEvictionCount());
+    assertEquals(1, cache.getHitCount());
+    assertTrue(first.isOpen());
+    cache.acquire(root.resolve("1")).close();
+    assertEquals(4, cache.getMissCount());
+  }
+
+  @Test
+  public void testLeasedChannelClosedOnRelease() throws IOException {
+    Path root = createFiles(2, 16);
+    FileChannelCache cache = new FileChannelCache(1);
+    FileChannelCache.Lease lease = cache.acquire(root.resolve("0"));
+    cache.acquire(root.resolve("1")).close();
+    assertTrue(lease.getChannel().isOpen());
+    cache.invalidate(root.resolve("0"));
+    assertTrue(lease.getChannel().isOpen());
+    lease.close();
+    assertFalse(lease.getChannel().isOpen());
+  }
+
+  @Test
+  public void testConcurrentReads() throws Exception {
+    Path root = createFiles(4, 4096);
+    final FileChannelStore store = new FileChannelStore(root, new FileChannelCache(2));
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<ByteBuffer>> reads = new ArrayList<Future<ByteBuffer>>();
+      for (int i = 0; i < 200; i++) {
+        final String key = Integer.toString(i % 4);
+        reads.add(executor.submit(() -> store.read(key)));
+      }
+      for (int i = 0; i < reads.size(); i++) {
+        ByteBuffer data = reads.get(i).get();
+        assertEquals(4096, data.remaining());
+        assertEquals((byte) (i % 4 + 100), data.get(100));
+      }
+    }
+    finally {
+      executor.shutdown();
+    }
+    assertTrue(store.getCache().getOpenCount() <= 2);
+  }
+
+  @Test
+  public void testInvalidateClosedChannel() throws IOException {
+    Path root = createFiles(1, 16);
+    FileChannelCache cache = new FileChannelCache(2);
+    FileChannel first;
+    try (FileChannelCache.Lease lease = cache.acquire(root.resolve("0"))) {
+      first = lease.getChannel();
+      first.close();
+      lease.invalidate();
+    }
+    try (FileChannelCache.Lease lease = cache.acquire(root.resolve("0"))) {
+      assertTrue(lease.getChannel() != first);
+      assertTrue(lease.getChannel().isOpen());
+    }
+    assertEquals(1, cache.getOpenCount());
+  }
+
+  @Test
+  public void testReplacedFileReopened() throws IOException {
+    Path root = createFiles(1, 16);
+    FileChannelCache cache = new FileChannelCache(2);
+    FileChannelStore store = new FileChannelStore(root, cache);
+    try (InputStream in = store.getInputStream("0")) {
+      assertEquals(0, in.read());
+    }
+    // Writers usually replace a chunk by renaming a new file over it
+    Path replacement = root.resolve("0.tmp");
+    Files.write(replacement, new byte[] {42, 43, 44});
+    Files.move(replacement, root.resolve("0"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    try (InputStream in = store.getInputStream("0")) {
+      assertEquals(42, in.read());
+    }
+    assertEquals(1, cache.getOpenCount());
+    assertEquals(2, cache.getMissCount());
+  }
+
+  @Test
+  public void testServiceCloseReleasesChannels() throws Exception {
+    Path directory = Files.createTempDirectory("channels");
+    String arrayPath = directory.resolve("0").toString();
+    ArrayParams params = new ArrayParams()
+        .shape(new int[] {64, 64})
+        .chunks(new int[] {32, 32})
+        .dataType(DataType.u1)
+        .compressor(CompressorFactory.create("null"));
+    ZarrArray.create(arrayPath, params).write(new byte[64 * 64], new int[] {64, 64}, new int[2]);
+
+    FileChannelCache cache = FileChannelCache.getShared();
+    int before = cache.getOpenCount();
+    JZarrServiceImpl service = new JZarrServiceImpl(null);
+    service.setCachedFileChannels(true);
+    service.open(arrayPath);
+    service.readBytes(new int[] {64, 64}, new int[2]);
+    // The four chunks are held open until the service is closed
+    assertTrue(cache.getOpenCount() >= before + 4);
+    service.close();
+    assertEquals(before, cache.getOpenCount());
+  }
+
+  @Test
+  public void testReadWhileOtherReaderInterrupted() throws Exception {
+    Path root = createFiles(1, 1 << 22);
+    final FileChannelStore store = new FileChannelStore(root, new FileChannelCache(2));
+    final AtomicBoolean done = new AtomicBoolean();
+    final AtomicInteger reads = new AtomicInteger();
+    final CountDownLatch started = new CountDownLatch(1);
+    // Interrupting a reader closes the channel it shares with the other reader
+    Thread interrupted = new Thread(() -> {
+      try {
+        while (true) {
+          store.read("0");
+          started.countDown();
+        }
+      }
+      catch (IOException e) {
+        // expected once interrupted
+      }
+    });
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<?> reader = executor.submit(() -> {
+        while (!done.get()) {
+          ByteBuffer data = store.read("0");
+          assertEquals(1 << 22, data.remaining());
+          assertEquals((byte) 100, data.get(100));
+          reads.incrementAndGet();
+        }
+        return null;
+      });
+      interrupted.start();
+      started.await();
+      interrupted.interrupt();
+      interrupted.join();
+      done.set(true);
+      reader.get();
+    }
+    finally {
+      done.set(true);
+      executor.shutdown();
+    }
+    assertTrue(reads.get() > 0);
+    assertEquals(1 << 22, store.read("0").remaining());
+  }
+
+  @Test
+  public void testWriteInvalidatesChannel() throws IOException {
+    Path root = createFiles(1, 4);
+    FileChannelStore store = new FileChannelStore(root, new FileChannelCache(4));
+    assertEquals(4, store.read("0").remaining());
+    try (OutputStream out = store.getOutputStream("0")) {
+      out.write(new byte[8]);
+    }
+    try (InputStream in = store.getInputStream("0")) {
+      assertEquals(8, in.available());
+    }
+    store.delete("0");
+    assertNull(store.getInputStream("0"));
+  }
+}
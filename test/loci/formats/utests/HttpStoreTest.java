@@ -0,0 +1,380 @@
+package test.loci.formats.utests;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import loci.formats.DiskChunkCache;
+import loci.formats.HttpStore;
+import loci.formats.PrefetchedObjects;
+import loci.formats.S3FileSystemStore;
+
+/**
+ * Tests the functionality of HttpStore against an embedded HTTP server
+ */
+public class HttpStoreTest {
+
+  private Map<String, byte[]> objects;
+  private Set<String> forbidden;
+  private AtomicInteger requests;
+  private AtomicInteger notModified;
+  private volatile boolean acceptRanges;
+  private HttpServer server;
+  private HttpStore store;
+  private String root;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    objects = Collections.synchronizedMap(new HashMap<String, byte[]>());
+    forbidden = Collections.synchronizedSet(new HashSet<String>());
+    requests = new AtomicInteger();
+    notModified = new AtomicInteger();
+    acceptRanges = true;
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/", this::handle);
+    server.start();
+    root = "http://127.0.0.1:" + server.getAddress().getPort() + "/data/image.zarr";
+    store = new HttpStore(root);
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    store.close();
+    server.stop(0);
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    requests.incrementAndGet();
+    byte[] data = objects.get(exchange.getRequestURI().getPath());
+    String etag = data == null ? null : "\"" + Arrays.hashCode(data) + "\"";
+    int status = 200;
+    byte[] body = data;
+    if (forbidden.contains(exchange.getRequestURI().getPath())) {
+      status = 403;
+      body = "denied".getBytes(StandardCharsets.UTF_8);
+      etag = null;
+    }
+    else if (data == null) {
+      status = 404;
+      body = new byte[0];
+    }
+    else if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+      notModified.incrementAndGet();
+      status = 304;
+      body = null;
+    }
+    else if (acceptRanges && exchange.getRequestHeaders().getFirst("Range") != null) {
+      String[] range = exchange.getRequestHeaders().getFirst("Range").substring(6).split("-");
+      int start = Integer.parseInt(range[0]);
+      int end = Integer.parseInt(range[1]);
+      body = Arrays.copyOfRange(data, start, end + 1);
+      status = 206;
+    }
+    if (etag != null) {
+      exchange.getResponseHeaders().add("ETag", etag);
+    }
+    boolean head = "HEAD".equals(exchange.getRequestMethod());
+    exchange.sendResponseHeaders(status, head || body == null ? -1 : body.length);
+    if (!head && body != null) {
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    }
+    exchange.close();
+  }
+
+  private void put(String key, String content) {
+    objects.put("/data/image.zarr/" + key, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String read(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[256];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testGetInputStream() throws IOException {
+    put("0/.zarray", "{}");
+    assertEquals("{}", read(store.getInputStream("0/.zarray")));
+    assertNull(store.getInputStream("1/.zarray"));
+  }
+
+  @Test
+  public void testSingleSlashRoot() throws IOException {
+    put(".zgroup", "{\"zarr_format\":2}");
+    HttpStore pathStore = new HttpStore(root.replace("http://", "http:/"));
+    assertEquals(root, pathStore.getRoot());
+    assertEquals("{\"zarr_format\":2}", read(pathStore.getInputStream(".zgroup")));
+    pathStore.close();
+  }
+
+  @Test
+  public void testReadRange() throws IOException {
+    put("0/0.0", "0123456789");
+    ByteBuffer range = store.readRange(root, "0/0.0", 3, 4);
+    assertEquals("3456", StandardCharsets.UTF_8.decode(range).toString());
+    acceptRanges = false;
+    range = store.readRange(root, "0/0.0", 6, 2);
+    assertEquals("67", StandardCharsets.UTF_8.decode(range).toString());
+    assertNull(store.readRange(root, "0/1.0", 0, 1));
+  }
+
+  private static Map<String, List<S3FileSystemStore.ByteRange>> rowRuns(String... keys) {
+    Map<String, List<S3FileSystemStore.ByteRange>> rangesByKey =
+        new LinkedHashMap<String, List<S3FileSystemStore.ByteRange>>();
+    for (String key : keys) {
+      // Columns 3 and 4 of four rows of ten two character columns
+      List<S3FileSystemStore.ByteRange> ranges = new ArrayList<S3FileSystemStore.ByteRange>();
+      for (int row = 0; row < 4; row++) {
+        ranges.add(new S3FileSystemStore.ByteRange(row * 20 + 6, 4));
+      }
+      rangesByKey.put(key, ranges);
+    }
+    return rangesByKey;
+  }
+
+  private static void assertRowRuns(List<ByteBuffer> slices) {
+    assertEquals(4, slices.size());
+    for (int row = 0; row < 4; row++) {
+      assertEquals(row + "3" + row + "4", StandardCharsets.UTF_8.decode(slices.get(row)).toString());
+    }
+  }
+
+  @Test
+  public void testReadRangesCoalesced() throws IOException {
+    StringBuilder chunk = new StringBuilder();
+    for (int row = 0; row < 4; row++) {
+      for (int column = 0; column < 10; column++) {
+        chunk.append(row).append(column);
+      }
+    }
+    put("0/0.0", chunk.toString());
+    put("0/0.1", chunk.toString());
+    store.setMaxInFlight(2);
+    Map<String, List<ByteBuffer>> data = store.readRanges(root + "/0", rowRuns("0.0", "0.1", "1.0"));
+    assertEquals(Arrays.asList("0.0", "0.1"), new ArrayList<String>(data.keySet()));
+    assertRowRuns(data.get("0.0"));
+    assertRowRuns(data.get("0.1"));
+    // One request per chunk
+    assertEquals(3, requests.get());
+  }
+
+  @Test
+  public void testReadRangesIgnoredByServer() throws IOException {
+    StringBuilder chunk = new StringBuilder();
+    for (int row = 0; row < 4; row++) {
+      for (int column = 0; column < 10; column++) {
+        chunk.append(row).append(column);
+      }
+    }
+    put("0/0.0", chunk.toString());
+    put("0/0.1", chunk.toString());
+    acceptRanges = false;
+    store.setMaxInFlight(2);
+    // Ranges too far apart to be coalesced are still served from the single full response
+    store.setRangeCoalesceBytes(0);
+    DiskChunkCache cache = DiskChunkCache.forDirectory(Files.createTempDirectory("zarr-http-cache"), 1024 * 1024, -1);
+    store.setDiskCache(cache);
+    Map<String, List<ByteBuffer>> data = store.readRanges(root + "/0", rowRuns("0.0", "0.1"));
+    assertRowRuns(data.get("0.0"));
+    assertRowRuns(data.get("0.1"));
+    assertEquals(2, requests.get());
+    // The full responses were cached
+    data = store.readRanges(root + "/0", rowRuns("0.0", "0.1"));
+    assertRowRuns(data.get("0.0"));
+    assertEquals(2, requests.get());
+  }
+
+  @Test
+  public void testPrefetch() throws IOException {
+    put("0/0.0", "a");
+    put("0/0.1", "b");
+    store.setMaxInFlight(2);
+    try (PrefetchedObjects.Batch batch = store.prefetch(root + "/0", Arrays.asList("0.0", "0.1"))) {
+      assertEquals("a", read(store.getInputStream(root + "/0", "0.0")));
+      assertEquals("b", read(store.getInputStream(root + "/0", "0.1")));
+    }
+    assertEquals(2, requests.get());
+  }
+
+  @Test
+  public void testPrefetchScopedToBatch() throws Exception {
+    put("0/0.0", "a");
+    put("0/0.1", "b");
+    store.setMaxInFlight(2);
+    PrefetchedObjects.Batch first = store.prefetch(root + "/0", Arrays.asList("0.0", "0.1"));
+    PrefetchedObjects.Batch second = store.prefetch(root + "/0", Arrays.asList("0.1"));
+    assertEquals(0, second.getStartedCount());
+    // the prefetch of another reader is not discarded by closing a batch
+    first.close();
+    assertEquals("b", read(store.getInputStream(root + "/0", "0.1")));
+    second.close();
+    // an object whose prefetch was discarded is downloaded when read
+    assertEquals("a", read(store.getInputStream(root + "/0", "0.0")));
+  }
+
+  @Test
+  public void testFetchAsync() throws Exception {
+    store.setMaxInFlight(2);
+    List<CompletableFuture<ByteBuffer>> futures = new ArrayList<CompletableFuture<ByteBuffer>>();
+    for (int i = 0; i < 200; i++) {
+      put("0/0." + i, String.valueOf(i));
+      futures.add(store.fetchAsync("0/0." + i));
+    }
+    for (int i = 0; i < 200; i++) {
+      assertEquals(String.valueOf(i), StandardCharsets.UTF_8.decode(futures.get(i).get()).toString());
+    }
+    assertNull(store.fetchAsync("0/1.0").get());
+  }
+
+  @Test
+  public void testRevalidation() throws IOException {
+    put("0/0.0", "chunk");
+    DiskChunkCache cache = DiskChunkCache.forDirectory(Files.createTempDirectory("zarr-http-cache"), 1024 * 1024, 0);
+    store.setDiskCache(cache);
+    assertEquals("chunk", read(store.getInputStream("0/0.0")));
+    assertEquals("chunk", read(store.getInputStream("0/0.0")));
+    assertEquals(1, notModified.get());
+    put("0/0.0", "changed");
+    assertEquals("changed", read(store.getInputStream("0/0.0")));
+  }
+
+  @Test
+  public void testFilterExisting() throws IOException {
+    put("0/.zarray", "{}");
+    put("OME/.zgroup", "{}");
+    Set<String> existing = store.filterExisting(root, Arrays.asList("0", "1", "OME"));
+    assertEquals(new TreeSet<String>(Arrays.asList("0", "OME")), new TreeSet<String>(existing));
+  }
+
+  @Test
+  public void testErrorStatusIsNotSuccess() throws IOException {
+    put("0/.zarray", "{}");
+    put("1/.zarray", "{}");
+    forbidden.add("/data/image.zarr/1/.zarray");
+    forbidden.add("/data/image.zarr/1/.zgroup");
+    // Only a successful response means that the key exists
+    Set<String> existing = store.filterExisting(root, Arrays.asList("0", "1"));
+    assertEquals(new TreeSet<String>(Arrays.asList("0")), new TreeSet<String>(existing));
+    try {
+      store.getInputStream(root, "1/.zarray");
+      fail("Error responses must not be read as content");
+    }
+    catch (IOException e) {
+      // expected
+    }
+    try {
+      store.readRange(root, "1/.zarray", 0, 1);
+      fail("Error responses must not be read as content");
+    }
+    catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testKeysFromMultiscales() throws IOException {
+    put(".zgroup", "{}");
+    put(".zattrs", "{\"multiscales\":[{\"datasets\":[{\"path\":\"0\"},{\"path\":\"1\"}]}]}");
+    put("0/.zarray", "{}");
+    put("1/.zarray", "{}");
+    put("labels/.zgroup", "{}");
+    put("labels/.zattrs", "{\"labels\":[\"cells\"]}");
+    put("labels/cells/.zgroup", "{}");
+    put("labels/cells/.zattrs", "{\"multiscales\":[{\"datasets\":[{\"path\":\"0\"}]}]}");
+    put("labels/cells/0/.zarray", "{}");
+    assertEquals(new TreeSet<String>(Arrays.asList("0", "1", "labels/cells/0")), store.getArrayKeys());
+    assertEquals(new TreeSet<String>(Arrays.asList("labels", "labels/cells")), store.getGroupKeys());
+  }
+
+  @Test
+  public void testKeysBelowPrefix() throws IOException {
+    put(".zgroup", "{}");
+    put(".zattrs", "{\"multiscales\":[{\"datasets\":[{\"path\":\"0\"}]}]}");
+    put("0/.zarray", "{}");
+    put("labels/.zgroup", "{}");
+    put("labels/.zattrs", "{\"labels\":[\"cells\"]}");
+    put("labels/cells/.zgroup", "{}");
+    put("labels/cells/.zattrs", "{\"multiscales\":[{\"datasets\":[{\"path\":\"0\"}]}]}");
+    put("labels/cells/0/.zarray", "{}");
+    assertEquals(new TreeSet<String>(Arrays.asList("cells/0")), store.getArrayKeys("labels"));
+    assertEquals(new TreeSet<String>(Arrays.asList("cells")), store.getGroupKeys("labels"));
+    assertEquals(new TreeSet<String>(Arrays.asList("cells/0/.zarray")), store.getKeysEndingWith("labels/", ".zarray"));
+  }
+
+  @Test
+  public void testKeysFromConsolidatedMetadata() throws IOException {
+    put(".zmetadata", "{\"metadata\":{\".zgroup\":{},\"A/.zgroup\":{},\"A/1/.zgroup\":{},\"A/1/0/0/.zarray\":{}}}");
+    assertEquals(new TreeSet<String>(Arrays.asList("A/1/0/0")), store.getArrayKeys());
+    assertEquals(new TreeSet<String>(Arrays.asList("A", "A/1")), store.getGroupKeys());
+    assertEquals(2, requests.get());
+  }
+
+  @Test(expectedExceptions = IOException.class)
+  public void testReadOnly() throws IOException {
+    store.getOutputStream("0/0.0");
+  }
+}
@@ -33,10 +33,19 @@ import static org.junit.Assert.*;
 
 import java.io.IOException;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.mockito.Mock;
 import org.mockito.MockedStatic;
@@ -53,8 +62,10 @@ import com.bc.zarr.DataType;
 import com.bc.zarr.ZarrArray;
 import com.bc.zarr.ZarrGroup;
 
+import loci.formats.DecodedChunkCache;
 import loci.formats.FormatException;
 import loci.formats.FormatTools;
+import loci.formats.services.ChunkPrefetcher;
 import loci.formats.services.JZarrServiceImpl;
 import ucar.ma2.InvalidRangeException;
 
@@ -259,6 +270,146 @@ public class JZarrServiceImplTest {
     }
   }
 
+  @Test
+  public void testReadSharedChunks() throws Exception {
+    // 5 x 7 plane in 2 x 3 chunks, the last row and column of chunks are partial
+    AtomicInteger chunkReads = mockPlane(new int[] {1, 1, 1, 5, 7}, new int[] {1, 1, 1, 2, 3}, 0);
+    jzarrService.setSharedChunkReads(true);
+    int[] shape = {1, 1, 1, 4, 5};
+    int[] offset = {0, 0, 0, 1, 2};
+    int[] region = (int[]) jzarrService.readBytes(shape, offset);
+    int[] expected = new int[4 * 5];
+    for (int y = 0; y < 4; y++) {
+      for (int x = 0; x < 5; x++) {
+        expected[y * 5 + x] = (y + 1) * 7 + x + 2;
+      }
+    }
+    assertArrayEquals(expected, region);
+    // rows 1 to 4 and columns 2 to 6 intersect 3 rows and 3 columns of chunks
+    assertEquals(9, chunkReads.get());
+  }
+
+  @Test
+  public void testReadSharedChunksSingleFlight() throws Exception {
+    int readers = 4;
+    long shared = JZarrServiceImpl.getChunkLoads().getSharedCount();
+    AtomicInteger chunkReads = mockPlane(new int[] {1, 1, 1, 4, 4}, new int[] {1, 1, 1, 4, 4},
+        shared + readers - 1);
+    jzarrService.setSharedChunkReads(true);
+    ExecutorService executor = Executors.newFixedThreadPool(readers);
+    try {
+      List<Future<Object>> reads = new ArrayList<Future<Object>>();
+      for (int i = 0; i < readers; i++) {
+        reads.add(executor.submit(() -> jzarrService.readBytes(new int[] {1, 1, 1, 2, 2}, new int[] {0, 0, 0, 1, 1})));
+      }
+      for (Future<Object> read : reads) {
+        assertArrayEquals(new int[] {5, 6, 9, 10}, (int[]) read.get(10, TimeUnit.SECONDS));
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
+    assertEquals(1, chunkReads.get());
+  }
+
+  @Test
+  public void testPrefetchServesReadsFromCache() throws Exception {
+    AtomicInteger chunkReads = mockPlane(new int[] {1, 1, 1, 4, 6}, new int[] {1, 1, 1, 2, 3}, 0);
+    DecodedChunkCache cache = DecodedChunkCache.getShared();
+    DecodedChunkCache.SizeRequest request = cache.requestMaxBytes(1024 * 1024);
+    JZarrServiceImpl prefetchService = new JZarrServiceImpl(null);
+    prefetchService.open(testID, zarrArray);
+    ChunkPrefetcher prefetcher = new ChunkPrefetcher(prefetchService);
+    try {
+      List<int[]> shapes = Collections.singletonList(new int[] {1, 1, 1, 4, 6});
+      List<int[]> offsets = Collections.singletonList(new int[] {0, 0, 0, 0, 0});
+      assertEquals(4, (int) prefetcher.submit(testID, shapes, offsets).get(10, TimeUnit.SECONDS));
+      assertEquals(4, prefetcher.getLoadedChunkCount());
+      assertEquals(4, chunkReads.get());
+
+      // Every chunk of the region is cached, the read is served without reading the array
+      int[] region = (int[]) jzarrService.readBytes(new int[] {1, 1, 1, 2, 2}, new int[] {0, 0, 0, 1, 2});
+      assertArrayEquals(new int[] {8, 9, 14, 15}, region);
+      assertEquals(4, chunkReads.get());
+      assertEquals(0, (int) prefetcher.submit(testID, shapes, offsets).get(10, TimeUnit.SECONDS));
+    }
+    finally {
+      prefetcher.close();
+      request.close();
+      cache.clear();
+    }
+  }
+
+  @Test
+  public void testPrefetchSuperseded() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    when(zarrArray.getShape()).thenReturn(new int[] {1, 1, 1, 4, 6});
+    when(zarrArray.getChunks()).thenReturn(new int[] {1, 1, 1, 2, 3});
+    when(zarrArray.read(Mockito.any(int[].class), Mockito.any(int[].class))).thenAnswer(invocation -> {
+      started.countDown();
+      release.await(10, TimeUnit.SECONDS);
+      int[] shape = invocation.getArgument(0);
+      return new int[shape[3] * shape[4]];
+    });
+    DecodedChunkCache cache = DecodedChunkCache.getShared();
+    DecodedChunkCache.SizeRequest request = cache.requestMaxBytes(1024 * 1024);
+    JZarrServiceImpl prefetchService = new JZarrServiceImpl(null);
+    prefetchService.open(testID, zarrArray);
+    ChunkPrefetcher prefetcher = new ChunkPrefetcher(prefetchService);
+    try {
+      List<int[]> shapes = Collections.singletonList(new int[] {1, 1, 1, 4, 6});
+      List<int[]> offsets = Collections.singletonList(new int[] {0, 0, 0, 0, 0});
+      Future<Integer> first = prefetcher.submit(testID, shapes, offsets);
+      Future<Integer> queued = prefetcher.submit(testID, shapes, offsets);
+      assertTrue(started.await(10, TimeUnit.SECONDS));
+      prefetcher.supersede();
+      Future<Integer> current = prefetcher.submit(testID, shapes, offsets);
+      release.countDown();
+
+      // The chunk being loaded completes, the rest of the first hint and the queued hint are skipped
+      assertEquals(1, (int) first.get(10, TimeUnit.SECONDS));
+      assertEquals(0, (int) queued.get(10, TimeUnit.SECONDS));
+      assertEquals(3, (int) current.get(10, TimeUnit.SECONDS));
+      assertEquals(4, cache.getChunkCount());
+    }
+    finally {
+      release.countDown();
+      prefetcher.close();
+      request.close();
+      cache.clear();
+    }
+  }
+
+  /**
+   * Mocks an array whose values are the index of each element in the plane
+   * @param sharedLoads number of loads that must have joined before a chunk read completes
+   * @return the number of chunks read from the array
+   */
+  private AtomicInteger mockPlane(int[] arrayShape, int[] chunks, long sharedLoads) throws Exception {
+    AtomicInteger chunkReads = new AtomicInteger();
+    when(zarrArray.getShape()).thenReturn(arrayShape);
+    when(zarrArray.getChunks()).thenReturn(chunks);
+    when(zarrArray.read(Mockito.any(int[].class), Mockito.any(int[].class))).thenAnswer(invocation -> {
+      int[] shape = invocation.getArgument(0);
+      int[] offset = invocation.getArgument(1);
+      chunkReads.incrementAndGet();
+      long deadline = System.currentTimeMillis() + 10000;
+      while (JZarrServiceImpl.getChunkLoads().getSharedCount() < sharedLoads &&
+          System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      int[] chunk = new int[shape[3] * shape[4]];
+      for (int y = 0; y < shape[3]; y++) {
+        for (int x = 0; x < shape[4]; x++) {
+          chunk[y * shape[4] + x] = (offset[3] + y) * arrayShape[4] + offset[4] + x;
+        }
+      }
+      return chunk;
+    });
+    return chunkReads;
+  }
+
   @Test
   public void testSaveBytes() {
     int[] data = {256, 256, 8, 8, 8};
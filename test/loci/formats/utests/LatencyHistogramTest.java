@@ -0,0 +1,88 @@
+package test.loci.formats.utests;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+import loci.formats.LatencyHistogram;
+import loci.formats.S3RequestPolicy;
+
+/**
+ * Tests the functionality of LatencyHistogram and the backoff of S3RequestPolicy
+ */
+public class LatencyHistogramTest {
+
+  @Test
+  public void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.getPercentileMicros(99));
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+    }
+    assertEquals(1000, histogram.getCount());
+    assertEquals(1000000, histogram.getMaxMicros());
+    assertWithin(500000, histogram.getPercentileMicros(50));
+    assertWithin(990000, histogram.getPercentileMicros(99));
+    assertEquals(1000000, histogram.getPercentileMicros(100));
+    histogram.reset();
+    assertEquals(0, histogram.getCount());
+  }
+
+  @Test
+  public void testSmallValues() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 0; i < 8; i++) {
+      histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+    }
+    assertEquals(3, histogram.getPercentileMicros(50));
+    assertEquals(7, histogram.getPercentileMicros(100));
+  }
+
+  @Test
+  public void testBackoff() {
+    S3RequestPolicy policy = new S3RequestPolicy(5, 100, 1000, 0, 95);
+    assertTrue(policy.isHedgingEnabled());
+    for (int attempt = 0; attempt < 40; attempt++) {
+      long backoff = policy.getBackoffMillis(attempt);
+      assertTrue(backoff >= 0 && backoff <= Math.min(1000, 100L << Math.min(attempt, 10)));
+    }
+    assertTrue(!new S3RequestPolicy().isHedgingEnabled());
+  }
+
+  private static void assertWithin(long expected, long actual) {
+    assertTrue("expected " + expected + " got " + actual,
+        actual >= expected && actual <= expected + expected / 8);
+  }
+}
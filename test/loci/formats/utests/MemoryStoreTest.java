@@ -0,0 +1,169 @@
+package test.loci.formats.utests;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import org.testng.annotations.Test;
+
+import loci.formats.MemoryStore;
+import loci.formats.StoreProviders;
+
+/**
+ * Tests loading datasets into a MemoryStore and reading them back
+ */
+public class MemoryStoreTest {
+
+  private static Path createDataset() throws IOException {
+    Path root = Files.createTempDirectory("image").resolve("image.zarr");
+    write(root.resolve(".zgroup"), "{}");
+    write(root.resolve("0/.zarray"), "{}");
+    write(root.resolve("0/0.0"), "chunk");
+    return root;
+  }
+
+  private static void write(Path file, String content) throws IOException {
+    Files.createDirectories(file.getParent());
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String read(MemoryStore store, String key) throws IOException {
+    try (InputStream in = store.getInputStream(key)) {
+      if (in == null) {
+        return null;
+      }
+      byte[] data = new byte[in.available()];
+      assertEquals(data.length, in.read(data));
+      assertEquals(-1, in.read());
+      return new String(data, StandardCharsets.UTF_8);
+    }
+  }
+
+  @Test
+  public void testLoad() throws IOException {
+    Path root = createDataset();
+    MemoryStore store = MemoryStore.load(root, 1024);
+    assertEquals(3, store.getKeyCount());
+    assertEquals(9, store.getTotalBytes());
+    assertEquals("chunk", read(store, "0/0.0"));
+    assertTrue(store.getData("0/0.0").isReadOnly());
+    assertNull(read(store, "0/1.0"));
+    assertEquals(new TreeSet<String>(Arrays.asList("0")), store.getArrayKeys());
+    assertEquals(Arrays.asList(".zarray", "0.0"), store.getRelativeLeafKeys("0").collect(Collectors.toList()));
+    assertNull(MemoryStore.load(root, 8));
+  }
+
+  @Test
+  public void testWriteAndDelete() throws IOException {
+    MemoryStore store = new MemoryStore();
+    try (OutputStream out = store.getOutputStream("0/1.0")) {
+      out.write(new byte[] {1, 2, 3});
+    }
+    store.put("0/.zarray", "{}".getBytes(StandardCharsets.UTF_8));
+    store.put("00/.zarray", "{}".getBytes(StandardCharsets.UTF_8));
+    ByteBuffer data = store.getData("/0/1.0");
+    assertEquals(3, data.remaining());
+    assertEquals(7, store.getTotalBytes());
+    store.delete("0");
+    assertEquals(1, store.getKeyCount());
+    assertEquals(2, store.getTotalBytes());
+  }
+
+  @Test
+  public void testPreloadRegistersStore() throws IOException {
+    Path root = createDataset();
+    MemoryStore store = MemoryStore.preload(root, 1024);
+    try {
+      assertSame(store, MemoryStore.preload(root, 1024));
+      assertSame(store, StoreProviders.open(MemoryStore.SCHEME + ":" + MemoryStore.getName(root), null));
+    }
+    finally {
+      MemoryStore.remove(MemoryStore.getName(root));
+    }
+    assertNull(MemoryStore.get(MemoryStore.getName(root)));
+  }
+
+  @Test
+  public void testPreloadBudget() throws IOException {
+    Path first = createDataset();
+    Path second = createDataset();
+    Path third = createDataset();
+    try {
+      // each dataset holds 9 bytes, the budget keeps two of them
+      assertTrue(MemoryStore.preload(first, 20) != null);
+      assertTrue(MemoryStore.preload(second, 20) != null);
+      assertTrue(MemoryStore.preload(first, 20) != null);
+      assertTrue(MemoryStore.preload(third, 20) != null);
+      assertTrue(MemoryStore.get(MemoryStore.getName(first)) != null);
+      assertNull(MemoryStore.get(MemoryStore.getName(second)));
+      assertTrue(MemoryStore.get(MemoryStore.getName(third)) != null);
+    }
+    finally {
+      MemoryStore.remove(MemoryStore.getName(first));
+      MemoryStore.remove(MemoryStore.getName(second));
+      MemoryStore.remove(MemoryStore.getName(third));
+    }
+    assertEquals(0, MemoryStore.getPreloadedBytes());
+  }
+
+  @Test
+  public void testPreloadRemembersTooLarge() throws IOException {
+    Path root = createDataset();
+    assertNull(MemoryStore.preload(root, 8));
+    // the dataset is not walked again for the same budget, even once it would fit
+    Files.delete(root.resolve("0/0.0"));
+    assertNull(MemoryStore.preload(root, 8));
+    try {
+      assertTrue(MemoryStore.preload(root, 1024) != null);
+    }
+    finally {
+      MemoryStore.remove(MemoryStore.getName(root));
+    }
+  }
+
+  @Test(expectedExceptions = IOException.class)
+  public void testUnregisteredName() throws IOException {
+    StoreProviders.open("memory:unregistered", null);
+  }
+}
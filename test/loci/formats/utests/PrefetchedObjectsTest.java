@@ -0,0 +1,103 @@
+package test.loci.formats.utests;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+import org.testng.annotations.Test;
+
+import loci.formats.PrefetchedObjects;
+
+/**
+ * Tests the functionality of PrefetchedObjects
+ */
+public class PrefetchedObjectsTest {
+
+  @Test
+  public void testBatchDiscardsUnconsumed() {
+    PrefetchedObjects prefetched = new PrefetchedObjects();
+    CompletableFuture<ByteBuffer> a = new CompletableFuture<ByteBuffer>();
+    CompletableFuture<ByteBuffer> b = new CompletableFuture<ByteBuffer>();
+    PrefetchedObjects.Batch batch = prefetched.newBatch();
+    batch.add("a", () -> a);
+    batch.add("b", () -> b);
+    assertEquals(2, batch.getStartedCount());
+    assertSame(a, prefetched.take("a"));
+    batch.close();
+    assertFalse(a.isCancelled());
+    assertTrue(b.isCancelled());
+    assertEquals(0, prefetched.size());
+  }
+
+  @Test
+  public void testBatchesShareObjects() {
+    PrefetchedObjects prefetched = new PrefetchedObjects();
+    CompletableFuture<ByteBuffer> shared = new CompletableFuture<ByteBuffer>();
+    PrefetchedObjects.Batch first = prefetched.newBatch();
+    PrefetchedObjects.Batch second = prefetched.newBatch();
+    first.add("a", () -> shared);
+    second.add("a", () -> {
+      throw new AssertionError("Object fetched twice");
+    });
+    assertEquals(1, first.getStartedCount());
+    assertEquals(0, second.getStartedCount());
+
+    // closing one batch keeps the object requested by the other
+    first.close();
+    assertFalse(shared.isCancelled());
+    assertEquals(1, prefetched.size());
+    second.close();
+    assertTrue(shared.isCancelled());
+    assertNull(prefetched.take("a"));
+  }
+
+  @Test
+  public void testCloseIgnoresNewerPrefetch() {
+    PrefetchedObjects prefetched = new PrefetchedObjects();
+    CompletableFuture<ByteBuffer> older = new CompletableFuture<ByteBuffer>();
+    CompletableFuture<ByteBuffer> newer = new CompletableFuture<ByteBuffer>();
+    PrefetchedObjects.Batch first = prefetched.newBatch();
+    first.add("a", () -> older);
+    assertSame(older, prefetched.take("a"));
+    PrefetchedObjects.Batch second = prefetched.newBatch();
+    second.add("a", () -> newer);
+    first.close();
+    assertFalse(newer.isCancelled());
+    assertSame(newer, prefetched.take("a"));
+    second.close();
+  }
+}
@@ -0,0 +1,119 @@
+package test.loci.formats.utests;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+import loci.formats.S3AdmissionController;
+import loci.formats.S3AdmissionController.Permit;
+
+/**
+ * Tests the functionality of S3AdmissionController
+ */
+public class S3AdmissionControllerTest {
+
+  @Test
+  public void testSharedByEndpoint() {
+    assertSame(S3AdmissionController.forEndpoint("https://s3.example.org/"),
+        S3AdmissionController.forEndpoint("https://s3.example.org/"));
+  }
+
+  @Test
+  public void testConcurrencyLimit() throws Exception {
+    S3AdmissionController controller = S3AdmissionController.forEndpoint("https://limit.example.org/");
+    controller.configure(2, 0);
+    Permit first = controller.acquire();
+    Permit second = controller.acquire();
+    assertEquals(2, controller.getInFlight());
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<Permit> third = executor.submit(() -> controller.acquire());
+      long deadline = System.currentTimeMillis() + 10000;
+      while (controller.getQueueDepth() == 0 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(1, controller.getQueueDepth());
+      first.close();
+      first.close();
+      third.get(10, TimeUnit.SECONDS).close();
+      second.close();
+    }
+    finally {
+      executor.shutdownNow();
+    }
+    assertEquals(0, controller.getInFlight());
+    assertEquals(0, controller.getQueueDepth());
+    assertEquals(1, controller.getMaxQueueDepth());
+    assertEquals(3, controller.getAdmittedCount());
+  }
+
+  @Test
+  public void testDefaultUnlimited() {
+    S3AdmissionController controller = S3AdmissionController.forEndpoint("https://default.example.org/");
+    assertEquals(Integer.MAX_VALUE, controller.getMaxConcurrent());
+    assertEquals(0.0, controller.getRequestsPerSecond(), 0);
+  }
+
+  @Test
+  public void testMostRestrictiveLimitKept() {
+    S3AdmissionController controller = S3AdmissionController.forEndpoint("https://restrict.example.org/");
+    controller.configure(8, 50);
+    controller.configure(32, 0);
+    controller.configure(0, 100);
+    assertEquals(8, controller.getMaxConcurrent());
+    assertEquals(50.0, controller.getRequestsPerSecond(), 0);
+    controller.configure(4, 10);
+    assertEquals(4, controller.getMaxConcurrent());
+    assertEquals(10.0, controller.getRequestsPerSecond(), 0);
+  }
+
+  @Test
+  public void testRateLimit() throws Exception {
+    S3AdmissionController controller = S3AdmissionController.forEndpoint("https://rate.example.org/");
+    controller.configure(0, 20);
+    long start = System.nanoTime();
+    // The bucket holds one second of requests, the next ten wait for tokens at 20 per second
+    for (int i = 0; i < 30; i++) {
+      controller.acquire().close();
+    }
+    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    assertTrue("Requests were admitted after " + elapsed + "ms", elapsed >= 400);
+  }
+}
@@ -0,0 +1,121 @@
+package test.loci.formats.utests;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotSame;
+import static org.testng.AssertJUnit.assertSame;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.amazonaws.services.s3.AmazonS3;
+
+import loci.formats.S3ClientRegistry;
+import loci.formats.S3ClientRegistry.ClientOptions;
+import loci.formats.S3ClientRegistry.Lease;
+
+/**
+ * Tests the functionality of S3ClientRegistry
+ */
+public class S3ClientRegistryTest {
+
+  private static final String ENDPOINT = "https://s3.example.org/";
+
+  @BeforeMethod
+  public void setUp() {
+    S3ClientRegistry.evictIdle();
+    S3ClientRegistry.setClientFactory(key -> mock(AmazonS3.class));
+    S3ClientRegistry.setLingerMillis(0);
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    S3ClientRegistry.evictIdle();
+    S3ClientRegistry.setClientFactory(null);
+    S3ClientRegistry.setLingerMillis(S3ClientRegistry.DEFAULT_LINGER_MILLIS);
+  }
+
+  @Test
+  public void testSharedClient() {
+    Lease first = S3ClientRegistry.acquire(ENDPOINT, null);
+    Lease second = S3ClientRegistry.acquire(ENDPOINT, new ClientOptions());
+    assertSame(first.getClient(), second.getClient());
+    assertEquals(2, S3ClientRegistry.getReferenceCount(ENDPOINT, null));
+
+    AmazonS3 client = first.getClient();
+    first.close();
+    first.close();
+    assertEquals(1, S3ClientRegistry.getReferenceCount(ENDPOINT, null));
+    verify(client, never()).shutdown();
+
+    second.close();
+    assertEquals(0, S3ClientRegistry.size());
+    verify(client, times(1)).shutdown();
+  }
+
+  @Test
+  public void testKeyedBySettings() {
+    Lease defaults = S3ClientRegistry.acquire(ENDPOINT, null);
+    Lease pooled = S3ClientRegistry.acquire(ENDPOINT, new ClientOptions(200, true, 30000));
+    Lease other = S3ClientRegistry.acquire("https://other.example.org/", null);
+    assertNotSame(defaults.getClient(), pooled.getClient());
+    assertNotSame(defaults.getClient(), other.getClient());
+    assertEquals(3, S3ClientRegistry.size());
+    defaults.close();
+    pooled.close();
+    other.close();
+    assertEquals(0, S3ClientRegistry.size());
+  }
+
+  @Test
+  public void testLinger() {
+    S3ClientRegistry.setLingerMillis(60000);
+    Lease lease = S3ClientRegistry.acquire(ENDPOINT, null);
+    AmazonS3 client = lease.getClient();
+    lease.close();
+    assertEquals(1, S3ClientRegistry.size());
+
+    // A reader reopening the dataset reuses the lingering client
+    Lease reopened = S3ClientRegistry.acquire(ENDPOINT, null);
+    assertSame(client, reopened.getClient());
+    reopened.close();
+    verify(client, never()).shutdown();
+
+    S3ClientRegistry.evictIdle();
+    assertEquals(0, S3ClientRegistry.size());
+    verify(client, times(1)).shutdown();
+  }
+}
@@ -0,0 +1,247 @@
+package test.loci.formats.utests;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.S3Object;
+
+import loci.formats.BufferPool;
+import loci.formats.S3ClientRegistry;
+import loci.formats.S3FileSystemStore;
+import loci.formats.S3FileSystemStore.ByteRange;
+
+/**
+ * Tests the functionality of S3FileSystemStore against an in memory S3 client
+ */
+public class S3FileSystemStoreTest {
+
+  private static final String ROOT = "https:/s3.example.org/bucket/image.zarr";
+
+  private Map<String, byte[]> objects;
+  private List<long[]> requestedRanges;
+  private List<String> listedPrefixes;
+  private S3FileSystemStore store;
+
+  @BeforeMethod
+  public void setUp() {
+    objects = new HashMap<String, byte[]>();
+    requestedRanges = Collections.synchronizedList(new ArrayList<long[]>());
+    listedPrefixes = Collections.synchronizedList(new ArrayList<String>());
+    S3ClientRegistry.setClientFactory(key -> fakeClient());
+    S3ClientRegistry.setLingerMillis(0);
+    store = new S3FileSystemStore(Paths.get(ROOT), null);
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    store.close();
+    S3ClientRegistry.evictIdle();
+    S3ClientRegistry.setClientFactory(null);
+    S3ClientRegistry.setLingerMillis(S3ClientRegistry.DEFAULT_LINGER_MILLIS);
+  }
+
+  @Test
+  public void testReadRange() throws IOException {
+    objects.put("image.zarr/0/0.0", sequence(1000));
+    ByteBuffer data = store.readRange(Paths.get(ROOT), "0/0.0", new ByteRange(100, 10));
+    assertEquals(10, data.remaining());
+    assertEquals(100, data.get(data.position()));
+    assertEquals(1, requestedRanges.size());
+    assertEquals(100, requestedRanges.get(0)[0]);
+    assertEquals(109, requestedRanges.get(0)[1]);
+    assertNull(store.readRange(Paths.get(ROOT), "0/1.0", new ByteRange(0, 10)));
+  }
+
+  @Test
+  public void testCoalescing() throws IOException {
+    objects.put("image.zarr/0/0.0", sequence(100000));
+    store.setRangeCoalesceBytes(100);
+    // The first three ranges are within 100 bytes of each other, the last is not
+    List<ByteRange> ranges = Arrays.asList(new ByteRange(300, 10), new ByteRange(0, 50),
+        new ByteRange(150, 100), new ByteRange(50000, 20));
+    Map<String, List<ByteRange>> request = new LinkedHashMap<String, List<ByteRange>>();
+    request.put("0/0.0", ranges);
+    List<ByteBuffer> data = store.readRanges(Paths.get(ROOT), request).get("0/0.0");
+
+    assertEquals(2, requestedRanges.size());
+    assertEquals(4, data.size());
+    for (int i = 0; i < ranges.size(); i++) {
+      ByteBuffer slice = data.get(i);
+      assertEquals(ranges.get(i).getLength(), slice.remaining());
+      for (int b = 0; b < slice.remaining(); b++) {
+        assertEquals((byte) (ranges.get(i).getOffset() + b), slice.get(slice.position() + b));
+      }
+    }
+  }
+
+  @Test
+  public void testPooledBuffers() throws IOException {
+    objects.put("image.zarr/0/0.0", sequence(1000));
+    objects.put("image.zarr/.zattrs", sequence(10));
+    store.setBufferSize(1024);
+    BufferPool pool = store.getBufferPool();
+
+    InputStream in = store.getInputStream(Paths.get(ROOT), "0/0.0");
+    byte[] content = new byte[2000];
+    assertEquals(1000, in.read(content));
+    assertEquals(-1, in.read());
+    assertEquals(99, content[99]);
+    in.close();
+    in.close();
+    assertEquals(1, pool.getFreeCount());
+
+    // Small objects are not read into pooled buffers
+    store.getInputStream(Paths.get(ROOT), ".zattrs").close();
+    assertEquals(1, pool.getFreeCount());
+    assertEquals(1000, store.getInputStream(Paths.get(ROOT), "0/0.0").available());
+    assertEquals(0, pool.getFreeCount());
+  }
+
+  @Test
+  public void testLatencyByRequestKind() throws IOException {
+    objects.put("image.zarr/0/0.0", sequence(1000));
+    store.readRange(Paths.get(ROOT), "0/0.0", new ByteRange(0, 10));
+    store.readRange(Paths.get(ROOT), "0/0.0", new ByteRange(500, 10));
+    store.getInputStream(Paths.get(ROOT), "0/0.0").close();
+    assertEquals(1, store.getLatencyHistogram().getCount());
+    assertEquals(2, store.getRangeLatencyHistogram().getCount());
+  }
+
+  @Test
+  public void testFilterExisting() throws IOException {
+    objects.put("image.zarr/A/1/0/.zattrs", new byte[1]);
+    objects.put("image.zarr/A/1/2/0/0.0", new byte[1]);
+    objects.put("image.zarr/A/2/.zattrs", new byte[1]);
+    objects.put("image.zarr/A/10/.zattrs", new byte[1]);
+    List<String> keys = Arrays.asList("A", "B", "A/1", "A/2", "A/3",
+        "A/1/0", "A/1/1", "A/1/2", "A/1/2/0", "A/1/2/1");
+    Set<String> existing = store.filterExisting(Paths.get(ROOT), keys);
+    assertEquals(new HashSet<String>(Arrays.asList("A", "A/1", "A/2", "A/1/0", "A/1/2", "A/1/2/0")), existing);
+    // Each parent is listed once
+    assertEquals(4, listedPrefixes.size());
+  }
+
+  @Test
+  public void testBufferPool() {
+    BufferPool pool = new BufferPool(1);
+    pool.setBufferSize(100);
+    byte[] first = pool.acquire(80);
+    assertEquals(100, first.length);
+    assertEquals(40, pool.acquire(40).length);
+    assertEquals(200, pool.acquire(200).length);
+    pool.release(first);
+    pool.release(new byte[100]);
+    assertEquals(1, pool.getFreeCount());
+    assertSame(first, pool.acquire(100));
+    pool.release(first);
+    pool.setBufferSize(200);
+    assertEquals(0, pool.getFreeCount());
+  }
+
+  private static byte[] sequence(int length) {
+    byte[] data = new byte[length];
+    for (int i = 0; i < length; i++) {
+      data[i] = (byte) i;
+    }
+    return data;
+  }
+
+  private AmazonS3 fakeClient() {
+    return (AmazonS3) Proxy.newProxyInstance(AmazonS3.class.getClassLoader(), new Class<?>[] {AmazonS3.class},
+        (proxy, method, args) -> {
+          if (method.getName().equals("getObject") && args.length == 1 && args[0] instanceof GetObjectRequest) {
+            GetObjectRequest request = (GetObjectRequest) args[0];
+            byte[] content = objects.get(request.getKey());
+            if (content == null) {
+              AmazonServiceException e = new AmazonServiceException("Not Found");
+              e.setStatusCode(404);
+              throw e;
+            }
+            long[] range = request.getRange();
+            if (range != null) {
+              requestedRanges.add(range);
+              int end = (int) Math.min(range[1] + 1, content.length);
+              content = Arrays.copyOfRange(content, (int) range[0], end);
+            }
+            S3Object object = new S3Object();
+            object.setObjectContent(new ByteArrayInputStream(content));
+            object.getObjectMetadata().setContentLength(content.length);
+            return object;
+          }
+          if (method.getName().equals("listObjects") && args.length == 1 && args[0] instanceof ListObjectsRequest) {
+            ListObjectsRequest request = (ListObjectsRequest) args[0];
+            String prefix = request.getPrefix();
+            listedPrefixes.add(prefix);
+            Set<String> commonPrefixes = new TreeSet<String>();
+            for (String key : objects.keySet()) {
+              int end = key.startsWith(prefix) ? key.indexOf("/", prefix.length()) : -1;
+              if (end >= 0) {
+                commonPrefixes.add(key.substring(0, end + 1));
+              }
+            }
+            ObjectListing listing = new ObjectListing();
+            listing.setBucketName(request.getBucketName());
+            listing.setPrefix(prefix);
+            listing.setCommonPrefixes(new ArrayList<String>(commonPrefixes));
+            return listing;
+          }
+          return null;
+        });
+  }
+}
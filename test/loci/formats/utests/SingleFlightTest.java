@@ -0,0 +1,116 @@
+package test.loci.formats.utests;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+import loci.formats.SingleFlight;
+
+/**
+ * Tests the functionality of SingleFlight
+ */
+public class SingleFlightTest {
+
+  @Test
+  public void testConcurrentLoadsShared() throws Exception {
+    SingleFlight<String, byte[]> loads = new SingleFlight<String, byte[]>();
+    AtomicInteger calls = new AtomicInteger();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<byte[]>> results = new ArrayList<Future<byte[]>>();
+      results.add(executor.submit(() -> loads.load("0/0.0", () -> {
+        calls.incrementAndGet();
+        started.countDown();
+        try {
+          release.await();
+        }
+        catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+        return new byte[] {1};
+      })));
+      started.await();
+      for (int i = 0; i < 3; i++) {
+        results.add(executor.submit(() -> loads.load("0/0.0", () -> {
+          calls.incrementAndGet();
+          return new byte[] {2};
+        })));
+      }
+      // Wait until the other callers are waiting on the load in flight
+      long deadline = System.currentTimeMillis() + 10000;
+      while (loads.getSharedCount() < 3 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      release.countDown();
+      byte[] first = results.get(0).get(10, TimeUnit.SECONDS);
+      for (Future<byte[]> result : results) {
+        assertSame(first, result.get(10, TimeUnit.SECONDS));
+      }
+      assertEquals(1, calls.get());
+      assertEquals(1, loads.getLoadCount());
+      assertEquals(0, loads.getInFlightCount());
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testFailureNotRetained() throws IOException {
+    SingleFlight<String, String> loads = new SingleFlight<String, String>();
+    try {
+      loads.load("key", () -> {
+        throw new IOException("failed");
+      });
+      fail("Expected the load to fail");
+    }
+    catch (IOException e) {
+      assertEquals("failed", e.getMessage());
+    }
+    assertEquals("value", loads.load("key", () -> "value"));
+    assertEquals(2, loads.getLoadCount());
+  }
+}
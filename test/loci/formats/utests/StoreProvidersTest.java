@@ -0,0 +1,210 @@
+package test.loci.formats.utests;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+import org.testng.annotations.Test;
+
+import com.bc.zarr.storage.Store;
+
+import loci.formats.FileChannelStore;
+import loci.formats.HttpStore;
+import loci.formats.MemoryStore;
+import loci.formats.S3ClientRegistry;
+import loci.formats.StoreProvider;
+import loci.formats.StoreProviders;
+import loci.formats.StoreView;
+
+/**
+ * Tests the selection of stores by URI scheme and the views of a store below a prefix
+ */
+public class StoreProvidersTest {
+
+  /**
+   * Store of a dataset with a plate containing a single image, the content of each key is the key
+   */
+  private static class KeyStore implements Store {
+    final URI location;
+    final TreeSet<String> keys = new TreeSet<String>(Arrays.asList(
+        ".zgroup", "A/.zgroup", "A/1/.zgroup", "A/1/0/.zgroup", "A/1/0/0/.zarray", "A/1/0/0/0.0"));
+
+    KeyStore(URI location) {
+      this.location = location;
+    }
+
+    @Override
+    public InputStream getInputStream(String key) {
+      return keys.contains(key) ? new ByteArrayInputStream(key.getBytes()) : null;
+    }
+
+    @Override
+    public OutputStream getOutputStream(String key) throws IOException {
+      throw new IOException("read only");
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+      throw new IOException("read only");
+    }
+
+    @Override
+    public TreeSet<String> getArrayKeys() {
+      return new TreeSet<String>(Collections.singleton("A/1/0/0"));
+    }
+
+    @Override
+    public TreeSet<String> getGroupKeys() {
+      return new TreeSet<String>(Arrays.asList("A", "A/1", "A/1/0"));
+    }
+
+    @Override
+    public TreeSet<String> getKeysEndingWith(String suffix) {
+      TreeSet<String> matching = new TreeSet<String>();
+      for (String key : keys) {
+        if (key.endsWith(suffix)) {
+          matching.add(key);
+        }
+      }
+      return matching;
+    }
+
+    @Override
+    public Stream<String> getRelativeLeafKeys(String key) {
+      String directory = key.isEmpty() ? "" : key + "/";
+      return keys.stream().filter(k -> k.startsWith(directory)).map(k -> k.substring(directory.length()));
+    }
+  }
+
+  /**
+   * Store failing any listing of the whole store
+   */
+  private static class PrefixOnlyStore extends MemoryStore {
+    @Override
+    public TreeSet<String> getArrayKeys() {
+      throw new AssertionError("Listed the whole store");
+    }
+
+    @Override
+    public TreeSet<String> getGroupKeys() {
+      throw new AssertionError("Listed the whole store");
+    }
+
+    @Override
+    public TreeSet<String> getKeysEndingWith(String suffix) {
+      throw new AssertionError("Listed the whole store");
+    }
+  }
+
+  @Test
+  public void testGetScheme() {
+    assertEquals("file", StoreProviders.getScheme("/data/image.zarr"));
+    assertEquals("file", StoreProviders.getScheme("C:\\data\\image.zarr"));
+    assertEquals("file", StoreProviders.getScheme("file:///data/image.zarr"));
+    assertEquals("https", StoreProviders.getScheme("HTTPS://example.org/image.zarr"));
+    assertEquals("s3", StoreProviders.getScheme("s3://endpoint/bucket/image.zarr"));
+    assertEquals("file", StoreProviders.getScheme("data/a:b.zarr"));
+  }
+
+  @Test
+  public void testBuiltInProviders() throws IOException {
+    assertTrue(StoreProviders.open("/data/image.zarr", null) instanceof FileChannelStore);
+    Store store = StoreProviders.open("http:/example.org/data/image.zarr", null);
+    assertTrue(store instanceof HttpStore);
+    assertEquals("http://example.org/data/image.zarr", ((HttpStore) store).getRoot());
+    ((HttpStore) store).close();
+  }
+
+  @Test
+  public void testRegisteredProvider() throws IOException {
+    StoreProviders.register(new StoreProvider() {
+      @Override
+      public Collection<String> getSchemes() {
+        return Collections.singleton("keys");
+      }
+
+      @Override
+      public Store open(URI location, S3ClientRegistry.ClientOptions clientOptions) {
+        return new KeyStore(location);
+      }
+    });
+    Store store = StoreProviders.open("keys://host/plate.zarr", null);
+    assertEquals(URI.create("keys://host/plate.zarr"), ((KeyStore) store).location);
+  }
+
+  @Test(expectedExceptions = IOException.class)
+  public void testUnknownScheme() throws IOException {
+    StoreProviders.open("unknown://host/image.zarr", null);
+  }
+
+  @Test
+  public void testView() throws IOException {
+    KeyStore store = new KeyStore(null);
+    StoreView view = new StoreView(store, "/A/1/");
+    assertSame(store, view.getStore());
+    assertEquals("A/1/0/.zgroup", view.resolve("0/.zgroup"));
+    assertTrue(view.getInputStream("0/0/.zarray") != null);
+    assertNull(view.getInputStream(".zarray"));
+    assertEquals(new TreeSet<String>(Collections.singleton("0/0")), view.getArrayKeys());
+    assertEquals(new TreeSet<String>(Collections.singleton("0")), view.getGroupKeys());
+    assertEquals(new TreeSet<String>(Collections.singleton("0/0/.zarray")), view.getKeysEndingWith(".zarray"));
+    assertEquals(store.getGroupKeys(), new StoreView(store, "").getGroupKeys());
+    assertEquals("A/1/0/0/0.0", StandardCharsets.UTF_8.decode(view.fetchAsync("0/0/0.0").join()).toString());
+    assertNull(view.fetchAsync("0/0/1.0").join());
+  }
+
+  @Test
+  public void testViewListsBelowPrefix() throws IOException {
+    PrefixOnlyStore store = new PrefixOnlyStore();
+    for (String key : Arrays.asList(".zgroup", "A/.zgroup", "A/1/.zgroup", "A/1/0/.zgroup",
+        "A/1/0/0/.zarray", "A/1/0/0/0.0", "A/10/.zgroup", "A/10/0/.zarray", "B/.zgroup")) {
+      store.put(key, key.getBytes(StandardCharsets.UTF_8));
+    }
+    StoreView view = new StoreView(store, "A/1");
+    assertEquals(new TreeSet<String>(Collections.singleton("0/0")), view.getArrayKeys());
+    assertEquals(new TreeSet<String>(Collections.singleton("0")), view.getGroupKeys());
+    assertEquals(new TreeSet<String>(Arrays.asList(".zgroup", "0/.zgroup")), view.getKeysEndingWith(".zgroup"));
+  }
+}
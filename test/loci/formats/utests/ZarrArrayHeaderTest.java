@@ -0,0 +1,110 @@
+package test.loci.formats.utests;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import loci.formats.FormatTools;
+import loci.formats.services.ZarrArrayHeader;
+
+/**
+ * Tests the functionality of ZarrArrayHeader
+ */
+public class ZarrArrayHeaderTest {
+
+  private static final String ZARRAY = "{\"shape\": [1, 2, 1, 100, 90], \"chunks\": [1, 1, 1, 32, 32], " +
+      "\"dtype\": \"<u2\", \"dimension_separator\": \"/\", \"order\": \"C\", \"compressor\": null, " +
+      "\"fill_value\": 0, \"zarr_format\": 2}";
+
+  @Test
+  public void testRead() throws IOException {
+    ZarrArrayHeader header = ZarrArrayHeader.read(new StringReader(ZARRAY));
+    assertEquals(FormatTools.UINT16, header.getPixelType());
+    assertEquals("/", header.getDimensionSeparator());
+    assertEquals(null, header.getCompressorId());
+    assertEquals(Arrays.toString(new int[] {1, 2, 1, 4, 3}), Arrays.toString(header.getChunkGridShape()));
+    assertEquals(24, header.getChunkCount());
+  }
+
+  @Test
+  public void testChunkKeys() throws IOException {
+    ZarrArrayHeader header = ZarrArrayHeader.read(new StringReader(ZARRAY));
+    assertEquals(Arrays.asList("0/1/0/0/0", "0/1/0/0/1", "0/1/0/1/0", "0/1/0/1/1"),
+        header.getChunkKeys(new int[] {0, 1, 0, 10, 31}, new int[] {1, 1, 1, 30, 2}));
+    assertEquals(Collections.singletonList("0/0/0/3/2"),
+        header.getChunkKeys(new int[] {0, 0, 0, 99, 89}, new int[] {1, 1, 1, 1, 1}));
+    assertEquals(8, header.getChunkKeys(new int[5], new int[] {1, 2, 1, 64, 64}).size());
+    assertEquals(0, header.getChunkKeys(new int[5], new int[] {1, 0, 1, 64, 64}).size());
+  }
+
+  @Test
+  public void testChunkRuns() throws IOException {
+    ZarrArrayHeader header = ZarrArrayHeader.read(new StringReader(ZARRAY));
+    assertTrue(header.isRangeReadable());
+    assertEquals(2, header.getItemSize());
+    assertEquals(2048, header.getChunkByteSize());
+
+    // Rows 10 and 11, columns 31 and 32 of the region span the first two chunks of the row
+    int[] offset = {0, 1, 0, 10, 31};
+    int[] shape = {1, 1, 1, 2, 2};
+    List<long[]> runs = header.getChunkRuns(new int[] {0, 1, 0, 0, 0}, offset, shape);
+    assertEquals(2, runs.size());
+    assertEquals(Arrays.toString(new long[] {(10 * 32 + 31) * 2, 0, 2}), Arrays.toString(runs.get(0)));
+    assertEquals(Arrays.toString(new long[] {(11 * 32 + 31) * 2, 4, 2}), Arrays.toString(runs.get(1)));
+    runs = header.getChunkRuns(new int[] {0, 1, 0, 0, 1}, offset, shape);
+    assertEquals(Arrays.toString(new long[] {10 * 32 * 2, 2, 2}), Arrays.toString(runs.get(0)));
+
+    // Edge chunks are padded to the full chunk shape but only hold data within the array
+    runs = header.getChunkRuns(new int[] {0, 0, 0, 3, 2}, new int[] {0, 0, 0, 96, 64}, new int[] {1, 1, 1, 4, 26});
+    assertEquals(4, runs.size());
+    assertEquals(Arrays.toString(new long[] {0, 0, 52}), Arrays.toString(runs.get(0)));
+    assertEquals(Arrays.toString(new long[] {64, 52, 52}), Arrays.toString(runs.get(1)));
+  }
+
+  @Test
+  public void testRangeReadable() throws IOException {
+    assertFalse(ZarrArrayHeader.read(new StringReader(ZARRAY.replace("\"compressor\": null",
+        "\"compressor\": {\"id\": \"blosc\"}"))).isRangeReadable());
+    assertFalse(ZarrArrayHeader.read(new StringReader(ZARRAY.replace("\"order\": \"C\"",
+        "\"order\": \"F\""))).isRangeReadable());
+    assertFalse(ZarrArrayHeader.read(new StringReader(ZARRAY.replace("\"compressor\": null",
+        "\"compressor\": null, \"filters\": [{\"id\": \"delta\"}]"))).isRangeReadable());
+  }
+}
@@ -0,0 +1,86 @@
+package test.loci.formats.utests;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import loci.formats.in.ZarrKeyOrdering;
+
+/**
+ * Tests the functionality of ZarrKeyOrdering
+ */
+public class ZarrKeyOrderingTest {
+
+  private List<String> unordered = Arrays.asList(
+      "A/10", "B", "A/2", "A", "A/1/0", "A/1", "A/b", "A/-3", "A/a", "A/20/1", "A/3");
+  private List<String> expected = Arrays.asList(
+      "A", "B", "A/-3", "A/1", "A/2", "A/3", "A/10", "A/a", "A/b", "A/1/0", "A/20/1");
+
+  @Test
+  public void testSort() {
+    assertEquals(expected, ZarrKeyOrdering.sort(unordered));
+  }
+
+  @Test
+  public void testMatchesComparator() {
+    List<String> sorted = new ArrayList<String>(unordered);
+    Collections.sort(sorted, ZarrKeyOrdering.KEY_COMPARATOR);
+    assertEquals(expected, sorted);
+  }
+
+  @Test
+  public void testIncrementalAdd() {
+    ZarrKeyOrdering ordering = new ZarrKeyOrdering(unordered.subList(0, 6));
+    for (String key : unordered.subList(6, unordered.size())) {
+      ordering.add(key);
+    }
+    assertEquals(expected, ordering.getPaths());
+    assertEquals(5, ordering.add("A/2/"));
+    assertEquals("A/2/", ordering.get(5));
+  }
+
+  @Test
+  public void testSortKey() {
+    ZarrKeyOrdering.SortKey key = ZarrKeyOrdering.SortKey.of("B/12/field");
+    assertEquals(3, key.getPartCount());
+    assertTrue(key.isInteger(1));
+    assertTrue(!key.isInteger(2));
+    assertEquals(0, key.compareTo(ZarrKeyOrdering.SortKey.of("B/012/field")));
+    assertEquals(1, ZarrKeyOrdering.SortKey.of("").getPartCount());
+  }
+}
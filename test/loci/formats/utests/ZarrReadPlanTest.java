@@ -0,0 +1,159 @@
+package test.loci.formats.utests;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.testng.annotations.Test;
+
+import com.bc.zarr.ArrayParams;
+import com.bc.zarr.CompressorFactory;
+import com.bc.zarr.DataType;
+import com.bc.zarr.ZarrArray;
+
+import loci.formats.services.JZarrServiceImpl;
+import loci.formats.services.ZarrReadPlan;
+
+/**
+ * Tests the chunk sets computed for batches of regions and reading them from an array
+ */
+public class ZarrReadPlanTest {
+
+  @Test
+  public void testOverlappingTilesShareChunks() {
+    ZarrReadPlan plan = new ZarrReadPlan(new int[] {1, 1, 1, 100, 100}, new int[] {1, 1, 1, 32, 32});
+    // Four tiles of 48 pixels overlapping the central chunks
+    for (int y = 0; y < 96; y += 48) {
+      for (int x = 0; x < 96; x += 48) {
+        plan.addRegion(new int[] {1, 1, 1, 48, 48}, new int[] {0, 0, 0, y, x});
+      }
+    }
+    assertEquals(4, plan.getRegionCount());
+    assertEquals(9, plan.getChunkCount());
+    assertEquals(16, plan.getUnplannedChunkCount());
+    ZarrReadPlan.PlannedChunk center = null;
+    for (ZarrReadPlan.PlannedChunk chunk : plan.getPlannedChunks()) {
+      if (Arrays.equals(new int[] {0, 0, 0, 1, 1}, chunk.getIndex())) {
+        center = chunk;
+      }
+    }
+    assertEquals(Arrays.asList(0, 1, 2, 3), center.getRegions());
+    assertTrue(Arrays.equals(new int[] {0, 0, 0, 32, 32}, center.getOrigin()));
+  }
+
+  @Test
+  public void testChunkOrderAcrossPlanes() {
+    ZarrReadPlan plan = new ZarrReadPlan(new int[] {2, 3, 64}, new int[] {1, 2, 32});
+    plan.addRegion(new int[] {1, 1, 64}, new int[] {1, 2, 0});
+    plan.addRegion(new int[] {1, 3, 10}, new int[] {0, 0, 40});
+    plan.addRegion(new int[] {1, 1, 64}, new int[] {0, 1, 0});
+    List<String> indices = new ArrayList<String>();
+    for (ZarrReadPlan.PlannedChunk chunk : plan.getPlannedChunks()) {
+      indices.add(Arrays.toString(chunk.getIndex()));
+    }
+    assertEquals(Arrays.asList("[0, 0, 0]", "[0, 0, 1]", "[0, 1, 1]", "[1, 1, 0]", "[1, 1, 1]"), indices);
+    List<ZarrReadPlan.PlannedChunk> chunks = new ArrayList<ZarrReadPlan.PlannedChunk>(plan.getPlannedChunks());
+    assertTrue(Arrays.equals(new int[] {1, 2, 32}, chunks.get(0).getShape()));
+    // Chunks on the edge of the array are clipped
+    assertTrue(Arrays.equals(new int[] {1, 1, 32}, chunks.get(3).getShape()));
+    assertEquals(Arrays.asList(1, 2), chunks.get(1).getRegions());
+    assertEquals(30, plan.getElementCount(1));
+  }
+
+  @Test
+  public void testPlannedTilesMatchRegionReads() throws Exception {
+    // Two channels of 100 x 90 in 32 x 32 chunks, the last row and column of chunks are clipped
+    int[] arrayShape = {1, 2, 1, 100, 90};
+    int[] chunks = {1, 1, 1, 32, 32};
+    Path directory = Files.createTempDirectory("zarr-plan");
+    String arrayPath = directory.resolve("0").toString();
+    ArrayParams params = new ArrayParams()
+        .shape(arrayShape)
+        .chunks(chunks)
+        .dataType(DataType.i4)
+        .compressor(CompressorFactory.create("null"));
+    ZarrArray array = ZarrArray.create(arrayPath, params);
+    int[] data = new int[2 * 100 * 90];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = i;
+    }
+    array.write(data, arrayShape, new int[5]);
+
+    ZarrReadPlan plan = new ZarrReadPlan(arrayShape, chunks);
+    List<int[]> shapes = new ArrayList<int[]>();
+    List<int[]> offsets = new ArrayList<int[]>();
+    // Overlapping tiles reaching the bottom and right edges of both channels, and a tile within the edge chunk
+    for (int c = 0; c < 2; c++) {
+      for (int y : new int[] {0, 30, 52}) {
+        for (int x : new int[] {0, 30, 42}) {
+          shapes.add(new int[] {1, 1, 1, 48, 48});
+          offsets.add(new int[] {0, c, 0, y, x});
+        }
+      }
+      shapes.add(new int[] {1, 1, 1, 3, 5});
+      offsets.add(new int[] {0, c, 0, 97, 85});
+    }
+    for (int i = 0; i < shapes.size(); i++) {
+      plan.addRegion(shapes.get(i), offsets.get(i));
+    }
+
+    JZarrServiceImpl service = new JZarrServiceImpl(null);
+    try {
+      service.open(arrayPath);
+      Object[] regions = service.readBytes(plan);
+      assertEquals(shapes.size(), regions.length);
+      for (int i = 0; i < shapes.size(); i++) {
+        int[] expected = (int[]) service.readBytes(shapes.get(i), offsets.get(i));
+        assertTrue("Region " + i, Arrays.equals(expected, (int[]) regions[i]));
+        int[] offset = offsets.get(i);
+        assertEquals((offset[1] * 100 + offset[3]) * 90 + offset[4], expected[0]);
+      }
+    }
+    finally {
+      service.close();
+      try (Stream<Path> paths = Files.walk(directory)) {
+        paths.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+      }
+    }
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testRegionOutsideArray() {
+    ZarrReadPlan plan = new ZarrReadPlan(new int[] {10, 10}, new int[] {5, 5});
+    plan.addRegion(new int[] {5, 6}, new int[] {5, 5});
+  }
+}
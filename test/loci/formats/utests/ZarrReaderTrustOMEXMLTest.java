@@ -0,0 +1,171 @@
+package test.loci.formats.utests;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.mockito.Mockito;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import loci.common.Location;
+import loci.formats.FormatTools;
+import loci.formats.in.DynamicMetadataOptions;
+import loci.formats.in.ZarrReader;
+import loci.formats.services.ZarrArrayHeader;
+import loci.formats.services.ZarrService;
+
+/**
+ * Tests initializing ZarrReader from a trusted OME-XML
+ */
+public class ZarrReaderTrustOMEXMLTest {
+
+  private static final String OME_XML =
+      "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+      "<OME xmlns=\"http://www.openmicroscopy.org/Schemas/OME/2016-06\">" +
+      "<Image ID=\"Image:0\" Name=\"test\">" +
+      "<Pixels ID=\"Pixels:0\" DimensionOrder=\"XYZCT\" Type=\"uint16\" BigEndian=\"false\" " +
+      "SizeX=\"65\" SizeY=\"33\" SizeZ=\"4\" SizeC=\"2\" SizeT=\"1\">" +
+      "<Channel ID=\"Channel:0:0\" SamplesPerPixel=\"1\"/>" +
+      "<Channel ID=\"Channel:0:1\" SamplesPerPixel=\"1\"/>" +
+      "<MetadataOnly/>" +
+      "</Pixels></Image></OME>";
+
+  private ZarrService zarrService;
+  private ZarrReaderMock reader;
+  private File root;
+  private String rootPath;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    root = Files.createTempDirectory("trustTest").resolve("image.zarr").toFile();
+    File omeDir = new File(root, "OME");
+    assertTrue(omeDir.mkdirs());
+    Files.write(new File(omeDir, "METADATA.ome.xml").toPath(), OME_XML.getBytes(StandardCharsets.UTF_8));
+    rootPath = root.getAbsolutePath();
+
+    zarrService = Mockito.mock(ZarrService.class);
+    when(zarrService.getGroupAttr(new Location(rootPath).getCanonicalPath())).thenReturn(getMultiscales());
+
+    reader = new ZarrReaderMock(zarrService);
+    DynamicMetadataOptions options = new DynamicMetadataOptions();
+    options.setBoolean(ZarrReader.TRUST_OME_XML_KEY, true);
+    reader.setMetadataOptions(options);
+  }
+
+  @AfterMethod
+  public void tearDown() throws Exception {
+    reader.close();
+    new File(root, "OME" + File.separator + "METADATA.ome.xml").delete();
+    new File(root, "OME").delete();
+    root.delete();
+    root.getParentFile().delete();
+  }
+
+  @Test
+  public void testMatchingFullResolution() throws Exception {
+    // the second resolution rounds up, which cannot be inferred from the OME-XML sizes alone
+    mockArray("0", new int[] {1, 2, 4, 33, 65}, ">u2");
+    mockArray("1", new int[] {1, 2, 4, 17, 33}, ">u2");
+    reader.setId(rootPath);
+
+    assertEquals(1, reader.getSeriesCount());
+    assertEquals(2, reader.getResolutionCount());
+    assertEquals(65, reader.getSizeX());
+    assertEquals(33, reader.getSizeY());
+    assertEquals(4, reader.getSizeZ());
+    assertEquals(2, reader.getSizeC());
+    assertEquals(FormatTools.UINT16, reader.getPixelType());
+    assertFalse(reader.isLittleEndian());
+
+    reader.setResolution(1);
+    assertEquals(33, reader.getSizeX());
+    assertEquals(17, reader.getSizeY());
+    assertEquals(4, reader.getSizeZ());
+    assertEquals(8, reader.getImageCount());
+    assertFalse(reader.isLittleEndian());
+
+    // the metadata is final without opening any array
+    Mockito.verify(zarrService, Mockito.never()).getShape();
+  }
+
+  @Test
+  public void testMismatchingFullResolution() throws Exception {
+    int[] fullShape = {1, 2, 4, 33, 70};
+    mockArray("0", fullShape, "<u2");
+    mockArray("1", new int[] {1, 2, 4, 17, 35}, "<u2");
+    when(zarrService.getShape()).thenReturn(fullShape);
+    when(zarrService.getPixelType()).thenReturn(FormatTools.UINT16);
+    when(zarrService.isLittleEndian()).thenReturn(true);
+    reader.setId(rootPath);
+
+    // the metadata is read from the Zarr groups instead of the OME-XML
+    assertEquals(2, reader.getResolutionCount());
+    assertEquals(70, reader.getSizeX());
+    assertEquals(33, reader.getSizeY());
+    assertTrue(reader.isLittleEndian());
+  }
+
+  private void mockArray(String path, int[] shape, String dtype) throws Exception {
+    String arrayPath = new Location(rootPath + File.separator + path).getCanonicalPath();
+    ZarrArrayHeader header = new ZarrArrayHeader(shape, new int[] {1, 1, 1, 16, 16}, dtype, "/", "C", null);
+    when(zarrService.getArrayHeader(arrayPath)).thenReturn(header);
+  }
+
+  private static Map<String, Object> getMultiscales() {
+    List<Object> datasets = new ArrayList<Object>();
+    for (String path : new String[] {"0", "1"}) {
+      Map<String, Object> dataset = new HashMap<String, Object>();
+      dataset.put("path", path);
+      datasets.add(dataset);
+    }
+    Map<String, Object> multiscale = new HashMap<String, Object>();
+    multiscale.put("datasets", datasets);
+    multiscale.put("axes", Arrays.asList("t", "c", "z", "y", "x"));
+    List<Object> multiscales = new ArrayList<Object>();
+    multiscales.add(multiscale);
+    Map<String, Object> attr = new HashMap<String, Object>();
+    attr.put("multiscales", multiscales);
+    return attr;
+  }
+}
@@ -0,0 +1,187 @@
+package test.loci.formats.utests;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+import static org.testng.AssertJUnit.assertEquals;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.mockito.Mockito;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import loci.common.Location;
+import loci.formats.in.DynamicMetadataOptions;
+import loci.formats.in.ZarrReader;
+import loci.formats.services.ZarrService;
+
+/**
+ * Tests listing the wells and fields of a plate with and without trusting the plate metadata
+ */
+public class ZarrReaderTrustPlateTest {
+
+  private ZarrService zarrService;
+  private ZarrReaderMock reader;
+  private File root;
+  private String rootPath;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    root = Files.createTempDirectory("plateTest").resolve("plate.zarr").toFile();
+    root.mkdirs();
+    rootPath = new Location(root.getAbsolutePath()).getCanonicalPath();
+
+    zarrService = Mockito.mock(ZarrService.class);
+    when(zarrService.getShape()).thenReturn(new int[] {1, 1, 1, 16, 16});
+    when(zarrService.getPixelType()).thenReturn(0);
+    // The well lists two images although the plate declares three fields
+    when(zarrService.getGroupAttr(rootPath + File.separator + "A" + File.separator + "1"))
+        .thenReturn(getWell("0", "1"));
+    for (String field : new String[] {"0", "1"}) {
+      when(zarrService.getGroupAttr(rootPath + File.separator + "A" + File.separator + "1" + File.separator + field))
+          .thenReturn(getMultiscales());
+    }
+    reader = new ZarrReaderMock(zarrService);
+  }
+
+  @AfterMethod
+  public void tearDown() throws Exception {
+    reader.close();
+    root.delete();
+    root.getParentFile().delete();
+  }
+
+  @Test
+  public void testTrustedPlateUsesWellImages() throws Exception {
+    Map<String, Object> malformed = new HashMap<String, Object>();
+    malformed.put("path", "B");
+    malformed.put("rowIndex", 1);
+    malformed.put("columnIndex", 0);
+    when(zarrService.getGroupAttr(rootPath)).thenReturn(getPlate(malformed));
+    when(zarrService.getGroupAttr(rootPath + File.separator + "B")).thenReturn(new HashMap<String, Object>());
+    DynamicMetadataOptions options = new DynamicMetadataOptions();
+    options.setBoolean(ZarrReader.TRUST_PLATE_METADATA_KEY, true);
+    reader.setMetadataOptions(options);
+    reader.setId(rootPath);
+
+    // Fields come from well.images rather than plate.field_count, the well without a row is skipped
+    assertEquals(2, reader.getSeriesCount());
+    Mockito.verify(zarrService, Mockito.never()).filterExisting(anyString(), anyCollection());
+    Mockito.verify(zarrService, Mockito.never()).getGroupKeys(anyString());
+    Mockito.verify(zarrService, Mockito.never()).getArrayKeys(anyString());
+  }
+
+  @Test
+  public void testUntrustedPlateFiltersExisting() throws Exception {
+    when(zarrService.getGroupAttr(rootPath)).thenReturn(getPlate());
+    String field = "A" + File.separator + "1" + File.separator;
+    Set<String> existing = new HashSet<String>(Arrays.asList("A", "A" + File.separator + "1",
+        field + "0", field + "1", field + "0" + File.separator + "0", field + "1" + File.separator + "0"));
+    when(zarrService.filterExisting(any(), any())).thenAnswer(invocation -> {
+      Set<String> found = new HashSet<String>((Collection<String>) invocation.getArgument(1));
+      found.retainAll(existing);
+      return found;
+    });
+    reader.setId(rootPath);
+
+    // The third field declared by plate.field_count does not exist
+    assertEquals(2, reader.getSeriesCount());
+    Mockito.verify(zarrService, Mockito.times(2)).filterExisting(anyString(), anyCollection());
+  }
+
+  @SafeVarargs
+  private static Map<String, Object> getPlate(Map<String, Object>... extraWells) {
+    Map<String, Object> well = new HashMap<String, Object>();
+    well.put("path", "A/1");
+    well.put("rowIndex", 0);
+    well.put("columnIndex", 0);
+    List<Object> wells = new ArrayList<Object>();
+    wells.add(well);
+    wells.addAll(Arrays.asList(extraWells));
+    List<Object> rows = new ArrayList<Object>();
+    for (String name : new String[] {"A", "B"}) {
+      Map<String, Object> row = new HashMap<String, Object>();
+      row.put("name", name);
+      rows.add(row);
+    }
+    Map<String, Object> column = new HashMap<String, Object>();
+    column.put("name", "1");
+    Map<String, Object> plate = new HashMap<String, Object>();
+    plate.put("name", "plate");
+    plate.put("rows", new ArrayList<Object>(rows.subList(0, 1 + extraWells.length)));
+    plate.put("columns", new ArrayList<Object>(Arrays.asList(column)));
+    plate.put("wells", new ArrayList<Object>(wells));
+    plate.put("field_count", 3);
+    Map<String, Object> attr = new HashMap<String, Object>();
+    attr.put("plate", plate);
+    return attr;
+  }
+
+  private static Map<String, Object> getWell(String... paths) {
+    List<Object> images = new ArrayList<Object>();
+    for (String path : paths) {
+      Map<String, Object> image = new HashMap<String, Object>();
+      image.put("path", path);
+      images.add(image);
+    }
+    Map<String, Object> well = new HashMap<String, Object>();
+    well.put("images", new ArrayList<Object>(images));
+    Map<String, Object> attr = new HashMap<String, Object>();
+    attr.put("well", well);
+    return attr;
+  }
+
+  private static Map<String, Object> getMultiscales() {
+    Map<String, Object> dataset = new HashMap<String, Object>();
+    dataset.put("path", "0");
+    Map<String, Object> multiscale = new HashMap<String, Object>();
+    multiscale.put("datasets", new ArrayList<Object>(Arrays.asList(dataset)));
+    multiscale.put("axes", Arrays.asList("t", "c", "z", "y", "x"));
+    List<Object> multiscales = new ArrayList<Object>();
+    multiscales.add(multiscale);
+    Map<String, Object> attr = new HashMap<String, Object>();
+    attr.put("multiscales", multiscales);
+    return attr;
+  }
+}
@@ -0,0 +1,128 @@
+package test.loci.formats.utests;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import loci.formats.in.ZarrSeriesIndex;
+
+/**
+ * Tests the functionality of ZarrSeriesIndex
+ */
+public class ZarrSeriesIndexTest {
+
+  private ZarrSeriesIndex index;
+  private List<String> axes = Arrays.asList("t", "c", "z", "y", "x");
+
+  @BeforeMethod
+  public void setUp() {
+    index = new ZarrSeriesIndex();
+    for (int field = 0; field < 40; field++) {
+      index.startMultiscale();
+      for (int r = 0; r < 3; r++) {
+        index.addResolution("A/1/" + field + "/" + r, r, 3, new ArrayList<String>(axes));
+      }
+    }
+    index.startMultiscale();
+    index.addResolution("A/1/0/labels/0/0", 0, 1, axes);
+  }
+
+  @Test
+  public void testResolutions() {
+    assertEquals(121, index.size());
+    assertEquals(41, index.getMultiscaleCount());
+    assertEquals(3, index.getResolutionCount("A/1/7/0", 1));
+    assertEquals(1, index.getResolutionCount("A/1/7/1", 1));
+    assertEquals(2, index.getResolutionIndex("A/1/7/2", 0));
+    assertEquals(0, index.getResolutionIndex("missing", 0));
+    assertTrue(index.isMultiscaleStart("A/1/39/0"));
+    assertFalse(index.isMultiscaleStart("A/1/39/1"));
+    assertFalse(index.contains("A/1/40/0"));
+  }
+
+  @Test
+  public void testSharedDimensions() {
+    assertEquals(axes, index.getDimensions("A/1/0/0"));
+    assertSame(index.getDimensions("A/1/0/0"), index.getDimensions("A/1/39/2"));
+    assertEquals("XYZCT", index.getDimensionOrder("A/1/5/1"));
+    assertNull(index.getDimensions("missing"));
+  }
+
+  @Test
+  public void testOrderArrayPaths() {
+    List<String> arrayPaths = new ArrayList<String>();
+    arrayPaths.add("other");
+    for (int field = 39; field >= 0; field--) {
+      for (int r = 2; r >= 0; r--) {
+        arrayPaths.add("A/1/" + field + "/" + r);
+      }
+    }
+    index.orderArrayPaths(arrayPaths, false);
+    assertEquals(121, arrayPaths.size());
+    assertEquals("other", arrayPaths.get(0));
+    assertEquals("A/1/0/0", arrayPaths.get(1));
+    assertEquals("A/1/0/2", arrayPaths.get(3));
+    assertEquals("A/1/39/2", arrayPaths.get(120));
+
+    index.setCoreIndexes(arrayPaths);
+    assertEquals(0, index.getCoreIndex("other"));
+    assertEquals(4, index.getCoreIndex("A/1/1/0"));
+    assertEquals(-1, index.getCoreIndex("A/1/0/labels/0/0"));
+  }
+
+  @Test
+  public void testOrderArrayPathsWithLabels() {
+    List<String> arrayPaths = new ArrayList<String>();
+    index.orderArrayPaths(arrayPaths, true);
+    assertEquals(121, arrayPaths.size());
+    assertEquals("A/1/0/labels/0/0", arrayPaths.get(120));
+  }
+
+  @Test
+  public void testClear() {
+    index.clear();
+    assertEquals(0, index.size());
+    assertFalse(index.contains("A/1/0/0"));
+    index.startMultiscale();
+    index.addResolution("0", 0, 1, axes);
+    assertEquals(1, index.getResolutionCount("0", 5));
+  }
+}
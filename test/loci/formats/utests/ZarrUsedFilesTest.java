@@ -0,0 +1,153 @@
+package test.loci.formats.utests;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import loci.formats.in.ZarrUsedFiles;
+
+/**
+ * Tests the functionality of ZarrUsedFiles
+ */
+public class ZarrUsedFilesTest {
+
+  private Path root;
+  private List<String> arrayPaths = Arrays.asList("0/0", "0/1", "0/2", "0/labels/cells/0");
+
+  @BeforeClass
+  public void setUp() throws IOException {
+    root = Files.createTempDirectory("usedFiles").resolve("test.zarr");
+    writeFile(root.resolve(".zgroup"));
+    writeFile(root.resolve(".zattrs"));
+    writeFile(root.resolve("OME/.zgroup"));
+    writeFile(root.resolve("OME/METADATA.ome.xml"));
+    writeFile(root.resolve("0/.zgroup"));
+    writeFile(root.resolve("0/.zattrs"));
+    writeFile(root.resolve("0/labels/.zgroup"));
+    writeFile(root.resolve("0/labels/cells/.zgroup"));
+    writeArray("0/0", "[1, 2, 1, 64, 64]", "[1, 1, 1, 32, 32]", "/");
+    writeArray("0/1", "[1, 2, 1, 32, 32]", "[1, 1, 1, 32, 20]", ".");
+    // Chunks only holding the fill value are not written
+    writeArray("0/2", "[1, 1, 1, 64, 64]", "[1, 1, 1, 32, 32]", ".");
+    Files.delete(root.resolve("0/2/0.0.0.1.1"));
+    writeArray("0/labels/cells/0", "[1, 1, 1, 64, 64]", "[1, 1, 1, 64, 64]", ".");
+  }
+
+  @AfterClass
+  public void tearDown() throws IOException {
+    try (Stream<Path> paths = Files.walk(root.getParent())) {
+      paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+  }
+
+  @Test
+  public void testMetadataMatchesWalk() throws IOException {
+    for (boolean skipPixels : new boolean[] {true, false}) {
+      for (boolean includeLabels : new boolean[] {true, false}) {
+        Set<Path> walked;
+        try (Stream<Path> paths = ZarrUsedFiles.walk(root, skipPixels, includeLabels)) {
+          walked = paths.collect(Collectors.toCollection(TreeSet::new));
+        }
+        Set<Path> derived = ZarrUsedFiles.fromMetadata(root, arrayPaths, skipPixels, includeLabels)
+            .collect(Collectors.toCollection(TreeSet::new));
+        assertEquals(walked, derived);
+        Set<Path> parallel = new TreeSet<Path>(
+            ZarrUsedFiles.parallelWalk(root, skipPixels, includeLabels, 4));
+        assertEquals(walked, parallel);
+      }
+    }
+  }
+
+  @Test
+  public void testChunkFiles() {
+    Set<Path> derived = ZarrUsedFiles.fromMetadata(root, arrayPaths, false, false)
+        .collect(Collectors.toCollection(TreeSet::new));
+    assertTrue(derived.contains(root.resolve("0/0/0/1/0/1/1")));
+    assertTrue(derived.contains(root.resolve("0/1/0.1.0.0.1")));
+    assertTrue(derived.contains(root.resolve("0/2/0.0.0.1.0")));
+    assertTrue(!derived.contains(root.resolve("0/2/0.0.0.1.1")));
+    assertTrue(!derived.contains(root.resolve("0/labels/cells/0/0.0.0.0.0")));
+  }
+
+  private void writeArray(String path, String shape, String chunks, String separator)
+      throws IOException {
+    Path array = root.resolve(path);
+    String header = "{\"shape\": " + shape + ", \"chunks\": " + chunks +
+        ", \"dtype\": \"<u2\", \"compressor\": null, \"fill_value\": 0, \"order\": \"C\"," +
+        " \"filters\": null, \"zarr_format\": 2, \"dimension_separator\": \"" + separator + "\"}";
+    Files.createDirectories(array);
+    Files.write(array.resolve(".zarray"), header.getBytes(StandardCharsets.UTF_8));
+    writeFile(array.resolve(".zattrs"));
+    String[] shapeValues = shape.replaceAll("[\\[\\] ]", "").split(",");
+    String[] chunkValues = chunks.replaceAll("[\\[\\] ]", "").split(",");
+    int[] grid = new int[shapeValues.length];
+    int count = 1;
+    for (int d = 0; d < grid.length; d++) {
+      int size = Integer.parseInt(shapeValues[d]);
+      int chunk = Integer.parseInt(chunkValues[d]);
+      grid[d] = (size + chunk - 1) / chunk;
+      count *= grid[d];
+    }
+    for (int i = 0; i < count; i++) {
+      StringBuilder key = new StringBuilder();
+      int remainder = i;
+      for (int d = grid.length - 1; d >= 0; d--) {
+        key.insert(0, remainder % grid[d]);
+        if (d > 0) {
+          key.insert(0, separator);
+        }
+        remainder /= grid[d];
+      }
+      writeFile(array.resolve(key.toString()));
+    }
+  }
+
+  private void writeFile(Path path) throws IOException {
+    Files.createDirectories(path.getParent());
+    Files.write(path, "{}".getBytes(StandardCharsets.UTF_8));
+  }
+}
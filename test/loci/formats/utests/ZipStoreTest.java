@@ -0,0 +1,191 @@
+package test.loci.formats.utests;
+
+/*-
+ * #%L
+ * Implementation of Bio-Formats readers for the next-generation file formats
+ * %%
+ * Copyright (C) 2020 - 2022 Open Microscopy Environment
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.testng.annotations.Test;
+
+import com.bc.zarr.storage.Store;
+
+import loci.formats.StoreProviders;
+import loci.formats.ZipStore;
+
+/**
+ * Tests reading zipped Zarr datasets with ZipStore
+ */
+public class ZipStoreTest {
+
+  private static final String CHUNK = "0123456789abcdef0123456789abcdef";
+
+  private static Path createZip(String directory, boolean deflate, int extraChunks) throws IOException {
+    Path zip = Files.createTempFile("image", ZipStore.ZIPPED_SUFFIX);
+    try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+      if (!directory.isEmpty()) {
+        out.putNextEntry(new ZipEntry(directory));
+        out.closeEntry();
+      }
+      write(out, directory + ".zgroup", "{\"zarr_format\":2}", deflate);
+      write(out, directory + "0/.zgroup", "{\"zarr_format\":2}", deflate);
+      write(out, directory + "0/0/.zarray", "{}", deflate);
+      write(out, directory + "0/0/0.0", CHUNK, deflate);
+      write(out, directory + "OME/METADATA.ome.xml", "<OME/>", deflate);
+      for (int i = 0; i < extraChunks; i++) {
+        write(out, directory + "0/0/1." + i, String.valueOf(i), false);
+      }
+    }
+    return zip;
+  }
+
+  private static void write(ZipOutputStream out, String name, String content, boolean deflate) throws IOException {
+    byte[] data = content.getBytes(StandardCharsets.UTF_8);
+    ZipEntry entry = new ZipEntry(name);
+    if (!deflate) {
+      CRC32 crc = new CRC32();
+      crc.update(data);
+      entry.setMethod(ZipEntry.STORED);
+      entry.setSize(data.length);
+      entry.setCompressedSize(data.length);
+      entry.setCrc(crc.getValue());
+    }
+    out.putNextEntry(entry);
+    out.write(data);
+    out.closeEntry();
+  }
+
+  private static String read(Store store, String key) throws IOException {
+    try (InputStream in = store.getInputStream(key)) {
+      if (in == null) {
+        return null;
+      }
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[64];
+      int n;
+      while ((n = in.read(buffer)) != -1) {
+        out.write(buffer, 0, n);
+      }
+      return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+  }
+
+  @Test
+  public void testStoredEntries() throws IOException {
+    Path zip = createZip("", false, 0);
+    try (ZipStore store = new ZipStore(zip)) {
+      assertEquals("", store.getPrefix());
+      assertEquals(5, store.getEntryCount());
+      assertEquals(CHUNK, read(store, "0/0/0.0"));
+      assertEquals(CHUNK.length(), store.getSize("/0/0/0.0"));
+      assertNull(read(store, "0/0/1.0"));
+      assertEquals(new TreeSet<String>(Arrays.asList("0/0")), store.getArrayKeys());
+      assertEquals(new TreeSet<String>(Arrays.asList("0")), store.getGroupKeys());
+      assertEquals(new TreeSet<String>(Arrays.asList(".zarray", "0.0")),
+          store.getRelativeLeafKeys("0/0").collect(Collectors.toCollection(TreeSet::new)));
+    }
+    finally {
+      Files.delete(zip);
+    }
+  }
+
+  @Test
+  public void testDeflatedEntriesInDirectory() throws IOException {
+    Path zip = createZip("image.zarr/", true, 0);
+    try (ZipStore store = new ZipStore(zip)) {
+      assertEquals("image.zarr/", store.getPrefix());
+      assertEquals(CHUNK, read(store, "0/0/0.0"));
+      assertEquals("<OME/>", read(store, "OME/METADATA.ome.xml"));
+      assertEquals(new TreeSet<String>(Arrays.asList("0/0/.zarray")), store.getKeysEndingWith(".zarray"));
+    }
+    finally {
+      Files.delete(zip);
+    }
+  }
+
+  @Test
+  public void testZip64() throws IOException {
+    Path zip = createZip("", false, 70000);
+    try (ZipStore store = new ZipStore(zip)) {
+      assertEquals(70005, store.getEntryCount());
+      assertEquals("69999", read(store, "0/0/1.69999"));
+      assertEquals(CHUNK, read(store, "0/0/0.0"));
+    }
+    finally {
+      Files.delete(zip);
+    }
+  }
+
+  @Test
+  public void testZipPath() throws IOException {
+    assertEquals("/data/image.zarr.zip", ZipStore.getZipPath("/data/image.zarr.zip/0/1"));
+    assertEquals("/data/image.zarr.zip", ZipStore.getZipPath("/data/image.zarr.zip"));
+    assertNull(ZipStore.getZipPath("/data/image.zarr/0"));
+    assertNull(ZipStore.getZipPath("/data/image.zarr.zipped"));
+
+    Path zip = createZip("", false, 0);
+    try {
+      Store store = StoreProviders.open(zip.toString(), null);
+      assertTrue(store instanceof ZipStore);
+      ((ZipStore) store).close();
+      store = StoreProviders.open("zip:" + zip.toUri(), null);
+      assertEquals(CHUNK, read(store, "0/0/0.0"));
+      ((ZipStore) store).close();
+    }
+    finally {
+      Files.delete(zip);
+    }
+  }
+
+  @Test(expectedExceptions = IOException.class)
+  public void testReadOnly() throws IOException {
+    Path zip = createZip("", false, 0);
+    try (ZipStore store = new ZipStore(zip); OutputStream out = store.getOutputStream("0/0/1.0")) {
+      out.write(0);
+    }
+    finally {
+      Files.delete(zip);
+    }
+  }
+}